@@ -29,7 +29,9 @@
 import com.sk89q.worldedit.regions.Region;
 import com.sk89q.worldedit.util.TreeGenerator;
 import com.sk89q.worldedit.world.biome.BaseBiome;
+import com.sk89q.worldedit.world.chunk.SectionBuffer;
 import com.sk89q.worldedit.world.registry.WorldData;
+import org.bukkit.Chunk;
 import org.bukkit.Effect;
 import org.bukkit.Material;
 import org.bukkit.TreeType;
@@ -541,6 +543,29 @@ public boolean setBlock(Vector position, BaseBlock block, boolean notifyAndLight
         }
     }
 
+    @SuppressWarnings("deprecation")
+    @Override
+    public int setBlocks(BlockVector2D chunk, SectionBuffer section, boolean notifyAndLight) throws WorldEditException {
+        BukkitImplAdapter adapter = WorldEditPlugin.getInstance().getBukkitImplAdapter();
+        World world = getWorld();
+        if (adapter != null) {
+            return adapter.setBlocks(world, chunk.getBlockX(), chunk.getBlockZ(), section, notifyAndLight);
+        } else {
+            // Look the chunk up once for the whole section
+            Chunk bukkitChunk = world.getChunkAt(chunk.getBlockX(), chunk.getBlockZ());
+            int baseY = section.getSectionY() << 4;
+            int changed = 0;
+            for (int i = 0; i < section.size(); i++) {
+                BaseBlock block = section.getBlock(i);
+                Block bukkitBlock = bukkitChunk.getBlock(section.getX(i), baseY + section.getY(i), section.getZ(i));
+                if (bukkitBlock.setTypeIdAndData(block.getType(), (byte) block.getData(), notifyAndLight)) {
+                    changed++;
+                }
+            }
+            return changed;
+        }
+    }
+
     @SuppressWarnings("deprecation")
     @Override
     public BaseBlock getLazyBlock(Vector position) {
@@ -21,8 +21,10 @@
 
 import com.sk89q.worldedit.blocks.BaseBlock;
 import com.sk89q.worldedit.entity.BaseEntity;
+import com.sk89q.worldedit.world.chunk.SectionBuffer;
 import org.bukkit.Location;
 import org.bukkit.Material;
+import org.bukkit.World;
 import org.bukkit.block.Biome;
 import org.bukkit.entity.Entity;
 
@@ -91,6 +93,35 @@ public interface BukkitImplAdapter {
      */
     boolean setBlock(Location location, BaseBlock state, boolean notifyAndLight);
 
+    /**
+     * Set the blocks of one 16x16x16 section of a chunk.
+     *
+     * <p>Adapters that can write to the chunk directly should override
+     * this method; by default, each block is set with
+     * {@link #setBlock(Location, BaseBlock, boolean)}. Changes must be
+     * applied in the order of the section's changes.</p>
+     *
+     * @param world the world
+     * @param chunkX the chunk X coordinate
+     * @param chunkZ the chunk Z coordinate
+     * @param section the blocks to set
+     * @param notifyAndLight notify and light if set
+     * @return the number of blocks that were likely changed
+     */
+    default int setBlocks(World world, int chunkX, int chunkZ, SectionBuffer section, boolean notifyAndLight) {
+        int baseX = chunkX << 4;
+        int baseY = section.getSectionY() << 4;
+        int baseZ = chunkZ << 4;
+        int changed = 0;
+        for (int i = 0; i < section.size(); i++) {
+            Location location = new Location(world, baseX + section.getX(i), baseY + section.getY(i), baseZ + section.getZ(i));
+            if (setBlock(location, section.getBlock(i), notifyAndLight)) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
     /**
      * Get the state for the given entity.
      *
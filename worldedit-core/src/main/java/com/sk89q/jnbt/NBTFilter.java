@@ -0,0 +1,112 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.jnbt;
+
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Selects the parts of an NBT tree to read with
+ * {@link NBTInputStream#readNamedTag(NBTFilter)}.
+ *
+ * <p>A filter is built from paths of compound keys separated by dots, such
+ * as {@code Level.Sections.Blocks}. Selecting a path selects the whole
+ * subtree below it, along with the compounds leading to it. The elements
+ * of a list are filtered by the list's own filter, so in the example above
+ * every compound in the {@code Sections} list keeps only its
+ * {@code Blocks} tag.</p>
+ */
+public final class NBTFilter {
+
+    /**
+     * A filter that selects everything.
+     */
+    public static final NBTFilter ALL = new NBTFilter(null);
+
+    @Nullable
+    private final Map<String, NBTFilter> children;
+
+    private NBTFilter(@Nullable Map<String, NBTFilter> children) {
+        this.children = children;
+    }
+
+    /**
+     * Create a filter that selects the given paths.
+     *
+     * @param paths a list of dot-separated paths
+     * @return a new filter
+     */
+    public static NBTFilter of(String... paths) {
+        checkNotNull(paths);
+        Map<String, NBTFilter> root = new HashMap<String, NBTFilter>();
+        for (String path : paths) {
+            checkNotNull(path);
+            checkArgument(!path.isEmpty(), "empty path");
+            add(root, path.split("\\."), 0);
+        }
+        return new NBTFilter(root);
+    }
+
+    /**
+     * Add a path to a tree of filters.
+     *
+     * @param children the children of the node to add to
+     * @param names the names of the path
+     * @param index the index of the name to add to {@code children}
+     */
+    private static void add(Map<String, NBTFilter> children, String[] names, int index) {
+        String name = names[index];
+        NBTFilter existing = children.get(name);
+        if (index == names.length - 1) {
+            children.put(name, ALL);
+        } else if (existing == null) {
+            Map<String, NBTFilter> grandchildren = new HashMap<String, NBTFilter>();
+            children.put(name, new NBTFilter(grandchildren));
+            add(grandchildren, names, index + 1);
+        } else if (existing.children != null) {
+            add(existing.children, names, index + 1);
+        }
+    }
+
+    /**
+     * Returns whether this filter selects everything below it.
+     *
+     * @return true if nothing is filtered
+     */
+    public boolean isAll() {
+        return children == null;
+    }
+
+    /**
+     * Get the filter for the child of a compound with the given name.
+     *
+     * @param name the name of the child
+     * @return the child's filter, or null if the child is not selected
+     */
+    @Nullable
+    public NBTFilter getChild(String name) {
+        return children == null ? ALL : children.get(name);
+    }
+
+}
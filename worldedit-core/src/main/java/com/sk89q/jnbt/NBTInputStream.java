@@ -21,6 +21,7 @@
 
 import java.io.Closeable;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -59,30 +60,44 @@ public NBTInputStream(InputStream is) throws IOException {
      * @throws IOException if an I/O error occurs.
      */
     public NamedTag readNamedTag() throws IOException {
-        return readNamedTag(0);
+        return readNamedTag(NBTFilter.ALL);
     }
 
     /**
-     * Reads an NBT from the stream.
-     * 
-     * @param depth the depth of this tag
+     * Reads an NBT tag from the stream, keeping only the parts selected by
+     * the given filter.
+     *
+     * <p>Tags that are not selected are skipped over without being
+     * decoded.</p>
+     *
+     * @param filter the filter applied to the root tag's payload
      * @return The tag that was read.
      * @throws IOException if an I/O error occurs.
      */
-    private NamedTag readNamedTag(int depth) throws IOException {
+    public NamedTag readNamedTag(NBTFilter filter) throws IOException {
         int type = is.readByte() & 0xFF;
 
         String name;
         if (type != NBTConstants.TYPE_END) {
-            int nameLength = is.readShort() & 0xFFFF;
-            byte[] nameBytes = new byte[nameLength];
-            is.readFully(nameBytes);
-            name = new String(nameBytes, NBTConstants.CHARSET);
+            name = readName();
         } else {
             name = "";
         }
 
-        return new NamedTag(name, readTagPayload(type, depth));
+        return new NamedTag(name, readTagPayload(type, 0, filter));
+    }
+
+    /**
+     * Reads the name of a tag.
+     *
+     * @return the name
+     * @throws IOException if an I/O error occurs.
+     */
+    private String readName() throws IOException {
+        int nameLength = is.readShort() & 0xFFFF;
+        byte[] nameBytes = new byte[nameLength];
+        is.readFully(nameBytes);
+        return new String(nameBytes, NBTConstants.CHARSET);
     }
 
     /**
@@ -90,10 +105,11 @@ private NamedTag readNamedTag(int depth) throws IOException {
      * 
      * @param type the type
      * @param depth the depth
+     * @param filter the filter for the children of compounds
      * @return the tag
      * @throws IOException if an I/O error occurs.
      */
-    private Tag readTagPayload(int type, int depth) throws IOException {
+    private Tag readTagPayload(int type, int depth, NBTFilter filter) throws IOException {
         switch (type) {
         case NBTConstants.TYPE_END:
             if (depth == 0) {
@@ -130,7 +146,7 @@ private Tag readTagPayload(int type, int depth) throws IOException {
 
             List<Tag> tagList = new ArrayList<Tag>();
             for (int i = 0; i < length; ++i) {
-                Tag tag = readTagPayload(childType, depth + 1);
+                Tag tag = readTagPayload(childType, depth + 1, filter);
                 if (tag instanceof EndTag) {
                     throw new IOException("TAG_End not permitted in a list.");
                 }
@@ -141,12 +157,17 @@ private Tag readTagPayload(int type, int depth) throws IOException {
         case NBTConstants.TYPE_COMPOUND:
             Map<String, Tag> tagMap = new HashMap<String, Tag>();
             while (true) {
-                NamedTag namedTag = readNamedTag(depth + 1);
-                Tag tag = namedTag.getTag();
-                if (tag instanceof EndTag) {
+                int entryType = is.readByte() & 0xFF;
+                if (entryType == NBTConstants.TYPE_END) {
                     break;
+                }
+
+                String name = readName();
+                NBTFilter entryFilter = filter.getChild(name);
+                if (entryFilter == null) {
+                    skipTagPayload(entryType);
                 } else {
-                    tagMap.put(namedTag.getName(), tag);
+                    tagMap.put(name, readTagPayload(entryType, depth + 1, entryFilter));
                 }
             }
 
@@ -163,6 +184,101 @@ private Tag readTagPayload(int type, int depth) throws IOException {
         }
     }
 
+    /**
+     * Skips over the payload of a tag given the type, using the encoded
+     * lengths of arrays, strings and lists where possible.
+     *
+     * @param type the type
+     * @throws IOException if an I/O error occurs.
+     */
+    private void skipTagPayload(int type) throws IOException {
+        switch (type) {
+        case NBTConstants.TYPE_COMPOUND:
+            while (true) {
+                int entryType = is.readByte() & 0xFF;
+                if (entryType == NBTConstants.TYPE_END) {
+                    return;
+                }
+                skipFully(is.readShort() & 0xFFFF);
+                skipTagPayload(entryType);
+            }
+        case NBTConstants.TYPE_LIST:
+            int childType = is.readByte();
+            int length = is.readInt();
+            int size = getPayloadSize(childType);
+            if (size >= 0) {
+                skipFully((long) size * length);
+            } else {
+                for (int i = 0; i < length; ++i) {
+                    skipTagPayload(childType);
+                }
+            }
+            return;
+        case NBTConstants.TYPE_BYTE_ARRAY:
+            skipFully(is.readInt());
+            return;
+        case NBTConstants.TYPE_STRING:
+            skipFully(is.readShort() & 0xFFFF);
+            return;
+        case NBTConstants.TYPE_INT_ARRAY:
+            skipFully(4L * is.readInt());
+            return;
+        default:
+            size = getPayloadSize(type);
+            if (size < 0) {
+                throw new IOException("Invalid tag type: " + type + ".");
+            }
+            skipFully(size);
+        }
+    }
+
+    /**
+     * Get the size of the payload of a fixed-size tag type.
+     *
+     * @param type the type
+     * @return the size in bytes, or -1 if the type does not have a fixed size
+     */
+    private static int getPayloadSize(int type) {
+        switch (type) {
+        case NBTConstants.TYPE_END:
+            return 0;
+        case NBTConstants.TYPE_BYTE:
+            return 1;
+        case NBTConstants.TYPE_SHORT:
+            return 2;
+        case NBTConstants.TYPE_INT:
+        case NBTConstants.TYPE_FLOAT:
+            return 4;
+        case NBTConstants.TYPE_LONG:
+        case NBTConstants.TYPE_DOUBLE:
+            return 8;
+        default:
+            return -1;
+        }
+    }
+
+    /**
+     * Skips exactly the given number of bytes.
+     *
+     * @param count the number of bytes
+     * @throws IOException if an I/O error occurs or the stream ends first.
+     */
+    private void skipFully(long count) throws IOException {
+        if (count < 0) {
+            throw new IOException("Negative length: " + count + ".");
+        }
+        while (count > 0) {
+            long skipped = is.skip(count);
+            if (skipped <= 0) {
+                if (is.read() < 0) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
     @Override
     public void close() throws IOException {
         is.close();
@@ -30,7 +30,7 @@
 import com.sk89q.worldedit.extent.MaskingExtent;
 import com.sk89q.worldedit.extent.NullExtent;
 import com.sk89q.worldedit.extent.buffer.ForgetfulExtentBuffer;
-import com.sk89q.worldedit.extent.cache.LastAccessExtentCache;
+import com.sk89q.worldedit.extent.cache.SectionExtentCache;
 import com.sk89q.worldedit.extent.inventory.BlockBag;
 import com.sk89q.worldedit.extent.inventory.BlockBagExtent;
 import com.sk89q.worldedit.extent.reorder.MultiStageReorder;
@@ -39,6 +39,7 @@
 import com.sk89q.worldedit.extent.world.BlockQuirkExtent;
 import com.sk89q.worldedit.extent.world.ChunkLoadingExtent;
 import com.sk89q.worldedit.extent.world.FastModeExtent;
+import com.sk89q.worldedit.extent.world.SnapshotCommitExtent;
 import com.sk89q.worldedit.extent.world.SurvivalModeExtent;
 import com.sk89q.worldedit.function.GroundFunction;
 import com.sk89q.worldedit.function.RegionMaskingFilter;
@@ -54,10 +55,12 @@
 import com.sk89q.worldedit.function.visitor.*;
 import com.sk89q.worldedit.history.UndoContext;
 import com.sk89q.worldedit.history.change.BlockChange;
-import com.sk89q.worldedit.history.changeset.BlockOptimizedHistory;
 import com.sk89q.worldedit.history.changeset.ChangeSet;
+import com.sk89q.worldedit.history.changeset.PackedBlockHistory;
 import com.sk89q.worldedit.internal.expression.Expression;
 import com.sk89q.worldedit.internal.expression.ExpressionException;
+import com.sk89q.worldedit.internal.expression.ParallelEvaluator;
+import com.sk89q.worldedit.internal.expression.runtime.EvaluationException;
 import com.sk89q.worldedit.internal.expression.runtime.RValue;
 import com.sk89q.worldedit.math.MathUtils;
 import com.sk89q.worldedit.math.interpolation.Interpolation;
@@ -68,10 +71,12 @@
 import com.sk89q.worldedit.patterns.Pattern;
 import com.sk89q.worldedit.patterns.SingleBlockPattern;
 import com.sk89q.worldedit.regions.*;
+import com.sk89q.worldedit.regions.iterator.ChunkOrderedIterator;
 import com.sk89q.worldedit.regions.shape.ArbitraryBiomeShape;
 import com.sk89q.worldedit.regions.shape.ArbitraryShape;
 import com.sk89q.worldedit.regions.shape.RegionShape;
 import com.sk89q.worldedit.regions.shape.WorldEditExpressionEnvironment;
+import com.sk89q.worldedit.session.request.Request;
 import com.sk89q.worldedit.util.*;
 import com.sk89q.worldedit.util.collection.DoubleArrayList;
 import com.sk89q.worldedit.util.eventbus.EventBus;
@@ -100,6 +105,7 @@
 public class EditSession implements Extent {
 
     private static final Logger log = Logger.getLogger(EditSession.class.getCanonicalName());
+    private static final int DEFORM_BATCH_SIZE = 4096;
 
     /**
      * Used by {@link #setBlock(Vector, BaseBlock, Stage)} to
@@ -113,26 +119,29 @@ public enum Stage {
 
     @SuppressWarnings("ProtectedField")
     protected final World world;
-    private final ChangeSet changeSet = new BlockOptimizedHistory();
+    private final ChangeSet changeSet = new PackedBlockHistory();
 
     private @Nullable FastModeExtent fastModeExtent;
     private final SurvivalModeExtent survivalExtent;
     private @Nullable ChunkLoadingExtent chunkLoadingExtent;
-    private @Nullable LastAccessExtentCache cacheExtent;
+    private @Nullable SectionExtentCache cacheExtent;
     private @Nullable BlockQuirkExtent quirkExtent;
     private @Nullable DataValidatorExtent validator;
     private final BlockBagExtent blockBagExtent;
+    private @Nullable SnapshotCommitExtent commitExtent;
     private final MultiStageReorder reorderExtent;
     private @Nullable ChangeSetExtent changeSetExtent;
     private final MaskingExtent maskingExtent;
     private final BlockChangeLimiter changeLimiter;
 
+    private final Extent readExtent;
     private final Extent bypassReorderHistory;
     private final Extent bypassHistory;
     private final Extent bypassNone;
 
     @SuppressWarnings("deprecation")
     private Mask oldMask;
+    private long searchMemoryLimit = -1;
 
     /**
      * Create a new instance.
@@ -184,11 +193,18 @@ public EditSession(LocalWorld world, int maxBlocks, @Nullable BlockBag blockBag)
             extent = survivalExtent = new SurvivalModeExtent(extent, world);
             extent = quirkExtent = new BlockQuirkExtent(extent, world);
             extent = chunkLoadingExtent = new ChunkLoadingExtent(extent, world);
-            extent = cacheExtent = new LastAccessExtentCache(extent);
+            extent = cacheExtent = new SectionExtentCache(extent);
             extent = wrapExtent(extent, eventBus, event, Stage.BEFORE_CHANGE);
             extent = validator = new DataValidatorExtent(extent, world);
             extent = blockBagExtent = new BlockBagExtent(extent, blockBag);
 
+            // Requests running off the main thread read from snapshots and queue their changes
+            CommitQueue commitQueue = Request.request().getCommitQueue();
+            if (commitQueue != null) {
+                extent = commitExtent = new SnapshotCommitExtent(extent, commitQueue);
+            }
+            Extent beforeReorder = extent;
+
             // This extent can be skipped by calling rawSetBlock()
             extent = reorderExtent = new MultiStageReorder(extent, false);
             extent = wrapExtent(extent, eventBus, event, Stage.BEFORE_REORDER);
@@ -199,7 +215,8 @@ public EditSession(LocalWorld world, int maxBlocks, @Nullable BlockBag blockBag)
             extent = changeLimiter = new BlockChangeLimiter(extent, maxBlocks);
             extent = wrapExtent(extent, eventBus, event, Stage.BEFORE_HISTORY);
 
-            this.bypassReorderHistory = blockBagExtent;
+            this.readExtent = commitExtent != null ? commitExtent : cacheExtent;
+            this.bypassReorderHistory = beforeReorder;
             this.bypassHistory = reorderExtent;
             this.bypassNone = extent;
         } else {
@@ -209,6 +226,7 @@ public EditSession(LocalWorld world, int maxBlocks, @Nullable BlockBag blockBag)
             extent = reorderExtent = new MultiStageReorder(extent, false);
             extent = maskingExtent = new MaskingExtent(extent, Masks.alwaysTrue());
             extent = changeLimiter = new BlockChangeLimiter(extent, maxBlocks);
+            this.readExtent = extent;
             this.bypassReorderHistory = extent;
             this.bypassHistory = extent;
             this.bypassNone = extent;
@@ -259,6 +277,29 @@ public void setBlockChangeLimit(int limit) {
         changeLimiter.setLimit(limit);
     }
 
+    /**
+     * Get the maximum number of bytes that a recursive search, such as
+     * {@link #fillXZ(Vector, Pattern, double, int, boolean)}, may use to
+     * remember the blocks it has visited.
+     *
+     * @return the limit (&gt;= 0) or -1 for no limit
+     */
+    public long getSearchMemoryLimit() {
+        return searchMemoryLimit;
+    }
+
+    /**
+     * Set the maximum number of bytes that a recursive search may use to
+     * remember the blocks it has visited.
+     *
+     * @param limit the limit (&gt;= 0) or -1 for no limit
+     * @see BreadthFirstSearch#setMemoryLimit(long)
+     */
+    public void setSearchMemoryLimit(long limit) {
+        checkArgument(limit >= -1, "limit >= -1 required");
+        this.searchMemoryLimit = limit;
+    }
+
     /**
      * Returns queue status.
      *
@@ -269,10 +310,14 @@ public boolean isQueueEnabled() {
     }
 
     /**
-     * Queue certain types of block for better reproduction of those blocks.
+     * Queue certain types of block for better reproduction of those blocks,
+     * and apply changes to the world one chunk section at a time.
      */
     public void enableQueue() {
         reorderExtent.setEnabled(true);
+        if (fastModeExtent != null) {
+            fastModeExtent.setBatching(true);
+        }
     }
 
     /**
@@ -283,6 +328,9 @@ public void disableQueue() {
             flushQueue();
         }
         reorderExtent.setEnabled(true);
+        if (fastModeExtent != null) {
+            fastModeExtent.setBatching(false);
+        }
     }
 
     /**
@@ -344,6 +392,9 @@ public void setFastMode(boolean enabled) {
         if (fastModeExtent != null) {
             fastModeExtent.setEnabled(enabled);
         }
+        if (cacheExtent != null) {
+            cacheExtent.setNeighborUpdates(!enabled);
+        }
     }
 
     /**
@@ -409,12 +460,12 @@ public boolean setBiome(Vector2D position, BaseBiome biome) {
 
     @Override
     public BaseBlock getLazyBlock(Vector position) {
-        return world.getLazyBlock(position);
+        return readExtent.getLazyBlock(position);
     }
 
     @Override
     public BaseBlock getBlock(Vector position) {
-        return world.getBlock(position);
+        return readExtent.getBlock(position);
     }
 
     /**
@@ -426,7 +477,7 @@ public BaseBlock getBlock(Vector position) {
      */
     @Deprecated
     public int getBlockType(Vector position) {
-        return world.getBlockType(position);
+        return readExtent.getLazyBlock(position).getType();
     }
 
     /**
@@ -438,7 +489,7 @@ public int getBlockType(Vector position) {
      */
     @Deprecated
     public int getBlockData(Vector position) {
-        return world.getBlockData(position);
+        return readExtent.getLazyBlock(position).getData();
     }
 
     /**
@@ -738,10 +789,11 @@ public int countBlocks(Region region, Set<BaseBlock> searchBlocks) {
      * @param recursive whether a breadth-first search should be performed
      * @return number of blocks affected
      * @throws MaxChangedBlocksException thrown if too many blocks are changed
+     * @throws MaxSearchMemoryException thrown if the search uses too much memory
      */
     @SuppressWarnings("deprecation")
     public int fillXZ(Vector origin, BaseBlock block, double radius, int depth, boolean recursive)
-            throws MaxChangedBlocksException {
+            throws MaxChangedBlocksException, MaxSearchMemoryException {
         return fillXZ(origin, new SingleBlockPattern(block), radius, depth, recursive);
     }
 
@@ -755,9 +807,10 @@ public int fillXZ(Vector origin, BaseBlock block, double radius, int depth, bool
      * @param recursive whether a breadth-first search should be performed
      * @return number of blocks affected
      * @throws MaxChangedBlocksException thrown if too many blocks are changed
+     * @throws MaxSearchMemoryException thrown if the search uses too much memory
      */
     @SuppressWarnings("deprecation")
-    public int fillXZ(Vector origin, Pattern pattern, double radius, int depth, boolean recursive) throws MaxChangedBlocksException {
+    public int fillXZ(Vector origin, Pattern pattern, double radius, int depth, boolean recursive) throws MaxChangedBlocksException, MaxSearchMemoryException {
         checkNotNull(origin);
         checkNotNull(pattern);
         checkArgument(radius >= 0, "radius >= 0");
@@ -780,12 +833,13 @@ public int fillXZ(Vector origin, Pattern pattern, double radius, int depth, bool
         } else {
             visitor = new DownwardVisitor(mask, replace, origin.getBlockY());
         }
+        visitor.setMemoryLimit(searchMemoryLimit);
 
         // Start at the origin
         visitor.visit(origin);
 
         // Execute
-        Operations.completeLegacy(visitor);
+        Operations.completeSearch(visitor);
 
         return visitor.getAffected();
     }
@@ -888,6 +942,7 @@ public int setBlocks(Region region, Pattern pattern) throws MaxChangedBlocksExce
 
         BlockReplace replace = new BlockReplace(this, Patterns.wrap(pattern));
         RegionVisitor visitor = new RegionVisitor(region, replace);
+        visitor.setChunkOrdered(true);
         Operations.completeLegacy(visitor);
         return visitor.getAffected();
     }
@@ -942,6 +997,7 @@ public int replaceBlocks(Region region, Mask mask, Pattern pattern) throws MaxCh
         BlockReplace replace = new BlockReplace(this, Patterns.wrap(pattern));
         RegionMaskingFilter filter = new RegionMaskingFilter(mask, replace);
         RegionVisitor visitor = new RegionVisitor(region, filter);
+        visitor.setChunkOrdered(true);
         Operations.completeLegacy(visitor);
         return visitor.getAffected();
     }
@@ -1256,8 +1312,9 @@ public int moveCuboidRegion(Region region, Vector dir, int distance, boolean cop
      * @param radius the radius of the removal, where a value should be 0 or greater
      * @return number of blocks affected
      * @throws MaxChangedBlocksException thrown if too many blocks are changed
+     * @throws MaxSearchMemoryException thrown if the search uses too much memory
      */
-    public int drainArea(Vector origin, double radius) throws MaxChangedBlocksException {
+    public int drainArea(Vector origin, double radius) throws MaxChangedBlocksException, MaxSearchMemoryException {
         checkNotNull(origin);
         checkArgument(radius >= 0, "radius >= 0 required");
 
@@ -1268,6 +1325,7 @@ public int drainArea(Vector origin, double radius) throws MaxChangedBlocksExcept
 
         BlockReplace replace = new BlockReplace(this, new BlockPattern(new BaseBlock(BlockID.AIR)));
         RecursiveVisitor visitor = new RecursiveVisitor(mask, replace);
+        visitor.setMemoryLimit(searchMemoryLimit);
 
         // Around the origin in a 3x3 block
         for (BlockVector position : CuboidRegion.fromCenter(origin, 1)) {
@@ -1276,7 +1334,7 @@ public int drainArea(Vector origin, double radius) throws MaxChangedBlocksExcept
             }
         }
 
-        Operations.completeLegacy(visitor);
+        Operations.completeSearch(visitor);
 
         return visitor.getAffected();
     }
@@ -1290,8 +1348,9 @@ public int drainArea(Vector origin, double radius) throws MaxChangedBlocksExcept
      * @param stationary the block ID of the stationary liquid
      * @return number of blocks affected
      * @throws MaxChangedBlocksException thrown if too many blocks are changed
+     * @throws MaxSearchMemoryException thrown if the search uses too much memory
      */
-    public int fixLiquid(Vector origin, double radius, int moving, int stationary) throws MaxChangedBlocksException {
+    public int fixLiquid(Vector origin, double radius, int moving, int stationary) throws MaxChangedBlocksException, MaxSearchMemoryException {
         checkNotNull(origin);
         checkArgument(radius >= 0, "radius >= 0 required");
 
@@ -1316,6 +1375,7 @@ public int fixLiquid(Vector origin, double radius, int moving, int stationary) t
 
         BlockReplace replace = new BlockReplace(this, new BlockPattern(new BaseBlock(stationary)));
         NonRisingVisitor visitor = new NonRisingVisitor(mask, replace);
+        visitor.setMemoryLimit(searchMemoryLimit);
 
         // Around the origin in a 3x3 block
         for (BlockVector position : CuboidRegion.fromCenter(origin, 1)) {
@@ -1324,7 +1384,7 @@ public int fixLiquid(Vector origin, double radius, int moving, int stationary) t
             }
         }
 
-        Operations.completeLegacy(visitor);
+        Operations.completeSearch(visitor);
 
         return visitor.getAffected();
     }
@@ -1913,45 +1973,18 @@ public List<Countable<Integer>> getBlockDistribution(Region region) {
         List<Countable<Integer>> distribution = new ArrayList<Countable<Integer>>();
         Map<Integer, Countable<Integer>> map = new HashMap<Integer, Countable<Integer>>();
 
-        if (region instanceof CuboidRegion) {
-            // Doing this for speed
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
-
-            int minX = min.getBlockX();
-            int minY = min.getBlockY();
-            int minZ = min.getBlockZ();
-            int maxX = max.getBlockX();
-            int maxY = max.getBlockY();
-            int maxZ = max.getBlockZ();
-
-            for (int x = minX; x <= maxX; ++x) {
-                for (int y = minY; y <= maxY; ++y) {
-                    for (int z = minZ; z <= maxZ; ++z) {
-                        Vector pt = new Vector(x, y, z);
-
-                        int id = getBlockType(pt);
-
-                        if (map.containsKey(id)) {
-                            map.get(id).increment();
-                        } else {
-                            Countable<Integer> c = new Countable<Integer>(id, 1);
-                            map.put(id, c);
-                            distribution.add(c);
-                        }
-                    }
-                }
-            }
-        } else {
-            for (Vector pt : region) {
-                int id = getBlockType(pt);
-
-                if (map.containsKey(id)) {
-                    map.get(id).increment();
-                } else {
-                    Countable<Integer> c = new Countable<Integer>(id, 1);
-                    map.put(id, c);
-                }
+        // Visit one chunk at a time for speed
+        Iterator<BlockVector> iterator = new ChunkOrderedIterator(region);
+        while (iterator.hasNext()) {
+            int id = getLazyBlock(iterator.next()).getType();
+
+            Countable<Integer> c = map.get(id);
+            if (c != null) {
+                c.increment();
+            } else {
+                c = new Countable<Integer>(id, 1);
+                map.put(id, c);
+                distribution.add(c);
             }
         }
 
@@ -1972,45 +2005,19 @@ public List<Countable<BaseBlock>> getBlockDistributionWithData(Region region) {
         List<Countable<BaseBlock>> distribution = new ArrayList<Countable<BaseBlock>>();
         Map<BaseBlock, Countable<BaseBlock>> map = new HashMap<BaseBlock, Countable<BaseBlock>>();
 
-        if (region instanceof CuboidRegion) {
-            // Doing this for speed
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
-
-            int minX = min.getBlockX();
-            int minY = min.getBlockY();
-            int minZ = min.getBlockZ();
-            int maxX = max.getBlockX();
-            int maxY = max.getBlockY();
-            int maxZ = max.getBlockZ();
-
-            for (int x = minX; x <= maxX; ++x) {
-                for (int y = minY; y <= maxY; ++y) {
-                    for (int z = minZ; z <= maxZ; ++z) {
-                        Vector pt = new Vector(x, y, z);
-
-                        BaseBlock blk = new BaseBlock(getBlockType(pt), getBlockData(pt));
-
-                        if (map.containsKey(blk)) {
-                            map.get(blk).increment();
-                        } else {
-                            Countable<BaseBlock> c = new Countable<BaseBlock>(blk, 1);
-                            map.put(blk, c);
-                            distribution.add(c);
-                        }
-                    }
-                }
-            }
-        } else {
-            for (Vector pt : region) {
-                BaseBlock blk = new BaseBlock(getBlockType(pt), getBlockData(pt));
-
-                if (map.containsKey(blk)) {
-                    map.get(blk).increment();
-                } else {
-                    Countable<BaseBlock> c = new Countable<BaseBlock>(blk, 1);
-                    map.put(blk, c);
-                }
+        // Visit one chunk at a time for speed
+        Iterator<BlockVector> iterator = new ChunkOrderedIterator(region);
+        while (iterator.hasNext()) {
+            BaseBlock lazyBlock = getLazyBlock(iterator.next());
+            BaseBlock blk = new BaseBlock(lazyBlock.getType(), lazyBlock.getData());
+
+            Countable<BaseBlock> c = map.get(blk);
+            if (c != null) {
+                c.increment();
+            } else {
+                c = new Countable<BaseBlock>(blk, 1);
+                map.put(blk, c);
+                distribution.add(c);
             }
         }
 
@@ -2021,8 +2028,7 @@ public List<Countable<BaseBlock>> getBlockDistributionWithData(Region region) {
     }
 
     public int makeShape(final Region region, final Vector zero, final Vector unit, final Pattern pattern, final String expressionString, final boolean hollow) throws ExpressionException, MaxChangedBlocksException {
-        final Expression expression = Expression.compile(expressionString, "x", "y", "z", "type", "data");
-        expression.optimize();
+        final Expression expression = WorldEdit.getInstance().getExpressionCache().get(expressionString, "x", "y", "z", "type", "data");
 
         final RValue typeVariable = expression.getVariable("type", false);
         final RValue dataVariable = expression.getVariable("data", false);
@@ -2030,6 +2036,8 @@ public int makeShape(final Region region, final Vector zero, final Vector unit,
         final WorldEditExpressionEnvironment environment = new WorldEditExpressionEnvironment(this, unit, zero);
         expression.setEnvironment(environment);
 
+        final ParallelEvaluator evaluator = new ParallelEvaluator(expression);
+
         final ArbitraryShape shape = new ArbitraryShape(region) {
             @Override
             protected BaseBlock getMaterial(int x, int y, int z, BaseBlock defaultMaterial) {
@@ -2048,39 +2056,89 @@ protected BaseBlock getMaterial(int x, int y, int z, BaseBlock defaultMaterial)
                     return null;
                 }
             }
+
+            @Override
+            protected void getMaterials(final BlockVector[] positions, final BaseBlock[] materials, int count) {
+                if (!evaluator.isParallel()) {
+                    super.getMaterials(positions, materials, count);
+                    return;
+                }
+
+                // The expression doesn't query the world, so the environment needs no current block
+                try {
+                    evaluator.evaluate(count, new ParallelEvaluator.Task() {
+                        @Override
+                        public void evaluate(Expression expression, int index) {
+                            final Vector scaled = positions[index].subtract(zero).divide(unit);
+                            final BaseBlock defaultMaterial = materials[index];
+
+                            try {
+                                if (expression.evaluate(scaled.getX(), scaled.getY(), scaled.getZ(), defaultMaterial.getType(), defaultMaterial.getData()) <= 0) {
+                                    materials[index] = null;
+                                } else {
+                                    materials[index] = new BaseBlock((int) expression.getVariable("type", false).getValue(),
+                                            (int) expression.getVariable("data", false).getValue());
+                                }
+                            } catch (Exception e) {
+                                log.log(Level.WARNING, "Failed to create shape", e);
+                                materials[index] = null;
+                            }
+                        }
+                    });
+                } catch (EvaluationException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
         };
 
         return shape.generate(this, pattern, hollow);
     }
 
     public int deformRegion(final Region region, final Vector zero, final Vector unit, final String expressionString) throws ExpressionException, MaxChangedBlocksException {
-        final Expression expression = Expression.compile(expressionString, "x", "y", "z");
-        expression.optimize();
-
-        final RValue x = expression.getVariable("x", false);
-        final RValue y = expression.getVariable("y", false);
-        final RValue z = expression.getVariable("z", false);
+        final Expression expression = WorldEdit.getInstance().getExpressionCache().get(expressionString, "x", "y", "z");
 
         final WorldEditExpressionEnvironment environment = new WorldEditExpressionEnvironment(this, unit, zero);
         expression.setEnvironment(environment);
 
         final DoubleArrayList<BlockVector, BaseBlock> queue = new DoubleArrayList<BlockVector, BaseBlock>(false);
 
-        for (BlockVector position : region) {
-            // offset, scale
-            final Vector scaled = position.subtract(zero).divide(unit);
+        final ParallelEvaluator evaluator = new ParallelEvaluator(expression);
+        final BlockVector[] positions = new BlockVector[DEFORM_BATCH_SIZE];
+        final BlockVector[] sourcePositions = new BlockVector[DEFORM_BATCH_SIZE];
+        final Iterator<BlockVector> iterator = region.iterator();
 
-            // transform
-            expression.evaluate(scaled.getX(), scaled.getY(), scaled.getZ());
+        while (iterator.hasNext()) {
+            int count = 0;
+            while (count < DEFORM_BATCH_SIZE && iterator.hasNext()) {
+                positions[count++] = iterator.next();
+            }
 
-            final BlockVector sourcePosition = environment.toWorld(x.getValue(), y.getValue(), z.getValue());
+            // transform the batch, possibly in parallel
+            evaluator.evaluate(count, new ParallelEvaluator.Task() {
+                @Override
+                public void evaluate(Expression expression, int index) throws EvaluationException {
+                    // offset, scale
+                    final Vector scaled = positions[index].subtract(zero).divide(unit);
 
-            // read block from world
-            // TODO: use getBlock here once the reflection is out of the way
-            final BaseBlock material = new BaseBlock(world.getBlockType(sourcePosition), world.getBlockData(sourcePosition));
+                    // transform
+                    expression.evaluate(scaled.getX(), scaled.getY(), scaled.getZ());
 
-            // queue operation
-            queue.put(position, material);
+                    sourcePositions[index] = environment.toWorld(
+                            expression.getVariable("x", false).getValue(),
+                            expression.getVariable("y", false).getValue(),
+                            expression.getVariable("z", false).getValue());
+                }
+            });
+
+            for (int i = 0; i < count; ++i) {
+                // read block from world
+                // TODO: use getBlock here once the reflection is out of the way
+                final BaseBlock source = getLazyBlock(sourcePositions[i]);
+                final BaseBlock material = new BaseBlock(source.getType(), source.getData());
+
+                // queue operation
+                queue.put(positions[i], material);
+            }
         }
 
         int affected = 0;
@@ -2365,8 +2423,7 @@ public int makeBiomeShape(final Region region, final Vector zero, final Vector u
         final Vector2D zero2D = zero.toVector2D();
         final Vector2D unit2D = unit.toVector2D();
 
-        final Expression expression = Expression.compile(expressionString, "x", "z");
-        expression.optimize();
+        final Expression expression = WorldEdit.getInstance().getExpressionCache().get(expressionString, "x", "z");
 
         final EditSession editSession = this;
         final WorldEditExpressionEnvironment environment = new WorldEditExpressionEnvironment(editSession, unit, zero);
@@ -21,10 +21,13 @@
 
 import com.sk89q.worldedit.blocks.BlockID;
 import com.sk89q.worldedit.blocks.ItemID;
+import com.sk89q.worldedit.function.operation.CommitQueue;
+import com.sk89q.worldedit.internal.expression.ExpressionCache;
 import com.sk89q.worldedit.util.logging.LogFormat;
 import com.sk89q.worldedit.world.snapshot.SnapshotRepository;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -78,10 +81,28 @@ public abstract class LocalConfiguration {
                 // Doors also have this effect, but are not disallowed.
             };
 
+    protected static final String[] defaultAsyncCommands = new String[] {
+                "/set", "/replace", "/overlay", "/naturalize", "/walls", "/faces",
+                "/smooth", "/hollow", "/line", "/curve", "/center",
+                "/sphere", "/hsphere", "/cyl", "/hcyl", "/pyramid", "/hpyramid", "/generate",
+                "/fill", "/fillr", "/drain", "/fixlava", "/fixwater",
+                "/removeabove", "/removebelow", "/removenear", "/replacenear",
+            };
+
     public boolean profile = false;
     public Set<Integer> disallowedBlocks = new HashSet<Integer>();
     public int defaultChangeLimit = -1;
     public int maxChangeLimit = -1;
+    public int searchMemoryLimit = 64;
+    public int defaultHistoryMemoryLimit = -1;
+    public int maxHistoryMemoryLimit = -1;
+    public String sessionStore = "json";
+    public int operationTickLimit = 20;
+    public boolean asyncCommands = false;
+    public int asyncCommandThreads = 2;
+    public int asyncQueueLimit = CommitQueue.DEFAULT_LIMIT;
+    public Set<String> asyncCommandNames = new HashSet<String>(Arrays.asList(defaultAsyncCommands));
+    public int expressionCacheSize = ExpressionCache.DEFAULT_MAXIMUM_SIZE;
     public int defaultVerticalSize = 256;
     public int defaultMaxPolygonalPoints = -1;
     public int maxPolygonalPoints = 20;
@@ -89,6 +110,10 @@ public abstract class LocalConfiguration {
     public int maxPolyhedronPoints = 20;
     public String shellSaveType = "";
     public SnapshotRepository snapshotRepo = null;
+    public boolean snapshotRestoreDifferential = true;
+    public int snapshotRestoreThreads = 2;
+    public int snapshotRestoreChunksInFlight = 16;
+    public int snapshotRestoreMemoryLimit = 32;
     public int maxRadius = -1;
     public int maxSuperPickaxeSize = 5;
     public int maxBrushRadius = 6;
@@ -19,6 +19,7 @@
 
 package com.sk89q.worldedit;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.sk89q.jchronic.Chronic;
 import com.sk89q.jchronic.Options;
 import com.sk89q.jchronic.utils.Span;
@@ -33,6 +34,8 @@
 import com.sk89q.worldedit.extent.inventory.BlockBag;
 import com.sk89q.worldedit.function.mask.Mask;
 import com.sk89q.worldedit.function.mask.Masks;
+import com.sk89q.worldedit.history.changeset.ChangeSet;
+import com.sk89q.worldedit.history.changeset.PackedBlockHistory;
 import com.sk89q.worldedit.internal.cui.CUIEvent;
 import com.sk89q.worldedit.internal.cui.CUIRegion;
 import com.sk89q.worldedit.internal.cui.SelectionShapeEvent;
@@ -46,11 +49,17 @@
 import com.sk89q.worldedit.world.snapshot.Snapshot;
 
 import javax.annotation.Nullable;
+import java.io.File;
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -61,6 +70,7 @@
 public class LocalSession {
 
     public transient static int MAX_HISTORY_SIZE = 15;
+    private transient static final ExecutorService SPILL_EXECUTOR = createSpillExecutor();
 
     // Non-session related fields
     private transient LocalConfiguration config;
@@ -72,6 +82,7 @@ public class LocalSession {
     private transient boolean placeAtPos1 = false;
     private transient LinkedList<EditSession> history = new LinkedList<EditSession>();
     private transient int historyPointer = 0;
+    private transient int historyMemoryLimit = -1;
     private transient ClipboardHolder clipboard;
     private transient boolean toolControl = true;
     private transient boolean superPickaxe = false;
@@ -177,10 +188,36 @@ public void setTimezone(TimeZone timezone) {
      * Clear history.
      */
     public void clearHistory() {
+        for (EditSession editSession : history) {
+            discardHistory(editSession);
+        }
         history.clear();
         historyPointer = 0;
     }
 
+    /**
+     * Get the number of megabytes of undo history that may be kept in
+     * memory before older history is spilled to disk.
+     *
+     * @return the limit in megabytes, or -1 for no limit
+     */
+    public int getHistoryMemoryLimit() {
+        return historyMemoryLimit;
+    }
+
+    /**
+     * Set the number of megabytes of undo history that may be kept in
+     * memory before older history is spilled to disk.
+     *
+     * @param historyMemoryLimit the limit in megabytes, or -1 for no limit
+     */
+    public void setHistoryMemoryLimit(int historyMemoryLimit) {
+        if (this.historyMemoryLimit != historyMemoryLimit) {
+            this.historyMemoryLimit = historyMemoryLimit;
+            spillHistory();
+        }
+    }
+
     /**
      * Remember an edit session for the undo history. If the history maximum
      * size is reached, old edit sessions will be discarded.
@@ -195,13 +232,69 @@ public void remember(EditSession editSession) {
 
         // Destroy any sessions after this undo point
         while (historyPointer < history.size()) {
-            history.remove(historyPointer);
+            discardHistory(history.remove(historyPointer));
         }
         history.add(editSession);
         while (history.size() > MAX_HISTORY_SIZE) {
-            history.remove(0);
+            discardHistory(history.remove(0));
         }
         historyPointer = history.size();
+        spillHistory();
+    }
+
+    /**
+     * Spill the change sets of the oldest edit sessions to disk until the
+     * history that remains in memory fits in the memory limit.
+     *
+     * <p>The most recent edit session is always kept in memory. Files are
+     * written on a background thread.</p>
+     */
+    private void spillHistory() {
+        if (historyMemoryLimit < 0 || config == null || history.size() < 2) {
+            return;
+        }
+
+        long limit = historyMemoryLimit * 1024L * 1024L;
+        long used = 0;
+        for (EditSession editSession : history) {
+            ChangeSet changeSet = editSession.getChangeSet();
+            if (changeSet instanceof PackedBlockHistory) {
+                used += ((PackedBlockHistory) changeSet).getMemoryUsage();
+            }
+        }
+
+        File directory = new File(config.getWorkingDirectory(), "history");
+        Iterator<EditSession> it = history.subList(0, history.size() - 1).iterator();
+        while (used > limit && it.hasNext()) {
+            ChangeSet changeSet = it.next().getChangeSet();
+            if (changeSet instanceof PackedBlockHistory) {
+                PackedBlockHistory packed = (PackedBlockHistory) changeSet;
+                long usage = packed.getMemoryUsage();
+                if (packed.spillLater(directory, SPILL_EXECUTOR)) {
+                    used -= usage;
+                }
+            }
+        }
+    }
+
+    private static ExecutorService createSpillExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setNameFormat("WorldEdit History Spiller #%d").setDaemon(true).build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Release any resources held by the history of an edit session that
+     * is no longer reachable through undo or redo.
+     *
+     * @param editSession the edit session
+     */
+    private static void discardHistory(EditSession editSession) {
+        ChangeSet changeSet = editSession.getChangeSet();
+        if (changeSet instanceof PackedBlockHistory) {
+            ((PackedBlockHistory) changeSet).discard();
+        }
     }
 
     /**
@@ -875,6 +968,9 @@ public EditSession createEditSession(Player player) {
                 .getEditSession(player.isPlayer() ? player.getWorld() : null,
                         getBlockChangeLimit(), blockBag, player);
         editSession.setFastMode(fastMode);
+        if (config != null && config.searchMemoryLimit >= 0) {
+            editSession.setSearchMemoryLimit(config.searchMemoryLimit * 1024L * 1024L);
+        }
         Request.request().setEditSession(editSession);
         editSession.setMask(mask);
 
@@ -37,8 +37,10 @@
 import com.sk89q.worldedit.extension.platform.Platform;
 import com.sk89q.worldedit.extension.platform.PlatformManager;
 import com.sk89q.worldedit.extent.inventory.BlockBag;
+import com.sk89q.worldedit.function.operation.OperationScheduler;
 import com.sk89q.worldedit.function.mask.Masks;
 import com.sk89q.worldedit.function.pattern.Patterns;
+import com.sk89q.worldedit.internal.expression.ExpressionCache;
 import com.sk89q.worldedit.masks.Mask;
 import com.sk89q.worldedit.patterns.Pattern;
 import com.sk89q.worldedit.scripting.CraftScriptContext;
@@ -95,6 +97,8 @@ public class WorldEdit {
     private final PlatformManager platformManager = new PlatformManager(this);
     private final EditSessionFactory editSessionFactory = new EditSessionFactory.EditSessionFactoryImpl(eventBus);
     private final SessionManager sessions = new SessionManager(this);
+    private final OperationScheduler operationScheduler = new OperationScheduler(this);
+    private final ExpressionCache expressionCache = new ExpressionCache(ExpressionCache.DEFAULT_MAXIMUM_SIZE);
 
     private final BlockFactory blockFactory = new BlockFactory(this);
     private final ItemFactory itemFactory = new ItemFactory(this);
@@ -194,6 +198,26 @@ public SessionManager getSessionManager() {
         return sessions;
     }
 
+    /**
+     * Return the scheduler that resumes operations over multiple ticks.
+     *
+     * @return the operation scheduler
+     */
+    public OperationScheduler getOperationScheduler() {
+        return operationScheduler;
+    }
+
+    /**
+     * Return the cache of compiled expressions shared by commands and masks,
+     * sized according to the current configuration.
+     *
+     * @return the expression cache
+     */
+    public ExpressionCache getExpressionCache() {
+        expressionCache.setMaximumSize(getConfiguration().expressionCacheSize);
+        return expressionCache;
+    }
+
     /**
      * @deprecated Use {@link #getSessionManager()}
      */
@@ -26,8 +26,10 @@
 import com.sk89q.minecraft.util.commands.CommandPermissions;
 import com.sk89q.worldedit.*;
 import com.sk89q.worldedit.entity.Player;
+import com.sk89q.worldedit.regions.Region;
 import com.sk89q.worldedit.world.snapshot.InvalidSnapshotException;
 import com.sk89q.worldedit.world.snapshot.Snapshot;
+import com.sk89q.worldedit.world.snapshot.SnapshotChunkIndex;
 import com.sk89q.worldedit.world.storage.MissingWorldException;
 
 import java.io.File;
@@ -36,6 +38,9 @@
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Logger;
 
 /**
@@ -269,4 +274,69 @@ public void after(Player player, LocalSession session, EditSession editSession,
         }
     }
 
+    @Command(
+            aliases = { "changes" },
+            usage = "[num]",
+            desc = "List the snapshots in which the selection changed",
+            help =
+                "Lists the snapshots in which the blocks of the chunks in the\n" +
+                "selection differ from the next newer snapshot. The chunks are\n" +
+                "indexed in the background the first time they are looked at.",
+            min = 0,
+            max = 1
+    )
+    @CommandPermissions("worldedit.snapshots.list")
+    public void changes(Player player, LocalSession session, EditSession editSession, CommandContext args) throws WorldEditException {
+
+        LocalConfiguration config = we.getConfiguration();
+
+        if (config.snapshotRepo == null) {
+            player.printError("Snapshot/backup restore is not configured.");
+            return;
+        }
+
+        Region region = session.getSelection(player.getWorld());
+        Set<Vector2D> chunks = region.getChunks();
+        String worldName = player.getWorld().getName();
+
+        try {
+            List<Snapshot> snapshots = config.snapshotRepo.getSnapshots(true, worldName);
+            SnapshotChunkIndex index = config.snapshotRepo.getChunkIndex();
+            List<Snapshot> changed = index.getChangedSnapshots(snapshots, worldName, chunks);
+
+            if (changed == null) {
+                try {
+                    index.index(snapshots, player.getWorld(), chunks);
+                } catch (RejectedExecutionException e) {
+                    player.printError("Too many snapshot indexing jobs are waiting. Try again later.");
+                    return;
+                }
+
+                player.print("Indexing " + chunks.size() + " chunk(s) in " + snapshots.size()
+                        + " snapshot(s) in the background. Run this command again shortly.");
+                return;
+            }
+
+            Map<Snapshot, String> failures = index.getFailures(snapshots, worldName);
+            for (Map.Entry<Snapshot, String> entry : failures.entrySet()) {
+                player.printError("Snapshot '" + entry.getKey().getName() + "' could not be indexed and was left out: " + entry.getValue());
+            }
+
+            if (changed.isEmpty()) {
+                player.print("The selection is the same in all " + (snapshots.size() - failures.size()) + " indexed snapshot(s).");
+            } else {
+                int num = args.argsLength() > 0 ? Math.min(40, Math.max(5, args.getInteger(0))) : 5;
+
+                player.print("Snapshots in which the selection changed:");
+                for (int i = 0; i < Math.min(num, changed.size()); i++) {
+                    player.print((i + 1) + ". " + changed.get(i).getName());
+                }
+
+                player.print("Use /snap use [snapshot] to choose one.");
+            }
+        } catch (MissingWorldException ex) {
+            player.printError("No snapshots were found for this world.");
+        }
+    }
+
 }
@@ -126,6 +126,10 @@ public void restore(Player player, LocalSession session, EditSession editSession
         try {
             // Restore snapshot
             SnapshotRestore restore = new SnapshotRestore(chunkStore, editSession, region);
+            restore.setDifferential(config.snapshotRestoreDifferential);
+            restore.setThreads(config.snapshotRestoreThreads);
+            restore.setChunksInFlight(config.snapshotRestoreChunksInFlight);
+            restore.setMemoryLimit(config.snapshotRestoreMemoryLimit * 1024L * 1024L);
             //player.print(restore.getChunksAffected() + " chunk(s) will be loaded.");
 
             restore.restore();
@@ -143,6 +147,10 @@ public void restore(Player player, LocalSession session, EditSession editSession
                         + "missing chunks and %d other errors.",
                         restore.getMissingChunks().size(),
                         restore.getErrorChunks().size()));
+                player.print(String.format("%d block(s) changed, %d unchanged and %d skipped.",
+                        restore.getChangedBlocks(),
+                        restore.getUnchangedBlocks(),
+                        restore.getSkippedBlocks()));
             }
         } finally {
             try {
@@ -518,7 +518,7 @@ public void remove(Actor actor, CommandContext args) throws WorldEditException,
     @CommandPermissions("worldedit.calc")
     public void calc(Actor actor, @Text String input) throws CommandException {
         try {
-            Expression expression = Expression.compile(input);
+            Expression expression = we.getExpressionCache().get(input);
             actor.print("= " + expression.evaluate());
         } catch (EvaluationException e) {
             actor.printError(String.format(
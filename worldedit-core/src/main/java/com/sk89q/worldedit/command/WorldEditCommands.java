@@ -29,6 +29,7 @@
 import com.sk89q.worldedit.extension.platform.Capability;
 import com.sk89q.worldedit.extension.platform.Platform;
 import com.sk89q.worldedit.extension.platform.PlatformManager;
+import com.sk89q.worldedit.util.io.CompressionPool;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -67,6 +68,13 @@ public void version(Actor actor) throws WorldEditException {
             Platform platform = pm.queryCapability(capability);
             actor.printDebug(String.format("%s: %s", capability.name(), platform != null ? platform.getPlatformName() : "NONE"));
         }
+
+        CompressionPool pool = CompressionPool.getInstance();
+        actor.printDebug("----------- Compression -----------");
+        actor.printDebug(String.format("Inflaters reused: %d/%d", pool.getInflaterHits(), pool.getInflaterRequests()));
+        actor.printDebug(String.format("Deflaters reused: %d/%d", pool.getDeflaterHits(), pool.getDeflaterRequests()));
+        actor.printDebug(String.format("Buffers reused: %d/%d", pool.getBufferHits(), pool.getBufferRequests()));
+        actor.printDebug(String.format("Bytes inflated: %d, deflated: %d", pool.getBytesInflated(), pool.getBytesDeflated()));
     }
 
     @Command(
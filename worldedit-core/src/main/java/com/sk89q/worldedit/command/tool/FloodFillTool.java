@@ -20,17 +20,23 @@
 package com.sk89q.worldedit.command.tool;
 
 import com.sk89q.worldedit.*;
+import com.sk89q.worldedit.blocks.BaseBlock;
 import com.sk89q.worldedit.blocks.BlockID;
 import com.sk89q.worldedit.entity.Player;
 import com.sk89q.worldedit.extension.platform.Actor;
 import com.sk89q.worldedit.extension.platform.Platform;
+import com.sk89q.worldedit.function.block.BlockReplace;
+import com.sk89q.worldedit.function.mask.BlockMask;
+import com.sk89q.worldedit.function.mask.MaskIntersection;
+import com.sk89q.worldedit.function.mask.RegionMask;
+import com.sk89q.worldedit.function.operation.Operations;
+import com.sk89q.worldedit.function.pattern.Patterns;
+import com.sk89q.worldedit.function.visitor.RecursiveVisitor;
 import com.sk89q.worldedit.patterns.Pattern;
+import com.sk89q.worldedit.regions.EllipsoidRegion;
 import com.sk89q.worldedit.util.Location;
 import com.sk89q.worldedit.world.World;
 
-import java.util.HashSet;
-import java.util.Set;
-
 /**
  * A tool that flood fills blocks.
  */
@@ -65,11 +71,21 @@ public boolean actPrimary(Platform server, LocalConfiguration config, Player pla
 
         EditSession editSession = session.createEditSession(player);
 
+        Vector origin = clicked.toVector();
+        MaskIntersection mask = new MaskIntersection(
+                new RegionMask(new EllipsoidRegion(null, origin, new Vector(range, range, range))),
+                new BlockMask(editSession, new BaseBlock(initialType, -1)));
+        RecursiveVisitor visitor = new RecursiveVisitor(mask, new BlockReplace(editSession, Patterns.wrap(pattern)));
+        visitor.setMemoryLimit(editSession.getSearchMemoryLimit());
+        visitor.visit(origin);
+
         try {
-            recurse(server, editSession, world, clicked.toVector().toBlockVector(),
-                    clicked.toVector(), range, initialType, new HashSet<BlockVector>());
+            Operations.completeSearch(visitor);
         } catch (MaxChangedBlocksException e) {
             player.printError("Max blocks change limit reached.");
+        } catch (MaxSearchMemoryException e) {
+            player.printError("The fill was stopped because it used too much memory ("
+                    + (e.getMemoryLimit() / (1024 * 1024)) + " MB).");
         } finally {
             session.remember(editSession);
         }
@@ -77,33 +93,4 @@ public boolean actPrimary(Platform server, LocalConfiguration config, Player pla
         return true;
     }
 
-    private void recurse(Platform server, EditSession editSession, World world, BlockVector pos, Vector origin, int size, int initialType,
-            Set<BlockVector> visited) throws MaxChangedBlocksException {
-
-        if (origin.distance(pos) > size || visited.contains(pos)) {
-            return;
-        }
-
-        visited.add(pos);
-
-        if (editSession.getBlock(pos).getType() == initialType) {
-            editSession.setBlock(pos, pattern.next(pos));
-        } else {
-            return;
-        }
-
-        recurse(server, editSession, world, pos.add(1, 0, 0).toBlockVector(),
-                origin, size, initialType, visited);
-        recurse(server, editSession, world, pos.add(-1, 0, 0).toBlockVector(),
-                origin, size, initialType, visited);
-        recurse(server, editSession, world, pos.add(0, 0, 1).toBlockVector(),
-                origin, size, initialType, visited);
-        recurse(server, editSession, world, pos.add(0, 0, -1).toBlockVector(),
-                origin, size, initialType, visited);
-        recurse(server, editSession, world, pos.add(0, 1, 0).toBlockVector(),
-                origin, size, initialType, visited);
-        recurse(server, editSession, world, pos.add(0, -1, 0).toBlockVector(),
-                origin, size, initialType, visited);
-    }
-
 }
@@ -25,11 +25,15 @@
 import com.sk89q.worldedit.entity.Player;
 import com.sk89q.worldedit.extension.platform.Actor;
 import com.sk89q.worldedit.extension.platform.Platform;
+import com.sk89q.worldedit.function.RegionFunction;
+import com.sk89q.worldedit.function.mask.BlockMask;
+import com.sk89q.worldedit.function.mask.MaskIntersection;
+import com.sk89q.worldedit.function.mask.RegionMask;
+import com.sk89q.worldedit.function.operation.Operations;
+import com.sk89q.worldedit.function.visitor.RecursiveVisitor;
+import com.sk89q.worldedit.regions.EllipsoidRegion;
 import com.sk89q.worldedit.world.World;
 
-import java.util.HashSet;
-import java.util.Set;
-
 /**
  * A pickaxe mode that recursively finds adjacent blocks within range of
  * an initial block and of the same type.
@@ -49,10 +53,10 @@ public boolean canUse(Actor player) {
     }
 
     @Override
-    public boolean actPrimary(Platform server, LocalConfiguration config, Player player, LocalSession session, com.sk89q.worldedit.util.Location clicked) {
-        World world = (World) clicked.getExtent();
+    public boolean actPrimary(final Platform server, LocalConfiguration config, Player player, LocalSession session, com.sk89q.worldedit.util.Location clicked) {
+        final World world = (World) clicked.getExtent();
 
-        int initialType = world.getBlockType(clicked.toVector());
+        final int initialType = world.getBlockType(clicked.toVector());
 
         if (initialType == BlockID.AIR) {
             return true;
@@ -62,14 +66,30 @@ public boolean actPrimary(Platform server, LocalConfiguration config, Player pla
             return true;
         }
 
-        EditSession editSession = session.createEditSession(player);
+        final EditSession editSession = session.createEditSession(player);
         editSession.getSurvivalExtent().setToolUse(config.superPickaxeManyDrop);
 
+        final Vector origin = clicked.toVector();
+        MaskIntersection mask = new MaskIntersection(
+                new RegionMask(new EllipsoidRegion(null, origin, new Vector(range, range, range))),
+                new BlockMask(editSession, new BaseBlock(initialType, -1)));
+        RecursiveVisitor visitor = new RecursiveVisitor(mask, new RegionFunction() {
+            @Override
+            public boolean apply(Vector position) throws WorldEditException {
+                world.queueBlockBreakEffect(server, position, initialType, origin.distanceSq(position));
+                return editSession.setBlock(position, air);
+            }
+        });
+        visitor.setMemoryLimit(editSession.getSearchMemoryLimit());
+        visitor.visit(origin);
+
         try {
-            recurse(server, editSession, world, clicked.toVector().toBlockVector(),
-                    clicked.toVector(), range, initialType, new HashSet<BlockVector>());
+            Operations.completeSearch(visitor);
         } catch (MaxChangedBlocksException e) {
             player.printError("Max blocks change limit reached.");
+        } catch (MaxSearchMemoryException e) {
+            player.printError("The pickaxe was stopped because it used too much memory ("
+                    + (e.getMemoryLimit() / (1024 * 1024)) + " MB).");
         } finally {
             editSession.flushQueue();
             session.remember(editSession);
@@ -78,36 +98,4 @@ public boolean actPrimary(Platform server, LocalConfiguration config, Player pla
         return true;
     }
 
-    private static void recurse(Platform server, EditSession editSession, World world, BlockVector pos,
-            Vector origin, double size, int initialType, Set<BlockVector> visited) throws MaxChangedBlocksException {
-
-        final double distanceSq = origin.distanceSq(pos);
-        if (distanceSq > size*size || visited.contains(pos)) {
-            return;
-        }
-
-        visited.add(pos);
-
-        if (editSession.getBlock(pos).getType() != initialType) {
-            return;
-        }
-
-        world.queueBlockBreakEffect(server, pos, initialType, distanceSq);
-
-        editSession.setBlock(pos, air);
-
-        recurse(server, editSession, world, pos.add(1, 0, 0).toBlockVector(),
-                origin, size, initialType, visited);
-        recurse(server, editSession, world, pos.add(-1, 0, 0).toBlockVector(),
-                origin, size, initialType, visited);
-        recurse(server, editSession, world, pos.add(0, 0, 1).toBlockVector(),
-                origin, size, initialType, visited);
-        recurse(server, editSession, world, pos.add(0, 0, -1).toBlockVector(),
-                origin, size, initialType, visited);
-        recurse(server, editSession, world, pos.add(0, 1, 0).toBlockVector(),
-                origin, size, initialType, visited);
-        recurse(server, editSession, world, pos.add(0, -1, 0).toBlockVector(),
-                origin, size, initialType, visited);
-    }
-
 }
@@ -20,6 +20,8 @@
 package com.sk89q.worldedit.extension.platform;
 
 import com.google.common.base.Joiner;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.sk89q.minecraft.util.commands.CommandException;
 import com.sk89q.minecraft.util.commands.CommandLocals;
 import com.sk89q.minecraft.util.commands.CommandPermissionsException;
@@ -36,8 +38,10 @@
 import com.sk89q.worldedit.event.platform.CommandSuggestionEvent;
 import com.sk89q.worldedit.function.factory.Deform;
 import com.sk89q.worldedit.function.factory.Deform.Mode;
+import com.sk89q.worldedit.function.operation.CommitQueue;
 import com.sk89q.worldedit.internal.command.*;
 import com.sk89q.worldedit.session.request.Request;
+import com.sk89q.worldedit.util.command.CommandMapping;
 import com.sk89q.worldedit.util.command.Dispatcher;
 import com.sk89q.worldedit.util.command.InvalidUsageException;
 import com.sk89q.worldedit.util.command.composition.ProvidedValue;
@@ -51,8 +55,14 @@
 import com.sk89q.worldedit.util.logging.DynamicStreamHandler;
 import com.sk89q.worldedit.util.logging.LogFormat;
 
+import javax.annotation.Nullable;
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -78,6 +88,8 @@ public final class CommandManager {
     private final Dispatcher dispatcher;
     private final DynamicStreamHandler dynamicHandler = new DynamicStreamHandler();
     private final ExceptionConverter exceptionConverter;
+    private final Set<LocalSession> runningSessions = Collections.newSetFromMap(new ConcurrentHashMap<LocalSession, Boolean>());
+    private ExecutorService executor;
 
     /**
      * Create a new instance.
@@ -223,20 +235,97 @@ public String[] commandDetection(String[] split) {
     public void handleCommand(CommandEvent event) {
         Request.reset();
 
-        Actor actor = platformManager.createProxyActor(event.getActor());
-        String[] split = commandDetection(event.getArguments().split(" "));
+        final Actor actor = platformManager.createProxyActor(event.getActor());
+        final String[] split = commandDetection(event.getArguments().split(" "));
 
         // No command found!
         if (!dispatcher.contains(split[0])) {
             return;
         }
 
-        LocalSession session = worldEdit.getSessionManager().get(actor);
+        final LocalSession session = worldEdit.getSessionManager().get(actor);
+        final String arguments = event.getArguments();
+
+        if (isAsync(split[0])) {
+            if (!runningSessions.add(session)) {
+                actor.printError("Your previous command is still running.");
+            } else {
+                final CommitQueue queue = new CommitQueue(worldEdit.getConfiguration().asyncQueueLimit);
+                worldEdit.getOperationScheduler().submit(queue).addListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        runningSessions.remove(session);
+                    }
+                }, MoreExecutors.directExecutor());
+
+                getExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        Request.reset();
+                        Request.request().setCommitQueue(queue);
+                        try {
+                            runCommand(actor, session, split, arguments, queue);
+                        } catch (RuntimeException e) {
+                            log.log(Level.SEVERE, "An unexpected error occurred while running a WorldEdit command off the main thread", e);
+                        } finally {
+                            queue.close();
+                            Request.reset();
+                        }
+                    }
+                });
+            }
+        } else {
+            runCommand(actor, session, split, arguments, null);
+        }
+
+        event.setCancelled(true);
+    }
+
+    /**
+     * Get whether the given command should run on the worker pool.
+     *
+     * @param command the command alias
+     * @return true to run the command asynchronously
+     */
+    private boolean isAsync(String command) {
         LocalConfiguration config = worldEdit.getConfiguration();
+        if (!config.asyncCommands) {
+            return false;
+        }
+
+        CommandMapping mapping = dispatcher.get(command);
+        return mapping != null
+                && config.asyncCommandNames.contains(mapping.getPrimaryAlias())
+                && worldEdit.getOperationScheduler().isAvailable();
+    }
 
+    /**
+     * Get the pool that asynchronous commands run on, creating it if
+     * necessary.
+     *
+     * @return the executor
+     */
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(worldEdit.getConfiguration().asyncCommandThreads,
+                    new ThreadFactoryBuilder().setNameFormat("WorldEdit Command Worker #%d").setDaemon(true).build());
+        }
+        return executor;
+    }
+
+    /**
+     * Run a command on the current thread.
+     *
+     * @param actor the actor
+     * @param session the actor's session
+     * @param split the command and its arguments
+     * @param arguments the raw arguments
+     * @param queue the queue that changes are posted to, or null if running on the main thread
+     */
+    private void runCommand(final Actor actor, final LocalSession session, String[] split, String arguments, @Nullable CommitQueue queue) {
         CommandLocals locals = new CommandLocals();
         locals.put(Actor.class, actor);
-        locals.put("arguments", event.getArguments());
+        locals.put("arguments", arguments);
 
         long start = System.currentTimeMillis();
 
@@ -286,32 +375,46 @@ public void handleCommand(CommandEvent event) {
                 log.log(Level.SEVERE, "An unknown error occurred", e);
             }
         } finally {
-            EditSession editSession = locals.get(EditSession.class);
+            final EditSession editSession = locals.get(EditSession.class);
 
             if (editSession != null) {
-                session.remember(editSession);
-                editSession.flushQueue();
-
-                if (config.profile) {
-                    long time = System.currentTimeMillis() - start;
-                    int changed = editSession.getBlockChangeCount();
-                    if (time > 0) {
-                        double throughput = changed / (time / 1000.0);
-                        actor.printDebug((time / 1000.0) + "s elapsed (history: "
-                                + changed + " changed; "
-                                + Math.round(throughput) + " blocks/sec).");
-                    } else {
-                        actor.printDebug((time / 1000.0) + "s elapsed.");
-                    }
+                if (queue == null) {
+                    session.remember(editSession);
+                    editSession.flushQueue();
+                    finishEdit(actor, editSession, start);
+                } else {
+                    // The queued changes are applied first, then the session is updated on the main thread
+                    editSession.flushQueue();
+                    queue.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            session.remember(editSession);
+                            finishEdit(actor, editSession, start);
+                        }
+                    });
                 }
+            }
+        }
+    }
 
-                worldEdit.flushBlockBag(actor, editSession);
+    private void finishEdit(Actor actor, EditSession editSession, long start) {
+        if (worldEdit.getConfiguration().profile) {
+            long time = System.currentTimeMillis() - start;
+            int changed = editSession.getBlockChangeCount();
+            if (time > 0) {
+                double throughput = changed / (time / 1000.0);
+                actor.printDebug((time / 1000.0) + "s elapsed (history: "
+                        + changed + " changed; "
+                        + Math.round(throughput) + " blocks/sec).");
+            } else {
+                actor.printDebug((time / 1000.0) + "s elapsed.");
             }
         }
 
-        event.setCancelled(true);
+        worldEdit.flushBlockBag(actor, editSession);
     }
 
+
     @Subscribe
     public void handleCommandSuggestion(CommandSuggestionEvent event) {
         try {
@@ -0,0 +1,229 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.extent.cache;
+
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.WorldEditException;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.LazyBlock;
+import com.sk89q.worldedit.extent.AbstractDelegateExtent;
+import com.sk89q.worldedit.extent.Extent;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Caches the block types and data values returned by
+ * {@link #getLazyBlock(Vector)} for the most recently used 16x16x16 chunk
+ * sections.
+ *
+ * <p>Sections are filled in as their blocks are read, and the least
+ * recently used section is dropped once the limit is reached. Changes
+ * made through this extent clear the cached entry for the changed block.
+ * While {@link #setNeighborUpdates(boolean) neighbor updates} are on, as
+ * they are by default, a change also drops the sections holding the block
+ * and its neighbors, because physics may change the blocks around it.
+ * Other changes made to the underlying extent are not noticed.</p>
+ */
+public class SectionExtentCache extends AbstractDelegateExtent {
+
+    public static final int DEFAULT_MAX_SECTIONS = 64;
+
+    private static final int UNKNOWN = -1;
+    private static final long NO_KEY = Long.MIN_VALUE;
+    private static final int MAX_SECTION_XZ = (1 << 21) - 1;
+    private static final int MAX_SECTION_Y = (1 << 19) - 1;
+
+    private final LinkedHashMap<Long, int[]> sections;
+    private long lastKey = NO_KEY;
+    private int[] lastSection;
+    private boolean neighborUpdates = true;
+
+    /**
+     * Create a new instance that keeps up to {@link #DEFAULT_MAX_SECTIONS}
+     * sections.
+     *
+     * @param extent the extent
+     */
+    public SectionExtentCache(Extent extent) {
+        this(extent, DEFAULT_MAX_SECTIONS);
+    }
+
+    /**
+     * Create a new instance.
+     *
+     * @param extent the extent
+     * @param maxSections the maximum number of sections to keep
+     */
+    public SectionExtentCache(Extent extent, final int maxSections) {
+        super(extent);
+        checkArgument(maxSections > 0, "maxSections > 0 required");
+        this.sections = new LinkedHashMap<Long, int[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, int[]> eldest) {
+                if (size() > maxSections) {
+                    if (eldest.getValue() == lastSection) {
+                        lastKey = NO_KEY;
+                        lastSection = null;
+                    }
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get whether changes are expected to update neighboring blocks.
+     *
+     * @return true if neighbor updates are on
+     */
+    public boolean hasNeighborUpdates() {
+        return neighborUpdates;
+    }
+
+    /**
+     * Set whether changes are expected to update neighboring blocks, such
+     * as when physics is applied to changes made outside of fast mode.
+     *
+     * @param neighborUpdates true if neighbor updates are on
+     */
+    public void setNeighborUpdates(boolean neighborUpdates) {
+        this.neighborUpdates = neighborUpdates;
+    }
+
+    @Override
+    public BaseBlock getLazyBlock(Vector position) {
+        int x = position.getBlockX();
+        int y = position.getBlockY();
+        int z = position.getBlockZ();
+        int[] section = getSection(x, y, z, true);
+        if (section == null) {
+            return super.getLazyBlock(position);
+        }
+
+        int index = index(x, y, z);
+        int state = section[index];
+        if (state == UNKNOWN) {
+            BaseBlock block = super.getLazyBlock(position);
+            section[index] = block.getId() << 4 | (block.getData() & 15);
+            return block;
+        }
+
+        return new LazyBlock(state >>> 4, state & 15, getExtent(), position);
+    }
+
+    @Override
+    public boolean setBlock(Vector location, BaseBlock block) throws WorldEditException {
+        int x = location.getBlockX();
+        int y = location.getBlockY();
+        int z = location.getBlockZ();
+        if (neighborUpdates) {
+            removeSection(x, y, z);
+            removeSection(x - 1, y, z);
+            removeSection(x + 1, y, z);
+            removeSection(x, y - 1, z);
+            removeSection(x, y + 1, z);
+            removeSection(x, y, z - 1);
+            removeSection(x, y, z + 1);
+        } else {
+            int[] section = getSection(x, y, z, false);
+            if (section != null) {
+                section[index(x, y, z)] = UNKNOWN;
+            }
+        }
+        return super.setBlock(location, block);
+    }
+
+    /**
+     * Drop the cached section containing the given block, if there is one.
+     *
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     * @param z the Z coordinate
+     */
+    private void removeSection(int x, int y, int z) {
+        long key = getKey(x, y, z);
+        if (key != NO_KEY && sections.remove(key) != null && key == lastKey) {
+            lastKey = NO_KEY;
+            lastSection = null;
+        }
+    }
+
+    /**
+     * Get the cached section containing the given block.
+     *
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     * @param z the Z coordinate
+     * @param create true to create the section if it is not cached
+     * @return the section, or null if it is not cached or cannot be cached
+     */
+    private int[] getSection(int x, int y, int z, boolean create) {
+        long key = getKey(x, y, z);
+        if (key == NO_KEY) {
+            return null;
+        }
+
+        if (key == lastKey) {
+            return lastSection;
+        }
+
+        int[] section = sections.get(key);
+        if (section == null) {
+            if (!create) {
+                return null;
+            }
+            section = new int[16 * 16 * 16];
+            Arrays.fill(section, UNKNOWN);
+            sections.put(key, section);
+        }
+
+        lastKey = key;
+        lastSection = section;
+        return section;
+    }
+
+    /**
+     * Get the key of the section containing the given block.
+     *
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     * @param z the Z coordinate
+     * @return the key, or {@link #NO_KEY} if the section cannot be cached
+     */
+    private static long getKey(int x, int y, int z) {
+        int sectionX = x >> 4;
+        int sectionY = y >> 4;
+        int sectionZ = z >> 4;
+        if (Math.abs(sectionX) > MAX_SECTION_XZ || Math.abs(sectionZ) > MAX_SECTION_XZ || Math.abs(sectionY) > MAX_SECTION_Y) {
+            return NO_KEY;
+        }
+        return ((long) (sectionX & 0x3FFFFF) << 42) | ((long) (sectionZ & 0x3FFFFF) << 20) | (sectionY & 0xFFFFF);
+    }
+
+    private static int index(int x, int y, int z) {
+        return (y & 15) << 8 | (z & 15) << 4 | (x & 15);
+    }
+
+}
@@ -0,0 +1,421 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.extent.clipboard;
+
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.Vector2D;
+import com.sk89q.worldedit.WorldEditException;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.entity.BaseEntity;
+import com.sk89q.worldedit.entity.Entity;
+import com.sk89q.worldedit.function.operation.Operation;
+import com.sk89q.worldedit.regions.Region;
+import com.sk89q.worldedit.util.Location;
+import com.sk89q.worldedit.world.biome.BaseBiome;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Stores block data in 16x16x16 sections, each with its own palette of
+ * block states and a bit-packed array of palette indices.
+ *
+ * <p>Sections that only contain air are never allocated. NBT data is rare,
+ * so it is kept in a sparse map keyed by position instead of in the
+ * sections.</p>
+ *
+ * <p>{@link #getLazyBlock(Vector)} returns shared, immutable block instances
+ * for blocks without NBT data, while {@link #getBlock(Vector)} returns a copy
+ * that the caller is free to modify.</p>
+ */
+public class PaletteClipboard implements Clipboard {
+
+    private static final int SECTION_SHIFT = 4;
+    private static final int SECTION_MASK = 15;
+    private static final int SECTION_VOLUME = 16 * 16 * 16;
+    // Shared between all clipboards and filled in as states are first used
+    private static final AtomicReferenceArray<BaseBlock> sharedBlocks = new AtomicReferenceArray<BaseBlock>((BaseBlock.MAX_ID + 1) << 4);
+
+    private final Region region;
+    private final BlockVector min;
+    private final int sectionsX;
+    private final int sectionsZ;
+    private final Section[] sections;
+    private final Map<BlockVector, CompoundTag> nbtData = new HashMap<BlockVector, CompoundTag>();
+    private final List<ClipboardEntity> entities = new ArrayList<ClipboardEntity>();
+    private Vector origin;
+
+    /**
+     * Create a new instance.
+     *
+     * <p>The origin will be placed at the region's lowest minimum point.</p>
+     *
+     * @param region the bounding region
+     */
+    public PaletteClipboard(Region region) {
+        checkNotNull(region);
+        this.region = region.clone();
+        this.origin = region.getMinimumPoint();
+        this.min = region.getMinimumPoint().toBlockVector();
+
+        Vector dimensions = getDimensions();
+        sectionsX = (dimensions.getBlockX() + SECTION_MASK) >> SECTION_SHIFT;
+        sectionsZ = (dimensions.getBlockZ() + SECTION_MASK) >> SECTION_SHIFT;
+        int sectionsY = (dimensions.getBlockY() + SECTION_MASK) >> SECTION_SHIFT;
+        sections = new Section[sectionsX * sectionsY * sectionsZ];
+    }
+
+    @Override
+    public Region getRegion() {
+        return region.clone();
+    }
+
+    @Override
+    public Vector getOrigin() {
+        return origin;
+    }
+
+    @Override
+    public void setOrigin(Vector origin) {
+        this.origin = origin;
+    }
+
+    @Override
+    public Vector getDimensions() {
+        return region.getMaximumPoint().subtract(region.getMinimumPoint()).add(1, 1, 1);
+    }
+
+    @Override
+    public Vector getMinimumPoint() {
+        return region.getMinimumPoint();
+    }
+
+    @Override
+    public Vector getMaximumPoint() {
+        return region.getMaximumPoint();
+    }
+
+    @Override
+    public List<? extends Entity> getEntities(Region region) {
+        List<Entity> filtered = new ArrayList<Entity>();
+        for (Entity entity : entities) {
+            if (region.contains(entity.getLocation().toVector())) {
+                filtered.add(entity);
+            }
+        }
+        return Collections.unmodifiableList(filtered);
+    }
+
+    @Override
+    public List<? extends Entity> getEntities() {
+        return Collections.unmodifiableList(entities);
+    }
+
+    @Nullable
+    @Override
+    public Entity createEntity(Location location, BaseEntity entity) {
+        ClipboardEntity ret = new ClipboardEntity(location, entity);
+        entities.add(ret);
+        return ret;
+    }
+
+    @Override
+    public BaseBlock getBlock(Vector position) {
+        return new BaseBlock(getLazyBlock(position));
+    }
+
+    @Override
+    public BaseBlock getLazyBlock(Vector position) {
+        if (!region.contains(position)) {
+            return getSharedBlock(0);
+        }
+
+        int x = position.getBlockX() - min.getBlockX();
+        int y = position.getBlockY() - min.getBlockY();
+        int z = position.getBlockZ() - min.getBlockZ();
+
+        Section section = sections[getSectionIndex(x, y, z)];
+        int state = section == null ? 0 : section.get(getIndexInSection(x, y, z));
+
+        if (!nbtData.isEmpty()) {
+            CompoundTag tag = nbtData.get(new BlockVector(x, y, z));
+            if (tag != null) {
+                return new BaseBlock(state >> 4, state & 15, tag);
+            }
+        }
+
+        return getSharedBlock(state);
+    }
+
+    @Override
+    public boolean setBlock(Vector position, BaseBlock block) throws WorldEditException {
+        if (!region.contains(position)) {
+            return false;
+        }
+
+        int x = position.getBlockX() - min.getBlockX();
+        int y = position.getBlockY() - min.getBlockY();
+        int z = position.getBlockZ() - min.getBlockZ();
+
+        // Wildcard data has no meaning for a stored block
+        int state = (block.getId() << 4) | Math.max(0, block.getData());
+        int sectionIndex = getSectionIndex(x, y, z);
+        Section section = sections[sectionIndex];
+        if (section == null) {
+            if (state == 0) {
+                // Unallocated sections are already all air
+                removeNbtData(x, y, z);
+                return true;
+            }
+            section = sections[sectionIndex] = new Section();
+        }
+        section.set(getIndexInSection(x, y, z), state);
+
+        CompoundTag tag = block.getNbtData();
+        if (tag != null) {
+            nbtData.put(new BlockVector(x, y, z), tag);
+        } else {
+            removeNbtData(x, y, z);
+        }
+
+        return true;
+    }
+
+    @Override
+    public BaseBiome getBiome(Vector2D position) {
+        return new BaseBiome(0);
+    }
+
+    @Override
+    public boolean setBiome(Vector2D position, BaseBiome biome) {
+        return false;
+    }
+
+    @Nullable
+    @Override
+    public Operation commit() {
+        return null;
+    }
+
+    private void removeNbtData(int x, int y, int z) {
+        if (!nbtData.isEmpty()) {
+            nbtData.remove(new BlockVector(x, y, z));
+        }
+    }
+
+    private int getSectionIndex(int x, int y, int z) {
+        return ((y >> SECTION_SHIFT) * sectionsZ + (z >> SECTION_SHIFT)) * sectionsX + (x >> SECTION_SHIFT);
+    }
+
+    private static int getIndexInSection(int x, int y, int z) {
+        return ((y & SECTION_MASK) << 8) | ((z & SECTION_MASK) << 4) | (x & SECTION_MASK);
+    }
+
+    /**
+     * Get the shared, immutable block for a packed ID and data value.
+     *
+     * @param state the state, as {@code id << 4 | data}
+     * @return the block
+     */
+    private static BaseBlock getSharedBlock(int state) {
+        BaseBlock block = sharedBlocks.get(state);
+        if (block == null) {
+            block = new SharedBlock(state >> 4, state & 15);
+            if (!sharedBlocks.compareAndSet(state, null, block)) {
+                block = sharedBlocks.get(state);
+            }
+        }
+        return block;
+    }
+
+    /**
+     * A 16x16x16 section of blocks, stored as indices into a palette of
+     * states that are packed into longs, with no index spanning two longs.
+     */
+    private static final class Section {
+        private int[] palette = new int[] { BlockID.AIR << 4 };
+        private int paletteSize = 1;
+        private int bits = 0;
+        private long[] data;
+        private int[] lookup;
+
+        int get(int index) {
+            if (bits == 0) {
+                return palette[0];
+            }
+            int perLong = 64 / bits;
+            long word = data[index / perLong];
+            int paletteIndex = (int) ((word >>> ((index % perLong) * bits)) & ((1L << bits) - 1));
+            return palette[paletteIndex];
+        }
+
+        void set(int index, int state) {
+            int paletteIndex = indexOf(state);
+            if (paletteIndex == -1) {
+                paletteIndex = addToPalette(state);
+            }
+            if (bits == 0) {
+                return;
+            }
+            int perLong = 64 / bits;
+            int wordIndex = index / perLong;
+            int shift = (index % perLong) * bits;
+            long mask = ((1L << bits) - 1) << shift;
+            data[wordIndex] = (data[wordIndex] & ~mask) | ((long) paletteIndex << shift);
+        }
+
+        private int indexOf(int state) {
+            if (lookup == null) {
+                for (int i = 0; i < paletteSize; i++) {
+                    if (palette[i] == state) {
+                        return i;
+                    }
+                }
+                return -1;
+            }
+
+            int slot = mix(state) & (lookup.length - 1);
+            while (true) {
+                int entry = lookup[slot];
+                if (entry == 0) {
+                    return -1;
+                } else if (palette[entry - 1] == state) {
+                    return entry - 1;
+                }
+                slot = (slot + 1) & (lookup.length - 1);
+            }
+        }
+
+        private int addToPalette(int state) {
+            if (paletteSize == palette.length) {
+                palette = Arrays.copyOf(palette, paletteSize * 2);
+            }
+            int paletteIndex = paletteSize++;
+            palette[paletteIndex] = state;
+
+            int requiredBits = 32 - Integer.numberOfLeadingZeros(paletteSize - 1);
+            if (requiredBits > bits) {
+                resize(requiredBits);
+            }
+
+            // Linear scans are fine for the small palettes that most sections have
+            if (paletteSize > 16) {
+                if (lookup == null || paletteSize * 2 > lookup.length) {
+                    rebuildLookup();
+                } else {
+                    insertLookup(paletteIndex);
+                }
+            }
+
+            return paletteIndex;
+        }
+
+        private void resize(int newBits) {
+            long[] newData = new long[(SECTION_VOLUME + (64 / newBits) - 1) / (64 / newBits)];
+            if (bits != 0) {
+                int oldPerLong = 64 / bits;
+                int newPerLong = 64 / newBits;
+                long oldMask = (1L << bits) - 1;
+                for (int i = 0; i < SECTION_VOLUME; i++) {
+                    long value = (data[i / oldPerLong] >>> ((i % oldPerLong) * bits)) & oldMask;
+                    newData[i / newPerLong] |= value << ((i % newPerLong) * newBits);
+                }
+            }
+            data = newData;
+            bits = newBits;
+        }
+
+        private void rebuildLookup() {
+            lookup = new int[Integer.highestOneBit(paletteSize * 4)];
+            for (int i = 0; i < paletteSize; i++) {
+                insertLookup(i);
+            }
+        }
+
+        private void insertLookup(int paletteIndex) {
+            int slot = mix(palette[paletteIndex]) & (lookup.length - 1);
+            while (lookup[slot] != 0) {
+                slot = (slot + 1) & (lookup.length - 1);
+            }
+            lookup[slot] = paletteIndex + 1;
+        }
+
+        private static int mix(int state) {
+            return state * 0x9E3779B9 >>> 8;
+        }
+    }
+
+    /**
+     * A block without NBT data that is shared between all positions, in
+     * all clipboards, having the same ID and data value.
+     */
+    private static final class SharedBlock extends BaseBlock {
+        SharedBlock(int id, int data) {
+            super(id, data);
+        }
+
+        @Override
+        public void setId(int id) {
+            throw new UnsupportedOperationException("This object is immutable");
+        }
+
+        @Override
+        public void setData(int data) {
+            throw new UnsupportedOperationException("This object is immutable");
+        }
+
+        @Override
+        public void setNbtData(CompoundTag nbtData) {
+            throw new UnsupportedOperationException("This object is immutable");
+        }
+    }
+
+    /**
+     * Stores entity data.
+     */
+    private class ClipboardEntity extends StoredEntity {
+        ClipboardEntity(Location location, BaseEntity entity) {
+            super(location, entity);
+        }
+
+        @Override
+        public boolean remove() {
+            return entities.remove(this);
+        }
+
+        @Nullable
+        @Override
+        public <T> T getFacet(Class<? extends T> cls) {
+            return null;
+        }
+    }
+
+}
@@ -22,6 +22,8 @@
 import com.sk89q.jnbt.NBTConstants;
 import com.sk89q.jnbt.NBTInputStream;
 import com.sk89q.jnbt.NBTOutputStream;
+import com.sk89q.worldedit.util.io.CompressionPool;
+import com.sk89q.worldedit.util.io.CompressionPool.Format;
 
 import javax.annotation.Nullable;
 import java.io.DataInputStream;
@@ -38,7 +40,6 @@
 import java.util.Map;
 import java.util.Set;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -53,13 +54,13 @@ public enum ClipboardFormat {
     SCHEMATIC("mcedit", "mce", "schematic") {
         @Override
         public ClipboardReader getReader(InputStream inputStream) throws IOException {
-            NBTInputStream nbtStream = new NBTInputStream(new GZIPInputStream(inputStream));
+            NBTInputStream nbtStream = new NBTInputStream(CompressionPool.getInstance().createInputStream(inputStream, Format.GZIP));
             return new SchematicReader(nbtStream);
         }
 
         @Override
         public ClipboardWriter getWriter(OutputStream outputStream) throws IOException {
-            NBTOutputStream nbtStream = new NBTOutputStream(new GZIPOutputStream(outputStream));
+            NBTOutputStream nbtStream = new NBTOutputStream(CompressionPool.getInstance().createOutputStream(outputStream, Format.GZIP));
             return new SchematicWriter(nbtStream);
         }
 
@@ -23,6 +23,7 @@
 import com.sk89q.jnbt.CompoundTag;
 import com.sk89q.jnbt.IntTag;
 import com.sk89q.jnbt.ListTag;
+import com.sk89q.jnbt.NBTFilter;
 import com.sk89q.jnbt.NBTInputStream;
 import com.sk89q.jnbt.NamedTag;
 import com.sk89q.jnbt.ShortTag;
@@ -33,8 +34,8 @@
 import com.sk89q.worldedit.WorldEditException;
 import com.sk89q.worldedit.blocks.BaseBlock;
 import com.sk89q.worldedit.entity.BaseEntity;
-import com.sk89q.worldedit.extent.clipboard.BlockArrayClipboard;
 import com.sk89q.worldedit.extent.clipboard.Clipboard;
+import com.sk89q.worldedit.extent.clipboard.PaletteClipboard;
 import com.sk89q.worldedit.extent.clipboard.io.legacycompat.NBTCompatibilityHandler;
 import com.sk89q.worldedit.extent.clipboard.io.legacycompat.SignCompatibilityHandler;
 import com.sk89q.worldedit.regions.CuboidRegion;
@@ -66,6 +67,15 @@ public class SchematicReader implements ClipboardReader {
     }
 
     private static final Logger log = Logger.getLogger(SchematicReader.class.getCanonicalName());
+
+    /**
+     * The tags of a schematic that are read; others, such as biomes or
+     * editor-specific data, are skipped.
+     */
+    private static final NBTFilter SCHEMATIC_FILTER = NBTFilter.of(
+            "Materials", "Width", "Height", "Length",
+            "WEOriginX", "WEOriginY", "WEOriginZ", "WEOffsetX", "WEOffsetY", "WEOffsetZ",
+            "Blocks", "Data", "AddBlocks", "TileEntities", "Entities");
     private final NBTInputStream inputStream;
 
     /**
@@ -81,7 +91,7 @@ public SchematicReader(NBTInputStream inputStream) {
     @Override
     public Clipboard read(WorldData data) throws IOException {
         // Schematic tag
-        NamedTag rootTag = inputStream.readNamedTag();
+        NamedTag rootTag = inputStream.readNamedTag(SCHEMATIC_FILTER);
         if (!rootTag.getName().equals("Schematic")) {
             throw new IOException("Tag 'Schematic' does not exist or is not first");
         }
@@ -202,7 +212,7 @@ public Clipboard read(WorldData data) throws IOException {
             tileEntitiesMap.put(vec, values);
         }
 
-        BlockArrayClipboard clipboard = new BlockArrayClipboard(region);
+        PaletteClipboard clipboard = new PaletteClipboard(region);
         clipboard.setOrigin(origin);
 
         // Don't log a torrent of errors
@@ -19,8 +19,6 @@
 
 package com.sk89q.worldedit.extent.reorder;
 
-import com.google.common.collect.Iterators;
-import com.sk89q.worldedit.BlockVector;
 import com.sk89q.worldedit.PlayerDirection;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.WorldEditException;
@@ -29,22 +27,21 @@
 import com.sk89q.worldedit.blocks.BlockType;
 import com.sk89q.worldedit.extent.AbstractDelegateExtent;
 import com.sk89q.worldedit.extent.Extent;
-import com.sk89q.worldedit.function.operation.BlockMapEntryPlacer;
 import com.sk89q.worldedit.function.operation.Operation;
 import com.sk89q.worldedit.function.operation.OperationQueue;
 import com.sk89q.worldedit.function.operation.RunContext;
-import com.sk89q.worldedit.util.collection.TupleArrayList;
 
-import java.util.*;
+import javax.annotation.Nullable;
+import java.util.List;
 
 /**
  * Re-orders blocks into several stages.
  */
 public class MultiStageReorder extends AbstractDelegateExtent implements ReorderingExtent {
 
-    private TupleArrayList<BlockVector, BaseBlock> stage1 = new TupleArrayList<BlockVector, BaseBlock>();
-    private TupleArrayList<BlockVector, BaseBlock> stage2 = new TupleArrayList<BlockVector, BaseBlock>();
-    private TupleArrayList<BlockVector, BaseBlock> stage3 = new TupleArrayList<BlockVector, BaseBlock>();
+    private final StageBuffer stage1 = new StageBuffer();
+    private final StageBuffer stage2 = new StageBuffer();
+    private final StageBuffer stage3 = new StageBuffer();
     private boolean enabled;
 
     /**
@@ -87,26 +84,26 @@ public void setEnabled(boolean enabled) {
 
     @Override
     public boolean setBlock(Vector location, BaseBlock block) throws WorldEditException {
-        BaseBlock lazyBlock = getLazyBlock(location);
-
         if (!enabled) {
             return super.setBlock(location, block);
         }
 
+        BaseBlock lazyBlock = getLazyBlock(location);
+
         if (BlockType.shouldPlaceLast(block.getType())) {
             // Place torches, etc. last
-            stage2.put(location.toBlockVector(), block);
+            stage2.add(location, block);
             return !(lazyBlock.getType() == block.getType() && lazyBlock.getData() == block.getData());
         } else if (BlockType.shouldPlaceFinal(block.getType())) {
             // Place signs, reed, etc even later
-            stage3.put(location.toBlockVector(), block);
+            stage3.add(location, block);
             return !(lazyBlock.getType() == block.getType() && lazyBlock.getData() == block.getData());
         } else if (BlockType.shouldPlaceLast(lazyBlock.getType())) {
             // Destroy torches, etc. first
             super.setBlock(location, new BaseBlock(BlockID.AIR));
             return super.setBlock(location, block);
         } else {
-            stage1.put(location.toBlockVector(), block);
+            stage1.add(location, block);
             return !(lazyBlock.getType() == block.getType() && lazyBlock.getData() == block.getData());
         }
     }
@@ -114,97 +111,220 @@ public boolean setBlock(Vector location, BaseBlock block) throws WorldEditExcept
     @Override
     public Operation commitBefore() {
         return new OperationQueue(
-                new BlockMapEntryPlacer(
-                        getExtent(),
-                        Iterators.concat(stage1.iterator(), stage2.iterator())),
+                new StagePlacer(stage1, null),
+                new StagePlacer(stage2, null),
                 new Stage3Committer());
     }
 
-    private class Stage3Committer implements Operation {
+    /**
+     * Order the blocks of the final stage so that every block is placed
+     * after the blocks that it is attached to.
+     *
+     * <p>Only the last change at each position is included. Blocks that
+     * are attached to each other in a cycle are placed in the order that
+     * they were set.</p>
+     *
+     * @return the indices of the blocks in {@code stage3} to place, in order
+     */
+    private int[] orderFinalStage() {
+        StageBuffer buffer = stage3;
+        int size = buffer.size();
+        buffer.buildIndex();
+
+        int[] first = new int[size];
+        int[] second = new int[size];
+        int[] pending = new int[size];
+        int[] successorStart = new int[size + 1];
+        boolean[] queued = new boolean[size];
+        int count = 0;
+
+        for (int i = 0; i < size; i++) {
+            int x = buffer.getX(i);
+            int y = buffer.getY(i);
+            int z = buffer.getZ(i);
+            first[i] = -1;
+            second[i] = -1;
+
+            if (buffer.find(x, y, z) != i) {
+                // A later change replaces this one
+                queued[i] = true;
+                continue;
+            }
+            count++;
+
+            BaseBlock block = buffer.getBlock(i);
+            int type = block.getType();
+            int data = block.getData();
+
+            PlayerDirection attachment = BlockType.getAttachment(type, data);
+            if (attachment != null) {
+                Vector offset = attachment.vector();
+                int target = buffer.find(x + offset.getBlockX(), y + offset.getBlockY(), z + offset.getBlockZ());
+                // Upper door halves are placed before the lower half instead (see below)
+                if (target != -1 && !(isDoor(type) && isLowerDoorHalf(buffer.getBlock(target)))) {
+                    first[i] = target;
+                }
+            }
 
-        @Override
-        public Operation resume(RunContext run) throws WorldEditException {
-            Extent extent = getExtent();
+            int extra = -1;
+            if (isDoor(type)) {
+                if ((data & 0x8) == 0) {
+                    // Deal with lower door halves being attached to the floor AND the upper half
+                    extra = buffer.find(x, y + 1, z);
+                }
+            } else if (isRail(type)) {
+                // Here, rails are hardcoded to be attached to the block below them.
+                // They're also attached to the block they're ascending towards via BlockType.getAttachment.
+                extra = buffer.find(x, y - 1, z);
+            }
+            if (extra != -1 && extra != first[i]) {
+                second[i] = extra;
+            }
 
-            final Set<BlockVector> blocks = new HashSet<BlockVector>();
-            final Map<BlockVector, BaseBlock> blockTypes = new HashMap<BlockVector, BaseBlock>();
-            for (Map.Entry<BlockVector, BaseBlock> entry : stage3) {
-                final BlockVector pt = entry.getKey();
-                blocks.add(pt);
-                blockTypes.put(pt, entry.getValue());
+            if (first[i] != -1) {
+                pending[i]++;
+                successorStart[first[i] + 1]++;
+            }
+            if (second[i] != -1) {
+                pending[i]++;
+                successorStart[second[i] + 1]++;
             }
+        }
+
+        for (int i = 0; i < size; i++) {
+            successorStart[i + 1] += successorStart[i];
+        }
+        int[] successors = new int[successorStart[size]];
+        int[] fill = new int[size];
+        for (int i = 0; i < size; i++) {
+            if (first[i] != -1) {
+                successors[successorStart[first[i]] + fill[first[i]]++] = i;
+            }
+            if (second[i] != -1) {
+                successors[successorStart[second[i]] + fill[second[i]]++] = i;
+            }
+        }
+
+        int[] order = new int[count];
+        int head = 0;
+        int tail = 0;
+        for (int i = 0; i < size; i++) {
+            if (!queued[i] && pending[i] == 0) {
+                queued[i] = true;
+                order[tail++] = i;
+            }
+        }
 
-            while (!blocks.isEmpty()) {
-                BlockVector current = blocks.iterator().next();
-                if (!blocks.contains(current)) {
-                    continue;
+        int next = 0;
+        while (head < count) {
+            if (head == tail) {
+                // Cycle detected => This will most likely go wrong, but there's nothing we can do about it.
+                while (queued[next]) {
+                    next++;
                 }
+                queued[next] = true;
+                order[tail++] = next;
+            }
 
-                final Deque<BlockVector> walked = new LinkedList<BlockVector>();
-
-                while (true) {
-                    walked.addFirst(current);
-
-                    assert (blockTypes.containsKey(current));
-
-                    final BaseBlock baseBlock = blockTypes.get(current);
-
-                    final int type = baseBlock.getType();
-                    final int data = baseBlock.getData();
-
-                    switch (type) {
-                        case BlockID.WOODEN_DOOR:
-                        case BlockID.ACACIA_DOOR:
-                        case BlockID.BIRCH_DOOR:
-                        case BlockID.JUNGLE_DOOR:
-                        case BlockID.DARK_OAK_DOOR:
-                        case BlockID.SPRUCE_DOOR:
-                        case BlockID.IRON_DOOR:
-                            if ((data & 0x8) == 0) {
-                                // Deal with lower door halves being attached to the floor AND the upper half
-                                BlockVector upperBlock = current.add(0, 1, 0).toBlockVector();
-                                if (blocks.contains(upperBlock) && !walked.contains(upperBlock)) {
-                                    walked.addFirst(upperBlock);
-                                }
-                            }
-                            break;
-
-                        case BlockID.MINECART_TRACKS:
-                        case BlockID.POWERED_RAIL:
-                        case BlockID.DETECTOR_RAIL:
-                        case BlockID.ACTIVATOR_RAIL:
-                            // Here, rails are hardcoded to be attached to the block below them.
-                            // They're also attached to the block they're ascending towards via BlockType.getAttachment.
-                            BlockVector lowerBlock = current.add(0, -1, 0).toBlockVector();
-                            if (blocks.contains(lowerBlock) && !walked.contains(lowerBlock)) {
-                                walked.addFirst(lowerBlock);
-                            }
-                            break;
-                    }
-
-                    final PlayerDirection attachment = BlockType.getAttachment(type, data);
-                    if (attachment == null) {
-                        // Block is not attached to anything => we can place it
-                        break;
-                    }
-
-                    current = current.add(attachment.vector()).toBlockVector();
-
-                    if (!blocks.contains(current)) {
-                        // We ran outside the remaining set => assume we can place blocks on this
-                        break;
-                    }
-
-                    if (walked.contains(current)) {
-                        // Cycle detected => This will most likely go wrong, but there's nothing we can do about it.
-                        break;
-                    }
+            int current = order[head++];
+            for (int j = successorStart[current]; j < successorStart[current + 1]; j++) {
+                int successor = successors[j];
+                if (!queued[successor] && --pending[successor] == 0) {
+                    queued[successor] = true;
+                    order[tail++] = successor;
                 }
+            }
+        }
+
+        return order;
+    }
+
+    private static boolean isLowerDoorHalf(BaseBlock block) {
+        return isDoor(block.getType()) && (block.getData() & 0x8) == 0;
+    }
+
+    private static boolean isDoor(int type) {
+        switch (type) {
+            case BlockID.WOODEN_DOOR:
+            case BlockID.ACACIA_DOOR:
+            case BlockID.BIRCH_DOOR:
+            case BlockID.JUNGLE_DOOR:
+            case BlockID.DARK_OAK_DOOR:
+            case BlockID.SPRUCE_DOOR:
+            case BlockID.IRON_DOOR:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isRail(int type) {
+        switch (type) {
+            case BlockID.MINECART_TRACKS:
+            case BlockID.POWERED_RAIL:
+            case BlockID.DETECTOR_RAIL:
+            case BlockID.ACTIVATOR_RAIL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Places the blocks of a stage, optionally in a given order.
+     */
+    private class StagePlacer implements Operation {
+
+        private final StageBuffer buffer;
+        @Nullable
+        private final int[] order;
+        private int cursor;
+
+        private StagePlacer(StageBuffer buffer, @Nullable int[] order) {
+            this.buffer = buffer;
+            this.order = order;
+        }
 
-                for (BlockVector pt : walked) {
-                    extent.setBlock(pt, blockTypes.get(pt));
-                    blocks.remove(pt);
+        @Override
+        public Operation resume(RunContext run) throws WorldEditException {
+            Extent extent = getExtent();
+            int count = order != null ? order.length : buffer.size();
+
+            while (cursor < count) {
+                if (!run.shouldContinue()) {
+                    return this;
                 }
+
+                int i = order != null ? order[cursor] : cursor;
+                cursor++;
+                extent.setBlock(buffer.getPosition(i), buffer.getBlock(i));
+            }
+
+            return null;
+        }
+
+        @Override
+        public void cancel() {
+        }
+
+        @Override
+        public void addStatusMessages(List<String> messages) {
+        }
+
+    }
+
+    private class Stage3Committer implements Operation {
+
+        private StagePlacer placer;
+
+        @Override
+        public Operation resume(RunContext run) throws WorldEditException {
+            if (placer == null) {
+                placer = new StagePlacer(stage3, orderFinalStage());
+            }
+
+            if (placer.resume(run) != null) {
+                return this;
             }
 
             stage1.clear();
@@ -0,0 +1,148 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.extent.reorder;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+
+import java.util.Arrays;
+
+/**
+ * Buffers block changes with their positions kept in a primitive array.
+ *
+ * <p>Positions can be looked up by coordinate once {@link #buildIndex()}
+ * has been called, which is used to resolve which buffered blocks are
+ * attached to each other.</p>
+ */
+final class StageBuffer {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int[] coordinates = new int[INITIAL_CAPACITY * 3];
+    private BaseBlock[] blocks = new BaseBlock[INITIAL_CAPACITY];
+    private int size;
+    private int[] index;
+
+    /**
+     * Add a block change.
+     *
+     * @param position the position
+     * @param block the block
+     */
+    void add(Vector position, BaseBlock block) {
+        if (size == blocks.length) {
+            coordinates = Arrays.copyOf(coordinates, size * 6);
+            blocks = Arrays.copyOf(blocks, size * 2);
+        }
+        int offset = size * 3;
+        coordinates[offset] = position.getBlockX();
+        coordinates[offset + 1] = position.getBlockY();
+        coordinates[offset + 2] = position.getBlockZ();
+        blocks[size] = block;
+        size++;
+        index = null;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int getX(int i) {
+        return coordinates[i * 3];
+    }
+
+    int getY(int i) {
+        return coordinates[i * 3 + 1];
+    }
+
+    int getZ(int i) {
+        return coordinates[i * 3 + 2];
+    }
+
+    BlockVector getPosition(int i) {
+        return new BlockVector(getX(i), getY(i), getZ(i));
+    }
+
+    BaseBlock getBlock(int i) {
+        return blocks[i];
+    }
+
+    /**
+     * Build the index used by {@link #find(int, int, int)}. When a position
+     * was added more than once, the last change at that position is the one
+     * that is indexed.
+     */
+    void buildIndex() {
+        int capacity = Integer.highestOneBit(Math.max(size, 1) * 2 - 1) << 1;
+        int[] table = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = hash(getX(i), getY(i), getZ(i)) & mask;
+            while (table[slot] != 0 && !matches(table[slot] - 1, i)) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+        index = table;
+    }
+
+    /**
+     * Find the last change at the given position.
+     *
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     * @param z the Z coordinate
+     * @return the index of the change, or -1 if there is none
+     */
+    int find(int x, int y, int z) {
+        int[] table = index;
+        int mask = table.length - 1;
+        int slot = hash(x, y, z) & mask;
+        int entry;
+        while ((entry = table[slot]) != 0) {
+            int offset = (entry - 1) * 3;
+            if (coordinates[offset] == x && coordinates[offset + 1] == y && coordinates[offset + 2] == z) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Remove all changes, keeping the allocated capacity.
+     */
+    void clear() {
+        Arrays.fill(blocks, 0, size, null);
+        size = 0;
+        index = null;
+    }
+
+    private boolean matches(int a, int b) {
+        return getX(a) == getX(b) && getY(a) == getY(b) && getZ(a) == getZ(b);
+    }
+
+    private static int hash(int x, int y, int z) {
+        int h = x * 0x9E3779B1 + y * 0x85EBCA77 + z * 0xC2B2AE3D;
+        return h ^ (h >>> 16);
+    }
+
+}
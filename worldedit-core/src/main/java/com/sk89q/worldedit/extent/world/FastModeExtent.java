@@ -27,7 +27,9 @@
 import com.sk89q.worldedit.function.operation.Operation;
 import com.sk89q.worldedit.function.operation.RunContext;
 import com.sk89q.worldedit.world.World;
+import com.sk89q.worldedit.world.chunk.SectionBuffer;
 
+import javax.annotation.Nullable;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -36,12 +38,25 @@
 
 /**
  * Implements "fast mode" which may skip physics, lighting, etc.
+ *
+ * <p>If batching is enabled, consecutive changes to the same 16x16x16
+ * section are collected and applied with
+ * {@link World#setBlocks(BlockVector2D, SectionBuffer, boolean)} once a
+ * change is made to a different section or the extent is committed.
+ * The changes are applied in the order that they were made, so the order
+ * chosen by extents such as the reorder extent is kept. Reads through
+ * this extent see the collected changes.</p>
  */
 public class FastModeExtent extends AbstractDelegateExtent {
 
+    private static final int MAX_BUFFERED_CHANGES = 4096;
+
     private final World world;
     private final Set<BlockVector2D> dirtyChunks = new HashSet<BlockVector2D>();
     private boolean enabled = true;
+    private boolean batching = false;
+    private @Nullable BlockVector2D bufferChunk;
+    private @Nullable SectionBuffer buffer;
 
     /**
      * Create a new instance with fast mode enabled.
@@ -80,16 +95,124 @@ public boolean isEnabled() {
      * @param enabled true to enable fast mode
      */
     public void setEnabled(boolean enabled) {
+        if (enabled != this.enabled) {
+            flushBufferUnchecked();
+        }
         this.enabled = enabled;
     }
 
+    /**
+     * Return whether changes are collected per section before they are
+     * applied to the world.
+     *
+     * @return true if batching is enabled
+     */
+    public boolean isBatching() {
+        return batching;
+    }
+
+    /**
+     * Set whether changes are collected per section before they are
+     * applied to the world. Disabling batching applies any collected
+     * changes.
+     *
+     * @param batching true to enable batching
+     */
+    public void setBatching(boolean batching) {
+        if (!batching) {
+            flushBufferUnchecked();
+        }
+        this.batching = batching;
+    }
+
+    @Override
+    public BaseBlock getBlock(Vector position) {
+        BaseBlock buffered = getBuffered(position);
+        return buffered != null ? new BaseBlock(buffered) : super.getBlock(position);
+    }
+
+    @Override
+    public BaseBlock getLazyBlock(Vector position) {
+        BaseBlock buffered = getBuffered(position);
+        return buffered != null ? new BaseBlock(buffered) : super.getLazyBlock(position);
+    }
+
     @Override
     public boolean setBlock(Vector location, BaseBlock block) throws WorldEditException {
         if (enabled) {
             dirtyChunks.add(new BlockVector2D(location.getBlockX() >> 4, location.getBlockZ() >> 4));
-            return world.setBlock(location, block, false);
-        } else {
-            return world.setBlock(location, block, true);
+        }
+
+        if (batching) {
+            int chunkX = location.getBlockX() >> 4;
+            int chunkZ = location.getBlockZ() >> 4;
+            int sectionY = location.getBlockY() >> 4;
+            if (buffer != null && (buffer.getSectionY() != sectionY || bufferChunk.getBlockX() != chunkX || bufferChunk.getBlockZ() != chunkZ
+                    || buffer.size() >= MAX_BUFFERED_CHANGES)) {
+                flushBuffer();
+            }
+
+            // Like the world, report blocks that are already the same as unchanged
+            BaseBlock previous = getBuffered(location);
+            if (previous == null) {
+                previous = world.getLazyBlock(location);
+            }
+            if (!block.hasNbtData() && previous.getType() == block.getType() && previous.getData() == block.getData()) {
+                return false;
+            }
+
+            if (buffer == null) {
+                bufferChunk = new BlockVector2D(chunkX, chunkZ);
+                buffer = new SectionBuffer(sectionY);
+            }
+            buffer.setBlock(location.getBlockX() & 15, location.getBlockY() & 15, location.getBlockZ() & 15, block);
+            return true;
+        }
+
+        return world.setBlock(location, block, !enabled);
+    }
+
+    /**
+     * Get the collected change at the given position.
+     *
+     * @param position the position
+     * @return the block, or null if there is no collected change there
+     */
+    @Nullable
+    private BaseBlock getBuffered(Vector position) {
+        SectionBuffer buffer = this.buffer;
+        if (buffer == null
+                || buffer.getSectionY() != position.getBlockY() >> 4
+                || bufferChunk.getBlockX() != position.getBlockX() >> 4
+                || bufferChunk.getBlockZ() != position.getBlockZ() >> 4) {
+            return null;
+        }
+        return buffer.getBlock(position.getBlockX() & 15, position.getBlockY() & 15, position.getBlockZ() & 15);
+    }
+
+    /**
+     * Apply the collected changes to the world.
+     */
+    private void flushBuffer() throws WorldEditException {
+        SectionBuffer buffer = this.buffer;
+        BlockVector2D chunk = this.bufferChunk;
+        this.buffer = null;
+        this.bufferChunk = null;
+
+        if (buffer != null && !buffer.isEmpty()) {
+            world.setBlocks(chunk, buffer, !enabled);
+        }
+    }
+
+    /**
+     * Apply the collected changes to the world from a method that cannot
+     * throw a {@link WorldEditException}.
+     */
+    private void flushBufferUnchecked() {
+        try {
+            flushBuffer();
+        } catch (WorldEditException e) {
+            throw new RuntimeException("Failed to apply collected block changes", e);
         }
     }
 
@@ -98,6 +221,7 @@ protected Operation commitBefore() {
         return new Operation() {
             @Override
             public Operation resume(RunContext run) throws WorldEditException {
+                flushBuffer();
                 if (!dirtyChunks.isEmpty()) {
                     world.fixAfterFastMode(dirtyChunks);
                 }
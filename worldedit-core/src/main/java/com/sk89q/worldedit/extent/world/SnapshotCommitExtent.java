@@ -0,0 +1,501 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.extent.world;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.Vector2D;
+import com.sk89q.worldedit.WorldEditException;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.entity.BaseEntity;
+import com.sk89q.worldedit.entity.Entity;
+import com.sk89q.worldedit.extent.Extent;
+import com.sk89q.worldedit.function.operation.CommitQueue;
+import com.sk89q.worldedit.function.operation.Operation;
+import com.sk89q.worldedit.function.operation.Operations;
+import com.sk89q.worldedit.function.operation.RunContext;
+import com.sk89q.worldedit.regions.Region;
+import com.sk89q.worldedit.util.Location;
+import com.sk89q.worldedit.world.biome.BaseBiome;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Lets an edit run on a worker thread while every access to the
+ * underlying extent happens on the main thread through a
+ * {@link CommitQueue}.
+ *
+ * <p>Blocks are read from snapshots of 16x16x16 sections that are
+ * captured on the main thread the first time they are needed, together
+ * with the sections around them. Block changes are collected into one
+ * batch per section and the batches are queued once enough changes have
+ * been made, or before any other call reaches the main thread; until
+ * they have been applied, reads of a changed block return the queued
+ * block. Batches are weighted by their number of changes, so a worker
+ * that gets too far ahead of the main thread waits for the
+ * {@link CommitQueue} to drain.</p>
+ */
+public class SnapshotCommitExtent implements Extent {
+
+    private static final Logger log = Logger.getLogger(SnapshotCommitExtent.class.getCanonicalName());
+    private static final int PREFETCH_RADIUS = 1;
+    private static final int DEFAULT_MAX_SECTIONS = 1024;
+    private static final int FLUSH_THRESHOLD = 4096;
+
+    private final Extent extent;
+    private final CommitQueue queue;
+    private final Map<BlockVector, BaseBlock> pendingBlocks = new ConcurrentHashMap<BlockVector, BaseBlock>();
+    private final ConcurrentMap<BlockVector, ListenableFuture<Section>> capturing = new ConcurrentHashMap<BlockVector, ListenableFuture<Section>>();
+    private final Map<BlockVector, Section> sections;
+    private final Map<BlockVector, Batch> batches = new LinkedHashMap<BlockVector, Batch>();
+    private int batchedBlocks = 0;
+
+    /**
+     * Create a new instance.
+     *
+     * @param extent the extent that changes are applied to on the main thread
+     * @param queue the queue drained on the main thread
+     */
+    public SnapshotCommitExtent(Extent extent, CommitQueue queue) {
+        this(extent, queue, DEFAULT_MAX_SECTIONS);
+    }
+
+    /**
+     * Create a new instance.
+     *
+     * @param extent the extent that changes are applied to on the main thread
+     * @param queue the queue drained on the main thread
+     * @param maxSections the maximum number of section snapshots to keep
+     */
+    public SnapshotCommitExtent(Extent extent, CommitQueue queue, final int maxSections) {
+        checkNotNull(extent);
+        checkNotNull(queue);
+        this.extent = extent;
+        this.queue = queue;
+        this.sections = new LinkedHashMap<BlockVector, Section>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<BlockVector, Section> eldest) {
+                return size() > maxSections;
+            }
+        };
+    }
+
+    /**
+     * Get the extent that changes are applied to.
+     *
+     * @return the extent
+     */
+    public Extent getExtent() {
+        return extent;
+    }
+
+    /**
+     * Get the queue that changes are posted to.
+     *
+     * @return the queue
+     */
+    public CommitQueue getQueue() {
+        return queue;
+    }
+
+    @Override
+    public BaseBlock getBlock(Vector position) {
+        BlockVector blockVector = position.toBlockVector();
+        BaseBlock pending = pendingBlocks.get(blockVector);
+        if (pending != null) {
+            return new BaseBlock(pending);
+        }
+        return getSection(blockVector).getBlock(blockVector);
+    }
+
+    @Override
+    public BaseBlock getLazyBlock(Vector position) {
+        return getBlock(position);
+    }
+
+    @Override
+    public boolean setBlock(final Vector location, BaseBlock block) throws WorldEditException {
+        BlockVector blockVector = location.toBlockVector();
+        BaseBlock copy = new BaseBlock(block);
+        pendingBlocks.put(blockVector, copy);
+
+        synchronized (batches) {
+            BlockVector key = toSectionKey(blockVector);
+            Batch batch = batches.get(key);
+            if (batch == null) {
+                batch = new Batch(key);
+                batches.put(key, batch);
+            }
+            if (batch.changes.put(blockVector, copy) == null) {
+                batchedBlocks++;
+            }
+            if (batchedBlocks >= FLUSH_THRESHOLD) {
+                flushBatches();
+            }
+        }
+        return true;
+    }
+
+    @Nullable
+    @Override
+    public Entity createEntity(final Location location, final BaseEntity entity) {
+        Entity created = callOnMainThread(new Callable<Entity>() {
+            @Override
+            public Entity call() throws Exception {
+                return extent.createEntity(location, entity);
+            }
+        });
+        return created != null ? new QueuedEntity(created) : null;
+    }
+
+    @Override
+    public List<? extends Entity> getEntities() {
+        return wrap(callOnMainThread(new Callable<List<? extends Entity>>() {
+            @Override
+            public List<? extends Entity> call() throws Exception {
+                return extent.getEntities();
+            }
+        }));
+    }
+
+    @Override
+    public List<? extends Entity> getEntities(final Region region) {
+        return wrap(callOnMainThread(new Callable<List<? extends Entity>>() {
+            @Override
+            public List<? extends Entity> call() throws Exception {
+                return extent.getEntities(region);
+            }
+        }));
+    }
+
+    @Override
+    public BaseBiome getBiome(final Vector2D position) {
+        return callOnMainThread(new Callable<BaseBiome>() {
+            @Override
+            public BaseBiome call() throws Exception {
+                return extent.getBiome(position);
+            }
+        });
+    }
+
+    @Override
+    public boolean setBiome(final Vector2D position, final BaseBiome biome) {
+        flushBatches();
+        queue.execute(new Runnable() {
+            @Override
+            public void run() {
+                extent.setBiome(position, biome);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public Vector getMinimumPoint() {
+        return extent.getMinimumPoint();
+    }
+
+    @Override
+    public Vector getMaximumPoint() {
+        return extent.getMaximumPoint();
+    }
+
+    @Override
+    public @Nullable Operation commit() {
+        // Deferred so that changes that extents above us flush first are
+        // queued before the extents below us commit
+        return new Operation() {
+            @Override
+            public Operation resume(RunContext run) throws WorldEditException {
+                flushBatches();
+                queue.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        Operations.completeBlindly(extent.commit());
+                    }
+                });
+                return null;
+            }
+
+            @Override
+            public void cancel() {
+            }
+
+            @Override
+            public void addStatusMessages(List<String> messages) {
+            }
+        };
+    }
+
+    /**
+     * Queue the collected block changes, blocking if the queue is full.
+     */
+    private void flushBatches() {
+        synchronized (batches) {
+            for (Batch batch : batches.values()) {
+                queue.execute(batch, batch.changes.size());
+            }
+            batches.clear();
+            batchedBlocks = 0;
+        }
+    }
+
+    /**
+     * Get the snapshot of the section containing the given block,
+     * capturing it on the main thread if necessary.
+     *
+     * @param position the block position
+     * @return the section
+     */
+    private Section getSection(BlockVector position) {
+        BlockVector key = toSectionKey(position);
+
+        Section section;
+        synchronized (sections) {
+            section = sections.get(key);
+        }
+        if (section != null) {
+            return section;
+        }
+
+        ListenableFuture<Section> future = requestSection(key);
+
+        // Capture the neighbours in the same trip to the main thread
+        for (int x = -PREFETCH_RADIUS; x <= PREFETCH_RADIUS; x++) {
+            for (int y = -PREFETCH_RADIUS; y <= PREFETCH_RADIUS; y++) {
+                for (int z = -PREFETCH_RADIUS; z <= PREFETCH_RADIUS; z++) {
+                    BlockVector neighbour = new BlockVector(key.getBlockX() + x, key.getBlockY() + y, key.getBlockZ() + z);
+                    boolean cached;
+                    synchronized (sections) {
+                        cached = sections.containsKey(neighbour);
+                    }
+                    if (!cached) {
+                        requestSection(neighbour);
+                    }
+                }
+            }
+        }
+
+        return Futures.getUnchecked(future);
+    }
+
+    /**
+     * Queue the capture of a section, unless it is already queued.
+     *
+     * @param key the section key
+     * @return a future for the section
+     */
+    private ListenableFuture<Section> requestSection(final BlockVector key) {
+        ListenableFutureTask<Section> task = ListenableFutureTask.create(new Callable<Section>() {
+            @Override
+            public Section call() throws Exception {
+                try {
+                    Section section = new Section(extent, key);
+                    synchronized (sections) {
+                        sections.put(key, section);
+                    }
+                    return section;
+                } finally {
+                    capturing.remove(key);
+                }
+            }
+        });
+
+        ListenableFuture<Section> existing = capturing.putIfAbsent(key, task);
+        if (existing != null) {
+            return existing;
+        }
+
+        queue.execute(task);
+        return task;
+    }
+
+    private <T> T callOnMainThread(Callable<T> task) {
+        flushBatches();
+        return Futures.getUnchecked(queue.submit(task));
+    }
+
+    private List<? extends Entity> wrap(List<? extends Entity> entities) {
+        List<Entity> wrapped = new ArrayList<Entity>(entities.size());
+        for (Entity entity : entities) {
+            wrapped.add(new QueuedEntity(entity));
+        }
+        return wrapped;
+    }
+
+    private static BlockVector toSectionKey(Vector position) {
+        return new BlockVector(position.getBlockX() >> 4, position.getBlockY() >> 4, position.getBlockZ() >> 4);
+    }
+
+    /**
+     * The block changes made to one section, applied in a single task.
+     */
+    private final class Batch implements Runnable {
+        private final BlockVector key;
+        private final Map<BlockVector, BaseBlock> changes = new LinkedHashMap<BlockVector, BaseBlock>();
+
+        private Batch(BlockVector key) {
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            Section section;
+            synchronized (sections) {
+                section = sections.get(key);
+            }
+
+            for (Map.Entry<BlockVector, BaseBlock> entry : changes.entrySet()) {
+                BlockVector position = entry.getKey();
+                BaseBlock block = entry.getValue();
+                try {
+                    extent.setBlock(position, block);
+                } catch (WorldEditException e) {
+                    log.log(Level.WARNING, "Failed to apply a queued block change", e);
+                }
+                if (section != null) {
+                    section.setBlock(position, block);
+                }
+                pendingBlocks.remove(position, block);
+            }
+        }
+    }
+
+    /**
+     * A snapshot of the blocks in a 16x16x16 section.
+     */
+    private static final class Section {
+        private final int[] blocks = new int[4096];
+        private final Map<Integer, CompoundTag> nbt = new HashMap<Integer, CompoundTag>();
+
+        private Section(Extent extent, BlockVector key) {
+            int minX = key.getBlockX() << 4;
+            int minY = key.getBlockY() << 4;
+            int minZ = key.getBlockZ() << 4;
+            for (int y = 0; y < 16; y++) {
+                for (int z = 0; z < 16; z++) {
+                    for (int x = 0; x < 16; x++) {
+                        BaseBlock block = extent.getBlock(new Vector(minX + x, minY + y, minZ + z));
+                        set(y << 8 | z << 4 | x, block);
+                    }
+                }
+            }
+        }
+
+        private static int index(Vector position) {
+            return (position.getBlockY() & 15) << 8 | (position.getBlockZ() & 15) << 4 | (position.getBlockX() & 15);
+        }
+
+        private void set(int index, BaseBlock block) {
+            blocks[index] = block.getId() << 4 | (block.getData() & 15);
+            CompoundTag tag = block.getNbtData();
+            if (tag != null) {
+                nbt.put(index, tag);
+            } else {
+                nbt.remove(index);
+            }
+        }
+
+        synchronized BaseBlock getBlock(Vector position) {
+            int index = index(position);
+            int value = blocks[index];
+            return new BaseBlock(value >>> 4, value & 15, nbt.get(index));
+        }
+
+        synchronized void setBlock(Vector position, BaseBlock block) {
+            set(index(position), block);
+        }
+    }
+
+    /**
+     * An entity whose methods are called on the main thread.
+     */
+    private final class QueuedEntity implements Entity {
+        private final Entity entity;
+
+        private QueuedEntity(Entity entity) {
+            this.entity = entity;
+        }
+
+        @Nullable
+        @Override
+        public BaseEntity getState() {
+            return callOnMainThread(new Callable<BaseEntity>() {
+                @Override
+                public BaseEntity call() throws Exception {
+                    return entity.getState();
+                }
+            });
+        }
+
+        @Override
+        public Location getLocation() {
+            return callOnMainThread(new Callable<Location>() {
+                @Override
+                public Location call() throws Exception {
+                    return entity.getLocation();
+                }
+            });
+        }
+
+        @Override
+        public Extent getExtent() {
+            return SnapshotCommitExtent.this;
+        }
+
+        @Override
+        public boolean remove() {
+            return callOnMainThread(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return entity.remove();
+                }
+            });
+        }
+
+        @Nullable
+        @Override
+        public <T> T getFacet(final Class<? extends T> cls) {
+            return callOnMainThread(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    return entity.getFacet(cls);
+                }
+            });
+        }
+    }
+
+}
@@ -39,6 +39,7 @@ public class ExpressionMask2D extends AbstractMask2D {
     public ExpressionMask2D(String expression) throws ExpressionException {
         checkNotNull(expression);
         this.expression = Expression.compile(expression, "x", "z");
+        this.expression.compileToBytecode();
     }
 
     /**
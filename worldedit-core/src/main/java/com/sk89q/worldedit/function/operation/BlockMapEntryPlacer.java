@@ -55,6 +55,10 @@ public BlockMapEntryPlacer(Extent extent, Iterator<Map.Entry<BlockVector, BaseBl
     @Override
     public Operation resume(RunContext run) throws WorldEditException {
         while (iterator.hasNext()) {
+            if (!run.shouldContinue()) {
+                return this;
+            }
+
             Map.Entry<BlockVector, BaseBlock> entry = iterator.next();
             extent.setBlock(entry.getKey(), entry.getValue());
         }
@@ -65,6 +65,10 @@ private ChangeSetExecutor(ChangeSet changeSet, Type type, UndoContext context) {
     @Override
     public Operation resume(RunContext run) throws WorldEditException {
         while (iterator.hasNext()) {
+            if (!run.shouldContinue()) {
+                return this;
+            }
+
             Change change = iterator.next();
             if (type == Type.UNDO) {
                 change.undo(context);
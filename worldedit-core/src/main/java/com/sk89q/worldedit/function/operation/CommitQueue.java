@@ -0,0 +1,267 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.function.operation;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.sk89q.worldedit.WorldEditException;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A queue of tasks that are posted from worker threads and run, in order,
+ * on the thread that resumes this operation.
+ *
+ * <p>The queue is meant to be submitted to the {@link OperationScheduler},
+ * which resumes it on the main thread every tick until it has been
+ * {@link #close() closed} and every queued task has run.</p>
+ *
+ * <p>The queue is bounded: every task has a weight (the number of changes
+ * it carries), and a thread that queues a task while the total weight of
+ * the waiting tasks is over the limit blocks until the main thread has
+ * caught up.</p>
+ */
+public class CommitQueue implements Operation {
+
+    private static final Logger log = Logger.getLogger(CommitQueue.class.getCanonicalName());
+
+    /**
+     * The default maximum total weight of queued tasks.
+     */
+    public static final int DEFAULT_LIMIT = 65536;
+
+    private final Queue<WeightedTask> tasks = new ConcurrentLinkedQueue<WeightedTask>();
+    private final Object lock = new Object();
+    private final int limit;
+    private int weight = 0;
+    private volatile boolean closed = false;
+    private volatile boolean cancelled = false;
+    private volatile Thread drainThread;
+
+    /**
+     * Create a new queue with the default limit.
+     */
+    public CommitQueue() {
+        this(DEFAULT_LIMIT);
+    }
+
+    /**
+     * Create a new queue.
+     *
+     * @param limit the maximum total weight of queued tasks
+     */
+    public CommitQueue(int limit) {
+        checkArgument(limit > 0, "limit must be > 0");
+        this.limit = limit;
+    }
+
+    /**
+     * Get the maximum total weight of queued tasks.
+     *
+     * @return the limit
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Queue a task with a weight of 1 to be run on the main thread.
+     *
+     * @param task the task
+     * @see #execute(Runnable, int)
+     */
+    public void execute(Runnable task) {
+        execute(task, 1);
+    }
+
+    /**
+     * Queue a task to be run on the main thread.
+     *
+     * <p>If the queue is full, this method blocks until enough of the
+     * waiting tasks have run. A task heavier than the limit waits
+     * until the queue is empty.</p>
+     *
+     * @param task the task
+     * @param weight the number of changes that the task carries
+     * @throws IllegalStateException if the queue is cancelled
+     */
+    public void execute(Runnable task, int weight) {
+        checkNotNull(task);
+        checkArgument(weight > 0, "weight must be > 0");
+        if (cancelled) {
+            throw new IllegalStateException("The commit queue has been cancelled");
+        }
+        if (Thread.currentThread() == drainThread) {
+            task.run();
+            return;
+        }
+
+        weight = Math.min(weight, limit);
+        synchronized (lock) {
+            boolean interrupted = false;
+            try {
+                while (this.weight + weight > limit && this.weight > 0) {
+                    if (cancelled) {
+                        throw new IllegalStateException("The commit queue has been cancelled");
+                    }
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (cancelled) {
+                    throw new IllegalStateException("The commit queue has been cancelled");
+                }
+                this.weight += weight;
+                tasks.add(new WeightedTask(task, weight));
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Queue a task to be run on the main thread and return a future for
+     * its result.
+     *
+     * <p>The task runs after every task that was queued before it.</p>
+     *
+     * @param task the task
+     * @param <T> the type of result
+     * @return a future
+     */
+    public <T> ListenableFuture<T> submit(Callable<T> task) {
+        ListenableFutureTask<T> future = ListenableFutureTask.create(task);
+        execute(future);
+        return future;
+    }
+
+    /**
+     * Get the number of tasks waiting to be run.
+     *
+     * @return the number of tasks
+     */
+    public int size() {
+        return tasks.size();
+    }
+
+    /**
+     * Get the total weight of the tasks waiting to be run.
+     *
+     * @return the weight
+     */
+    public int getWeight() {
+        synchronized (lock) {
+            return weight;
+        }
+    }
+
+    private void release(int weight) {
+        synchronized (lock) {
+            this.weight -= weight;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Mark that no more tasks will be queued, so this operation completes
+     * once the remaining tasks have run.
+     */
+    public void close() {
+        closed = true;
+    }
+
+    /**
+     * Get whether this queue has been closed.
+     *
+     * @return true if closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public Operation resume(RunContext run) throws WorldEditException {
+        drainThread = Thread.currentThread();
+        try {
+            while (run.shouldContinue()) {
+                WeightedTask task = tasks.poll();
+                if (task == null) {
+                    return closed && tasks.isEmpty() ? null : this;
+                }
+
+                try {
+                    task.task.run();
+                } catch (RuntimeException e) {
+                    log.log(Level.WARNING, "A queued task failed to run", e);
+                } finally {
+                    release(task.weight);
+                }
+            }
+            return this;
+        } finally {
+            drainThread = null;
+        }
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+        closed = true;
+        WeightedTask task;
+        while ((task = tasks.poll()) != null) {
+            if (task.task instanceof Future) {
+                ((Future<?>) task.task).cancel(false);
+            }
+            release(task.weight);
+        }
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public void addStatusMessages(List<String> messages) {
+        messages.add(getWeight() + " queued changes");
+    }
+
+    private static final class WeightedTask {
+        private final Runnable task;
+        private final int weight;
+
+        private WeightedTask(Runnable task, int weight) {
+            this.task = task;
+            this.weight = weight;
+        }
+    }
+
+}
@@ -85,12 +85,17 @@ public Operation resume(RunContext run) throws WorldEditException {
             current = queue.poll();
         }
 
-        if (current != null) {
+        // Keep going through the queue until the run is out of time
+        while (current != null) {
             current = current.resume(run);
 
             if (current == null) {
                 current = queue.poll();
             }
+
+            if (!run.shouldContinue()) {
+                break;
+            }
         }
 
         return current != null ? this : null;
@@ -0,0 +1,255 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.function.operation;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.sk89q.worldedit.LocalConfiguration;
+import com.sk89q.worldedit.WorldEdit;
+import com.sk89q.worldedit.WorldEditException;
+import com.sk89q.worldedit.event.platform.ConfigurationLoadEvent;
+import com.sk89q.worldedit.extension.platform.Capability;
+import com.sk89q.worldedit.extension.platform.NoCapablePlatformException;
+import com.sk89q.worldedit.extension.platform.Platform;
+import com.sk89q.worldedit.util.eventbus.Subscribe;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Resumes pending operations on every server tick, spending no more than
+ * a configurable number of milliseconds per tick on them.
+ *
+ * <p>Operations are resumed in turn, so that one large operation does
+ * not hold back every other one. Each operation is resumed at most once
+ * per tick, so an operation that returns itself without running out of
+ * time, such as a {@link CommitQueue} that is waiting for tasks, is not
+ * resumed again until the next tick. If the platform cannot schedule
+ * tasks, operations are completed immediately instead.</p>
+ *
+ * <p>This class is thread-safe, but operations are always resumed on the
+ * thread that the platform runs scheduled tasks on.</p>
+ */
+public class OperationScheduler {
+
+    private static final Logger log = Logger.getLogger(OperationScheduler.class.getCanonicalName());
+
+    private final WorldEdit worldEdit;
+    private final Deque<PendingOperation> pending = new ArrayDeque<PendingOperation>();
+    private volatile int tickLimit = 20;
+    private int taskId = -1;
+
+    /**
+     * Create a new scheduler.
+     *
+     * @param worldEdit the WorldEdit instance
+     */
+    public OperationScheduler(WorldEdit worldEdit) {
+        checkNotNull(worldEdit);
+        this.worldEdit = worldEdit;
+        worldEdit.getEventBus().register(this);
+    }
+
+    /**
+     * Get the number of milliseconds that may be spent on operations
+     * every tick.
+     *
+     * @return the limit in milliseconds
+     */
+    public int getTickLimit() {
+        return tickLimit;
+    }
+
+    /**
+     * Set the number of milliseconds that may be spent on operations
+     * every tick.
+     *
+     * @param tickLimit the limit in milliseconds
+     */
+    public void setTickLimit(int tickLimit) {
+        this.tickLimit = Math.max(1, tickLimit);
+    }
+
+    /**
+     * Get the number of operations that have not yet completed.
+     *
+     * @return the number of operations
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Get whether the platform can schedule the tick task, so that
+     * submitted operations are resumed on later ticks rather than
+     * completed immediately.
+     *
+     * @return true if operations can be scheduled
+     */
+    public synchronized boolean isAvailable() {
+        if (taskId == -1) {
+            taskId = scheduleTask();
+        }
+        return taskId != -1;
+    }
+
+    /**
+     * Queue an operation to be resumed on upcoming ticks.
+     *
+     * @param operation the operation
+     * @return a future that completes when the operation has completed
+     */
+    public ListenableFuture<Operation> submit(Operation operation) {
+        checkNotNull(operation);
+
+        SettableFuture<Operation> future = SettableFuture.create();
+        PendingOperation entry = new PendingOperation(operation, future);
+
+        synchronized (this) {
+            if (isAvailable()) {
+                pending.add(entry);
+                return future;
+            }
+        }
+
+        // The platform can't schedule tasks, so run it now
+        try {
+            Operations.complete(operation);
+            future.set(operation);
+        } catch (WorldEditException e) {
+            future.setException(e);
+        }
+        return future;
+    }
+
+    /**
+     * Cancel all pending operations.
+     */
+    public void cancelAll() {
+        PendingOperation[] cancelled;
+        synchronized (this) {
+            cancelled = pending.toArray(new PendingOperation[pending.size()]);
+            pending.clear();
+        }
+
+        for (PendingOperation entry : cancelled) {
+            entry.current.cancel();
+            entry.future.cancel(false);
+        }
+    }
+
+    /**
+     * Resume each pending operation once, until the run runs out of time.
+     */
+    private void tick() {
+        RunContext run = new RunContext(tickLimit, TimeUnit.MILLISECONDS, -1);
+        int count;
+        synchronized (this) {
+            count = pending.size();
+        }
+
+        // Operations that are put back are not resumed again this tick, so
+        // one that is waiting for work doesn't spin until the time runs out
+        for (int i = 0; i < count && run.shouldContinue(); i++) {
+            PendingOperation entry;
+            synchronized (this) {
+                entry = pending.poll();
+            }
+
+            if (entry == null) {
+                return;
+            }
+
+            if (entry.future.isCancelled()) {
+                entry.current.cancel();
+                continue;
+            }
+
+            try {
+                entry.current = entry.current.resume(run);
+            } catch (WorldEditException e) {
+                entry.future.setException(e);
+                continue;
+            } catch (RuntimeException e) {
+                log.log(Level.WARNING, "An operation failed while it was resumed", e);
+                entry.future.setException(e);
+                continue;
+            }
+
+            if (entry.current == null) {
+                entry.future.set(entry.operation);
+            } else {
+                // Go to the back of the line so other operations get a turn
+                synchronized (this) {
+                    pending.add(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Schedule the tick task with the platform.
+     *
+     * @return the task ID, or -1 if it could not be scheduled
+     */
+    private int scheduleTask() {
+        Platform platform;
+        try {
+            platform = worldEdit.getPlatformManager().queryCapability(Capability.GAME_HOOKS);
+        } catch (NoCapablePlatformException e) {
+            return -1;
+        }
+
+        return platform.schedule(0, 1, new Runnable() {
+            @Override
+            public void run() {
+                tick();
+            }
+        });
+    }
+
+    @Subscribe
+    public void onConfigurationLoad(ConfigurationLoadEvent event) {
+        LocalConfiguration config = event.getConfiguration();
+        setTickLimit(config.operationTickLimit);
+    }
+
+    /**
+     * An operation that has been submitted and the next operation
+     * to resume to complete it.
+     */
+    private static class PendingOperation {
+        private final Operation operation;
+        private final SettableFuture<Operation> future;
+        private Operation current;
+
+        private PendingOperation(Operation operation, SettableFuture<Operation> future) {
+            this.operation = operation;
+            this.future = future;
+            this.current = operation;
+        }
+    }
+
+}
@@ -20,6 +20,7 @@
 package com.sk89q.worldedit.function.operation;
 
 import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.MaxSearchMemoryException;
 import com.sk89q.worldedit.WorldEditException;
 
 /**
@@ -37,8 +38,9 @@ private Operations() {
      * @throws WorldEditException WorldEdit exception
      */
     public static void complete(Operation op) throws WorldEditException {
+        RunContext run = new RunContext();
         while (op != null) {
-            op = op.resume(new RunContext());
+            op = op.resume(run);
         }
     }
 
@@ -50,9 +52,10 @@ public static void complete(Operation op) throws WorldEditException {
      * @throws MaxChangedBlocksException thrown when too many blocks have been changed
      */
     public static void completeLegacy(Operation op) throws MaxChangedBlocksException {
+        RunContext run = new RunContext();
         while (op != null) {
             try {
-                op = op.resume(new RunContext());
+                op = op.resume(run);
             } catch (MaxChangedBlocksException e) {
                 throw e;
             } catch (WorldEditException e) {
@@ -61,6 +64,30 @@ public static void completeLegacy(Operation op) throws MaxChangedBlocksException
         }
     }
 
+    /**
+     * Complete a given search synchronously until it completes. Catch all
+     * errors that are not {@link MaxChangedBlocksException} or
+     * {@link MaxSearchMemoryException} for legacy reasons.
+     *
+     * @param op operation to execute
+     * @throws MaxChangedBlocksException thrown when too many blocks have been changed
+     * @throws MaxSearchMemoryException thrown when the search uses too much memory
+     */
+    public static void completeSearch(Operation op) throws MaxChangedBlocksException, MaxSearchMemoryException {
+        RunContext run = new RunContext();
+        while (op != null) {
+            try {
+                op = op.resume(run);
+            } catch (MaxChangedBlocksException e) {
+                throw e;
+            } catch (MaxSearchMemoryException e) {
+                throw e;
+            } catch (WorldEditException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
     /**
      * Complete a given operation synchronously until it completes. Re-throw all
      * {@link com.sk89q.worldedit.WorldEditException} exceptions as
@@ -69,9 +96,10 @@ public static void completeLegacy(Operation op) throws MaxChangedBlocksException
      * @param op operation to execute
      */
     public static void completeBlindly(Operation op) {
+        RunContext run = new RunContext();
         while (op != null) {
             try {
-                op = op.resume(new RunContext());
+                op = op.resume(run);
             } catch (WorldEditException e) {
                 throw new RuntimeException(e);
             }
@@ -19,20 +19,80 @@
 
 package com.sk89q.worldedit.function.operation;
 
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
 /**
  * Describes the current run.
+ *
+ * <p>A run may have a time limit, a step limit, or both. Operations are
+ * expected to call {@link #shouldContinue()} before each step (such as
+ * visiting a block) and to return themselves from
+ * {@link Operation#resume(RunContext)} once it returns false.</p>
  */
 public class RunContext {
 
+    private static final int TIME_CHECK_INTERVAL = 64;
+
+    private final long deadline;
+    private final boolean timeLimited;
+    private final long stepLimit;
+    private long steps;
+    private boolean exhausted;
+
+    /**
+     * Create a run with no limits.
+     */
+    public RunContext() {
+        this(-1, TimeUnit.MILLISECONDS, -1);
+    }
+
+    /**
+     * Create a run with the given limits.
+     *
+     * @param timeLimit the maximum time that the run may take, or -1 for no limit
+     * @param unit the unit of the time limit
+     * @param stepLimit the maximum number of steps, or -1 for no limit
+     */
+    public RunContext(long timeLimit, TimeUnit unit, long stepLimit) {
+        checkNotNull(unit);
+        this.timeLimited = timeLimit >= 0;
+        this.deadline = timeLimited ? System.nanoTime() + unit.toNanos(timeLimit) : 0;
+        this.stepLimit = stepLimit;
+    }
+
     /**
      * Return whether the current operation should still continue running.
      *
-     * <p>This method can be called frequently.</p>
+     * <p>This method can be called frequently. Each call counts as one step,
+     * and once this method has returned false, it will continue to do so
+     * for the rest of the run.</p>
      *
      * @return true if the operation should continue running
      */
     public boolean shouldContinue() {
-        return true;
+        if (exhausted) {
+            return false;
+        }
+
+        steps++;
+        if (stepLimit >= 0 && steps > stepLimit) {
+            exhausted = true;
+        } else if (timeLimited && steps % TIME_CHECK_INTERVAL == 0 && System.nanoTime() - deadline >= 0) {
+            exhausted = true;
+        }
+
+        return !exhausted;
+    }
+
+    /**
+     * Get the number of steps taken so far in this run.
+     *
+     * @return the number of steps
+     */
+    public long getSteps() {
+        return steps;
     }
 
 }
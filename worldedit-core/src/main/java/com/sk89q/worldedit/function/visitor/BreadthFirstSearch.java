@@ -20,6 +20,7 @@
 package com.sk89q.worldedit.function.visitor;
 
 import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.MaxSearchMemoryException;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.WorldEditException;
 import com.sk89q.worldedit.function.operation.Operation;
@@ -28,6 +29,7 @@
 
 import java.util.*;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
@@ -40,13 +42,19 @@
  * <p>As an abstract implementation, this class can be used to implement
  * functionality that starts at certain points and extends outward from
  * those points.</p>
+ *
+ * <p>Visited points are remembered as one bit per block in 16x16x16
+ * sections, and queued points are kept as plain coordinates, so a search
+ * over millions of blocks does not create an object per block. The memory
+ * used by the search can be capped with {@link #setMemoryLimit(long)}.</p>
  */
 public abstract class BreadthFirstSearch implements Operation {
 
     private final RegionFunction function;
-    private final Queue<BlockVector> queue = new ArrayDeque<BlockVector>();
-    private final Set<BlockVector> visited = new HashSet<BlockVector>();
+    private final PositionQueue queue = new PositionQueue();
+    private final VisitedSet visited = new VisitedSet();
     private final List<Vector> directions = new ArrayList<Vector>();
+    private long memoryLimit = -1;
     private int affected = 0;
 
     /**
@@ -113,38 +121,58 @@ protected void addDiagonal() {
      * @param position the position
      */
     public void visit(Vector position) {
-        BlockVector blockVector = position.toBlockVector();
-        if (!visited.contains(blockVector)) {
-            queue.add(blockVector);
-            visited.add(blockVector);
+        int x = position.getBlockX();
+        int y = position.getBlockY();
+        int z = position.getBlockZ();
+        if (visited.add(x, y, z)) {
+            queue.add(x, y, z);
         }
     }
 
     /**
-     * Try to visit the given 'to' location.
+     * Return whether the given 'to' block should be visited, starting from the
+     * 'from' block.
      *
      * @param from the origin block
      * @param to the block under question
+     * @return true if the 'to' block should be visited
      */
-    private void visit(Vector from, Vector to) {
-        BlockVector blockVector = to.toBlockVector();
-        if (!visited.contains(blockVector)) {
-            visited.add(blockVector);
-            if (isVisitable(from, to)) {
-                queue.add(blockVector);
-            }
-        }
+    protected abstract boolean isVisitable(Vector from, Vector to);
+
+    /**
+     * Get the maximum number of bytes that the search may use to remember
+     * visited and queued points.
+     *
+     * @return the limit, or -1 for no limit
+     */
+    public long getMemoryLimit() {
+        return memoryLimit;
     }
 
     /**
-     * Return whether the given 'to' block should be visited, starting from the
-     * 'from' block.
+     * Set the maximum number of bytes that the search may use to remember
+     * visited and queued points.
      *
-     * @param from the origin block
-     * @param to the block under question
-     * @return true if the 'to' block should be visited
+     * <p>Once the limit is exceeded, the search stops and
+     * {@link #resume(RunContext)} throws a {@link MaxSearchMemoryException}.
+     * Changes that were already made are kept.</p>
+     *
+     * @param memoryLimit the limit, or -1 for no limit
      */
-    protected abstract boolean isVisitable(Vector from, Vector to);
+    public void setMemoryLimit(long memoryLimit) {
+        checkArgument(memoryLimit >= -1, "memoryLimit >= -1 required");
+        this.memoryLimit = memoryLimit;
+    }
+
+    /**
+     * Get the approximate number of bytes used to remember visited and
+     * queued points.
+     *
+     * @return the number of bytes
+     */
+    public long getMemoryUsage() {
+        return visited.getMemoryUsage() + queue.getMemoryUsage();
+    }
 
     /**
      * Get the number of affected objects.
@@ -157,15 +185,41 @@ public int getAffected() {
 
     @Override
     public Operation resume(RunContext run) throws WorldEditException {
-        Vector position;
-        
-        while ((position = queue.poll()) != null) {
+        int count = directions.size();
+        int[] offsets = new int[count * 3];
+        int i = 0;
+        for (Vector dir : directions) {
+            offsets[i++] = dir.getBlockX();
+            offsets[i++] = dir.getBlockY();
+            offsets[i++] = dir.getBlockZ();
+        }
+
+        while (!queue.isEmpty()) {
+            if (!run.shouldContinue()) {
+                return this;
+            }
+
+            queue.remove();
+            int x = queue.getX();
+            int y = queue.getY();
+            int z = queue.getZ();
+            Vector position = new BlockVector(x, y, z);
             if (function.apply(position)) {
                 affected++;
             }
 
-            for (Vector dir : directions) {
-                visit(position, position.add(dir));
+            for (int j = 0; j < offsets.length; j += 3) {
+                int toX = x + offsets[j];
+                int toY = y + offsets[j + 1];
+                int toZ = z + offsets[j + 2];
+                if (visited.add(toX, toY, toZ) && isVisitable(position, new BlockVector(toX, toY, toZ))) {
+                    queue.add(toX, toY, toZ);
+                }
+            }
+
+            if (memoryLimit >= 0 && getMemoryUsage() > memoryLimit) {
+                queue.clear();
+                throw new MaxSearchMemoryException(memoryLimit);
             }
         }
 
@@ -64,6 +64,10 @@ public int getAffected() {
     @Override
     public Operation resume(RunContext run) throws WorldEditException {
         while (iterator.hasNext()) {
+            if (!run.shouldContinue()) {
+                return this;
+            }
+
             if (function.apply(iterator.next())) {
                 affected++;
             }
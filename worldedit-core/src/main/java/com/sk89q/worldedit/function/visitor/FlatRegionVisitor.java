@@ -26,6 +26,7 @@
 import com.sk89q.worldedit.function.operation.RunContext;
 import com.sk89q.worldedit.regions.FlatRegion;
 
+import java.util.Iterator;
 import java.util.List;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -37,6 +38,7 @@ public class FlatRegionVisitor implements Operation {
 
     private final FlatRegion flatRegion;
     private final FlatRegionFunction function;
+    private Iterator<Vector2D> iterator;
     private int affected = 0;
 
     /**
@@ -64,8 +66,16 @@ public int getAffected() {
 
     @Override
     public Operation resume(RunContext run) throws WorldEditException {
-        for (Vector2D pt : flatRegion.asFlatRegion()) {
-            if (function.apply(pt)) {
+        if (iterator == null) {
+            iterator = flatRegion.asFlatRegion().iterator();
+        }
+
+        while (iterator.hasNext()) {
+            if (!run.shouldContinue()) {
+                return this;
+            }
+
+            if (function.apply(iterator.next())) {
                 affected++;
             }
         }
@@ -0,0 +1,126 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.function.visitor;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A first-in first-out queue of block positions kept in a ring buffer of
+ * coordinates.
+ */
+final class PositionQueue {
+
+    private int[] buffer = new int[64 * 3];
+    private int head;
+    private int size;
+    private int x;
+    private int y;
+    private int z;
+
+    /**
+     * Add a position to the end of the queue.
+     *
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     * @param z the Z coordinate
+     */
+    void add(int x, int y, int z) {
+        int capacity = buffer.length / 3;
+        if (size == capacity) {
+            grow();
+            capacity = buffer.length / 3;
+        }
+        int tail = head + size;
+        if (tail >= capacity) {
+            tail -= capacity;
+        }
+        int offset = tail * 3;
+        buffer[offset] = x;
+        buffer[offset + 1] = y;
+        buffer[offset + 2] = z;
+        size++;
+    }
+
+    /**
+     * Remove the position at the front of the queue.
+     *
+     * <p>Its coordinates can then be read with {@link #getX()},
+     * {@link #getY()} and {@link #getZ()}.</p>
+     */
+    void remove() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        int offset = head * 3;
+        x = buffer[offset];
+        y = buffer[offset + 1];
+        z = buffer[offset + 2];
+        head++;
+        if (head == buffer.length / 3) {
+            head = 0;
+        }
+        size--;
+    }
+
+    int getX() {
+        return x;
+    }
+
+    int getY() {
+        return y;
+    }
+
+    int getZ() {
+        return z;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * Get the approximate number of bytes used by this queue.
+     *
+     * @return the number of bytes
+     */
+    long getMemoryUsage() {
+        return buffer.length * 4L + 16;
+    }
+
+    private void grow() {
+        int capacity = buffer.length / 3;
+        int[] grown = new int[buffer.length * 2];
+        int first = Math.min(size, capacity - head);
+        System.arraycopy(buffer, head * 3, grown, 0, first * 3);
+        System.arraycopy(buffer, 0, grown, first * 3, (size - first) * 3);
+        buffer = grown;
+        head = 0;
+    }
+
+}
@@ -19,13 +19,15 @@
 
 package com.sk89q.worldedit.function.visitor;
 
-import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.BlockVector;
 import com.sk89q.worldedit.WorldEditException;
 import com.sk89q.worldedit.function.operation.Operation;
 import com.sk89q.worldedit.function.RegionFunction;
 import com.sk89q.worldedit.function.operation.RunContext;
 import com.sk89q.worldedit.regions.Region;
+import com.sk89q.worldedit.regions.iterator.ChunkOrderedIterator;
 
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -35,6 +37,8 @@ public class RegionVisitor implements Operation {
 
     private final Region region;
     private final RegionFunction function;
+    private boolean chunkOrdered = false;
+    private Iterator<BlockVector> iterator;
     private int affected = 0;
 
     public RegionVisitor(Region region, RegionFunction function) {
@@ -42,6 +46,28 @@ public RegionVisitor(Region region, RegionFunction function) {
         this.function = function;
     }
 
+    /**
+     * Get whether the region is visited one chunk column at a time.
+     *
+     * @return true if visiting in chunk order
+     */
+    public boolean isChunkOrdered() {
+        return chunkOrdered;
+    }
+
+    /**
+     * Set whether the region is visited one chunk column at a time rather
+     * than in the region's own iteration order, which keeps consecutive
+     * accesses within the same chunk on wide regions.
+     *
+     * <p>This must be set before the visitor is first resumed.</p>
+     *
+     * @param chunkOrdered true to visit in chunk order
+     */
+    public void setChunkOrdered(boolean chunkOrdered) {
+        this.chunkOrdered = chunkOrdered;
+    }
+
     /**
      * Get the number of affected objects.
      *
@@ -53,8 +79,16 @@ public int getAffected() {
 
     @Override
     public Operation resume(RunContext run) throws WorldEditException {
-        for (Vector pt : region) {
-            if (function.apply(pt)) {
+        if (iterator == null) {
+            iterator = chunkOrdered ? new ChunkOrderedIterator(region) : region.iterator();
+        }
+
+        while (iterator.hasNext()) {
+            if (!run.shouldContinue()) {
+                return this;
+            }
+
+            if (function.apply(iterator.next())) {
                 affected++;
             }
         }
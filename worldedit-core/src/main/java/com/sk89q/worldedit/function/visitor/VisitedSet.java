@@ -0,0 +1,151 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.function.visitor;
+
+/**
+ * A set of block positions stored as one bit per block in 16x16x16
+ * sections.
+ */
+final class VisitedSet {
+
+    private static final int SECTION_WORDS = 16 * 16 * 16 / 64;
+    private static final long SECTION_BYTES = SECTION_WORDS * 8 + 16;
+
+    private int[] keys = new int[16 * 3];
+    private long[][] sections = new long[16][];
+    private int count;
+    private int lastX;
+    private int lastY;
+    private int lastZ;
+    private long[] last;
+
+    /**
+     * Add a position.
+     *
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     * @param z the Z coordinate
+     * @return true if the position was not already in the set
+     */
+    boolean add(int x, int y, int z) {
+        long[] section = getSection(x >> 4, y >> 4, z >> 4, true);
+        int bit = (y & 15) << 8 | (z & 15) << 4 | (x & 15);
+        long mask = 1L << bit;
+        long word = section[bit >>> 6];
+        if ((word & mask) != 0) {
+            return false;
+        }
+        section[bit >>> 6] = word | mask;
+        return true;
+    }
+
+    /**
+     * Return whether the set contains the given position.
+     *
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     * @param z the Z coordinate
+     * @return true if the position is in the set
+     */
+    boolean contains(int x, int y, int z) {
+        long[] section = getSection(x >> 4, y >> 4, z >> 4, false);
+        if (section == null) {
+            return false;
+        }
+        int bit = (y & 15) << 8 | (z & 15) << 4 | (x & 15);
+        return (section[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    /**
+     * Get the approximate number of bytes used by this set.
+     *
+     * @return the number of bytes
+     */
+    long getMemoryUsage() {
+        return count * SECTION_BYTES + keys.length * 4L + sections.length * 8L;
+    }
+
+    private long[] getSection(int sectionX, int sectionY, int sectionZ, boolean create) {
+        if (last != null && sectionX == lastX && sectionY == lastY && sectionZ == lastZ) {
+            return last;
+        }
+
+        int mask = sections.length - 1;
+        int slot = hash(sectionX, sectionY, sectionZ) & mask;
+        long[] section;
+        while ((section = sections[slot]) != null) {
+            int offset = slot * 3;
+            if (keys[offset] == sectionX && keys[offset + 1] == sectionY && keys[offset + 2] == sectionZ) {
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (section == null) {
+            if (!create) {
+                return null;
+            }
+            section = new long[SECTION_WORDS];
+            int offset = slot * 3;
+            keys[offset] = sectionX;
+            keys[offset + 1] = sectionY;
+            keys[offset + 2] = sectionZ;
+            sections[slot] = section;
+            if (++count * 2 > sections.length) {
+                rehash();
+            }
+        }
+
+        lastX = sectionX;
+        lastY = sectionY;
+        lastZ = sectionZ;
+        last = section;
+        return section;
+    }
+
+    private void rehash() {
+        int[] oldKeys = keys;
+        long[][] oldSections = sections;
+        keys = new int[oldKeys.length * 2];
+        sections = new long[oldSections.length * 2][];
+        int mask = sections.length - 1;
+        for (int i = 0; i < oldSections.length; i++) {
+            if (oldSections[i] != null) {
+                int x = oldKeys[i * 3];
+                int y = oldKeys[i * 3 + 1];
+                int z = oldKeys[i * 3 + 2];
+                int slot = hash(x, y, z) & mask;
+                while (sections[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot * 3] = x;
+                keys[slot * 3 + 1] = y;
+                keys[slot * 3 + 2] = z;
+                sections[slot] = oldSections[i];
+            }
+        }
+    }
+
+    private static int hash(int x, int y, int z) {
+        int h = x * 0x9E3779B1 + y * 0x85EBCA77 + z * 0xC2B2AE3D;
+        return h ^ (h >>> 16);
+    }
+
+}
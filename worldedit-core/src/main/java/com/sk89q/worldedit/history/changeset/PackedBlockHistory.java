@@ -0,0 +1,562 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.history.changeset;
+
+import com.google.common.collect.Iterators;
+import com.sk89q.jnbt.ByteArrayTag;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.IntArrayTag;
+import com.sk89q.jnbt.ListTag;
+import com.sk89q.jnbt.NBTInputStream;
+import com.sk89q.jnbt.NBTOutputStream;
+import com.sk89q.jnbt.StringTag;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.history.change.BlockChange;
+import com.sk89q.worldedit.history.change.Change;
+import com.sk89q.worldedit.math.PackedBlockPosition;
+import com.sk89q.worldedit.util.io.Closer;
+
+import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An extension of {@link ArrayListHistory} that stores {@link BlockChange}s
+ * in growable primitive arrays.
+ *
+ * <p>Positions are stored as packed longs (see {@link PackedBlockPosition})
+ * and the previous and current blocks as {@code int}s holding the ID and
+ * data value. NBT data is kept in sparse maps, so only tile entities pay
+ * for it. Changes at positions that cannot be packed, as well as all
+ * other types of changes, are stored by {@link ArrayListHistory}.</p>
+ *
+ * <p>The primitive arrays and NBT data can be {@link #spill(File) spilled}
+ * to a compressed file, after which they are streamed back from disk in
+ * segments whenever the change set is iterated. Spilling may happen on
+ * another thread while the change set is iterated. A spilled change set
+ * cannot be added to, and its file must be removed with
+ * {@link #discard()} once the history is no longer needed.</p>
+ */
+public class PackedBlockHistory extends ArrayListHistory {
+
+    private static final Logger log = Logger.getLogger(PackedBlockHistory.class.getCanonicalName());
+    private static final String SPILL_FILE_PREFIX = "history";
+    private static final String SPILL_FILE_SUFFIX = ".dat";
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int SEGMENT_SIZE = 8192;
+    // Rough size of a change held by ArrayListHistory, with its position and blocks
+    private static final long OTHER_CHANGE_SIZE = 128;
+
+    private long[] positions = new long[INITIAL_CAPACITY];
+    private int[] previous = new int[INITIAL_CAPACITY];
+    private int[] current = new int[INITIAL_CAPACITY];
+    private Map<Integer, CompoundTag> previousNbt = new HashMap<Integer, CompoundTag>();
+    private Map<Integer, CompoundTag> currentNbt = new HashMap<Integer, CompoundTag>();
+    private long nbtSize = 0;
+    private int blockChanges = 0;
+    @Nullable private volatile File spillFile;
+    @Nullable private long[] segmentOffsets;
+    private long nbtOffset;
+    private boolean spillQueued;
+    private boolean discarded;
+
+    @Override
+    public void add(Change change) {
+        checkNotNull(change);
+
+        if (spillFile != null) {
+            throw new IllegalStateException("Changes can't be added after the change set has been spilled to disk");
+        }
+
+        if (change instanceof BlockChange && PackedBlockPosition.fits(((BlockChange) change).getPosition())) {
+            BlockChange blockChange = (BlockChange) change;
+            if (blockChanges == positions.length) {
+                int capacity = positions.length + (positions.length >> 1);
+                positions = Arrays.copyOf(positions, capacity);
+                previous = Arrays.copyOf(previous, capacity);
+                current = Arrays.copyOf(current, capacity);
+            }
+
+            int index = blockChanges++;
+            positions[index] = PackedBlockPosition.pack(blockChange.getPosition());
+            previous[index] = encode(blockChange.getPrevious(), index, previousNbt);
+            current[index] = encode(blockChange.getCurrent(), index, currentNbt);
+        } else {
+            super.add(change);
+        }
+    }
+
+    @Override
+    public Iterator<Change> forwardIterator() {
+        return Iterators.concat(super.forwardIterator(), new BlockChangeIterator(false));
+    }
+
+    @Override
+    public Iterator<Change> backwardIterator() {
+        return Iterators.concat(super.backwardIterator(), new BlockChangeIterator(true));
+    }
+
+    @Override
+    public int size() {
+        return super.size() + blockChanges;
+    }
+
+    /**
+     * Get the approximate number of bytes used by the changes that are
+     * held in memory.
+     *
+     * <p>Block changes and NBT data that have been spilled, or that are
+     * queued to be spilled with {@link #spillLater(File, Executor)}, are
+     * not counted.</p>
+     *
+     * @return the number of bytes
+     */
+    public synchronized long getMemoryUsage() {
+        long usage = super.size() * OTHER_CHANGE_SIZE;
+        if (spillFile == null && !spillQueued) {
+            usage += positions.length * 8L + previous.length * 4L + current.length * 4L + nbtSize;
+        }
+        return usage;
+    }
+
+    /**
+     * Get whether the block changes have been spilled to disk.
+     *
+     * @return true if spilled
+     */
+    public boolean isSpilled() {
+        return spillFile != null;
+    }
+
+    /**
+     * Spill the block changes on the given executor, unless they have
+     * already been spilled or queued to be spilled.
+     *
+     * @param directory the directory to create the file in
+     * @param executor the executor to write the file on
+     * @return true if the change set was queued to be spilled
+     */
+    public synchronized boolean spillLater(final File directory, Executor executor) {
+        checkNotNull(directory);
+        checkNotNull(executor);
+
+        if (spillFile != null || spillQueued || discarded || blockChanges == 0) {
+            return false;
+        }
+
+        spillQueued = true;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    spill(directory);
+                } catch (IOException e) {
+                    log.log(Level.WARNING, "Failed to spill undo history to disk", e);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Write the block changes and their NBT data to a new compressed file
+     * in the given directory and release the in-memory copy.
+     *
+     * <p>Changes that are not block changes are kept in memory. No changes
+     * can be added afterwards. If changes are added while the file is
+     * being written, the file is thrown away and nothing is spilled.</p>
+     *
+     * @param directory the directory to create the file in
+     * @throws IOException thrown on I/O error
+     */
+    public void spill(File directory) throws IOException {
+        checkNotNull(directory);
+
+        long[] positions;
+        int[] previous;
+        int[] current;
+        Map<Integer, CompoundTag> previousNbt;
+        Map<Integer, CompoundTag> currentNbt;
+        int count;
+        synchronized (this) {
+            if (spillFile != null || discarded || blockChanges == 0) {
+                return;
+            }
+            positions = this.positions;
+            previous = this.previous;
+            current = this.current;
+            previousNbt = this.previousNbt;
+            currentNbt = this.currentNbt;
+            count = blockChanges;
+        }
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Failed to create " + directory.getAbsolutePath());
+        }
+
+        File file = File.createTempFile(SPILL_FILE_PREFIX, SPILL_FILE_SUFFIX, directory);
+
+        long[] offsets = new long[(count + SEGMENT_SIZE - 1) / SEGMENT_SIZE];
+        long offset = 0;
+        Closer closer = Closer.create();
+        try {
+            DataOutputStream out = closer.register(new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file))));
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            for (int segment = 0; segment < offsets.length; segment++) {
+                int start = segment * SEGMENT_SIZE;
+                int end = Math.min(count, start + SEGMENT_SIZE);
+
+                buffer.reset();
+                DataOutputStream segmentOut = new DataOutputStream(new DeflaterOutputStream(buffer));
+                for (int i = start; i < end; i++) {
+                    segmentOut.writeLong(positions[i]);
+                    segmentOut.writeInt(previous[i]);
+                    segmentOut.writeInt(current[i]);
+                }
+                segmentOut.close();
+
+                offsets[segment] = offset;
+                out.writeInt(buffer.size());
+                buffer.writeTo(out);
+                offset += 4 + buffer.size();
+            }
+
+            // NBT data follows the segments, the previous blocks' first
+            buffer.reset();
+            DataOutputStream nbtOut = new DataOutputStream(new DeflaterOutputStream(buffer));
+            writeNbt(nbtOut, previousNbt);
+            writeNbt(nbtOut, currentNbt);
+            nbtOut.close();
+            out.writeInt(buffer.size());
+            buffer.writeTo(out);
+        } catch (IOException e) {
+            closer.close();
+            file.delete();
+            throw e;
+        } finally {
+            closer.close();
+        }
+
+        synchronized (this) {
+            if (spillFile != null || discarded || blockChanges != count) {
+                if (!file.delete()) {
+                    log.log(Level.WARNING, "Failed to delete spilled history " + file.getAbsolutePath());
+                }
+                return;
+            }
+
+            segmentOffsets = offsets;
+            nbtOffset = offset;
+            spillFile = file;
+            this.positions = null;
+            this.previous = null;
+            this.current = null;
+            // Iterators may still hold the old maps
+            this.previousNbt = Collections.emptyMap();
+            this.currentNbt = Collections.emptyMap();
+            nbtSize = 0;
+        }
+    }
+
+    /**
+     * Delete the spill file, if there is one. The block changes that were
+     * spilled are lost.
+     */
+    public synchronized void discard() {
+        discarded = true;
+        if (spillFile != null) {
+            if (!spillFile.delete() && spillFile.exists()) {
+                log.log(Level.WARNING, "Failed to delete spilled history " + spillFile.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * Delete the spill files in the given directory that were left behind
+     * by a previous run, such as after a crash.
+     *
+     * @param directory the directory that history is spilled to
+     */
+    public static void deleteSpillFiles(File directory) {
+        checkNotNull(directory);
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(SPILL_FILE_PREFIX) && name.endsWith(SPILL_FILE_SUFFIX) && file.isFile()) {
+                if (!file.delete()) {
+                    log.log(Level.WARNING, "Failed to delete spilled history " + file.getAbsolutePath());
+                }
+            }
+        }
+    }
+
+    /**
+     * Encode the block ID and data value into an {@code int}, storing
+     * NBT data on the side if there is any.
+     *
+     * @param block the block
+     * @param index the index of the change
+     * @param nbt the map to store NBT data in
+     * @return the encoded block
+     */
+    private int encode(BaseBlock block, int index, Map<Integer, CompoundTag> nbt) {
+        CompoundTag tag = block.getNbtData();
+        if (tag != null) {
+            nbt.put(index, tag);
+            nbtSize += estimateSize(tag);
+        }
+        return (block.getId() << 16) | (block.getData() & 0xFFFF);
+    }
+
+    /**
+     * Decode a block that was encoded with
+     * {@link #encode(BaseBlock, int, Map)}.
+     *
+     * @param state the encoded block
+     * @param tag the NBT data, or null
+     * @return a new block
+     */
+    private static BaseBlock decode(int state, @Nullable CompoundTag tag) {
+        return new BaseBlock(state >>> 16, (short) state, tag);
+    }
+
+    /**
+     * Estimate the number of bytes that a tag uses in memory.
+     *
+     * @param tag the tag
+     * @return the number of bytes
+     */
+    private static long estimateSize(Tag tag) {
+        if (tag instanceof CompoundTag) {
+            long size = 48;
+            for (Map.Entry<String, Tag> entry : ((CompoundTag) tag).getValue().entrySet()) {
+                size += 48 + entry.getKey().length() * 2 + estimateSize(entry.getValue());
+            }
+            return size;
+        } else if (tag instanceof ListTag) {
+            long size = 48;
+            for (Tag child : ((ListTag) tag).getValue()) {
+                size += 8 + estimateSize(child);
+            }
+            return size;
+        } else if (tag instanceof ByteArrayTag) {
+            return 32 + ((ByteArrayTag) tag).getValue().length;
+        } else if (tag instanceof IntArrayTag) {
+            return 32 + ((IntArrayTag) tag).getValue().length * 4L;
+        } else if (tag instanceof StringTag) {
+            return 56 + ((StringTag) tag).getValue().length() * 2;
+        } else {
+            return 24;
+        }
+    }
+
+    private static void writeNbt(DataOutputStream out, Map<Integer, CompoundTag> nbt) throws IOException {
+        out.writeInt(nbt.size());
+        NBTOutputStream nbtOut = new NBTOutputStream(out);
+        for (Map.Entry<Integer, CompoundTag> entry : nbt.entrySet()) {
+            out.writeInt(entry.getKey());
+            nbtOut.writeNamedTag("", entry.getValue());
+        }
+    }
+
+    private static Map<Integer, CompoundTag> readNbt(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        Map<Integer, CompoundTag> nbt = new HashMap<Integer, CompoundTag>(count);
+        NBTInputStream nbtIn = new NBTInputStream(in);
+        for (int i = 0; i < count; i++) {
+            int index = in.readInt();
+            nbt.put(index, (CompoundTag) nbtIn.readNamedTag().getTag());
+        }
+        return nbt;
+    }
+
+    /**
+     * Iterates over the stored block changes, in order for redo or in
+     * reverse order for undo.
+     *
+     * <p>The state of the change set is captured when the iterator is
+     * created, so it keeps working if the change set is spilled in the
+     * meantime.</p>
+     */
+    private class BlockChangeIterator implements Iterator<Change> {
+        private final boolean backward;
+        private final int count;
+        @Nullable private final long[] positions;
+        @Nullable private final int[] blocks;
+        @Nullable private final File spillFile;
+        @Nullable private final long[] segmentOffsets;
+        private final long nbtOffset;
+        @Nullable private Map<Integer, CompoundTag> nbt;
+        private long[] segmentPositions;
+        private int[] segmentBlocks;
+        private int segmentStart;
+        private int index;
+
+        private BlockChangeIterator(boolean backward) {
+            this.backward = backward;
+            synchronized (PackedBlockHistory.this) {
+                this.count = blockChanges;
+                this.positions = PackedBlockHistory.this.positions;
+                this.blocks = backward ? previous : current;
+                this.spillFile = PackedBlockHistory.this.spillFile;
+                this.segmentOffsets = PackedBlockHistory.this.segmentOffsets;
+                this.nbtOffset = PackedBlockHistory.this.nbtOffset;
+                // Spilled NBT data is read back on first use
+                this.nbt = spillFile != null ? null : backward ? previousNbt : currentNbt;
+            }
+            this.index = backward ? count - 1 : 0;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return backward ? index >= 0 : index < count;
+        }
+
+        @Override
+        public Change next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            int i = backward ? index-- : index++;
+            long position;
+            int state;
+
+            if (spillFile == null) {
+                position = positions[i];
+                state = blocks[i];
+            } else {
+                if (nbt == null) {
+                    nbt = loadNbt();
+                }
+                if (segmentPositions == null || i < segmentStart || i >= segmentStart + segmentPositions.length) {
+                    loadSegment(i / SEGMENT_SIZE);
+                }
+                position = segmentPositions[i - segmentStart];
+                state = segmentBlocks[i - segmentStart];
+            }
+
+            CompoundTag tag = nbt.isEmpty() ? null : nbt.get(i);
+            BaseBlock block = decode(state, tag);
+            return new BlockChange(PackedBlockPosition.unpack(position), block, block);
+        }
+
+        /**
+         * Read a compressed block of data from the spill file.
+         *
+         * @param offset the offset of the block
+         * @return a stream of the decompressed data
+         * @throws IOException thrown on I/O error
+         */
+        private DataInputStream read(long offset) throws IOException {
+            byte[] data;
+            RandomAccessFile file = new RandomAccessFile(spillFile, "r");
+            try {
+                file.seek(offset);
+                data = new byte[file.readInt()];
+                file.readFully(data);
+            } finally {
+                file.close();
+            }
+            return new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data)));
+        }
+
+        /**
+         * Read the NBT data for the direction of this iterator back from
+         * the spill file.
+         *
+         * @return the NBT data
+         */
+        private Map<Integer, CompoundTag> loadNbt() {
+            try {
+                DataInputStream in = read(nbtOffset);
+                try {
+                    Map<Integer, CompoundTag> previousNbt = readNbt(in);
+                    return backward ? previousNbt : readNbt(in);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read spilled history from " + spillFile.getAbsolutePath(), e);
+            }
+        }
+
+        /**
+         * Read a segment back from the spill file.
+         *
+         * @param segment the segment index
+         */
+        private void loadSegment(int segment) {
+            int start = segment * SEGMENT_SIZE;
+            int count = Math.min(this.count, start + SEGMENT_SIZE) - start;
+            try {
+                DataInputStream in = read(segmentOffsets[segment]);
+                long[] loadedPositions = new long[count];
+                int[] loadedBlocks = new int[count];
+                for (int j = 0; j < count; j++) {
+                    loadedPositions[j] = in.readLong();
+                    int previousState = in.readInt();
+                    int currentState = in.readInt();
+                    loadedBlocks[j] = backward ? previousState : currentState;
+                }
+                in.close();
+
+                segmentPositions = loadedPositions;
+                segmentBlocks = loadedBlocks;
+                segmentStart = start;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read spilled history from " + spillFile.getAbsolutePath(), e);
+            }
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
@@ -37,6 +37,7 @@
 import com.sk89q.worldedit.util.TreeGenerator.TreeType;
 import com.sk89q.worldedit.world.World;
 import com.sk89q.worldedit.world.biome.BaseBiome;
+import com.sk89q.worldedit.world.chunk.SectionBuffer;
 import com.sk89q.worldedit.world.registry.WorldData;
 
 import javax.annotation.Nullable;
@@ -104,6 +105,11 @@ public boolean setBlock(Vector position, BaseBlock block, boolean notifyAndLight
         return world.setBlock(position, block, notifyAndLight);
     }
 
+    @Override
+    public int setBlocks(BlockVector2D chunk, SectionBuffer section, boolean notifyAndLight) throws WorldEditException {
+        return world.setBlocks(chunk, section, notifyAndLight);
+    }
+
     @Override
     public int getBlockLightLevel(Vector position) {
         return world.getBlockLightLevel(position);
@@ -89,6 +89,12 @@ public void convert(MaxChangedBlocksException e) throws CommandException {
                 + e.getBlockLimit() + ").");
     }
 
+    @ExceptionMatch
+    public void convert(MaxSearchMemoryException e) throws CommandException {
+        throw new CommandException("The operation was stopped because it used too much memory ("
+                + (e.getMemoryLimit() / (1024 * 1024)) + " MB).");
+    }
+
     @ExceptionMatch
     public void convert(MaxBrushRadiusException e) throws CommandException {
         throw new CommandException("Maximum brush radius (in configuration): " + worldEdit.getConfiguration().maxBrushRadius);
@@ -22,18 +22,25 @@
 import com.sk89q.worldedit.internal.expression.lexer.Lexer;
 import com.sk89q.worldedit.internal.expression.lexer.tokens.Token;
 import com.sk89q.worldedit.internal.expression.parser.Parser;
+import com.sk89q.worldedit.internal.expression.runtime.CompiledExpression;
 import com.sk89q.worldedit.internal.expression.runtime.Constant;
 import com.sk89q.worldedit.internal.expression.runtime.EvaluationException;
+import com.sk89q.worldedit.internal.expression.runtime.ExpressionCompiler;
 import com.sk89q.worldedit.internal.expression.runtime.ExpressionEnvironment;
 import com.sk89q.worldedit.internal.expression.runtime.Functions;
+import com.sk89q.worldedit.internal.expression.runtime.NodeCopier;
 import com.sk89q.worldedit.internal.expression.runtime.RValue;
 import com.sk89q.worldedit.internal.expression.runtime.ReturnException;
+import com.sk89q.worldedit.internal.expression.runtime.SharedState;
 import com.sk89q.worldedit.internal.expression.runtime.Variable;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Compiles and evaluates expressions.
@@ -56,7 +63,8 @@
  * <p>To compile an equation, run
  * {@code Expression.compile("expression here", "var1", "var2"...)}.
  * If you wish to run the equation multiple times, you can then optimize it,
- * by calling {@link #optimize()}. You can then run the equation as many times
+ * by calling {@link #optimize()}, and compile it to JVM bytecode by calling
+ * {@link #compileToBytecode()}. You can then run the equation as many times
  * as you want by calling {@link #evaluate(double...)}. You do not need to
  * pass values for all variables specified while compiling.
  * To query variables after evaluation, you can use
@@ -65,16 +73,24 @@
  *
  * <p>Variables are also supported and can be set either by passing values
  * to {@link #evaluate(double...)}.</p>
+ *
+ * <p>An expression is not thread safe. To evaluate it from several threads,
+ * give each thread its own {@link #copy()}.</p>
  */
 public class Expression {
 
+    private static final Logger log = Logger.getLogger(Expression.class.getCanonicalName());
     private static final ThreadLocal<Stack<Expression>> instance = new ThreadLocal<Stack<Expression>>();
 
     private final Map<String, RValue> variables = new HashMap<String, RValue>();
     private final String[] variableNames;
     private RValue root;
+    private boolean optimized;
     private final Functions functions = new Functions();
     private ExpressionEnvironment environment;
+    private CompiledExpression compiled;
+    private Object[] references;
+    private boolean instanceRequired;
 
     public static Expression compile(String expression, String... variableNames) throws ExpressionException {
         return new Expression(expression, variableNames);
@@ -102,6 +118,31 @@ private Expression(List<Token> tokens, String... variableNames) throws Expressio
         root = Parser.parse(tokens, this);
     }
 
+    private Expression(Expression expression) {
+        this.variableNames = expression.variableNames;
+        this.optimized = expression.optimized;
+        this.environment = expression.environment;
+
+        NodeCopier copier = new NodeCopier();
+        copier.map(expression.functions.getMegaBuffer(), functions.getMegaBuffer());
+        for (Map.Entry<String, RValue> entry : expression.variables.entrySet()) {
+            RValue value = entry.getValue();
+            if (value instanceof Variable) {
+                Variable variable = new Variable(((Variable) value).value);
+                copier.map(value, variable);
+                value = variable;
+            }
+            variables.put(entry.getKey(), value);
+        }
+        root = copier.copy(expression.root);
+
+        if (expression.compiled != null) {
+            references = copier.copyReferences(expression.references);
+            compiled = ExpressionCompiler.newInstance(expression.compiled, references);
+            instanceRequired = expression.instanceRequired;
+        }
+    }
+
     public double evaluate(double... values) throws EvaluationException {
         for (int i = 0; i < values.length; ++i) {
             final String variableName = variableNames[i];
@@ -113,6 +154,10 @@ public double evaluate(double... values) throws EvaluationException {
             ((Variable) invokable).value = values[i];
         }
 
+        if (compiled != null) {
+            return evaluateCompiled(false, 0, 0, 0);
+        }
+
         pushInstance();
         try {
             return root.getValue();
@@ -123,8 +168,115 @@ public double evaluate(double... values) throws EvaluationException {
         }
     }
 
+    /**
+     * Evaluate the expression with the given values for the first three
+     * variables.
+     *
+     * <p>This avoids the array allocation of {@link #evaluate(double...)},
+     * which matters for expressions that are evaluated once per block.</p>
+     *
+     * @param x the value of the first variable
+     * @param y the value of the second variable
+     * @param z the value of the third variable
+     * @return the result
+     * @throws EvaluationException if evaluation fails
+     */
+    public double evaluate(double x, double y, double z) throws EvaluationException {
+        if (compiled == null || variableNames.length < 3) {
+            return evaluate(new double[] { x, y, z });
+        }
+
+        return evaluateCompiled(true, x, y, z);
+    }
+
+    private double evaluateCompiled(boolean assign, double x, double y, double z) throws EvaluationException {
+        if (instanceRequired) {
+            pushInstance();
+        }
+        try {
+            return assign ? compiled.eval(x, y, z) : compiled.evaluate();
+        } catch (ReturnException e) {
+            return e.getValue();
+        } catch (RuntimeException e) {
+            throw new EvaluationException(-1, "Exception caught while evaluating expression", e);
+        } finally {
+            if (instanceRequired) {
+                popInstance();
+            }
+        }
+    }
+
     public void optimize() throws EvaluationException {
         root = root.optimize();
+        optimized = true;
+        compiled = null;
+        references = null;
+    }
+
+    /**
+     * Compile the expression to JVM bytecode, which is then used by all
+     * further calls to {@link #evaluate(double...)}.
+     *
+     * <p>The expression should be optimized first. If compilation fails,
+     * the expression continues to be interpreted.</p>
+     *
+     * @return true if the expression was compiled
+     */
+    public boolean compileToBytecode() {
+        Variable[] parameters = new Variable[Math.min(3, variableNames.length)];
+        for (int i = 0; i < parameters.length; i++) {
+            parameters[i] = (Variable) variables.get(variableNames[i]);
+        }
+
+        try {
+            ExpressionCompiler compiler = new ExpressionCompiler(root, parameters, functions);
+            compiled = compiler.compile();
+            references = compiler.getReferences();
+            instanceRequired = compiler.isInstanceRequired();
+            return true;
+        } catch (RuntimeException e) {
+            log.log(Level.FINE, "Failed to compile expression " + root, e);
+        } catch (LinkageError e) {
+            log.log(Level.FINE, "Failed to compile expression " + root, e);
+        } catch (StackOverflowError e) {
+            log.log(Level.FINE, "Failed to compile expression " + root, e);
+        }
+        return false;
+    }
+
+    /**
+     * Create a copy of this expression that has its own variables and
+     * megabuf, starting with the current values of the variables.
+     *
+     * <p>The copy gets a copy of the tree of this expression, optimized if
+     * this expression is, and an instance of the same compiled class bound
+     * to its own variables if this expression was compiled. It uses the
+     * same environment.</p>
+     *
+     * @return the copy
+     */
+    public Expression copy() {
+        return new Expression(this);
+    }
+
+    /**
+     * Return whether copies of this expression can be evaluated by different
+     * threads at the same time and give the same results as evaluating this
+     * expression serially.
+     *
+     * <p>This is the case unless the expression uses functions that access
+     * the world or other shared state, or keeps state between evaluations,
+     * either in its megabuf or in variables other than the ones that were
+     * named when it was compiled.</p>
+     *
+     * @return true if copies are independent of each other and of earlier evaluations
+     */
+    public boolean isThreadSafe() {
+        List<RValue> parameters = new ArrayList<RValue>(variableNames.length);
+        for (String variableName : variableNames) {
+            parameters.add(variables.get(variableName));
+        }
+        return !SharedState.isKeptBy(root, parameters);
     }
 
     @Override
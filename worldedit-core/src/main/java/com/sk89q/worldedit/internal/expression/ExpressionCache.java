@@ -0,0 +1,163 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.internal.expression;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A bounded cache of parsed, optimized and compiled expressions, keyed by
+ * their source and variable names.
+ *
+ * <p>Every call to {@link #get(String, String...)} returns a new
+ * {@link Expression#copy() copy} of the cached expression, so callers never
+ * share variables, megabuf or environment. The least recently used
+ * expressions are removed once the cache is full.</p>
+ *
+ * <p>This class is thread safe.</p>
+ */
+public class ExpressionCache {
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 64;
+
+    private final Map<List<String>, Expression> expressions = new LinkedHashMap<List<String>, Expression>(16, 0.75f, true);
+    private int maximumSize;
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * Create a new cache.
+     *
+     * @param maximumSize the maximum number of expressions to keep
+     */
+    public ExpressionCache(int maximumSize) {
+        setMaximumSize(maximumSize);
+    }
+
+    /**
+     * Get an optimized and compiled expression for the given source.
+     *
+     * @param expression the source of the expression
+     * @param variableNames the names of the variables passed to {@link Expression#evaluate(double...)}
+     * @return a new copy of the expression
+     * @throws ExpressionException thrown if the expression is invalid
+     */
+    public Expression get(String expression, String... variableNames) throws ExpressionException {
+        checkNotNull(expression);
+        checkNotNull(variableNames);
+
+        List<String> key = ImmutableList.<String>builder().add(expression).add(variableNames).build();
+        Expression cached;
+        synchronized (this) {
+            cached = expressions.get(key);
+            if (cached != null) {
+                hitCount++;
+            } else {
+                missCount++;
+            }
+        }
+
+        if (cached == null) {
+            cached = Expression.compile(expression, variableNames);
+            cached.optimize();
+            cached.compileToBytecode();
+
+            synchronized (this) {
+                expressions.put(key, cached);
+                trim();
+            }
+        }
+
+        return cached.copy();
+    }
+
+    /**
+     * Get the maximum number of expressions kept.
+     *
+     * @return the maximum size
+     */
+    public synchronized int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Set the maximum number of expressions kept, removing the least
+     * recently used ones if there are more.
+     *
+     * @param maximumSize the maximum size, 0 to disable caching
+     */
+    public synchronized void setMaximumSize(int maximumSize) {
+        checkArgument(maximumSize >= 0, "maximumSize must be non-negative");
+        this.maximumSize = maximumSize;
+        trim();
+    }
+
+    /**
+     * Get the number of expressions in the cache.
+     *
+     * @return the number of expressions
+     */
+    public synchronized int size() {
+        return expressions.size();
+    }
+
+    /**
+     * Get the number of requests that were answered from the cache.
+     *
+     * @return the number of hits
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Get the number of requests that had to parse the expression.
+     *
+     * @return the number of misses
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Remove all expressions and reset the counters.
+     */
+    public synchronized void clear() {
+        expressions.clear();
+        hitCount = 0;
+        missCount = 0;
+    }
+
+    private void trim() {
+        Iterator<Expression> it = expressions.values().iterator();
+        while (expressions.size() > maximumSize && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+}
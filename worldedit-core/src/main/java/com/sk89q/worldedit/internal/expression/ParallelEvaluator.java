@@ -0,0 +1,176 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.internal.expression;
+
+import com.sk89q.worldedit.internal.expression.runtime.EvaluationException;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Evaluates an expression for many inputs, splitting them between the
+ * threads of a fork/join pool.
+ *
+ * <p>Each thread evaluates its own {@link Expression#copy() copy} of the
+ * expression, so variables assigned by the expression are only carried
+ * over between inputs evaluated by the same thread. Expressions that are
+ * not {@link Expression#isThreadSafe() thread safe} are evaluated one input
+ * after another on the calling thread.</p>
+ */
+public class ParallelEvaluator {
+
+    private static final int MIN_TASK_SIZE = 256;
+
+    private final Expression expression;
+    private final ForkJoinPool pool;
+    private final boolean parallel;
+    private final ThreadLocal<Expression> copies = new ThreadLocal<Expression>() {
+        @Override
+        protected Expression initialValue() {
+            return expression.copy();
+        }
+    };
+
+    /**
+     * Create a new evaluator that uses the common fork/join pool.
+     *
+     * @param expression the expression
+     */
+    public ParallelEvaluator(Expression expression) {
+        this(expression, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create a new evaluator.
+     *
+     * @param expression the expression
+     * @param pool the pool to evaluate the expression in
+     */
+    public ParallelEvaluator(Expression expression, ForkJoinPool pool) {
+        checkNotNull(expression);
+        checkNotNull(pool);
+        this.expression = expression;
+        this.pool = pool;
+        this.parallel = pool.getParallelism() > 1 && expression.isThreadSafe();
+    }
+
+    /**
+     * Return whether inputs are evaluated in parallel.
+     *
+     * @return true if inputs are evaluated in parallel
+     */
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * Run the given task for the inputs {@code 0} to {@code count - 1}.
+     *
+     * <p>The task has to write its results to a different place for each
+     * input. This method returns once all inputs have been evaluated.</p>
+     *
+     * @param count the number of inputs
+     * @param task the task
+     * @throws EvaluationException if the task throws an exception
+     */
+    public void evaluate(int count, Task task) throws EvaluationException {
+        checkArgument(count >= 0, "count must be non-negative");
+        checkNotNull(task);
+
+        if (!parallel || count <= MIN_TASK_SIZE) {
+            for (int i = 0; i < count; i++) {
+                task.evaluate(expression, i);
+            }
+            return;
+        }
+
+        try {
+            pool.invoke(new Range(task, 0, count));
+        } catch (RuntimeException e) {
+            // The exception may have been recreated for this thread
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof TaskException) {
+                    throw ((TaskException) cause).getCause();
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Evaluates the expression for one input.
+     */
+    public interface Task {
+
+        /**
+         * Evaluate the given expression for an input.
+         *
+         * @param expression the expression, which is a copy when evaluating in parallel
+         * @param index the index of the input
+         * @throws EvaluationException if evaluation fails
+         */
+        void evaluate(Expression expression, int index) throws EvaluationException;
+
+    }
+
+    private final class Range extends RecursiveAction {
+        private final Task task;
+        private final int start;
+        private final int end;
+
+        private Range(Task task, int start, int end) {
+            this.task = task;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= MIN_TASK_SIZE) {
+                Expression copy = copies.get();
+                try {
+                    for (int i = start; i < end; i++) {
+                        task.evaluate(copy, i);
+                    }
+                } catch (EvaluationException e) {
+                    throw new TaskException(e);
+                }
+            } else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new Range(task, start, middle), new Range(task, middle, end));
+            }
+        }
+    }
+
+    private static final class TaskException extends RuntimeException {
+        private TaskException(EvaluationException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized EvaluationException getCause() {
+            return (EvaluationException) super.getCause();
+        }
+    }
+
+}
@@ -0,0 +1,388 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.internal.expression.runtime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Assembles the code of a single method for a {@link ClassFileBuilder}.
+ *
+ * <p>The operand stack depth is tracked as instructions are added so that
+ * the maximum can be written out. After an unconditional jump, the depth
+ * continues from the depth recorded by the next label that is jumped to,
+ * or can be set with {@link #setStack(int)}.</p>
+ */
+final class CodeBuilder {
+
+    static final int ACONST_NULL = 0x01;
+    static final int ICONST_0 = 0x03;
+    static final int DCONST_0 = 0x0e;
+    static final int DCONST_1 = 0x0f;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC = 0x12;
+    static final int LDC_W = 0x13;
+    static final int LDC2_W = 0x14;
+    static final int ILOAD = 0x15;
+    static final int LLOAD = 0x16;
+    static final int DLOAD = 0x18;
+    static final int ALOAD = 0x19;
+    static final int ISTORE = 0x36;
+    static final int LSTORE = 0x37;
+    static final int DSTORE = 0x39;
+    static final int AALOAD = 0x32;
+    static final int POP = 0x57;
+    static final int POP2 = 0x58;
+    static final int DUP = 0x59;
+    static final int DUP_X2 = 0x5b;
+    static final int DUP2 = 0x5c;
+    static final int SWAP = 0x5f;
+    static final int DADD = 0x63;
+    static final int DSUB = 0x67;
+    static final int DMUL = 0x6b;
+    static final int DDIV = 0x6f;
+    static final int DREM = 0x73;
+    static final int DNEG = 0x77;
+    static final int LSHL = 0x79;
+    static final int LSHR = 0x7b;
+    static final int LXOR = 0x83;
+    static final int IINC = 0x84;
+    static final int I2D = 0x87;
+    static final int L2I = 0x88;
+    static final int L2D = 0x8a;
+    static final int D2I = 0x8e;
+    static final int D2L = 0x8f;
+    static final int LCMP = 0x94;
+    static final int DCMPL = 0x97;
+    static final int DCMPG = 0x98;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int IFLT = 0x9b;
+    static final int IFGE = 0x9c;
+    static final int IFGT = 0x9d;
+    static final int IFLE = 0x9e;
+    static final int IF_ICMPLE = 0xa4;
+    static final int GOTO = 0xa7;
+    static final int DRETURN = 0xaf;
+    static final int RETURN = 0xb1;
+    static final int GETFIELD = 0xb4;
+    static final int PUTFIELD = 0xb5;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int INVOKEINTERFACE = 0xb9;
+    static final int NEW = 0xbb;
+    static final int ATHROW = 0xbf;
+    static final int CHECKCAST = 0xc0;
+    static final int WIDE = 0xc4;
+
+    /**
+     * A position in the code that can be jumped to.
+     */
+    static final class Label {
+        private int position = -1;
+        private int stack = -1;
+        private final List<int[]> fixups = new ArrayList<int[]>();
+    }
+
+    private final ClassFileBuilder classFile;
+    private final List<Label> labels = new ArrayList<Label>();
+    private byte[] code = new byte[256];
+    private int length;
+    private int stack;
+    private int maxStack;
+    private int maxLocals;
+
+    CodeBuilder(ClassFileBuilder classFile, int parameterSlots) {
+        this.classFile = classFile;
+        this.maxLocals = parameterSlots;
+    }
+
+    /**
+     * Reserve local variable slots.
+     *
+     * @param slots the number of slots, 2 for longs and doubles
+     * @return the index of the first slot
+     */
+    int newLocal(int slots) {
+        int index = maxLocals;
+        maxLocals += slots;
+        return index;
+    }
+
+    Label newLabel() {
+        Label label = new Label();
+        labels.add(label);
+        return label;
+    }
+
+    int getStack() {
+        return stack;
+    }
+
+    void setStack(int stack) {
+        this.stack = stack;
+    }
+
+    void op(int opcode, int stackDelta) {
+        emit(opcode);
+        adjust(stackDelta);
+    }
+
+    void pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            op(ICONST_0 + value, 1);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            emit(BIPUSH);
+            emit(value);
+            adjust(1);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            emit(SIPUSH);
+            emit16(value);
+            adjust(1);
+        } else {
+            constant(classFile.integer(value), 1);
+        }
+    }
+
+    void pushDouble(double value) {
+        if (Double.doubleToRawLongBits(value) == 0L) {
+            op(DCONST_0, 2);
+        } else if (value == 1.0) {
+            op(DCONST_1, 2);
+        } else {
+            emit(LDC2_W);
+            emit16(classFile.doubleConstant(value));
+            adjust(2);
+        }
+    }
+
+    void pushLong(long value) {
+        emit(LDC2_W);
+        emit16(classFile.longConstant(value));
+        adjust(2);
+    }
+
+    void pushString(String value) {
+        constant(classFile.string(value), 1);
+    }
+
+    void load(int opcode, int index) {
+        local(opcode, index);
+        adjust(opcode == DLOAD || opcode == LLOAD ? 2 : 1);
+    }
+
+    void store(int opcode, int index) {
+        local(opcode, index);
+        adjust(opcode == DSTORE || opcode == LSTORE ? -2 : -1);
+    }
+
+    void iinc(int index, int amount) {
+        if (index > 0xFF) {
+            emit(WIDE);
+            emit(IINC);
+            emit16(index);
+            emit16(amount);
+        } else {
+            emit(IINC);
+            emit(index);
+            emit(amount);
+        }
+    }
+
+    void field(int opcode, String owner, String name, String descriptor) {
+        emit(opcode);
+        emit16(classFile.fieldRef(owner, name, descriptor));
+        int size = slots(descriptor.charAt(0));
+        adjust(opcode == GETFIELD ? size - 1 : -size - 1);
+    }
+
+    void invoke(int opcode, String owner, String name, String descriptor) {
+        int argumentSlots = argumentSlots(descriptor);
+        int returnSlots = slots(descriptor.charAt(descriptor.indexOf(')') + 1));
+        int receiver = opcode == INVOKESTATIC ? 0 : 1;
+        if (opcode == INVOKEINTERFACE) {
+            emit(opcode);
+            emit16(classFile.interfaceMethodRef(owner, name, descriptor));
+            emit(argumentSlots + 1);
+            emit(0);
+        } else {
+            emit(opcode);
+            emit16(classFile.methodRef(owner, name, descriptor));
+        }
+        adjust(returnSlots - argumentSlots - receiver);
+    }
+
+    void type(int opcode, String internalName) {
+        emit(opcode);
+        emit16(classFile.classRef(internalName));
+        adjust(opcode == NEW ? 1 : 0);
+    }
+
+    void jump(int opcode, Label label) {
+        int start = length;
+        emit(opcode);
+        if (opcode == GOTO) {
+            adjust(0);
+        } else if (opcode >= IFEQ && opcode <= IFLE) {
+            adjust(-1);
+        } else {
+            adjust(-2);
+        }
+        label.fixups.add(new int[] { start, length });
+        emit16(0);
+        if (label.stack < 0) {
+            label.stack = stack;
+        } else if (label.stack != stack) {
+            throw new IllegalStateException("Inconsistent stack depth at jump");
+        }
+    }
+
+    void mark(Label label) {
+        label.position = length;
+        if (label.stack >= 0) {
+            stack = label.stack;
+        } else {
+            label.stack = stack;
+        }
+    }
+
+    byte[] toByteArray() {
+        resolve();
+        if (length > 0xFFFF) {
+            throw new UnsupportedOperationException("Method too large");
+        }
+        byte[] result = new byte[12 + length];
+        result[0] = (byte) (maxStack >>> 8);
+        result[1] = (byte) maxStack;
+        result[2] = (byte) (maxLocals >>> 8);
+        result[3] = (byte) maxLocals;
+        result[4] = (byte) (length >>> 24);
+        result[5] = (byte) (length >>> 16);
+        result[6] = (byte) (length >>> 8);
+        result[7] = (byte) length;
+        System.arraycopy(code, 0, result, 8, length);
+        // Empty exception table and no attributes
+        return result;
+    }
+
+    private void resolve() {
+        for (Label label : labels) {
+            if (label.position < 0) {
+                throw new IllegalStateException("Unmarked label");
+            }
+            for (int[] fixup : label.fixups) {
+                int offset = label.position - fixup[0];
+                if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                    throw new UnsupportedOperationException("Jump too far");
+                }
+                code[fixup[1]] = (byte) (offset >>> 8);
+                code[fixup[1] + 1] = (byte) offset;
+            }
+        }
+        if (maxLocals > 0xFFFF) {
+            throw new UnsupportedOperationException("Too many local variables");
+        }
+    }
+
+    private void local(int opcode, int index) {
+        if (index > 0xFF) {
+            emit(WIDE);
+            emit(opcode);
+            emit16(index);
+        } else {
+            emit(opcode);
+            emit(index);
+        }
+    }
+
+    private void constant(int index, int stackDelta) {
+        if (index > 0xFF) {
+            emit(LDC_W);
+            emit16(index);
+        } else {
+            emit(LDC);
+            emit(index);
+        }
+        adjust(stackDelta);
+    }
+
+    private void adjust(int delta) {
+        stack += delta;
+        if (stack < 0) {
+            throw new IllegalStateException("Operand stack underflow");
+        }
+        if (stack > maxStack) {
+            maxStack = stack;
+        }
+    }
+
+    private void emit(int value) {
+        if (length == code.length) {
+            code = Arrays.copyOf(code, length * 2);
+        }
+        code[length++] = (byte) value;
+    }
+
+    private void emit16(int value) {
+        emit(value >>> 8);
+        emit(value);
+    }
+
+    private static int slots(char type) {
+        switch (type) {
+            case 'V':
+                return 0;
+            case 'D':
+            case 'J':
+                return 2;
+            default:
+                return 1;
+        }
+    }
+
+    private static int argumentSlots(String descriptor) {
+        int slots = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            if (c == 'L') {
+                i = descriptor.indexOf(';', i) + 1;
+                slots++;
+            } else if (c == '[') {
+                while (descriptor.charAt(i) == '[') {
+                    i++;
+                }
+                if (descriptor.charAt(i) == 'L') {
+                    i = descriptor.indexOf(';', i);
+                }
+                i++;
+                slots++;
+            } else {
+                slots += slots(c);
+                i++;
+            }
+        }
+        return slots;
+    }
+
+}
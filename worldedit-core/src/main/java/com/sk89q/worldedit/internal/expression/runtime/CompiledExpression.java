@@ -0,0 +1,51 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.internal.expression.runtime;
+
+/**
+ * An expression that was compiled to JVM bytecode by
+ * {@link ExpressionCompiler}.
+ *
+ * <p>Compiled expressions read and write the same {@link Variable}s as the
+ * expression they were compiled from.</p>
+ */
+public interface CompiledExpression {
+
+    /**
+     * Assign the first three variables of the expression, if present, and
+     * evaluate it.
+     *
+     * @param x the value of the first variable
+     * @param y the value of the second variable
+     * @param z the value of the third variable
+     * @return the result
+     * @throws EvaluationException if evaluation fails
+     */
+    double eval(double x, double y, double z) throws EvaluationException;
+
+    /**
+     * Evaluate the expression with the current values of its variables.
+     *
+     * @return the result
+     * @throws EvaluationException if evaluation fails
+     */
+    double evaluate() throws EvaluationException;
+
+}
@@ -27,9 +27,9 @@
  */
 public class Conditional extends Node {
 
-    private RValue condition;
-    private RValue truePart;
-    private RValue falsePart;
+    RValue condition;
+    RValue truePart;
+    RValue falsePart;
 
     public Conditional(int position, RValue condition, RValue truePart, RValue falsePart) {
         super(position);
@@ -0,0 +1,856 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.internal.expression.runtime;
+
+import com.sk89q.worldedit.internal.expression.runtime.CodeBuilder.Label;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static com.sk89q.worldedit.internal.expression.runtime.CodeBuilder.*;
+
+/**
+ * Compiles the tree of an expression into a class that implements
+ * {@link CompiledExpression}.
+ *
+ * <p>Constants, variables, operators, the common math functions,
+ * {@code megabuf}, {@code gmegabuf} and all control flow are translated
+ * into bytecode. Other functions are called directly with their arguments
+ * passed in reusable {@link Variable}s instead of through reflection, and
+ * nodes that are not known to the compiler are evaluated by calling their
+ * {@link RValue#getValue()} method.</p>
+ *
+ * <p>The generated code behaves like the interpreter, except that the
+ * arguments of such direct function calls are evaluated before the call
+ * rather than by the function itself.</p>
+ */
+public class ExpressionCompiler {
+
+    private static final String PACKAGE = "com/sk89q/worldedit/internal/expression/runtime/";
+    private static final String VARIABLE = PACKAGE + "Variable";
+    private static final String RVALUE = PACKAGE + "RValue";
+    private static final String LVALUE = PACKAGE + "LValue";
+    private static final String SUPPORT = PACKAGE + "CompilerSupport";
+    private static final String EVALUATION_EXCEPTION = PACKAGE + "EvaluationException";
+    private static final String BREAK_EXCEPTION = PACKAGE + "BreakException";
+    private static final String MEGA_BUFFER = PACKAGE + "MegaBuffer";
+    private static final String MATH = "java/lang/Math";
+    private static final int MAX_ITERATIONS = 256;
+
+    private static final AtomicInteger classCounter = new AtomicInteger();
+    private static final Map<String, Integer> arithmetic = new HashMap<String, Integer>();
+    private static final Map<String, Integer> assignments = new HashMap<String, Integer>();
+    private static final Set<String> mathFunctions = new HashSet<String>();
+
+    static {
+        arithmetic.put("add", DADD);
+        arithmetic.put("sub", DSUB);
+        arithmetic.put("mul", DMUL);
+        arithmetic.put("div", DDIV);
+        arithmetic.put("mod", DREM);
+
+        assignments.put("ass", 0);
+        assignments.put("aadd", DADD);
+        assignments.put("asub", DSUB);
+        assignments.put("amul", DMUL);
+        assignments.put("adiv", DDIV);
+        assignments.put("amod", DREM);
+        assignments.put("aexp", -1);
+
+        String[] names = { "sin", "cos", "tan", "asin", "acos", "atan", "sinh", "cosh", "tanh",
+                "sqrt", "cbrt", "abs", "ceil", "floor", "rint", "exp", "log", "log10" };
+        for (String name : names) {
+            mathFunctions.add(name);
+        }
+    }
+
+    private final RValue root;
+    private final Variable[] parameters;
+    private final Functions functions;
+    private final MegaBuffer megabuf;
+    private String className;
+    private final ClassFileBuilder classFile = new ClassFileBuilder();
+    private final List<Object> references = new ArrayList<Object>();
+    private final List<String> referenceTypes = new ArrayList<String>();
+    private final Map<Object, Integer> referenceIndex = new IdentityHashMap<Object, Integer>();
+    private final Deque<Target> targets = new ArrayDeque<Target>();
+    private CodeBuilder code;
+    private boolean instanceRequired;
+
+    /**
+     * Create a new compiler.
+     *
+     * @param root the root of the expression tree
+     * @param parameters the variables assigned by {@link CompiledExpression#eval(double, double, double)}
+     * @param functions the functions of the expression, which holds its megabuf
+     */
+    public ExpressionCompiler(RValue root, Variable[] parameters, Functions functions) {
+        checkNotNull(root);
+        checkNotNull(parameters);
+        checkNotNull(functions);
+        this.root = root;
+        this.parameters = parameters;
+        this.functions = functions;
+        this.megabuf = functions.getMegaBuffer();
+    }
+
+    /**
+     * Compile the expression and load the generated class.
+     *
+     * @return the compiled expression
+     * @throws UnsupportedOperationException if the expression is too large to be compiled
+     */
+    public CompiledExpression compile() {
+        checkState(code == null, "The compiler was already used");
+
+        className = PACKAGE + "CompiledExpression$Generated" + classCounter.incrementAndGet();
+
+        code = new CodeBuilder(classFile, 1);
+        generate(root);
+        code.op(DRETURN, -2);
+        classFile.addMethod(ClassFileBuilder.ACC_PUBLIC, "evaluate", "()D", code);
+
+        CodeBuilder eval = new CodeBuilder(classFile, 7);
+        for (int i = 0; i < Math.min(3, parameters.length); i++) {
+            int index = reference(parameters[i]);
+            eval.load(ALOAD, 0);
+            eval.field(GETFIELD, className, "r" + index, referenceTypes.get(index));
+            eval.load(DLOAD, 1 + i * 2);
+            eval.field(PUTFIELD, VARIABLE, "value", "D");
+        }
+        eval.load(ALOAD, 0);
+        eval.invoke(INVOKEVIRTUAL, className, "evaluate", "()D");
+        eval.op(DRETURN, -2);
+        classFile.addMethod(ClassFileBuilder.ACC_PUBLIC, "eval", "(DDD)D", eval);
+
+        CodeBuilder init = new CodeBuilder(classFile, 2);
+        init.load(ALOAD, 0);
+        init.invoke(INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+        for (int i = 0; i < references.size(); i++) {
+            String type = referenceTypes.get(i);
+            classFile.addField(ClassFileBuilder.ACC_PRIVATE | ClassFileBuilder.ACC_FINAL, "r" + i, type);
+            init.load(ALOAD, 0);
+            init.load(ALOAD, 1);
+            init.pushInt(i);
+            init.op(AALOAD, -1);
+            init.type(CHECKCAST, type.substring(1, type.length() - 1));
+            init.field(PUTFIELD, className, "r" + i, type);
+        }
+        init.op(RETURN, 0);
+        classFile.addMethod(ClassFileBuilder.ACC_PUBLIC, "<init>", "([Ljava/lang/Object;)V", init);
+
+        byte[] bytes = classFile.toByteArray(ClassFileBuilder.ACC_PUBLIC | ClassFileBuilder.ACC_FINAL | ClassFileBuilder.ACC_SUPER,
+                className, "java/lang/Object", PACKAGE + "CompiledExpression");
+
+        Class<?> type = new GeneratedClassLoader(CompiledExpression.class.getClassLoader(), bytes).define(className.replace('/', '.'));
+        return newInstance(type, references.toArray());
+    }
+
+    /**
+     * Get the objects that the compiled expression refers to, in the order
+     * that {@link #newInstance(CompiledExpression, Object[])} expects them.
+     *
+     * @return the objects
+     */
+    public Object[] getReferences() {
+        checkState(code != null, "The expression was not compiled");
+        return references.toArray();
+    }
+
+    /**
+     * Create another instance of the class of a compiled expression that
+     * refers to the given objects instead, without generating any code.
+     *
+     * <p>This is used to give copies of an expression their own variables
+     * and buffer.</p>
+     *
+     * @param template the compiled expression
+     * @param references the objects, matching those returned by {@link #getReferences()} for the template
+     * @return the new instance
+     */
+    public static CompiledExpression newInstance(CompiledExpression template, Object[] references) {
+        checkNotNull(template);
+        checkNotNull(references);
+        return newInstance(template.getClass(), references);
+    }
+
+    private static CompiledExpression newInstance(Class<?> type, Object[] references) {
+        try {
+            return (CompiledExpression) type.getConstructor(Object[].class).newInstance((Object) references);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException("Failed to create the compiled expression", e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to create the compiled expression", e);
+        }
+    }
+
+    /**
+     * Return whether the compiled code calls functions or nodes that may
+     * use {@link com.sk89q.worldedit.internal.expression.Expression#getInstance()},
+     * in which case the expression has to be made current while it runs.
+     *
+     * @return true if the expression instance is required
+     */
+    public boolean isInstanceRequired() {
+        return instanceRequired;
+    }
+
+    /**
+     * Generate code that pushes the value of the given node.
+     *
+     * @param node the node
+     */
+    private void generate(RValue node) {
+        if (node instanceof Constant) {
+            code.pushDouble(((Constant) node).getValue());
+        } else if (node instanceof Variable) {
+            loadReference(node);
+            code.field(GETFIELD, VARIABLE, "value", "D");
+        } else if (node instanceof Function) {
+            generateFunction((Function) node);
+        } else if (node instanceof Sequence) {
+            generateSequence((Sequence) node);
+        } else if (node instanceof Conditional) {
+            generateConditional((Conditional) node);
+        } else if (node instanceof For) {
+            generateFor((For) node);
+        } else if (node instanceof SimpleFor) {
+            generateSimpleFor((SimpleFor) node);
+        } else if (node instanceof While) {
+            generateWhile((While) node);
+        } else if (node instanceof Switch) {
+            generateSwitch((Switch) node);
+        } else if (node instanceof Break) {
+            generateBreak((Break) node);
+        } else if (node instanceof Return) {
+            int stack = code.getStack();
+            generate(((Return) node).value);
+            code.op(DRETURN, -2);
+            code.setStack(stack + 2);
+        } else {
+            generateFallback(node);
+        }
+    }
+
+    private void generateFallback(RValue node) {
+        loadReference(node);
+        code.invoke(INVOKEINTERFACE, RVALUE, "getValue", "()D");
+        instanceRequired = true;
+    }
+
+    private void generateSequence(Sequence sequence) {
+        RValue[] nodes = sequence.sequence;
+        if (nodes.length == 0) {
+            code.pushDouble(0);
+            return;
+        }
+        for (int i = 0; i < nodes.length - 1; i++) {
+            generate(nodes[i]);
+            code.op(POP2, -2);
+        }
+        generate(nodes[nodes.length - 1]);
+    }
+
+    private void generateConditional(Conditional conditional) {
+        Label otherwise = code.newLabel();
+        Label end = code.newLabel();
+        jumpUnlessPositive(conditional.condition, otherwise);
+        generate(conditional.truePart);
+        code.jump(GOTO, end);
+        code.mark(otherwise);
+        if (conditional.falsePart != null) {
+            generate(conditional.falsePart);
+        } else {
+            code.pushDouble(0);
+        }
+        code.mark(end);
+    }
+
+    private void generateFor(For loop) {
+        generate(loop.init);
+        code.op(POP2, -2);
+        int counter = newCounter();
+        int result = newResult();
+        Label condition = code.newLabel();
+        Label increment = code.newLabel();
+        Label end = code.newLabel();
+
+        code.mark(condition);
+        jumpUnlessPositive(loop.condition, end);
+        checkIterations(counter, loop.getPosition());
+        generateBody(loop.body, result, end, increment);
+        code.mark(increment);
+        generate(loop.increment);
+        code.op(POP2, -2);
+        code.jump(GOTO, condition);
+
+        code.mark(end);
+        code.load(DLOAD, result);
+    }
+
+    private void generateSimpleFor(SimpleFor loop) {
+        int current = code.newLocal(2);
+        int last = code.newLocal(2);
+        generate(loop.first);
+        code.store(DSTORE, current);
+        generate(loop.last);
+        code.store(DSTORE, last);
+        int counter = newCounter();
+        int result = newResult();
+        Label condition = code.newLabel();
+        Label increment = code.newLabel();
+        Label end = code.newLabel();
+
+        code.mark(condition);
+        code.load(DLOAD, current);
+        code.load(DLOAD, last);
+        code.op(DCMPG, -3);
+        code.jump(IFGT, end);
+        checkIterations(counter, loop.getPosition());
+        code.load(DLOAD, current);
+        store(loop.counter);
+        code.op(POP2, -2);
+        generateBody(loop.body, result, end, increment);
+        code.mark(increment);
+        code.load(DLOAD, current);
+        code.pushDouble(1);
+        code.op(DADD, -2);
+        code.store(DSTORE, current);
+        code.jump(GOTO, condition);
+
+        code.mark(end);
+        code.load(DLOAD, result);
+    }
+
+    private void generateWhile(While loop) {
+        int counter = newCounter();
+        int result = newResult();
+        Label condition = code.newLabel();
+        Label end = code.newLabel();
+
+        if (loop.footChecked) {
+            Label body = code.newLabel();
+            code.mark(body);
+            checkIterations(counter, loop.getPosition());
+            generateBody(loop.body, result, end, condition);
+            code.mark(condition);
+            generate(loop.condition);
+            code.pushDouble(0);
+            code.op(DCMPL, -3);
+            code.jump(IFGT, body);
+        } else {
+            code.mark(condition);
+            jumpUnlessPositive(loop.condition, end);
+            checkIterations(counter, loop.getPosition());
+            generateBody(loop.body, result, end, condition);
+            code.jump(GOTO, condition);
+        }
+
+        code.mark(end);
+        code.load(DLOAD, result);
+    }
+
+    private void generateBody(RValue body, int result, Label breakLabel, Label continueLabel) {
+        targets.push(new Target(breakLabel, continueLabel, code.getStack()));
+        generate(body);
+        code.store(DSTORE, result);
+        targets.pop();
+    }
+
+    private void generateSwitch(Switch node) {
+        int stack = code.getStack();
+        generate(node.parameter);
+        code.invoke(INVOKESTATIC, "java/lang/Double", "doubleToLongBits", "(D)J");
+        int bits = code.newLocal(2);
+        code.store(LSTORE, bits);
+        int result = newResult();
+
+        RValue[] cases = node.caseStatements;
+        Label[] caseLabels = new Label[cases.length];
+        for (int i = 0; i < cases.length; i++) {
+            caseLabels[i] = code.newLabel();
+        }
+        Label afterCases = code.newLabel();
+        Label end = code.newLabel();
+
+        for (Map.Entry<Double, Integer> entry : node.valueMap.entrySet()) {
+            int index = entry.getValue();
+            code.load(LLOAD, bits);
+            code.pushLong(Double.doubleToLongBits(entry.getKey()));
+            code.op(LCMP, -3);
+            code.jump(IFEQ, index < cases.length ? caseLabels[index] : afterCases);
+        }
+        code.jump(GOTO, afterCases);
+
+        targets.push(new Target(end, null, stack));
+        for (int i = 0; i < cases.length; i++) {
+            code.mark(caseLabels[i]);
+            generate(cases[i]);
+            code.store(DSTORE, result);
+        }
+        code.mark(afterCases);
+        if (node.defaultCase != null) {
+            generate(node.defaultCase);
+        } else {
+            code.load(DLOAD, result);
+        }
+        targets.pop();
+        code.mark(end);
+    }
+
+    private void generateBreak(Break node) {
+        int stack = code.getStack();
+        Target target = null;
+        for (Target candidate : targets) {
+            if (!node.doContinue || candidate.continueLabel != null) {
+                target = candidate;
+                break;
+            }
+        }
+
+        if (target == null) {
+            code.type(NEW, BREAK_EXCEPTION);
+            code.op(DUP, 1);
+            code.pushInt(node.doContinue ? 1 : 0);
+            code.invoke(INVOKESPECIAL, BREAK_EXCEPTION, "<init>", "(Z)V");
+            code.op(ATHROW, -1);
+        } else {
+            while (code.getStack() > target.stack) {
+                code.op(POP2, -2);
+            }
+            if (target.continueLabel == null) {
+                // Breaking out of a switch makes it return 0
+                code.pushDouble(0);
+                code.jump(GOTO, target.breakLabel);
+            } else {
+                code.jump(GOTO, node.doContinue ? target.continueLabel : target.breakLabel);
+            }
+        }
+
+        // The code that follows is unreachable, but expects a value
+        code.setStack(stack + 2);
+    }
+
+    private void generateFunction(Function function) {
+        Method method = function.method;
+        String name = method.getName();
+        RValue[] args = function.args;
+
+        if (method.getDeclaringClass() == Operators.class && generateOperator(name, args)) {
+            return;
+        }
+        if (method.getDeclaringClass() == Functions.class && generateBuiltin(name, args)) {
+            return;
+        }
+        if (isDirectlyCallable(method, args, false)) {
+            generateCall(method, args, -1);
+        } else {
+            generateFallback(function);
+        }
+    }
+
+    private boolean generateOperator(String name, RValue[] args) {
+        Integer opcode = arithmetic.get(name);
+        if (opcode != null && args.length == 2) {
+            generate(args[0]);
+            generate(args[1]);
+            code.op(opcode, -2);
+            return true;
+        }
+
+        opcode = assignments.get(name);
+        if (opcode != null && args.length == 2 && args[0] instanceof LValue) {
+            LValue target = (LValue) args[0];
+            if (opcode == 0) {
+                generate(args[1]);
+            } else {
+                generate(target);
+                generate(args[1]);
+                if (opcode == -1) {
+                    code.invoke(INVOKESTATIC, MATH, "pow", "(DD)D");
+                } else {
+                    code.op(opcode, -2);
+                }
+            }
+            store(target);
+            return true;
+        }
+
+        if (args.length == 1) {
+            RValue x = args[0];
+            if (name.equals("neg")) {
+                generate(x);
+                code.op(DNEG, 0);
+            } else if (name.equals("not")) {
+                generate(x);
+                code.pushDouble(0);
+                code.op(DCMPL, -3);
+                pushBoolean(IFLE);
+            } else if (name.equals("inv")) {
+                generate(x);
+                code.op(D2L, 0);
+                code.pushLong(-1L);
+                code.op(LXOR, -2);
+                code.op(L2D, 0);
+            } else if ((name.equals("inc") || name.equals("dec")) && x instanceof LValue) {
+                generate(x);
+                code.pushDouble(1);
+                code.op(name.equals("inc") ? DADD : DSUB, -2);
+                store((LValue) x);
+            } else if ((name.equals("postinc") || name.equals("postdec")) && x instanceof LValue) {
+                generate(x);
+                code.op(DUP2, 2);
+                code.pushDouble(1);
+                code.op(name.equals("postinc") ? DADD : DSUB, -2);
+                store((LValue) x);
+                code.op(POP2, -2);
+            } else {
+                return false;
+            }
+            return true;
+        }
+
+        if (args.length != 2) {
+            return false;
+        }
+
+        RValue lhs = args[0];
+        RValue rhs = args[1];
+        if (name.equals("pow")) {
+            generate(lhs);
+            generate(rhs);
+            code.invoke(INVOKESTATIC, MATH, "pow", "(DD)D");
+        } else if (name.equals("lth")) {
+            compare(lhs, rhs, DCMPG, IFLT);
+        } else if (name.equals("gth")) {
+            compare(lhs, rhs, DCMPL, IFGT);
+        } else if (name.equals("leq")) {
+            compare(lhs, rhs, DCMPG, IFLE);
+        } else if (name.equals("geq")) {
+            compare(lhs, rhs, DCMPL, IFGE);
+        } else if (name.equals("equ")) {
+            compare(lhs, rhs, DCMPL, IFEQ);
+        } else if (name.equals("neq")) {
+            compare(lhs, rhs, DCMPL, IFNE);
+        } else if (name.equals("near")) {
+            generate(lhs);
+            generate(rhs);
+            code.invoke(INVOKESTATIC, SUPPORT, "near", "(DD)D");
+        } else if (name.equals("and") || name.equals("or")) {
+            boolean and = name.equals("and");
+            Label shortCircuit = code.newLabel();
+            Label end = code.newLabel();
+            for (RValue operand : args) {
+                generate(operand);
+                code.pushDouble(0);
+                code.op(DCMPL, -3);
+                code.jump(and ? IFLE : IFGT, shortCircuit);
+            }
+            code.pushDouble(and ? 1 : 0);
+            code.jump(GOTO, end);
+            code.mark(shortCircuit);
+            code.pushDouble(and ? 0 : 1);
+            code.mark(end);
+        } else if (name.equals("shl") || name.equals("shr")) {
+            generate(lhs);
+            code.op(D2L, 0);
+            generate(rhs);
+            code.op(D2L, 0);
+            code.op(L2I, -1);
+            code.op(name.equals("shl") ? LSHL : LSHR, -1);
+            code.op(L2D, 0);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private boolean generateBuiltin(String name, RValue[] args) {
+        if (args.length == 1 && (mathFunctions.contains(name) || name.equals("ln"))) {
+            generate(args[0]);
+            code.invoke(INVOKESTATIC, MATH, name.equals("ln") ? "log" : name, "(D)D");
+        } else if (args.length == 1 && name.equals("round")) {
+            generate(args[0]);
+            code.invoke(INVOKESTATIC, MATH, "round", "(D)J");
+            code.op(L2D, 0);
+        } else if (args.length == 2 && name.equals("atan2")) {
+            generate(args[0]);
+            generate(args[1]);
+            code.invoke(INVOKESTATIC, MATH, "atan2", "(DD)D");
+        } else if ((args.length == 2 || args.length == 3) && (name.equals("min") || name.equals("max"))) {
+            for (RValue arg : args) {
+                generate(arg);
+            }
+            for (int i = 1; i < args.length; i++) {
+                code.invoke(INVOKESTATIC, MATH, name, "(DD)D");
+            }
+        } else if (args.length == 1 && (name.equals("megabuf") || name.equals("gmegabuf"))) {
+            generate(args[0]);
+            code.op(D2I, -1);
+            loadReference(name.equals("megabuf") ? megabuf : Functions.gmegabuf);
+            code.op(SWAP, 0);
+            code.invoke(INVOKEVIRTUAL, MEGA_BUFFER, "get", "(I)D");
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Generate code that assigns the value on top of the stack to the given
+     * target, leaving the result of the assignment on the stack.
+     *
+     * @param target the target
+     */
+    private void store(LValue target) {
+        if (target instanceof Variable) {
+            code.op(DUP2, 2);
+            loadReference(target);
+            code.op(DUP_X2, 1);
+            code.op(POP, -1);
+            code.field(PUTFIELD, VARIABLE, "value", "D");
+            return;
+        }
+
+        if (target instanceof LValueFunction) {
+            LValueFunction function = (LValueFunction) target;
+            Method setter = function.setter;
+            String name = setter.getName();
+            RValue[] args = function.args;
+            if (setter.getDeclaringClass() == Functions.class && args.length == 1
+                    && (name.equals("megabuf") || name.equals("gmegabuf"))) {
+                int value = code.newLocal(2);
+                code.store(DSTORE, value);
+                generate(args[0]);
+                code.op(D2I, -1);
+                loadReference(name.equals("megabuf") ? megabuf : Functions.gmegabuf);
+                code.op(SWAP, 0);
+                code.load(DLOAD, value);
+                code.invoke(INVOKEVIRTUAL, MEGA_BUFFER, "set", "(ID)D");
+                return;
+            }
+            if (isDirectlyCallable(setter, args, true)) {
+                int value = code.newLocal(2);
+                code.store(DSTORE, value);
+                generateCall(setter, args, value);
+                return;
+            }
+        }
+
+        loadReference(target);
+        code.op(DUP_X2, 1);
+        code.op(POP, -1);
+        code.invoke(INVOKEINTERFACE, LVALUE, "assign", "(D)D");
+        instanceRequired = true;
+    }
+
+    /**
+     * Generate a direct call of a function.
+     *
+     * <p>Constants and assignable arguments are passed as they are, and
+     * other arguments are evaluated and passed in a {@link Variable}.</p>
+     *
+     * @param method the function
+     * @param args the arguments
+     * @param value the local holding the value to pass to a setter, or -1
+     */
+    private void generateCall(Method method, RValue[] args, int value) {
+        Object[] passed = new Object[args.length];
+        for (int i = 0; i < args.length; i++) {
+            RValue arg = args[i];
+            if (arg instanceof Constant || arg instanceof LValue) {
+                passed[i] = arg;
+            } else {
+                Variable slot = new Variable(0);
+                generate(arg);
+                loadReference(slot);
+                code.op(DUP_X2, 1);
+                code.op(POP, -1);
+                code.field(PUTFIELD, VARIABLE, "value", "D");
+                passed[i] = slot;
+            }
+        }
+
+        StringBuilder descriptor = new StringBuilder("(");
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        for (int i = 0; i < args.length; i++) {
+            loadReference(passed[i]);
+            descriptor.append(parameterTypes[i] == LValue.class ? "L" + LVALUE + ";" : "L" + RVALUE + ";");
+        }
+        if (value >= 0) {
+            code.load(DLOAD, value);
+            descriptor.append('D');
+        }
+        descriptor.append(")D");
+
+        code.invoke(INVOKESTATIC, method.getDeclaringClass().getName().replace('.', '/'), method.getName(), descriptor.toString());
+        instanceRequired = true;
+    }
+
+    private static boolean isDirectlyCallable(Method method, RValue[] args, boolean setter) {
+        int modifiers = method.getModifiers();
+        if (!Modifier.isPublic(modifiers) || !Modifier.isStatic(modifiers)
+                || !Modifier.isPublic(method.getDeclaringClass().getModifiers())
+                || method.getReturnType() != double.class) {
+            return false;
+        }
+
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        int count = setter ? parameterTypes.length - 1 : parameterTypes.length;
+        if (count != args.length || setter && parameterTypes[count] != double.class) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            if (parameterTypes[i] == LValue.class ? !(args[i] instanceof LValue) : parameterTypes[i] != RValue.class) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void compare(RValue lhs, RValue rhs, int comparison, int jump) {
+        generate(lhs);
+        generate(rhs);
+        code.op(comparison, -3);
+        pushBoolean(jump);
+    }
+
+    /**
+     * Consume the int on the stack and push 1 if the given jump would be
+     * taken, or 0 otherwise.
+     *
+     * @param jump the jump opcode
+     */
+    private void pushBoolean(int jump) {
+        Label isTrue = code.newLabel();
+        Label end = code.newLabel();
+        code.jump(jump, isTrue);
+        code.pushDouble(0);
+        code.jump(GOTO, end);
+        code.mark(isTrue);
+        code.pushDouble(1);
+        code.mark(end);
+    }
+
+    private void jumpUnlessPositive(RValue condition, Label label) {
+        generate(condition);
+        code.pushDouble(0);
+        code.op(DCMPL, -3);
+        code.jump(IFLE, label);
+    }
+
+    private int newCounter() {
+        int counter = code.newLocal(1);
+        code.pushInt(0);
+        code.store(ISTORE, counter);
+        return counter;
+    }
+
+    private int newResult() {
+        int result = code.newLocal(2);
+        code.pushDouble(0);
+        code.store(DSTORE, result);
+        return result;
+    }
+
+    private void checkIterations(int counter, int position) {
+        Label ok = code.newLabel();
+        code.load(ILOAD, counter);
+        code.pushInt(MAX_ITERATIONS);
+        code.jump(IF_ICMPLE, ok);
+        code.type(NEW, EVALUATION_EXCEPTION);
+        code.op(DUP, 1);
+        code.pushInt(position);
+        code.pushString("Loop exceeded " + MAX_ITERATIONS + " iterations.");
+        code.invoke(INVOKESPECIAL, EVALUATION_EXCEPTION, "<init>", "(ILjava/lang/String;)V");
+        code.op(ATHROW, -1);
+        code.mark(ok);
+        code.iinc(counter, 1);
+    }
+
+    private int reference(Object object) {
+        Integer index = referenceIndex.get(object);
+        if (index == null) {
+            String type;
+            if (object instanceof Variable) {
+                type = "L" + VARIABLE + ";";
+            } else if (object instanceof LValue) {
+                type = "L" + LVALUE + ";";
+            } else if (object instanceof RValue) {
+                type = "L" + RVALUE + ";";
+            } else {
+                type = "L" + MEGA_BUFFER + ";";
+            }
+            index = references.size();
+            references.add(object);
+            referenceTypes.add(type);
+            referenceIndex.put(object, index);
+        }
+        return index;
+    }
+
+    private void loadReference(Object object) {
+        int index = reference(object);
+        code.load(ALOAD, 0);
+        code.field(GETFIELD, className, "r" + index, referenceTypes.get(index));
+    }
+
+    /**
+     * A loop or switch that break and continue statements can jump out of.
+     */
+    private static final class Target {
+        private final Label breakLabel;
+        private final Label continueLabel;
+        private final int stack;
+
+        private Target(Label breakLabel, Label continueLabel, int stack) {
+            this.breakLabel = breakLabel;
+            this.continueLabel = continueLabel;
+            this.stack = stack;
+        }
+    }
+
+    private static final class GeneratedClassLoader extends ClassLoader {
+        private final byte[] bytes;
+
+        private GeneratedClassLoader(ClassLoader parent, byte[] bytes) {
+            super(parent);
+            this.bytes = bytes;
+        }
+
+        private Class<?> define(String name) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+}
@@ -24,8 +24,13 @@
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Wrapper for a Java method and its arguments (other Nodes).
@@ -39,18 +44,89 @@ public class Function extends Node {
     @Retention(RetentionPolicy.RUNTIME)
     public @interface Dynamic { }
 
+    /**
+     * Add this annotation on functions that access state shared by all
+     * copies of an expression, such as the world or the global buffer.
+     * Expressions that use them are not evaluated in parallel.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface Shared { }
+
+    /**
+     * Add this annotation on functions that access state that one copy of
+     * an expression keeps between evaluations, such as its buffer.
+     * Expressions that use them are not evaluated in parallel.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface Stateful { }
+
+    private static final Map<Method, MethodHandle> handles = new ConcurrentHashMap<Method, MethodHandle>();
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(double.class, Object[].class);
+
     final Method method;
     final RValue[] args;
+    private final MethodHandle handle;
 
     Function(int position, Method method, RValue... args) {
         super(position);
         this.method = method;
         this.args = args;
+        this.handle = getHandle(method);
     }
 
     @Override
     public final double getValue() throws EvaluationException {
-        return invokeMethod(method, args);
+        return invokeHandle(handle, method, args);
+    }
+
+    /**
+     * Get a method handle that takes the arguments of the given method as
+     * an array and returns a double.
+     *
+     * @param method the method
+     * @return the handle, or null if the method is not accessible
+     */
+    static MethodHandle getHandle(Method method) {
+        MethodHandle handle = handles.get(method);
+        if (handle == null) {
+            try {
+                handle = MethodHandles.publicLookup().unreflect(method)
+                        .asSpreader(Object[].class, method.getParameterTypes().length)
+                        .asType(INVOKER_TYPE);
+            } catch (IllegalAccessException e) {
+                return null;
+            } catch (IllegalArgumentException e) {
+                return null;
+            } catch (ClassCastException e) {
+                return null;
+            }
+            handles.put(method, handle);
+        }
+        return handle;
+    }
+
+    /**
+     * Invoke a method through the handle returned by {@link #getHandle(Method)},
+     * or through reflection if there is none.
+     *
+     * @param handle the handle, or null
+     * @param method the method
+     * @param args the arguments
+     * @return the result
+     * @throws EvaluationException if the method throws an exception
+     */
+    static double invokeHandle(MethodHandle handle, Method method, Object[] args) throws EvaluationException {
+        if (handle == null) {
+            return invokeMethod(method, args);
+        }
+
+        try {
+            return (double) handle.invokeExact(args);
+        } catch (EvaluationException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new EvaluationException(-1, "Exception caught while evaluating expression", e);
+        }
     }
 
     protected static double invokeMethod(Method method, Object[] args) throws EvaluationException {
@@ -103,7 +179,7 @@ public RValue optimize() throws EvaluationException {
         }
 
         if (optimizable) {
-            return new Constant(position, invokeMethod(method, optimizedArgs));
+            return new Constant(position, invokeHandle(handle, method, optimizedArgs));
         } else {
             return new Function(position, method, optimizedArgs);
         }
@@ -22,6 +22,8 @@
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.internal.expression.Expression;
 import com.sk89q.worldedit.internal.expression.runtime.Function.Dynamic;
+import com.sk89q.worldedit.internal.expression.runtime.Function.Shared;
+import com.sk89q.worldedit.internal.expression.runtime.Function.Stateful;
 import com.sk89q.worldedit.math.noise.PerlinNoise;
 import com.sk89q.worldedit.math.noise.RidgedMultiFractalNoise;
 import com.sk89q.worldedit.math.noise.VoronoiNoise;
@@ -279,50 +281,57 @@ public static double swap(LValue x, LValue y) throws EvaluationException {
     }
 
 
-    private static final Map<Integer, double[]> gmegabuf = new HashMap<Integer, double[]>();
-    private final Map<Integer, double[]> megabuf = new HashMap<Integer, double[]>();
+    static final MegaBuffer gmegabuf = new MegaBuffer();
+    private final MegaBuffer megabuf = new MegaBuffer();
 
-    public Map<Integer, double[]> getMegabuf() {
+    /**
+     * Get the buffer behind the {@code megabuf} function.
+     *
+     * @return the buffer
+     */
+    public MegaBuffer getMegaBuffer() {
         return megabuf;
     }
 
-    private static double[] getSubBuffer(Map<Integer, double[]> megabuf, Integer key) {
-        double[] ret = megabuf.get(key);
-        if (ret == null) {
-            megabuf.put(key, ret = new double[1024]);
-        }
-        return ret;
-    }
-
-    private static double getBufferItem(final Map<Integer, double[]> megabuf, final int index) {
-        return getSubBuffer(megabuf, index & ~1023)[index & 1023];
-    }
-
-    private static double setBufferItem(final Map<Integer, double[]> megabuf, final int index, double value) {
-        return getSubBuffer(megabuf, index & ~1023)[index & 1023] = value;
+    /**
+     * Get a read-only view of the {@code megabuf} function's buffer,
+     * mapping the index of the first item of each page of 1024 items to
+     * the page. Writes to the pages are visible to the expression.
+     *
+     * @return a read-only map
+     * @deprecated use {@link #getMegaBuffer()}
+     */
+    @Deprecated
+    public Map<Integer, double[]> getMegabuf() {
+        return megabuf.asMap();
     }
 
     @Dynamic
+    @Shared
     public static double gmegabuf(RValue index) throws EvaluationException {
-        return getBufferItem(gmegabuf, (int) index.getValue());
+        return gmegabuf.get((int) index.getValue());
     }
 
     @Dynamic
+    @Shared
     public static double gmegabuf(RValue index, double value) throws EvaluationException {
-        return setBufferItem(gmegabuf, (int) index.getValue(), value);
+        return gmegabuf.set((int) index.getValue(), value);
     }
 
     @Dynamic
+    @Stateful
     public static double megabuf(RValue index) throws EvaluationException {
-        return getBufferItem(Expression.getInstance().getFunctions().megabuf, (int) index.getValue());
+        return Expression.getInstance().getFunctions().megabuf.get((int) index.getValue());
     }
 
     @Dynamic
+    @Stateful
     public static double megabuf(RValue index, double value) throws EvaluationException {
-        return setBufferItem(Expression.getInstance().getFunctions().megabuf, (int) index.getValue(), value);
+        return Expression.getInstance().getFunctions().megabuf.set((int) index.getValue(), value);
     }
 
     @Dynamic
+    @Stateful
     public static double closest(RValue x, RValue y, RValue z, RValue index, RValue count, RValue stride) throws EvaluationException {
         return findClosest(
             Expression.getInstance().getFunctions().megabuf,
@@ -336,6 +345,7 @@ public static double closest(RValue x, RValue y, RValue z, RValue index, RValue
     }
 
     @Dynamic
+    @Shared
     public static double gclosest(RValue x, RValue y, RValue z, RValue index, RValue count, RValue stride) throws EvaluationException {
         return findClosest(
             gmegabuf,
@@ -348,14 +358,14 @@ public static double gclosest(RValue x, RValue y, RValue z, RValue index, RValue
         );
     }
 
-    private static double findClosest(Map<Integer, double[]> megabuf, double x, double y, double z, int index, int count, int stride) {
+    private static double findClosest(MegaBuffer megabuf, double x, double y, double z, int index, int count, int stride) {
         int closestIndex = -1;
         double minDistanceSquared = Double.MAX_VALUE;
 
         for (int i = 0; i < count; ++i) {
-            double currentX = getBufferItem(megabuf, index+0) - x;
-            double currentY = getBufferItem(megabuf, index+1) - y;
-            double currentZ = getBufferItem(megabuf, index+2) - z;
+            double currentX = megabuf.get(index+0) - x;
+            double currentY = megabuf.get(index+1) - y;
+            double currentZ = megabuf.get(index+2) - z;
 
             double currentDistanceSquared = currentX*currentX + currentY*currentY + currentZ*currentZ;
 
@@ -458,6 +468,7 @@ private static double queryInternal(RValue type, RValue data, double typeId, dou
     }
 
     @Dynamic
+    @Shared
     public static double query(RValue x, RValue y, RValue z, RValue type, RValue data) throws EvaluationException {
         final double xp = x.getValue();
         final double yp = y.getValue();
@@ -473,6 +484,7 @@ public static double query(RValue x, RValue y, RValue z, RValue type, RValue dat
     }
 
     @Dynamic
+    @Shared
     public static double queryAbs(RValue x, RValue y, RValue z, RValue type, RValue data) throws EvaluationException {
         final double xp = x.getValue();
         final double yp = y.getValue();
@@ -488,6 +500,7 @@ public static double queryAbs(RValue x, RValue y, RValue z, RValue type, RValue
     }
 
     @Dynamic
+    @Shared
     public static double queryRel(RValue x, RValue y, RValue z, RValue type, RValue data) throws EvaluationException {
         final double xp = x.getValue();
         final double yp = y.getValue();
@@ -22,6 +22,7 @@
 import com.sk89q.worldedit.internal.expression.Expression;
 import com.sk89q.worldedit.internal.expression.parser.ParserException;
 
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Method;
 
 /**
@@ -31,7 +32,8 @@
 public class LValueFunction extends Function implements LValue {
 
     private final Object[] setterArgs;
-    private final Method setter;
+    final Method setter;
+    private final MethodHandle setterHandle;
 
     LValueFunction(int position, Method getter, Method setter, RValue... args) {
         super(position, getter, args);
@@ -40,6 +42,7 @@ public class LValueFunction extends Function implements LValue {
         setterArgs = new Object[args.length + 1];
         System.arraycopy(args, 0, setterArgs, 0, args.length);
         this.setter = setter;
+        this.setterHandle = getHandle(setter);
     }
 
     @Override
@@ -50,7 +53,7 @@ public char id() {
     @Override
     public double assign(double value) throws EvaluationException {
         setterArgs[setterArgs.length - 1] = value;
-        return invokeMethod(setter, setterArgs);
+        return invokeHandle(setterHandle, setter, setterArgs);
     }
 
     @Override
@@ -0,0 +1,221 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.internal.expression.runtime;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The storage behind the {@code megabuf} and {@code gmegabuf} functions.
+ *
+ * <p>Items are kept in pages of 1024 values that are created on the first
+ * write, and looked up in an open-addressed table of page numbers so that
+ * neither the index nor the page key is boxed. Reading an item that has
+ * never been written returns {@code 0}.</p>
+ *
+ * <p>This class is not thread safe.</p>
+ */
+public final class MegaBuffer {
+
+    private static final int PAGE_BITS = 10;
+    private static final int PAGE_MASK = (1 << PAGE_BITS) - 1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] keys = new int[INITIAL_CAPACITY];
+    private double[][] pages = new double[INITIAL_CAPACITY][];
+    private int size;
+    private int lastKey;
+    private double[] lastPage;
+
+    /**
+     * Get the value of an item.
+     *
+     * @param index the index of the item
+     * @return the value, or 0 if it was never set
+     */
+    public double get(int index) {
+        double[] page = getPage(index >> PAGE_BITS, false);
+        return page == null ? 0 : page[index & PAGE_MASK];
+    }
+
+    /**
+     * Set the value of an item.
+     *
+     * @param index the index of the item
+     * @param value the new value
+     * @return the new value
+     */
+    public double set(int index, double value) {
+        return getPage(index >> PAGE_BITS, true)[index & PAGE_MASK] = value;
+    }
+
+    /**
+     * Get the number of pages that have been allocated.
+     *
+     * @return the number of pages
+     */
+    public int getPageCount() {
+        return size;
+    }
+
+    /**
+     * Get a read-only view of the allocated pages, keyed by the index of the
+     * first item of each page.
+     *
+     * @return a map of pages
+     */
+    public Map<Integer, double[]> asMap() {
+        return new PageMap();
+    }
+
+    /**
+     * Remove all items.
+     */
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(pages, null);
+        size = 0;
+        lastPage = null;
+    }
+
+    private double[] getPage(int key, boolean create) {
+        if (lastPage != null && lastKey == key) {
+            return lastPage;
+        }
+
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (pages[slot] != null) {
+            if (keys[slot] == key) {
+                lastKey = key;
+                return lastPage = pages[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (!create) {
+            return null;
+        }
+
+        double[] page = new double[PAGE_MASK + 1];
+        keys[slot] = key;
+        pages[slot] = page;
+        if (++size * 4 > keys.length * 3) {
+            grow();
+        }
+        lastKey = key;
+        return lastPage = page;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        double[][] oldPages = pages;
+        keys = new int[oldKeys.length * 2];
+        pages = new double[oldPages.length * 2][];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldPages[i] != null) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (pages[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                pages[slot] = oldPages[i];
+            }
+        }
+    }
+
+    private static int hash(int key) {
+        int hash = key * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private final class PageMap extends AbstractMap<Integer, double[]> {
+        @Override
+        public double[] get(Object key) {
+            if (!(key instanceof Integer) || ((Integer) key & PAGE_MASK) != 0) {
+                return null;
+            }
+            return getPage((Integer) key >> PAGE_BITS, false);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Set<Entry<Integer, double[]>> entrySet() {
+            return new AbstractSet<Entry<Integer, double[]>>() {
+                @Override
+                public Iterator<Entry<Integer, double[]>> iterator() {
+                    return new PageIterator();
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+    }
+
+    private final class PageIterator implements Iterator<Map.Entry<Integer, double[]>> {
+        private final int[] keys = MegaBuffer.this.keys;
+        private final double[][] pages = MegaBuffer.this.pages;
+        private int slot = -1;
+
+        private PageIterator() {
+            advance();
+        }
+
+        private void advance() {
+            do {
+                slot++;
+            } while (slot < pages.length && pages[slot] == null);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return slot < pages.length;
+        }
+
+        @Override
+        public Map.Entry<Integer, double[]> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<Integer, double[]> entry = new AbstractMap.SimpleImmutableEntry<Integer, double[]>(keys[slot] << PAGE_BITS, pages[slot]);
+            advance();
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.sk89q.worldedit.internal.expression.runtime;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Copies an expression tree for another expression, replacing the
+ * variables and buffer of one expression with those of the other.
+ *
+ * <p>Every node is copied, except for constants and breaks, because some
+ * nodes keep scratch state while they are evaluated. A node that appears
+ * several times in the tree is copied once.</p>
+ */
+public final class NodeCopier {
+
+    private final Map<Object, Object> copies = new IdentityHashMap<Object, Object>();
+
+    /**
+     * Use the given object in place of an object of the original
+     * expression, such as one of its variables.
+     *
+     * @param original the object of the original expression
+     * @param copy the object to use in the copy
+     */
+    public void map(Object original, Object copy) {
+        copies.put(original, copy);
+    }
+
+    /**
+     * Copy a tree.
+     *
+     * @param node the root of the tree, or null
+     * @return the copy, or null
+     * @throws UnsupportedOperationException if the tree contains an unknown node
+     */
+    public RValue copy(RValue node) {
+        if (node == null) {
+            return null;
+        }
+
+        Object existing = copies.get(node);
+        if (existing != null) {
+            return (RValue) existing;
+        }
+
+        RValue copy;
+        if (node instanceof Constant || node instanceof Break) {
+            copy = node;
+        } else if (node instanceof Variable) {
+            copy = new Variable(((Variable) node).value);
+        } else if (node instanceof LValueFunction) {
+            LValueFunction function = (LValueFunction) node;
+            copy = new LValueFunction(function.getPosition(), function.method, function.setter, copy(function.args));
+        } else if (node instanceof Function) {
+            Function function = (Function) node;
+            copy = new Function(function.getPosition(), function.method, copy(function.args));
+        } else if (node instanceof Sequence) {
+            copy = new Sequence(node.getPosition(), copy(((Sequence) node).sequence));
+        } else if (node instanceof Conditional) {
+            Conditional conditional = (Conditional) node;
+            copy = new Conditional(conditional.getPosition(), copy(conditional.condition),
+                    copy(conditional.truePart), copy(conditional.falsePart));
+        } else if (node instanceof For) {
+            For loop = (For) node;
+            copy = new For(loop.getPosition(), copy(loop.init), copy(loop.condition), copy(loop.increment), copy(loop.body));
+        } else if (node instanceof SimpleFor) {
+            SimpleFor loop = (SimpleFor) node;
+            copy = new SimpleFor(loop.getPosition(), (LValue) copy(loop.counter), copy(loop.first), copy(loop.last), copy(loop.body));
+        } else if (node instanceof While) {
+            While loop = (While) node;
+            copy = new While(loop.getPosition(), copy(loop.condition), copy(loop.body), loop.footChecked);
+        } else if (node instanceof Switch) {
+            Switch switchNode = (Switch) node;
+            copy = new Switch(switchNode.getPosition(), copy(switchNode.parameter), switchNode.valueMap,
+                    Arrays.asList(copy(switchNode.caseStatements)), copy(switchNode.defaultCase));
+        } else if (node instanceof Return) {
+            copy = new Return(node.getPosition(), copy(((Return) node).value));
+        } else {
+            throw new UnsupportedOperationException("Can't copy " + node.getClass().getName());
+        }
+
+        copies.put(node, copy);
+        return copy;
+    }
+
+    /**
+     * Copy the objects that a compiled expression refers to, as returned
+     * by {@link ExpressionCompiler#getReferences()}.
+     *
+     * <p>Variables that are not part of the tree are scratch space of the
+     * compiled code, and are replaced by new variables.</p>
+     *
+     * @param references the objects
+     * @return the objects for the copy
+     */
+    public Object[] copyReferences(Object[] references) {
+        Object[] result = new Object[references.length];
+        for (int i = 0; i < references.length; i++) {
+            Object reference = references[i];
+            if (reference instanceof RValue) {
+                result[i] = copy((RValue) reference);
+            } else {
+                Object copy = copies.get(reference);
+                result[i] = copy != null ? copy : reference;
+            }
+        }
+        return result;
+    }
+
+    private RValue[] copy(RValue[] nodes) {
+        RValue[] result = new RValue[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            result[i] = copy(nodes[i]);
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.internal.expression.runtime;
+
+import javax.annotation.Nullable;
+import java.lang.annotation.Annotation;
+import java.util.Collection;
+
+/**
+ * Finds out whether an expression accesses state that is shared by all
+ * copies of the expression, or state that is kept between evaluations.
+ */
+public final class SharedState {
+
+    private SharedState() {
+    }
+
+    /**
+     * Return whether the given expression tree calls a function annotated
+     * with {@link Function.Shared}, or contains nodes that are not known
+     * to be free of shared state.
+     *
+     * @param node the root of the tree
+     * @return true if the tree uses shared state
+     */
+    public static boolean isUsedBy(RValue node) {
+        return isUsedBy(node, null);
+    }
+
+    /**
+     * Return whether an evaluation of the given expression tree can depend
+     * on an earlier evaluation, because the tree calls a function annotated
+     * with {@link Function.Stateful} or assigns a variable other than the
+     * given parameters, which are set before every evaluation.
+     *
+     * <p>Trees that use shared state are stateful as well.</p>
+     *
+     * @param node the root of the tree
+     * @param parameters the variables that are set before every evaluation
+     * @return true if the tree keeps state between evaluations
+     */
+    public static boolean isKeptBy(RValue node, Collection<? extends RValue> parameters) {
+        return isUsedBy(node, parameters);
+    }
+
+    private static boolean isUsedBy(RValue node, @Nullable Collection<? extends RValue> parameters) {
+        if (node == null || node instanceof Constant || node instanceof Variable || node instanceof Break) {
+            return false;
+        } else if (node instanceof Function) {
+            Function function = (Function) node;
+            if (isMarked(function, Function.Shared.class)) {
+                return true;
+            }
+            if (parameters != null) {
+                if (isMarked(function, Function.Stateful.class)) {
+                    return true;
+                }
+                Class<?>[] types = function.method.getParameterTypes();
+                if (types.length > 0 && types[0] == LValue.class && !contains(parameters, function.args[0])) {
+                    return true;
+                }
+            }
+            return isUsedBy(parameters, function.args);
+        } else if (node instanceof Sequence) {
+            return isUsedBy(parameters, ((Sequence) node).sequence);
+        } else if (node instanceof Conditional) {
+            Conditional conditional = (Conditional) node;
+            return isUsedBy(parameters, conditional.condition, conditional.truePart, conditional.falsePart);
+        } else if (node instanceof For) {
+            For loop = (For) node;
+            return isUsedBy(parameters, loop.init, loop.condition, loop.increment, loop.body);
+        } else if (node instanceof SimpleFor) {
+            SimpleFor loop = (SimpleFor) node;
+            if (parameters != null && !contains(parameters, loop.counter)) {
+                return true;
+            }
+            return isUsedBy(parameters, loop.counter, loop.first, loop.last, loop.body);
+        } else if (node instanceof While) {
+            While loop = (While) node;
+            return isUsedBy(parameters, loop.condition, loop.body);
+        } else if (node instanceof Switch) {
+            Switch switchNode = (Switch) node;
+            return isUsedBy(parameters, switchNode.parameter, switchNode.defaultCase)
+                    || isUsedBy(parameters, switchNode.caseStatements);
+        } else if (node instanceof Return) {
+            return isUsedBy(((Return) node).value, parameters);
+        } else {
+            return true;
+        }
+    }
+
+    private static boolean isUsedBy(@Nullable Collection<? extends RValue> parameters, RValue... nodes) {
+        for (RValue node : nodes) {
+            if (isUsedBy(node, parameters)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isMarked(Function function, Class<? extends Annotation> annotation) {
+        return function.method.isAnnotationPresent(annotation)
+                || function instanceof LValueFunction && ((LValueFunction) function).setter.isAnnotationPresent(annotation);
+    }
+
+    private static boolean contains(Collection<? extends RValue> parameters, RValue variable) {
+        for (RValue parameter : parameters) {
+            if (parameter == variable) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -34,10 +34,10 @@
  */
 public class Switch extends Node implements RValue {
 
-    private RValue parameter;
-    private final Map<Double, Integer> valueMap;
-    private final RValue[] caseStatements;
-    private RValue defaultCase;
+    RValue parameter;
+    final Map<Double, Integer> valueMap;
+    final RValue[] caseStatements;
+    RValue defaultCase;
 
     public Switch(int position, RValue parameter, List<Double> values, List<RValue> caseStatements, RValue defaultCase) {
         this(position, parameter, invertList(values), caseStatements, defaultCase);
@@ -52,7 +52,7 @@ private static Map<Double, Integer> invertList(List<Double> values) {
         return valueMap;
     }
 
-    private Switch(int position, RValue parameter, Map<Double, Integer> valueMap, List<RValue> caseStatements, RValue defaultCase) {
+    Switch(int position, RValue parameter, Map<Double, Integer> valueMap, List<RValue> caseStatements, RValue defaultCase) {
         super(position);
 
         this.parameter = parameter;
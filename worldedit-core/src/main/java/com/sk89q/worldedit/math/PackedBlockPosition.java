@@ -0,0 +1,132 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.math;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.Vector;
+
+/**
+ * Packs block positions into a single {@code long}.
+ *
+ * <p>The X and Z coordinates take 26 bits each, which covers the whole
+ * +/-30,000,000 world border, while the Y coordinate takes the remaining
+ * 12 bits (-2048 to 2047). Worlds with taller columns must check
+ * {@link #fits(int, int, int)} and fall back to another representation
+ * for positions that do not fit.</p>
+ */
+public final class PackedBlockPosition {
+
+    public static final int MIN_HORIZONTAL = -(1 << 25);
+    public static final int MAX_HORIZONTAL = (1 << 25) - 1;
+    public static final int MIN_Y = -(1 << 11);
+    public static final int MAX_Y = (1 << 11) - 1;
+
+    private PackedBlockPosition() {
+    }
+
+    /**
+     * Return whether the given position can be packed.
+     *
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     * @param z the Z coordinate
+     * @return true if the position fits
+     */
+    public static boolean fits(int x, int y, int z) {
+        return x >= MIN_HORIZONTAL && x <= MAX_HORIZONTAL
+                && z >= MIN_HORIZONTAL && z <= MAX_HORIZONTAL
+                && y >= MIN_Y && y <= MAX_Y;
+    }
+
+    /**
+     * Return whether the given position can be packed.
+     *
+     * @param position the position
+     * @return true if the position fits
+     */
+    public static boolean fits(Vector position) {
+        return fits(position.getBlockX(), position.getBlockY(), position.getBlockZ());
+    }
+
+    /**
+     * Pack a position. The result is undefined if the position does not
+     * {@link #fits(int, int, int) fit}.
+     *
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     * @param z the Z coordinate
+     * @return the packed position
+     */
+    public static long pack(int x, int y, int z) {
+        return ((long) x << 38) | (((long) z & 0x3FFFFFFL) << 12) | ((long) y & 0xFFFL);
+    }
+
+    /**
+     * Pack a position. The result is undefined if the position does not
+     * {@link #fits(Vector) fit}.
+     *
+     * @param position the position
+     * @return the packed position
+     */
+    public static long pack(Vector position) {
+        return pack(position.getBlockX(), position.getBlockY(), position.getBlockZ());
+    }
+
+    /**
+     * Get the X coordinate of a packed position.
+     *
+     * @param packed the packed position
+     * @return the X coordinate
+     */
+    public static int unpackX(long packed) {
+        return (int) (packed >> 38);
+    }
+
+    /**
+     * Get the Y coordinate of a packed position.
+     *
+     * @param packed the packed position
+     * @return the Y coordinate
+     */
+    public static int unpackY(long packed) {
+        return (int) (packed << 52 >> 52);
+    }
+
+    /**
+     * Get the Z coordinate of a packed position.
+     *
+     * @param packed the packed position
+     * @return the Z coordinate
+     */
+    public static int unpackZ(long packed) {
+        return (int) (packed << 26 >> 38);
+    }
+
+    /**
+     * Unpack a position.
+     *
+     * @param packed the packed position
+     * @return the position
+     */
+    public static BlockVector unpack(long packed) {
+        return new BlockVector(unpackX(packed), unpackY(packed), unpackZ(packed));
+    }
+
+}
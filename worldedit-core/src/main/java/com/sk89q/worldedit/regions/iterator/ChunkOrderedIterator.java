@@ -0,0 +1,172 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.regions.iterator;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.regions.Region;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Iterates over the blocks of a region one chunk column at a time.
+ *
+ * <p>Every block of the region within a 16x16 chunk column is returned
+ * before moving to the next column, which keeps consecutive accesses in
+ * the same chunk. Within a column, blocks are returned with X varying
+ * fastest, then Z, then Y.</p>
+ */
+public class ChunkOrderedIterator implements Iterator<BlockVector> {
+
+    private static final int CHUNK_SHIFTS = 4;
+
+    private final Region region;
+    private final boolean contained;
+    private final int minX;
+    private final int minY;
+    private final int minZ;
+    private final int maxX;
+    private final int maxY;
+    private final int maxZ;
+    private final int maxChunkX;
+    private final int maxChunkZ;
+    private int chunkX;
+    private int chunkZ;
+    private int columnMinX;
+    private int columnMinZ;
+    private int columnMaxX;
+    private int columnMaxZ;
+    private int nextX;
+    private int nextY;
+    private int nextZ;
+    private boolean hasNext = true;
+
+    /**
+     * Create a new iterator.
+     *
+     * @param region the region
+     */
+    public ChunkOrderedIterator(Region region) {
+        checkNotNull(region);
+
+        this.region = region;
+        // Every point of a cuboid's bounding box is inside it
+        this.contained = region instanceof CuboidRegion;
+
+        Vector min = region.getMinimumPoint();
+        Vector max = region.getMaximumPoint();
+        this.minX = min.getBlockX();
+        this.minY = min.getBlockY();
+        this.minZ = min.getBlockZ();
+        this.maxX = max.getBlockX();
+        this.maxY = max.getBlockY();
+        this.maxZ = max.getBlockZ();
+
+        this.chunkX = minX >> CHUNK_SHIFTS;
+        this.chunkZ = minZ >> CHUNK_SHIFTS;
+        this.maxChunkX = maxX >> CHUNK_SHIFTS;
+        this.maxChunkZ = maxZ >> CHUNK_SHIFTS;
+
+        if (minX > maxX || minY > maxY || minZ > maxZ) {
+            hasNext = false;
+        } else {
+            startColumn();
+            forward();
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return hasNext;
+    }
+
+    @Override
+    public BlockVector next() {
+        if (!hasNext) {
+            throw new NoSuchElementException();
+        }
+
+        BlockVector answer = new BlockVector(nextX, nextY, nextZ);
+
+        forwardOne();
+        forward();
+
+        return answer;
+    }
+
+    /**
+     * Move to the first block of the current chunk column.
+     */
+    private void startColumn() {
+        columnMinX = Math.max(minX, chunkX << CHUNK_SHIFTS);
+        columnMinZ = Math.max(minZ, chunkZ << CHUNK_SHIFTS);
+        columnMaxX = Math.min(maxX, (chunkX << CHUNK_SHIFTS) + 15);
+        columnMaxZ = Math.min(maxZ, (chunkZ << CHUNK_SHIFTS) + 15);
+        nextX = columnMinX;
+        nextY = minY;
+        nextZ = columnMinZ;
+    }
+
+    private void forward() {
+        if (contained) {
+            return;
+        }
+
+        while (hasNext && !region.contains(new BlockVector(nextX, nextY, nextZ))) {
+            forwardOne();
+        }
+    }
+
+    private void forwardOne() {
+        if (++nextX <= columnMaxX) {
+            return;
+        }
+        nextX = columnMinX;
+
+        if (++nextZ <= columnMaxZ) {
+            return;
+        }
+        nextZ = columnMinZ;
+
+        if (++nextY <= maxY) {
+            return;
+        }
+
+        if (++chunkX > maxChunkX) {
+            chunkX = minX >> CHUNK_SHIFTS;
+            if (++chunkZ > maxChunkZ) {
+                hasNext = false;
+                return;
+            }
+        }
+
+        startColumn();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+}
@@ -27,12 +27,16 @@
 import com.sk89q.worldedit.patterns.Pattern;
 import com.sk89q.worldedit.regions.Region;
 
+import java.util.Iterator;
+
 /**
  * Generates solid and hollow shapes according to materials returned by the
  * {@link #getMaterial} method.
  */
 public abstract class ArbitraryShape {
 
+    private static final int BATCH_SIZE = 4096;
+
     protected final Region extent;
     private int cacheOffsetX;
     private int cacheOffsetY;
@@ -84,28 +88,53 @@ protected Region getExtent() {
      */
     protected abstract BaseBlock getMaterial(int x, int y, int z, BaseBlock defaultMaterial);
 
+    /**
+     * Get the materials of several blocks at once.
+     *
+     * <p>The default implementation calls {@link #getMaterial} for each
+     * block. Override this function to compute the materials in parallel.</p>
+     *
+     * @param positions the positions to be queried
+     * @param materials the materials returned by the pattern for the positions,
+     *                  to be replaced with the materials to place or null
+     * @param count the number of positions
+     */
+    protected void getMaterials(BlockVector[] positions, BaseBlock[] materials, int count) {
+        for (int i = 0; i < count; ++i) {
+            final BlockVector position = positions[i];
+            materials[i] = getMaterial(position.getBlockX(), position.getBlockY(), position.getBlockZ(), materials[i]);
+        }
+    }
+
+    private int getCacheIndex(int x, int y, int z) {
+        return (y - cacheOffsetY) + (z - cacheOffsetZ) * cacheSizeY + (x - cacheOffsetX) * cacheSizeY * cacheSizeZ;
+    }
+
+    private BaseBlock cacheMaterial(int index, BaseBlock material) {
+        if (material == null) {
+            // outside
+            cache[index] = -1;
+            return null;
+        }
+
+        short newCacheEntry = (short) (material.getType() | ((material.getData() + 1) << 8));
+        if (newCacheEntry == 0) {
+            // type and data 0
+            newCacheEntry = -2;
+        }
+
+        cache[index] = newCacheEntry;
+        return material;
+    }
+
     private BaseBlock getMaterialCached(int x, int y, int z, Pattern pattern) {
-        final int index = (y - cacheOffsetY) + (z - cacheOffsetZ) * cacheSizeY + (x - cacheOffsetX) * cacheSizeY * cacheSizeZ;
+        final int index = getCacheIndex(x, y, z);
 
         final short cacheEntry = cache[index];
         switch (cacheEntry) {
         case 0:
             // unknown, fetch material
-            final BaseBlock material = getMaterial(x, y, z, pattern.next(new BlockVector(x, y, z)));
-            if (material == null) {
-                // outside
-                cache[index] = -1;
-                return null;
-            }
-
-            short newCacheEntry = (short) (material.getType() | ((material.getData() + 1) << 8));
-            if (newCacheEntry == 0) {
-                // type and data 0
-                newCacheEntry = -2;
-            }
-
-            cache[index] = newCacheEntry;
-            return material;
+            return cacheMaterial(index, getMaterial(x, y, z, pattern.next(new BlockVector(x, y, z))));
 
         case -1:
             // outside
@@ -120,7 +149,7 @@ private BaseBlock getMaterialCached(int x, int y, int z, Pattern pattern) {
     }
 
     private boolean isInsideCached(int x, int y, int z, Pattern pattern) {
-        final int index = (y - cacheOffsetY) + (z - cacheOffsetZ) * cacheSizeY + (x - cacheOffsetX) * cacheSizeY * cacheSizeZ;
+        final int index = getCacheIndex(x, y, z);
 
         switch (cache[index]) {
         case 0:
@@ -149,19 +178,40 @@ private boolean isInsideCached(int x, int y, int z, Pattern pattern) {
     public int generate(EditSession editSession, Pattern pattern, boolean hollow) throws MaxChangedBlocksException {
         int affected = 0;
 
-        for (BlockVector position : getExtent()) {
-            int x = position.getBlockX();
-            int y = position.getBlockY();
-            int z = position.getBlockZ();
+        // Query the materials of the region in batches, placing them right away
+        // for solid shapes and caching them for the neighbour checks otherwise
+        final BlockVector[] positions = new BlockVector[BATCH_SIZE];
+        final BaseBlock[] materials = new BaseBlock[BATCH_SIZE];
+        final Iterator<BlockVector> iterator = getExtent().iterator();
+        while (iterator.hasNext()) {
+            int count = 0;
+            while (count < BATCH_SIZE && iterator.hasNext()) {
+                final BlockVector position = iterator.next();
+                positions[count] = position;
+                materials[count] = pattern.next(position);
+                ++count;
+            }
+
+            getMaterials(positions, materials, count);
 
-            if (!hollow) {
-                final BaseBlock material = getMaterial(x, y, z, pattern.next(position));
-                if (material != null && editSession.setBlock(position, material)) {
+            for (int i = 0; i < count; ++i) {
+                final BlockVector position = positions[i];
+                if (hollow) {
+                    cacheMaterial(getCacheIndex(position.getBlockX(), position.getBlockY(), position.getBlockZ()), materials[i]);
+                } else if (materials[i] != null && editSession.setBlock(position, materials[i])) {
                     ++affected;
                 }
-
-                continue;
             }
+        }
+
+        if (!hollow) {
+            return affected;
+        }
+
+        for (BlockVector position : getExtent()) {
+            int x = position.getBlockX();
+            int y = position.getBlockY();
+            int z = position.getBlockZ();
 
             final BaseBlock material = getMaterialCached(x, y, z, pattern);
             if (material == null) {
@@ -19,31 +19,32 @@
 
 package com.sk89q.worldedit.session;
 
-import com.google.common.util.concurrent.Futures;
-import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.ListeningExecutorService;
-import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.sk89q.worldedit.LocalConfiguration;
 import com.sk89q.worldedit.LocalSession;
 import com.sk89q.worldedit.WorldEdit;
 import com.sk89q.worldedit.entity.Player;
 import com.sk89q.worldedit.event.platform.ConfigurationLoadEvent;
+import com.sk89q.worldedit.history.changeset.PackedBlockHistory;
+import com.sk89q.worldedit.session.storage.BinaryFileSessionStore;
 import com.sk89q.worldedit.session.storage.JsonFileSessionStore;
 import com.sk89q.worldedit.session.storage.SessionStore;
 import com.sk89q.worldedit.session.storage.VoidStore;
-import com.sk89q.worldedit.util.concurrency.EvenMoreExecutors;
 import com.sk89q.worldedit.util.eventbus.Subscribe;
 
 import javax.annotation.Nullable;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.UUID;
-import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -54,18 +55,26 @@
  *
  * <p>Get a reference to one from {@link WorldEdit}.</p>
  *
- * <p>While this class is thread-safe, the returned session may not be.</p>
+ * <p>While this class is thread-safe, the returned session may not be.
+ * Looking up a session does not take a lock. Sessions are checked for
+ * changes and saved on a separate thread, where repeated saves of the same
+ * session that are waiting to be written are combined into one.</p>
  */
 public class SessionManager {
 
     public static int EXPIRATION_GRACE = 600000;
     private static final int FLUSH_PERIOD = 1000 * 30;
-    private static final ListeningExecutorService executorService = MoreExecutors.listeningDecorator(EvenMoreExecutors.newBoundedCachedThreadPool(0, 1, 5));
     private static final Logger log = Logger.getLogger(SessionManager.class.getCanonicalName());
-    private final Timer timer = new Timer();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("WorldEdit Session Manager #%d").build());
     private final WorldEdit worldEdit;
-    private final Map<UUID, SessionHolder> sessions = new HashMap<UUID, SessionHolder>();
-    private SessionStore store = new VoidStore();
+    private final ConcurrentMap<UUID, SessionHolder> sessions = new ConcurrentHashMap<UUID, SessionHolder>();
+    private final ConcurrentMap<String, SessionHolder> sessionsByName = new ConcurrentHashMap<String, SessionHolder>();
+    private final ConcurrentMap<UUID, SessionHolder> pendingSaves = new ConcurrentHashMap<UUID, SessionHolder>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicBoolean historyCleaned = new AtomicBoolean();
+    private final Object loadLock = new Object();
+    private volatile SessionStore store = new VoidStore();
 
     /**
      * Create a new session manager.
@@ -77,7 +86,7 @@ public SessionManager(WorldEdit worldEdit) {
         this.worldEdit = worldEdit;
 
         worldEdit.getEventBus().register(this);
-        timer.schedule(new SessionTracker(), FLUSH_PERIOD, FLUSH_PERIOD);
+        executor.scheduleWithFixedDelay(new SessionTracker(), FLUSH_PERIOD, FLUSH_PERIOD, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -86,7 +95,7 @@ public SessionManager(WorldEdit worldEdit) {
      * @param owner the owner
      * @return true if a session exists
      */
-    public synchronized boolean contains(SessionOwner owner) {
+    public boolean contains(SessionOwner owner) {
         checkNotNull(owner);
         return sessions.containsKey(getKey(owner));
     }
@@ -98,16 +107,10 @@ public synchronized boolean contains(SessionOwner owner) {
      * @return the session, if found, otherwise {@code null}
      */
     @Nullable
-    public synchronized LocalSession findByName(String name) {
+    public LocalSession findByName(String name) {
         checkNotNull(name);
-        for (SessionHolder holder : sessions.values()) {
-            String test = holder.key.getName();
-            if (test != null && name.equals(test)) {
-                return holder.session;
-            }
-        }
-
-        return null;
+        SessionHolder holder = sessionsByName.get(name);
+        return holder != null ? holder.session : null;
     }
 
     /**
@@ -118,7 +121,7 @@ public synchronized LocalSession findByName(String name) {
      * @return the session for the owner, if it exists
      */
     @Nullable
-    public synchronized LocalSession getIfPresent(SessionOwner owner) {
+    public LocalSession getIfPresent(SessionOwner owner) {
         checkNotNull(owner);
         SessionHolder stored = sessions.get(getKey(owner));
         if (stored != null) {
@@ -134,7 +137,7 @@ public synchronized LocalSession getIfPresent(SessionOwner owner) {
      * @param owner the owner
      * @return a session
      */
-    public synchronized LocalSession get(SessionOwner owner) {
+    public LocalSession get(SessionOwner owner) {
         checkNotNull(owner);
 
         LocalSession session = getIfPresent(owner);
@@ -143,21 +146,7 @@ public synchronized LocalSession get(SessionOwner owner) {
 
         // No session exists yet -- create one
         if (session == null) {
-            try {
-                session = store.load(getKey(sessionKey));
-                session.postLoad();
-            } catch (IOException e) {
-                log.log(Level.WARNING, "Failed to load saved session", e);
-                session = new LocalSession();
-            }
-
-            session.setConfiguration(config);
-            session.setBlockChangeLimit(config.defaultChangeLimit);
-
-            // Remember the session if the session is still active
-            if (sessionKey.isActive()) {
-                sessions.put(getKey(owner), new SessionHolder(sessionKey, session));
-            }
+            session = create(sessionKey, config);
         }
 
         // Set the limit on the number of blocks that an operation can
@@ -181,6 +170,14 @@ public synchronized LocalSession get(SessionOwner owner) {
             }
         }
 
+        // Owners with the permission may keep more undo history in memory
+        // before it is spilled to disk
+        if (owner.hasPermission("worldedit.history.memory.maximum")) {
+            session.setHistoryMemoryLimit(config.maxHistoryMemoryLimit);
+        } else {
+            session.setHistoryMemoryLimit(config.defaultHistoryMemoryLimit);
+        }
+
         // Have the session use inventory if it's enabled and the owner
         // doesn't have an override
         session.setUseInventory(config.useInventory
@@ -192,43 +189,71 @@ public synchronized LocalSession get(SessionOwner owner) {
     }
 
     /**
-     * Save a map of sessions to disk.
+     * Load or create the session for a key, unless another thread did so
+     * first.
      *
-     * @param sessions a map of sessions to save
-     * @return a future that completes on save or error
+     * @param sessionKey the session key
+     * @param config the configuration
+     * @return the session
      */
-    private ListenableFuture<?> commit(final Map<SessionKey, LocalSession> sessions) {
-        checkNotNull(sessions);
+    private LocalSession create(SessionKey sessionKey, LocalConfiguration config) {
+        UUID key = getKey(sessionKey);
 
-        if (sessions.isEmpty()) {
-            return Futures.immediateFuture(sessions);
-        }
+        synchronized (loadLock) {
+            SessionHolder stored = sessions.get(key);
+            if (stored != null) {
+                return stored.session;
+            }
 
-        return executorService.submit(new Callable<Object>() {
-            @Override
-            public Object call() throws Exception {
-                Exception exception = null;
+            LocalSession session;
+            SessionHolder pending = pendingSaves.get(key);
+            if (pending != null) {
+                // The session expired but hasn't been written yet
+                session = pending.session;
+            } else {
+                try {
+                    session = store.load(key);
+                    session.postLoad();
+                } catch (IOException e) {
+                    log.log(Level.WARNING, "Failed to load saved session", e);
+                    session = new LocalSession();
+                }
+            }
 
-                for (Map.Entry<SessionKey, LocalSession> entry : sessions.entrySet()) {
-                    SessionKey key = entry.getKey();
+            session.setConfiguration(config);
+            session.setBlockChangeLimit(config.defaultChangeLimit);
 
-                    if (key.isPersistent()) {
-                        try {
-                            store.save(getKey(key), entry.getValue());
-                        } catch (IOException e) {
-                            log.log(Level.WARNING, "Failed to write session for UUID " + getKey(key), e);
-                            exception = e;
-                        }
-                    }
+            // Remember the session if the session is still active
+            if (sessionKey.isActive()) {
+                SessionHolder holder = new SessionHolder(sessionKey, session);
+                sessions.put(key, holder);
+                String name = sessionKey.getName();
+                if (name != null) {
+                    sessionsByName.put(name, holder);
                 }
+            }
 
-                if (exception != null) {
-                    throw exception;
-                }
+            return session;
+        }
+    }
 
-                return sessions;
-            }
-        });
+    /**
+     * Queue a session to be saved, replacing an earlier save of the same
+     * session that hasn't been written yet.
+     *
+     * @param key the session key
+     * @param session the session
+     */
+    private void queueSave(SessionKey key, LocalSession session) {
+        if (!key.isPersistent()) {
+            return;
+        }
+
+        pendingSaves.put(getKey(key), new SessionHolder(key, session));
+
+        if (flushScheduled.compareAndSet(false, true)) {
+            executor.execute(new SaveTask());
+        }
     }
 
     /**
@@ -262,23 +287,80 @@ protected UUID getKey(SessionKey key) {
      *
      * @param owner the owner
      */
-    public synchronized void remove(SessionOwner owner) {
+    public void remove(SessionOwner owner) {
         checkNotNull(owner);
-        sessions.remove(getKey(owner));
+        SessionHolder holder = sessions.remove(getKey(owner));
+        if (holder != null) {
+            removeName(holder);
+            holder.session.clearHistory();
+        }
     }
 
     /**
      * Remove all sessions.
      */
-    public synchronized void clear() {
-        sessions.clear();
+    public void clear() {
+        Iterator<SessionHolder> it = sessions.values().iterator();
+        while (it.hasNext()) {
+            SessionHolder holder = it.next();
+            it.remove();
+            removeName(holder);
+            holder.session.clearHistory();
+        }
+    }
+
+    /**
+     * Remove a session from the name index if the name still refers to it.
+     *
+     * @param holder the session holder
+     */
+    private void removeName(SessionHolder holder) {
+        String name = holder.key.getName();
+        if (name != null) {
+            sessionsByName.remove(name, holder);
+        }
     }
 
     @Subscribe
     public void onConfigurationLoad(ConfigurationLoadEvent event) {
         LocalConfiguration config = event.getConfiguration();
         File dir = new File(config.getWorkingDirectory(), "sessions");
-        store = new JsonFileSessionStore(dir);
+        final SessionStore previous = store;
+
+        // Undo history only lives as long as the server, so anything spilled
+        // to disk before the first load was left behind by an earlier run
+        if (historyCleaned.compareAndSet(false, true)) {
+            PackedBlockHistory.deleteSpillFiles(new File(config.getWorkingDirectory(), "history"));
+        }
+
+        if ("binary".equalsIgnoreCase(config.sessionStore)) {
+            if (previous instanceof BinaryFileSessionStore && ((BinaryFileSessionStore) previous).getDirectory().equals(dir)) {
+                return;
+            }
+
+            try {
+                store = new BinaryFileSessionStore(dir);
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Failed to open the binary session store, so JSON files will be used instead", e);
+                store = new JsonFileSessionStore(dir);
+            }
+        } else {
+            store = new JsonFileSessionStore(dir);
+        }
+
+        // Close the old store after the saves that are already queued
+        if (previous instanceof Closeable) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ((Closeable) previous).close();
+                    } catch (IOException e) {
+                        log.log(Level.WARNING, "Failed to close the previous session store", e);
+                    }
+                }
+            });
+        }
     }
 
     /**
@@ -287,7 +369,7 @@ public void onConfigurationLoad(ConfigurationLoadEvent event) {
     private static class SessionHolder {
         private final SessionKey key;
         private final LocalSession session;
-        private long lastActive = System.currentTimeMillis();
+        private volatile long lastActive = System.currentTimeMillis();
 
         private SessionHolder(SessionKey key, LocalSession session) {
             this.key = key;
@@ -295,17 +377,40 @@ private SessionHolder(SessionKey key, LocalSession session) {
         }
     }
 
+    /**
+     * Writes the sessions that are waiting to be saved.
+     */
+    private class SaveTask implements Runnable {
+        @Override
+        public void run() {
+            flushScheduled.set(false);
+
+            for (Map.Entry<UUID, SessionHolder> entry : pendingSaves.entrySet()) {
+                UUID key = entry.getKey();
+                SessionHolder pending = entry.getValue();
+
+                try {
+                    store.save(key, pending.session);
+                } catch (IOException e) {
+                    log.log(Level.WARNING, "Failed to write session for UUID " + key, e);
+                }
+
+                // Keep the entry if the session was queued again meanwhile
+                pendingSaves.remove(key, pending);
+            }
+        }
+    }
+
     /**
      * Removes inactive sessions after they have been inactive for a period
      * of time. Commits them as well.
      */
-    private class SessionTracker extends TimerTask {
+    private class SessionTracker implements Runnable {
         @Override
         public void run() {
-            synchronized (SessionManager.this) {
+            try {
                 long now = System.currentTimeMillis();
                 Iterator<SessionHolder> it = sessions.values().iterator();
-                Map<SessionKey, LocalSession> saveQueue = new HashMap<SessionKey, LocalSession>();
 
                 while (it.hasNext()) {
                     SessionHolder stored = it.next();
@@ -313,22 +418,25 @@ public void run() {
                         stored.lastActive = now;
 
                         if (stored.session.compareAndResetDirty()) {
-                            saveQueue.put(stored.key, stored.session);
+                            queueSave(stored.key, stored.session);
                         }
                     } else {
                         if (now - stored.lastActive > EXPIRATION_GRACE) {
                             if (stored.session.compareAndResetDirty()) {
-                                saveQueue.put(stored.key, stored.session);
+                                queueSave(stored.key, stored.session);
                             }
 
                             it.remove();
+                            removeName(stored);
+
+                            // Delete any undo history that was spilled to disk
+                            stored.session.clearHistory();
                         }
                     }
                 }
-
-                if (!saveQueue.isEmpty()) {
-                    commit(saveQueue);
-                }
+            } catch (RuntimeException e) {
+                // An exception would stop the task from running again
+                log.log(Level.WARNING, "Failed to check sessions", e);
             }
         }
     }
@@ -21,6 +21,7 @@
 
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.LocalSession;
+import com.sk89q.worldedit.function.operation.CommitQueue;
 import com.sk89q.worldedit.world.World;
 
 import javax.annotation.Nullable;
@@ -40,6 +41,7 @@ public final class Request {
     private @Nullable World world;
     private @Nullable LocalSession session;
     private @Nullable EditSession editSession;
+    private @Nullable CommitQueue commitQueue;
 
     private Request() {
     }
@@ -98,6 +100,26 @@ public void setEditSession(@Nullable EditSession editSession) {
         this.editSession = editSession;
     }
 
+    /**
+     * Get the queue that edit sessions created for this request post
+     * their changes to, if the request is running off the main thread.
+     *
+     * @return the commit queue, which may be null
+     */
+    public @Nullable CommitQueue getCommitQueue() {
+        return commitQueue;
+    }
+
+    /**
+     * Set the queue that edit sessions created for this request post
+     * their changes to.
+     *
+     * @param commitQueue the commit queue, which may be null
+     */
+    public void setCommitQueue(@Nullable CommitQueue commitQueue) {
+        this.commitQueue = commitQueue;
+    }
+
     /**
      * Get the current request, which is specific to the current thread.
      *
@@ -0,0 +1,467 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.sk89q.worldedit.session.storage;
+
+import com.google.common.base.Charsets;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.sk89q.worldedit.LocalSession;
+import com.sk89q.worldedit.util.gson.GsonUtil;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Stores all sessions in a single append-only file in a directory.
+ *
+ * <p>Every save appends a record with the session's UUID, its data and a
+ * checksum, and an index of where the latest record of each session is in
+ * the file is kept in memory. A record that was only partly written, such as after a crash, is
+ * discarded when the file is opened, so a save either happens completely
+ * or not at all. Saves of unchanged sessions are skipped, and the file is
+ * compacted once most of it consists of replaced records.</p>
+ *
+ * <p>If the file does not exist yet, the sessions saved by
+ * {@link JsonFileSessionStore} in the same directory are imported. The JSON
+ * files are left in place.</p>
+ */
+public class BinaryFileSessionStore implements SessionStore, Closeable {
+
+    private static final Logger log = Logger.getLogger(BinaryFileSessionStore.class.getCanonicalName());
+
+    /**
+     * The name of the file within the directory.
+     */
+    public static final String FILE_NAME = "sessions.dat";
+
+    private static final int MAGIC = 0x57455353; // WESS
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    // UUID and length
+    private static final int RECORD_HEADER_SIZE = 16 + 4;
+    // UUID, length and checksum
+    private static final int RECORD_OVERHEAD = RECORD_HEADER_SIZE + 4;
+    private static final int MAX_RECORD_LENGTH = 1024 * 1024;
+    private static final long MIN_COMPACT_SIZE = 64 * 1024;
+
+    private final Gson gson;
+    private final File dir;
+    private final File file;
+    private final Map<UUID, Record> index = new HashMap<UUID, Record>();
+    private RandomAccessFile raf;
+    private long length;
+    private long liveBytes;
+
+    /**
+     * Create a new session store, opening or creating its file.
+     *
+     * @param dir the directory
+     * @throws IOException thrown if the file can't be opened or created
+     */
+    public BinaryFileSessionStore(File dir) throws IOException {
+        checkNotNull(dir);
+
+        if (!dir.isDirectory()) {
+            if (!dir.mkdirs()) {
+                log.log(Level.WARNING, "Failed to create directory '" + dir.getPath() + "' for sessions");
+            }
+        }
+
+        this.dir = dir;
+        this.file = new File(dir, FILE_NAME);
+        this.gson = GsonUtil.createBuilder().create();
+
+        if (file.exists()) {
+            readFile();
+            raf = new RandomAccessFile(file, "rw");
+            if (raf.length() != length) {
+                log.log(Level.WARNING, "Discarding " + (raf.length() - length) + " byte(s) of incomplete session data in " + file.getPath());
+                raf.setLength(length);
+            }
+        } else {
+            File tempFile = getTempFile();
+            RandomAccessFile out = createFile(tempFile);
+            try {
+                importJsonFiles(out);
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            moveOverFile(tempFile);
+            raf = new RandomAccessFile(file, "rw");
+            length = liveBytes = raf.length();
+
+            if (!index.isEmpty()) {
+                log.log(Level.INFO, "Imported " + index.size() + " session(s) from JSON files into " + file.getPath());
+            }
+        }
+    }
+
+    /**
+     * Get the directory that the file is in.
+     *
+     * @return the directory
+     */
+    public File getDirectory() {
+        return dir;
+    }
+
+    /**
+     * Get the size of the file.
+     *
+     * @return the size in bytes
+     */
+    public synchronized long getLength() {
+        return length;
+    }
+
+    @Override
+    public synchronized LocalSession load(UUID id) throws IOException {
+        checkNotNull(id);
+        Record record = index.get(id);
+        if (record == null) {
+            return new LocalSession();
+        }
+        checkOpen();
+
+        try {
+            return gson.fromJson(new String(read(record), Charsets.UTF_8), LocalSession.class);
+        } catch (JsonParseException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void save(UUID id, LocalSession session) throws IOException {
+        checkNotNull(id);
+        checkNotNull(session);
+        checkOpen();
+
+        byte[] data = gson.toJson(session).getBytes(Charsets.UTF_8);
+        if (data.length > MAX_RECORD_LENGTH) {
+            throw new IOException("The session of " + id + " is too large to save (" + data.length + " bytes)");
+        }
+
+        Record previous = index.get(id);
+        if (previous != null && previous.matches(data) && Arrays.equals(data, read(previous))) {
+            return;
+        }
+
+        raf.seek(length);
+        Record record = append(raf, id, data);
+        length = raf.getFilePointer();
+
+        index.put(id, record);
+        liveBytes += RECORD_OVERHEAD + data.length;
+        if (previous != null) {
+            liveBytes -= RECORD_OVERHEAD + previous.length;
+        }
+
+        if (length > MIN_COMPACT_SIZE && length > liveBytes * 2) {
+            compact();
+        }
+    }
+
+    /**
+     * Rewrite the file with only the latest record of every session.
+     *
+     * @throws IOException thrown on I/O error
+     */
+    public synchronized void compact() throws IOException {
+        checkOpen();
+
+        File tempFile = getTempFile();
+        Map<UUID, Record> records = new HashMap<UUID, Record>(index.size());
+        RandomAccessFile out = createFile(tempFile);
+        try {
+            for (Map.Entry<UUID, Record> entry : index.entrySet()) {
+                records.put(entry.getKey(), append(out, entry.getKey(), read(entry.getValue())));
+            }
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        raf.close();
+        raf = null;
+        try {
+            moveOverFile(tempFile);
+            index.clear();
+            index.putAll(records);
+        } finally {
+            raf = new RandomAccessFile(file, "rw");
+            length = raf.length();
+        }
+
+        liveBytes = length;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (raf != null) {
+            raf.close();
+            raf = null;
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (raf == null) {
+            throw new IOException("The session store has been closed");
+        }
+    }
+
+    /**
+     * Read the data of a record from the file.
+     *
+     * @param record the record
+     * @return the data
+     * @throws IOException thrown on I/O error or if the data has been damaged
+     */
+    private byte[] read(Record record) throws IOException {
+        byte[] data = new byte[record.length];
+        raf.seek(record.offset);
+        raf.readFully(data);
+        if (!record.matches(data)) {
+            throw new IOException("The session data at " + record.offset + " in " + file.getPath() + " is damaged");
+        }
+        return data;
+    }
+
+    /**
+     * Read the index from the file, stopping at the first incomplete or
+     * damaged record.
+     *
+     * @throws IOException thrown on I/O error or if the file is not a session file
+     */
+    private void readFile() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(file.getPath() + " is not a session file of a supported version");
+            }
+            length = HEADER_SIZE;
+            liveBytes = HEADER_SIZE;
+
+            CRC32 crc = new CRC32();
+            byte[] head = new byte[RECORD_HEADER_SIZE];
+            while (true) {
+                try {
+                    in.readFully(head);
+                    int dataLength = ByteBuffer.wrap(head, 16, 4).getInt();
+                    if (dataLength < 0 || dataLength > MAX_RECORD_LENGTH) {
+                        break;
+                    }
+                    byte[] data = new byte[dataLength];
+                    in.readFully(data);
+                    int checksum = in.readInt();
+
+                    crc.reset();
+                    crc.update(head);
+                    crc.update(data);
+                    if ((int) crc.getValue() != checksum) {
+                        break;
+                    }
+
+                    ByteBuffer uuid = ByteBuffer.wrap(head, 0, 16);
+                    UUID id = new UUID(uuid.getLong(), uuid.getLong());
+                    Record previous = index.put(id, new Record(length + RECORD_HEADER_SIZE, data));
+                    length += RECORD_OVERHEAD + dataLength;
+                    liveBytes += RECORD_OVERHEAD + dataLength;
+                    if (previous != null) {
+                        liveBytes -= RECORD_OVERHEAD + previous.length;
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+            }
+        } catch (EOFException e) {
+            throw new IOException(file.getPath() + " is too short to be a session file");
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Append the sessions saved by {@link JsonFileSessionStore} to a new
+     * file and add them to the index.
+     *
+     * @param out the new file
+     * @throws IOException thrown if the new file can't be written
+     */
+    private void importJsonFiles(RandomAccessFile out) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (File jsonFile : files) {
+            String name = jsonFile.getName();
+            if (!name.endsWith(".json")) {
+                continue;
+            }
+
+            UUID id;
+            try {
+                id = UUID.fromString(name.substring(0, name.length() - 5));
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+
+            byte[] data;
+            try {
+                Reader reader = new InputStreamReader(new FileInputStream(jsonFile), Charsets.UTF_8);
+                try {
+                    LocalSession session = gson.fromJson(reader, LocalSession.class);
+                    if (session == null) {
+                        continue;
+                    }
+                    data = gson.toJson(session).getBytes(Charsets.UTF_8);
+                } finally {
+                    reader.close();
+                }
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Failed to import session from " + jsonFile.getPath(), e);
+                continue;
+            } catch (JsonParseException e) {
+                log.log(Level.WARNING, "Failed to import session from " + jsonFile.getPath(), e);
+                continue;
+            }
+
+            if (data.length > MAX_RECORD_LENGTH) {
+                log.log(Level.WARNING, "Not importing the session in " + jsonFile.getPath() + " because it is too large");
+                continue;
+            }
+
+            index.put(id, append(out, id, data));
+        }
+    }
+
+    private File getTempFile() {
+        return new File(dir, FILE_NAME + ".tmp");
+    }
+
+    /**
+     * Move a new file over the file.
+     *
+     * @param tempFile the new file
+     * @throws IOException thrown on I/O error
+     */
+    private void moveOverFile(File tempFile) throws IOException {
+        try {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Create an empty file with only the header.
+     *
+     * @param target the file
+     * @return the open file, positioned after the header
+     * @throws IOException thrown on I/O error
+     */
+    private static RandomAccessFile createFile(File target) throws IOException {
+        RandomAccessFile out = new RandomAccessFile(target, "rw");
+        try {
+            out.setLength(0);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+        return out;
+    }
+
+    /**
+     * Write a record at the current position of a file.
+     *
+     * @param out the file
+     * @param id the session's UUID
+     * @param data the session data
+     * @return the record's entry for the index
+     * @throws IOException thrown on I/O error
+     */
+    private static Record append(RandomAccessFile out, UUID id, byte[] data) throws IOException {
+        Record record = new Record(out.getFilePointer() + RECORD_HEADER_SIZE, data);
+        out.write(createRecord(id, data));
+        return record;
+    }
+
+    private static byte[] createRecord(UUID id, byte[] data) {
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_OVERHEAD + data.length);
+        buffer.putLong(id.getMostSignificantBits());
+        buffer.putLong(id.getLeastSignificantBits());
+        buffer.putInt(data.length);
+        buffer.put(data);
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        return buffer.array();
+    }
+
+    private static int checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * The position and checksum of the data of a session's latest record.
+     */
+    private static final class Record {
+        private final long offset;
+        private final int length;
+        private final int checksum;
+
+        private Record(long offset, byte[] data) {
+            this.offset = offset;
+            this.length = data.length;
+            this.checksum = checksum(data);
+        }
+
+        private boolean matches(byte[] data) {
+            return data.length == length && checksum(data) == checksum;
+        }
+    }
+
+}
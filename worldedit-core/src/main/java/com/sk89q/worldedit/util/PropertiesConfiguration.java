@@ -33,6 +33,7 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Properties;
 import java.util.Set;
@@ -85,6 +86,7 @@ public void load() {
         disallowedBlocks = getIntSet("disallowed-blocks", defaultDisallowedBlocks);
         defaultChangeLimit = getInt("default-max-changed-blocks", defaultChangeLimit);
         maxChangeLimit = getInt("max-changed-blocks", maxChangeLimit);
+        searchMemoryLimit = Math.max(-1, getInt("max-search-memory", searchMemoryLimit));
         defaultVerticalSize = getInt("default-vertical-size", defaultVerticalSize);
         defaultMaxPolygonalPoints = getInt("default-max-polygon-points", defaultMaxPolygonalPoints);
         maxPolygonalPoints = getInt("max-polygon-points", maxPolygonalPoints);
@@ -116,11 +118,24 @@ public void load() {
         allowSymlinks = getBool("allow-symbolic-links", allowSymlinks);
 
         LocalSession.MAX_HISTORY_SIZE = Math.max(15, getInt("history-size", 15));
+        defaultHistoryMemoryLimit = Math.max(-1, getInt("default-history-memory-limit", defaultHistoryMemoryLimit));
+        maxHistoryMemoryLimit = Math.max(-1, getInt("max-history-memory-limit", maxHistoryMemoryLimit));
+        sessionStore = getString("session-store", sessionStore);
+        operationTickLimit = Math.max(1, getInt("operation-time-per-tick", operationTickLimit));
+        asyncCommands = getBool("async-commands", asyncCommands);
+        asyncCommandThreads = Math.max(1, getInt("async-command-threads", asyncCommandThreads));
+        asyncQueueLimit = Math.max(1, getInt("async-queue-limit", asyncQueueLimit));
+        asyncCommandNames = getStringSet("async-command-names", defaultAsyncCommands);
+        expressionCacheSize = Math.max(0, getInt("expression-cache-size", expressionCacheSize));
 
         String snapshotsDir = getString("snapshots-dir", "");
         if (!snapshotsDir.isEmpty()) {
             snapshotRepo = new SnapshotRepository(snapshotsDir);
         }
+        snapshotRestoreDifferential = getBool("snapshot-restore-differential", snapshotRestoreDifferential);
+        snapshotRestoreThreads = Math.max(0, getInt("snapshot-restore-threads", snapshotRestoreThreads));
+        snapshotRestoreChunksInFlight = Math.max(1, getInt("snapshot-restore-chunks-in-flight", snapshotRestoreChunksInFlight));
+        snapshotRestoreMemoryLimit = Math.max(0, getInt("snapshot-restore-memory-limit", snapshotRestoreMemoryLimit));
 
         OutputStream output = null;
         path.getParentFile().mkdirs();
@@ -259,4 +274,28 @@ protected Set<Integer> getIntSet(String key, int[] def) {
         }
     }
 
+    /**
+     * Get a string set.
+     *
+     * @param key the key
+     * @param def the default value
+     * @return the value
+     */
+    protected Set<String> getStringSet(String key, String[] def) {
+        String val = properties.getProperty(key);
+        if (val == null) {
+            properties.setProperty(key, StringUtil.joinString(def, ",", 0));
+            return new HashSet<String>(Arrays.asList(def));
+        } else {
+            Set<String> set = new HashSet<String>();
+            for (String part : val.split(",")) {
+                part = part.trim();
+                if (!part.isEmpty()) {
+                    set.add(part);
+                }
+            }
+            return set;
+        }
+    }
+
 }
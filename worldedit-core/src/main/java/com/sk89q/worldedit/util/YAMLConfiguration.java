@@ -26,6 +26,7 @@
 import com.sk89q.worldedit.world.snapshot.SnapshotRepository;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -59,6 +60,7 @@ public void load() {
                 "limits.max-blocks-changed.default", defaultChangeLimit));
         maxChangeLimit = Math.max(-1,
                 config.getInt("limits.max-blocks-changed.maximum", maxChangeLimit));
+        searchMemoryLimit = Math.max(-1, config.getInt("limits.max-search-memory", searchMemoryLimit));
 
         defaultMaxPolygonalPoints = Math.max(-1,
                 config.getInt("limits.max-polygonal-points.default", defaultMaxPolygonalPoints));
@@ -109,6 +111,18 @@ public void load() {
         allowSymlinks = config.getBoolean("files.allow-symbolic-links", false);
         LocalSession.MAX_HISTORY_SIZE = Math.max(0, config.getInt("history.size", 15));
         SessionManager.EXPIRATION_GRACE = config.getInt("history.expiration", 10) * 60 * 1000;
+        defaultHistoryMemoryLimit = Math.max(-1, config.getInt("history.memory-limit.default", defaultHistoryMemoryLimit));
+        maxHistoryMemoryLimit = Math.max(-1, config.getInt("history.memory-limit.maximum", maxHistoryMemoryLimit));
+
+        sessionStore = config.getString("sessions.store", sessionStore);
+
+        operationTickLimit = Math.max(1, config.getInt("operations.time-per-tick", operationTickLimit));
+        asyncCommands = config.getBoolean("operations.async.enabled", asyncCommands);
+        asyncCommandThreads = Math.max(1, config.getInt("operations.async.threads", asyncCommandThreads));
+        asyncQueueLimit = Math.max(1, config.getInt("operations.async.queue-limit", asyncQueueLimit));
+        asyncCommandNames = new HashSet<String>(config.getStringList("operations.async.commands", new ArrayList<String>(asyncCommandNames)));
+
+        expressionCacheSize = Math.max(0, config.getInt("expressions.cache-size", expressionCacheSize));
 
         showHelpInfo = config.getBoolean("show-help-on-first-use", true);
 
@@ -116,6 +130,10 @@ public void load() {
         if (!snapshotsDir.isEmpty()) {
             snapshotRepo = new SnapshotRepository(snapshotsDir);
         }
+        snapshotRestoreDifferential = config.getBoolean("snapshots.restore.differential", snapshotRestoreDifferential);
+        snapshotRestoreThreads = Math.max(0, config.getInt("snapshots.restore.threads", snapshotRestoreThreads));
+        snapshotRestoreChunksInFlight = Math.max(1, config.getInt("snapshots.restore.chunks-in-flight", snapshotRestoreChunksInFlight));
+        snapshotRestoreMemoryLimit = Math.max(0, config.getInt("snapshots.restore.memory-limit", snapshotRestoreMemoryLimit));
 
         String type = config.getString("shell-save-type", "").trim();
         shellSaveType = type.equals("") ? null : type;
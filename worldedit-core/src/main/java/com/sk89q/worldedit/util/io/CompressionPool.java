@@ -0,0 +1,353 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.util.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A bounded pool of {@link Inflater}s, {@link Deflater}s and byte buffers
+ * for reading and writing compressed chunk and schematic data.
+ *
+ * <p>Every {@code Inflater} and {@code Deflater} owns native memory that is
+ * only released when it is ended or finalized, and the streams in
+ * {@code java.util.zip} create a new one each time. The streams returned by
+ * this pool instead borrow them, along with their buffers, and return them
+ * when closed. Streams that are never closed simply do not return what
+ * they borrowed.</p>
+ */
+public final class CompressionPool {
+
+    /**
+     * The data formats supported by the pool.
+     */
+    public enum Format {
+        /**
+         * Data with a zlib header and checksum.
+         */
+        ZLIB,
+
+        /**
+         * Data in a single-member GZIP container.
+         */
+        GZIP
+    }
+
+    public static final int DEFAULT_MAX_POOLED = 16;
+    public static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Buffers larger than this are not kept once released.
+     */
+    private static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+
+    private static final CompressionPool instance = new CompressionPool(DEFAULT_MAX_POOLED);
+
+    private final int maxPooled;
+    private final Deque<Inflater> zlibInflaters = new ArrayDeque<Inflater>();
+    private final Deque<Inflater> rawInflaters = new ArrayDeque<Inflater>();
+    private final Deque<Deflater> zlibDeflaters = new ArrayDeque<Deflater>();
+    private final Deque<Deflater> rawDeflaters = new ArrayDeque<Deflater>();
+    private final Deque<byte[]> buffers = new ArrayDeque<byte[]>();
+
+    private long inflaterRequests;
+    private long inflaterHits;
+    private long deflaterRequests;
+    private long deflaterHits;
+    private long bufferRequests;
+    private long bufferHits;
+    private long bytesInflated;
+    private long bytesDeflated;
+
+    /**
+     * Create a new pool.
+     *
+     * @param maxPooled the maximum number of idle objects of each kind to keep
+     */
+    public CompressionPool(int maxPooled) {
+        checkArgument(maxPooled >= 0, "maxPooled >= 0");
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * Get the pool shared by WorldEdit's chunk and schematic readers and
+     * writers.
+     *
+     * @return the shared pool
+     */
+    public static CompressionPool getInstance() {
+        return instance;
+    }
+
+    /**
+     * Create a stream that decompresses the given stream.
+     *
+     * @param in the compressed stream
+     * @param format the format of the compressed data
+     * @return a new stream, which returns its inflater and buffer when closed
+     * @throws IOException thrown if the GZIP header cannot be read
+     */
+    public InputStream createInputStream(InputStream in, Format format) throws IOException {
+        checkNotNull(in);
+        checkNotNull(format);
+        return new PooledInflaterInputStream(this, in, format, null);
+    }
+
+    /**
+     * Create a stream that decompresses the first {@code length} bytes of
+     * a buffer obtained from {@link #acquireBuffer(int)}.
+     *
+     * <p>The buffer is released back to the pool when the stream is
+     * closed, so it must not be used by the caller afterwards.</p>
+     *
+     * @param data the buffer
+     * @param length the number of bytes of compressed data
+     * @param format the format of the compressed data
+     * @return a new stream
+     * @throws IOException thrown if the GZIP header cannot be read
+     */
+    public InputStream createInputStream(byte[] data, int length, Format format) throws IOException {
+        checkNotNull(data);
+        checkNotNull(format);
+        return new PooledInflaterInputStream(this, new ByteArrayInputStream(data, 0, length), format, data);
+    }
+
+    /**
+     * Create a stream that compresses data written to it into the given
+     * stream.
+     *
+     * @param out the stream to write compressed data to
+     * @param format the format to write
+     * @return a new stream, which returns its deflater and buffer when closed
+     * @throws IOException thrown if the GZIP header cannot be written
+     */
+    public OutputStream createOutputStream(OutputStream out, Format format) throws IOException {
+        checkNotNull(out);
+        checkNotNull(format);
+        return new PooledDeflaterOutputStream(this, out, format);
+    }
+
+    /**
+     * Get an inflater.
+     *
+     * @param nowrap true for raw deflate data, false for zlib data
+     * @return an inflater
+     */
+    synchronized Inflater acquireInflater(boolean nowrap) {
+        inflaterRequests++;
+        Inflater inflater = (nowrap ? rawInflaters : zlibInflaters).poll();
+        if (inflater != null) {
+            inflaterHits++;
+            return inflater;
+        }
+        return new Inflater(nowrap);
+    }
+
+    /**
+     * Return an inflater to the pool.
+     *
+     * @param inflater the inflater
+     * @param nowrap the value passed to {@link #acquireInflater(boolean)}
+     */
+    synchronized void releaseInflater(Inflater inflater, boolean nowrap) {
+        bytesInflated += inflater.getBytesWritten();
+        Deque<Inflater> pool = nowrap ? rawInflaters : zlibInflaters;
+        if (pool.size() < maxPooled) {
+            inflater.reset();
+            pool.push(inflater);
+        } else {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Get a deflater using the default compression level.
+     *
+     * @param nowrap true for raw deflate data, false for zlib data
+     * @return a deflater
+     */
+    synchronized Deflater acquireDeflater(boolean nowrap) {
+        deflaterRequests++;
+        Deflater deflater = (nowrap ? rawDeflaters : zlibDeflaters).poll();
+        if (deflater != null) {
+            deflaterHits++;
+            return deflater;
+        }
+        return new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap);
+    }
+
+    /**
+     * Return a deflater to the pool.
+     *
+     * @param deflater the deflater
+     * @param nowrap the value passed to {@link #acquireDeflater(boolean)}
+     */
+    synchronized void releaseDeflater(Deflater deflater, boolean nowrap) {
+        bytesDeflated += deflater.getBytesRead();
+        Deque<Deflater> pool = nowrap ? rawDeflaters : zlibDeflaters;
+        if (pool.size() < maxPooled) {
+            deflater.reset();
+            pool.push(deflater);
+        } else {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Get a buffer of at least the given length.
+     *
+     * @param minLength the minimum length
+     * @return a buffer, possibly longer than requested
+     */
+    public synchronized byte[] acquireBuffer(int minLength) {
+        checkArgument(minLength >= 0, "minLength >= 0");
+        bufferRequests++;
+        Iterator<byte[]> it = buffers.iterator();
+        while (it.hasNext()) {
+            byte[] buffer = it.next();
+            if (buffer.length >= minLength) {
+                it.remove();
+                bufferHits++;
+                return buffer;
+            }
+        }
+        return new byte[Math.max(minLength, BUFFER_SIZE)];
+    }
+
+    /**
+     * Return a buffer obtained from {@link #acquireBuffer(int)} to the pool.
+     *
+     * @param buffer the buffer
+     */
+    public synchronized void releaseBuffer(byte[] buffer) {
+        checkNotNull(buffer);
+        if (buffer.length > MAX_POOLED_BUFFER_SIZE) {
+            return;
+        }
+        if (buffers.size() >= maxPooled) {
+            // Keep the larger buffers, which are more expensive to allocate
+            byte[] smallest = null;
+            for (byte[] pooled : buffers) {
+                if (smallest == null || pooled.length < smallest.length) {
+                    smallest = pooled;
+                }
+            }
+            if (smallest == null || smallest.length >= buffer.length) {
+                return;
+            }
+            buffers.remove(smallest);
+        }
+        buffers.push(buffer);
+    }
+
+    /**
+     * Get the number of inflaters that have been requested.
+     *
+     * @return the number of requests
+     */
+    public synchronized long getInflaterRequests() {
+        return inflaterRequests;
+    }
+
+    /**
+     * Get the number of inflater requests served by a pooled inflater.
+     *
+     * @return the number of hits
+     */
+    public synchronized long getInflaterHits() {
+        return inflaterHits;
+    }
+
+    /**
+     * Get the number of deflaters that have been requested.
+     *
+     * @return the number of requests
+     */
+    public synchronized long getDeflaterRequests() {
+        return deflaterRequests;
+    }
+
+    /**
+     * Get the number of deflater requests served by a pooled deflater.
+     *
+     * @return the number of hits
+     */
+    public synchronized long getDeflaterHits() {
+        return deflaterHits;
+    }
+
+    /**
+     * Get the number of buffers that have been requested.
+     *
+     * @return the number of requests
+     */
+    public synchronized long getBufferRequests() {
+        return bufferRequests;
+    }
+
+    /**
+     * Get the number of buffer requests served by a pooled buffer.
+     *
+     * @return the number of hits
+     */
+    public synchronized long getBufferHits() {
+        return bufferHits;
+    }
+
+    /**
+     * Get the number of uncompressed bytes produced by returned inflaters.
+     *
+     * @return the number of bytes
+     */
+    public synchronized long getBytesInflated() {
+        return bytesInflated;
+    }
+
+    /**
+     * Get the number of uncompressed bytes consumed by returned deflaters.
+     *
+     * @return the number of bytes
+     */
+    public synchronized long getBytesDeflated() {
+        return bytesDeflated;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CompressionPool{" +
+                "inflaters=" + inflaterHits + "/" + inflaterRequests +
+                ", deflaters=" + deflaterHits + "/" + deflaterRequests +
+                ", buffers=" + bufferHits + "/" + bufferRequests +
+                ", bytesInflated=" + bytesInflated +
+                ", bytesDeflated=" + bytesDeflated +
+                '}';
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.util.io;
+
+import com.sk89q.worldedit.util.io.CompressionPool.Format;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * A {@link DeflaterOutputStream} that borrows its deflater and buffer from
+ * a {@link CompressionPool}, and that writes GZIP data itself so that the
+ * deflater can be pooled.
+ */
+class PooledDeflaterOutputStream extends DeflaterOutputStream {
+
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, 0 };
+
+    private final CompressionPool pool;
+    private final boolean nowrap;
+    @Nullable
+    private final CRC32 crc;
+    private boolean closed;
+
+    PooledDeflaterOutputStream(CompressionPool pool, OutputStream out, Format format) throws IOException {
+        super(out, pool.acquireDeflater(format == Format.GZIP), 1);
+        this.pool = pool;
+        this.nowrap = format == Format.GZIP;
+        this.buf = pool.acquireBuffer(CompressionPool.BUFFER_SIZE);
+
+        if (format == Format.GZIP) {
+            crc = new CRC32();
+            try {
+                out.write(GZIP_HEADER);
+            } catch (IOException e) {
+                // The caller still owns the stream if construction fails
+                closed = true;
+                release();
+                throw e;
+            }
+        } else {
+            crc = null;
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        super.write(b, off, len);
+        if (crc != null) {
+            crc.update(b, off, len);
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (!def.finished()) {
+            super.finish();
+            if (crc != null) {
+                byte[] trailer = new byte[8];
+                writeUInt(trailer, 0, crc.getValue());
+                writeUInt(trailer, 4, def.getBytesRead());
+                out.write(trailer);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            try {
+                super.close();
+            } finally {
+                release();
+            }
+        }
+    }
+
+    /**
+     * Return the deflater and buffer to the pool.
+     */
+    private void release() {
+        pool.releaseDeflater(def, nowrap);
+        pool.releaseBuffer(buf);
+    }
+
+    private static void writeUInt(byte[] b, int off, long value) {
+        b[off] = (byte) value;
+        b[off + 1] = (byte) (value >> 8);
+        b[off + 2] = (byte) (value >> 16);
+        b[off + 3] = (byte) (value >> 24);
+    }
+
+}
@@ -0,0 +1,196 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.util.io;
+
+import com.sk89q.worldedit.util.io.CompressionPool.Format;
+
+import javax.annotation.Nullable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * An {@link InflaterInputStream} that borrows its inflater and buffer from
+ * a {@link CompressionPool}, and that reads GZIP data itself so that the
+ * inflater can be pooled.
+ */
+class PooledInflaterInputStream extends InflaterInputStream {
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private final CompressionPool pool;
+    private final boolean nowrap;
+    @Nullable
+    private final CRC32 crc;
+    @Nullable
+    private final byte[] source;
+    private boolean eos;
+    private boolean closed;
+
+    PooledInflaterInputStream(CompressionPool pool, InputStream in, Format format, @Nullable byte[] source) throws IOException {
+        super(in, pool.acquireInflater(format == Format.GZIP), 1);
+        this.pool = pool;
+        this.nowrap = format == Format.GZIP;
+        this.source = source;
+        this.buf = pool.acquireBuffer(CompressionPool.BUFFER_SIZE);
+
+        if (format == Format.GZIP) {
+            crc = new CRC32();
+            try {
+                readHeader();
+            } catch (IOException e) {
+                // The caller still owns the stream if construction fails
+                closed = true;
+                release();
+                throw e;
+            }
+        } else {
+            crc = null;
+        }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (eos) {
+            return -1;
+        }
+        int read = super.read(b, off, len);
+        if (read == -1) {
+            eos = true;
+            if (crc != null) {
+                readTrailer();
+            }
+        } else if (crc != null) {
+            crc.update(b, off, read);
+        }
+        return read;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return eos ? 0 : super.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            try {
+                super.close();
+            } finally {
+                release();
+            }
+        }
+    }
+
+    /**
+     * Return the inflater and buffers to the pool.
+     */
+    private void release() {
+        pool.releaseInflater(inf, nowrap);
+        pool.releaseBuffer(buf);
+        if (source != null) {
+            pool.releaseBuffer(source);
+        }
+    }
+
+    /**
+     * Read the GZIP member header, as written by
+     * {@link java.util.zip.GZIPOutputStream} and other tools.
+     *
+     * @throws IOException thrown if the header is invalid
+     */
+    private void readHeader() throws IOException {
+        if (readUShort() != GZIP_MAGIC) {
+            throw new ZipException("Not in GZIP format");
+        }
+        if (readUByte() != 8) {
+            throw new ZipException("Unsupported compression method");
+        }
+        int flags = readUByte();
+        skipBytes(6); // Modification time, extra flags and OS
+        if ((flags & FEXTRA) == FEXTRA) {
+            skipBytes(readUShort());
+        }
+        if ((flags & FNAME) == FNAME) {
+            while (readUByte() != 0) {
+            }
+        }
+        if ((flags & FCOMMENT) == FCOMMENT) {
+            while (readUByte() != 0) {
+            }
+        }
+        if ((flags & FHCRC) == FHCRC) {
+            skipBytes(2);
+        }
+    }
+
+    /**
+     * Read and check the GZIP member trailer, which follows the deflate data
+     * and may already be partly in the buffer.
+     *
+     * @throws IOException thrown if the trailer does not match the data
+     */
+    private void readTrailer() throws IOException {
+        byte[] trailer = new byte[8];
+        int remaining = Math.min(inf.getRemaining(), trailer.length);
+        System.arraycopy(buf, len - inf.getRemaining(), trailer, 0, remaining);
+        for (int i = remaining; i < trailer.length; i++) {
+            trailer[i] = (byte) readUByte();
+        }
+
+        long expectedCrc = readUInt(trailer, 0);
+        long expectedSize = readUInt(trailer, 4);
+        if (expectedCrc != crc.getValue() || expectedSize != (inf.getBytesWritten() & 0xFFFFFFFFL)) {
+            throw new ZipException("Corrupt GZIP trailer");
+        }
+    }
+
+    private static long readUInt(byte[] b, int off) {
+        return (b[off] & 0xFFL) | (b[off + 1] & 0xFFL) << 8 | (b[off + 2] & 0xFFL) << 16 | (b[off + 3] & 0xFFL) << 24;
+    }
+
+    private int readUShort() throws IOException {
+        int b = readUByte();
+        return readUByte() << 8 | b;
+    }
+
+    private int readUByte() throws IOException {
+        int b = in.read();
+        if (b == -1) {
+            throw new EOFException();
+        }
+        return b;
+    }
+
+    private void skipBytes(int n) throws IOException {
+        for (int i = 0; i < n; i++) {
+            readUByte();
+        }
+    }
+
+}
@@ -35,6 +35,7 @@
 import com.sk89q.worldedit.function.operation.Operation;
 import com.sk89q.worldedit.util.Direction;
 import com.sk89q.worldedit.util.TreeGenerator.TreeType;
+import com.sk89q.worldedit.world.chunk.SectionBuffer;
 
 import javax.annotation.Nullable;
 import java.util.PriorityQueue;
@@ -83,6 +84,21 @@ public final boolean setBlock(Vector pt, BaseBlock block) throws WorldEditExcept
         return setBlock(pt, block, true);
     }
 
+    @Override
+    public int setBlocks(BlockVector2D chunk, SectionBuffer section, boolean notifyAndLight) throws WorldEditException {
+        int baseX = chunk.getBlockX() << 4;
+        int baseY = section.getSectionY() << 4;
+        int baseZ = chunk.getBlockZ() << 4;
+        int changed = 0;
+        for (int i = 0; i < section.size(); i++) {
+            Vector position = new Vector(baseX + section.getX(i), baseY + section.getY(i), baseZ + section.getZ(i));
+            if (setBlock(position, section.getBlock(i), notifyAndLight)) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
     @Override
     public int getMinY() {
         return 0;
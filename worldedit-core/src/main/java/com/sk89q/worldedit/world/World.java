@@ -34,6 +34,7 @@
 import com.sk89q.worldedit.util.Direction;
 import com.sk89q.worldedit.util.TreeGenerator;
 import com.sk89q.worldedit.util.TreeGenerator.TreeType;
+import com.sk89q.worldedit.world.chunk.SectionBuffer;
 import com.sk89q.worldedit.world.registry.WorldData;
 
 /**
@@ -130,6 +131,22 @@ public interface World extends Extent {
      */
     boolean setBlock(Vector position, BaseBlock block, boolean notifyAndLight) throws WorldEditException;
 
+    /**
+     * Set the blocks of one 16x16x16 section of a chunk together.
+     *
+     * <p>This has the same effect as calling
+     * {@link #setBlock(Vector, BaseBlock, boolean)} for every change in the
+     * buffer, in order, but implementations may look the chunk up only once and
+     * perform lighting and adjacent block notification once for the
+     * section rather than once for every block.</p>
+     *
+     * @param chunk the chunk coordinates
+     * @param section the blocks to set
+     * @param notifyAndLight true to to notify and light
+     * @return the number of blocks that were set (return value may not be accurate)
+     */
+    int setBlocks(BlockVector2D chunk, SectionBuffer section, boolean notifyAndLight) throws WorldEditException;
+
     /**
      * @deprecated Use {@link #setBlock(Vector, BaseBlock)}
      */
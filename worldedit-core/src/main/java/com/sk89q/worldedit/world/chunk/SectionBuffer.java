@@ -0,0 +1,185 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.world.chunk;
+
+import com.sk89q.worldedit.blocks.BaseBlock;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Holds pending block changes for one 16x16x16 section of a chunk so that
+ * they can be applied to a world together.
+ *
+ * <p>Coordinates are relative to the section, so each of them must be
+ * between 0 and 15. Blocks that have not been set are left unchanged
+ * when the buffer is applied.</p>
+ *
+ * <p>Every change is kept in the order that it was made, including
+ * repeated changes to the same position, and must be applied in that
+ * order: the order of changes decides whether attached blocks such as
+ * torches and doors survive physics.</p>
+ */
+public class SectionBuffer {
+
+    public static final int SIZE = 16;
+    private static final int VOLUME = SIZE * SIZE * SIZE;
+
+    private final int sectionY;
+    private final BaseBlock[] blocks = new BaseBlock[VOLUME];
+    private short[] changeIndexes = new short[64];
+    private BaseBlock[] changeBlocks = new BaseBlock[64];
+    private int size = 0;
+
+    /**
+     * Create a new buffer.
+     *
+     * @param sectionY the Y index of the section, which is the block Y coordinate divided by 16
+     */
+    public SectionBuffer(int sectionY) {
+        this.sectionY = sectionY;
+    }
+
+    /**
+     * Get the Y index of the section.
+     *
+     * @return the section Y index
+     */
+    public int getSectionY() {
+        return sectionY;
+    }
+
+    /**
+     * Get the number of changes that have been made.
+     *
+     * @return the number of changes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the X coordinate within the section of a change.
+     *
+     * @param change the index of the change, from 0 to {@link #size()} - 1
+     * @return the X coordinate
+     */
+    public int getX(int change) {
+        return changeIndexes[checkChange(change)] & 15;
+    }
+
+    /**
+     * Get the Y coordinate within the section of a change.
+     *
+     * @param change the index of the change, from 0 to {@link #size()} - 1
+     * @return the Y coordinate
+     */
+    public int getY(int change) {
+        return (changeIndexes[checkChange(change)] >> 8) & 15;
+    }
+
+    /**
+     * Get the Z coordinate within the section of a change.
+     *
+     * @param change the index of the change, from 0 to {@link #size()} - 1
+     * @return the Z coordinate
+     */
+    public int getZ(int change) {
+        return (changeIndexes[checkChange(change)] >> 4) & 15;
+    }
+
+    /**
+     * Get the block of a change.
+     *
+     * @param change the index of the change, from 0 to {@link #size()} - 1
+     * @return the block
+     */
+    public BaseBlock getBlock(int change) {
+        return changeBlocks[checkChange(change)];
+    }
+
+    /**
+     * Return whether no blocks have been set.
+     *
+     * @return true if empty
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Get the block that was last set at the given position.
+     *
+     * @param x the X coordinate within the section
+     * @param y the Y coordinate within the section
+     * @param z the Z coordinate within the section
+     * @return the block, or null if none has been set
+     */
+    @Nullable
+    public BaseBlock getBlock(int x, int y, int z) {
+        return blocks[index(x, y, z)];
+    }
+
+    /**
+     * Set the block at the given position.
+     *
+     * @param x the X coordinate within the section
+     * @param y the Y coordinate within the section
+     * @param z the Z coordinate within the section
+     * @param block the block
+     */
+    public void setBlock(int x, int y, int z, BaseBlock block) {
+        checkNotNull(block);
+        int index = index(x, y, z);
+        blocks[index] = block;
+
+        if (size == changeIndexes.length) {
+            changeIndexes = Arrays.copyOf(changeIndexes, size * 2);
+            changeBlocks = Arrays.copyOf(changeBlocks, size * 2);
+        }
+        changeIndexes[size] = (short) index;
+        changeBlocks[size] = block;
+        size++;
+    }
+
+    /**
+     * Remove all blocks.
+     */
+    public void clear() {
+        Arrays.fill(blocks, null);
+        Arrays.fill(changeBlocks, 0, size, null);
+        size = 0;
+    }
+
+    private int checkChange(int change) {
+        checkElementIndex(change, size, "change");
+        return change;
+    }
+
+    private static int index(int x, int y, int z) {
+        checkArgument((x | y | z) >>> 4 == 0, "coordinates must be between 0 and 15");
+        return (y << 8) | (z << 4) | x;
+    }
+
+}
@@ -26,6 +26,8 @@
 import java.io.File;
 import java.io.IOException;
 import java.util.Calendar;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 import java.util.zip.ZipFile;
 
@@ -39,6 +41,7 @@ public class Snapshot implements Comparable<Snapshot> {
     protected File file;
     protected String name;
     protected Calendar date;
+    private final Map<String, String> regionFolders = new ConcurrentHashMap<String, String>();
 
     /**
      * Construct a snapshot restoration operation.
@@ -61,6 +64,10 @@ public Snapshot(SnapshotRepository repo, String snapshot) {
     public ChunkStore getChunkStore() throws IOException, DataException {
         ChunkStore chunkStore = internalGetChunkStore();
 
+        if (chunkStore instanceof ArchiveMcRegionChunkStore) {
+            ((ArchiveMcRegionChunkStore) chunkStore).setFolderCache(regionFolders);
+        }
+
         logger.info("WorldEdit: Using " + chunkStore.getClass().getCanonicalName()
                 + " for loading snapshot '" + file.getAbsolutePath() + "'");
 
@@ -0,0 +1,317 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.sk89q.worldedit.world.snapshot;
+
+import com.sk89q.worldedit.world.storage.MissingWorldException;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Remembers what is known about the snapshots in a repository so that
+ * snapshots don't have to be validated, opened and have their dates parsed
+ * again for every query.
+ *
+ * <p>A directory is only listed again when its modification time changes,
+ * and the information about a file or directory is only thrown away when
+ * its own modification time or size changes. For every world, a list of
+ * its snapshots sorted by date is kept until something changes.</p>
+ */
+public class SnapshotCatalog {
+
+    private final SnapshotRepository repository;
+    private final Folder root;
+    private final Map<String, Folder> worldFolders = new HashMap<String, Folder>();
+    private final Map<String, List<Snapshot>> indexes = new HashMap<String, List<Snapshot>>();
+
+    /**
+     * Create a new catalog.
+     *
+     * @param repository the repository
+     */
+    public SnapshotCatalog(SnapshotRepository repository) {
+        checkNotNull(repository);
+        this.repository = repository;
+        this.root = new Folder(repository.getDirectory(), "");
+    }
+
+    /**
+     * Get the snapshots of a world, sorted from oldest to newest.
+     *
+     * @param worldName the world name
+     * @return an unmodifiable list of snapshots
+     * @throws MissingWorldException thrown if the repository's directory can't be listed
+     */
+    public synchronized List<Snapshot> getSnapshots(String worldName) throws MissingWorldException {
+        checkNotNull(worldName);
+
+        boolean changed = root.refresh(worldName);
+
+        for (Entry entry : root.entries.values()) {
+            if (!entry.valid && entry.directory && entry.file.getName().equalsIgnoreCase(worldName)) {
+                Folder folder = worldFolders.get(entry.file.getName());
+                if (folder == null) {
+                    folder = new Folder(entry.file, entry.file.getName() + "/");
+                    worldFolders.put(entry.file.getName(), folder);
+                }
+                changed |= folder.refresh(worldName);
+            }
+        }
+
+        if (changed) {
+            indexes.clear();
+        }
+
+        List<Snapshot> index = indexes.get(worldName);
+        if (index == null) {
+            index = Collections.unmodifiableList(createIndex(worldName));
+            indexes.put(worldName, index);
+            repository.getChunkIndex().retain(worldName, index);
+        }
+
+        return index;
+    }
+
+    /**
+     * Get the first snapshot of a world whose date is not before the given
+     * date.
+     *
+     * @param date a date
+     * @param worldName the world name
+     * @return a snapshot or null
+     * @throws MissingWorldException thrown if the repository's directory can't be listed
+     */
+    @Nullable
+    public synchronized Snapshot getSnapshotAfter(Calendar date, String worldName) throws MissingWorldException {
+        checkNotNull(date);
+        List<Snapshot> snapshots = getSnapshots(worldName);
+
+        int low = 0;
+        int high = snapshots.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            Calendar snapshotDate = snapshots.get(mid).getDate();
+            if (snapshotDate != null && snapshotDate.before(date)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low < snapshots.size() ? snapshots.get(low) : null;
+    }
+
+    /**
+     * Get the last snapshot of a world whose date is not after the given
+     * date.
+     *
+     * @param date a date
+     * @param worldName the world name
+     * @return a snapshot or null
+     * @throws MissingWorldException thrown if the repository's directory can't be listed
+     */
+    @Nullable
+    public synchronized Snapshot getSnapshotBefore(Calendar date, String worldName) throws MissingWorldException {
+        checkNotNull(date);
+        List<Snapshot> snapshots = getSnapshots(worldName);
+
+        int low = 0;
+        int high = snapshots.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            Calendar snapshotDate = snapshots.get(mid).getDate();
+            if (snapshotDate == null || !snapshotDate.after(date)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low > 0 ? snapshots.get(low - 1) : null;
+    }
+
+    /**
+     * Forget everything that is known about the repository, such as after
+     * the date parsers have been changed.
+     */
+    public synchronized void invalidate() {
+        root.entries = null;
+        worldFolders.clear();
+        indexes.clear();
+    }
+
+    /**
+     * Create the sorted list of a world's snapshots.
+     *
+     * @param worldName the world name
+     * @return a new list
+     */
+    private List<Snapshot> createIndex(String worldName) {
+        List<Snapshot> list = new ArrayList<Snapshot>();
+
+        for (Entry entry : root.entries.values()) {
+            if (entry.valid) {
+                if (entry.containsWorld(worldName)) {
+                    list.add(entry.getSnapshot());
+                }
+            } else if (entry.directory && entry.file.getName().equalsIgnoreCase(worldName)) {
+                for (Entry child : worldFolders.get(entry.file.getName()).entries.values()) {
+                    if (child.valid) {
+                        list.add(child.getSnapshot());
+                    }
+                }
+            }
+        }
+
+        Collections.sort(list);
+        return list;
+    }
+
+    /**
+     * A directory containing snapshots.
+     */
+    private class Folder {
+        private final File dir;
+        private final String prefix;
+        private long lastModified;
+        @Nullable
+        private Map<String, Entry> entries;
+
+        private Folder(File dir, String prefix) {
+            this.dir = dir;
+            this.prefix = prefix;
+        }
+
+        /**
+         * Bring the entries up to date with the directory.
+         *
+         * @param worldName the world name, used in exceptions
+         * @return true if anything changed
+         * @throws MissingWorldException thrown if the directory can't be listed
+         */
+        private boolean refresh(String worldName) throws MissingWorldException {
+            boolean changed = false;
+            long modified = dir.lastModified();
+
+            if (entries == null || modified != lastModified) {
+                String[] names = dir.list();
+                if (names == null) {
+                    entries = null;
+                    throw new MissingWorldException(worldName);
+                }
+
+                Map<String, Entry> oldEntries = entries != null ? entries : Collections.<String, Entry>emptyMap();
+                Map<String, Entry> newEntries = new HashMap<String, Entry>(names.length);
+                for (String name : names) {
+                    Entry entry = oldEntries.get(name);
+                    if (entry == null) {
+                        entry = new Entry(new File(dir, name), prefix + name);
+                        changed = true;
+                    }
+                    newEntries.put(name, entry);
+                }
+
+                if (!newEntries.keySet().containsAll(oldEntries.keySet())) {
+                    changed = true;
+                }
+
+                entries = newEntries;
+                lastModified = modified;
+            }
+
+            for (Entry entry : entries.values()) {
+                if (entry.refresh()) {
+                    changed = true;
+                }
+            }
+
+            return changed;
+        }
+    }
+
+    /**
+     * A file or directory in a folder of the repository.
+     */
+    private class Entry {
+        private final File file;
+        private final String name;
+        private boolean refreshed;
+        private long lastModified;
+        private long length;
+        private boolean directory;
+        private boolean valid;
+        @Nullable
+        private Snapshot snapshot;
+        private final Map<String, Boolean> worlds = new HashMap<String, Boolean>();
+
+        private Entry(File file, String name) {
+            this.file = file;
+            this.name = name;
+        }
+
+        /**
+         * Throw away what is known about the file if it has changed.
+         *
+         * @return true if the file has changed
+         */
+        private boolean refresh() {
+            long modified = file.lastModified();
+            long size = file.length();
+
+            if (refreshed && modified == lastModified && size == length) {
+                return false;
+            }
+
+            refreshed = true;
+            lastModified = modified;
+            length = size;
+            directory = file.isDirectory();
+            valid = repository.isValidSnapshot(file);
+            snapshot = null;
+            worlds.clear();
+            return true;
+        }
+
+        private Snapshot getSnapshot() {
+            if (snapshot == null) {
+                snapshot = new Snapshot(repository, name);
+                repository.detectDate(snapshot);
+            }
+            return snapshot;
+        }
+
+        private boolean containsWorld(String worldName) {
+            Boolean contains = worlds.get(worldName);
+            if (contains == null) {
+                contains = getSnapshot().containsWorld(worldName);
+                worlds.put(worldName, contains);
+            }
+            return contains;
+        }
+    }
+
+}
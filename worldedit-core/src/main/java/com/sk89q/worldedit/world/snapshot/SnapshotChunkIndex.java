@@ -0,0 +1,446 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.sk89q.worldedit.world.snapshot;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sk89q.jnbt.ByteArrayTag;
+import com.sk89q.jnbt.ByteTag;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.ListTag;
+import com.sk89q.jnbt.NBTFilter;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.BlockVector2D;
+import com.sk89q.worldedit.Vector2D;
+import com.sk89q.worldedit.world.DataException;
+import com.sk89q.worldedit.world.World;
+import com.sk89q.worldedit.world.storage.ChunkStore;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Records a hash of the blocks of chunks in snapshots so that the snapshots
+ * in which an area changed can be found without reading the chunks again.
+ *
+ * <p>Chunks are indexed on demand in a background thread, and the hashes
+ * are kept for as long as the snapshot's file is not modified. Only block
+ * IDs and data values are hashed, so changes to only entities or tile
+ * entities are not noticed.</p>
+ *
+ * <p>Requests to index the same chunks of the same snapshots share one
+ * job, and at most {@link #MAX_QUEUED_JOBS} jobs wait to be run.</p>
+ */
+public class SnapshotChunkIndex {
+
+    private static final Logger logger = Logger.getLogger(SnapshotChunkIndex.class.getCanonicalName());
+
+    /**
+     * The parts of a chunk's tag that are hashed.
+     */
+    public static final NBTFilter HASH_FILTER = NBTFilter.of(
+            "Level.Blocks", "Level.Data",
+            "Level.Sections.Y", "Level.Sections.Blocks", "Level.Sections.Data", "Level.Sections.Add");
+
+    /**
+     * The hash recorded for a chunk that is not in a snapshot.
+     */
+    public static final long MISSING = 0;
+
+    /**
+     * The maximum number of indexing jobs that wait to be run.
+     */
+    public static final int MAX_QUEUED_JOBS = 16;
+
+    private final ConcurrentMap<String, ConcurrentMap<BlockVector2D, Long>> hashes =
+            new ConcurrentHashMap<String, ConcurrentMap<BlockVector2D, Long>>();
+    private final ConcurrentMap<String, String> failures = new ConcurrentHashMap<String, String>();
+    private final Map<List<Set<?>>, Future<?>> jobs = new HashMap<List<Set<?>>, Future<?>>();
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Create a new index.
+     */
+    public SnapshotChunkIndex() {
+        executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(MAX_QUEUED_JOBS),
+                new ThreadFactoryBuilder().setNameFormat("WorldEdit Snapshot Indexer #%d").setDaemon(true).build());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Get the recorded hash of a chunk in a snapshot.
+     *
+     * @param snapshot the snapshot
+     * @param worldName the world name
+     * @param position the chunk position
+     * @return the hash, {@link #MISSING} if the chunk is not in the snapshot, or null if it has not been indexed
+     */
+    @Nullable
+    public Long getHash(Snapshot snapshot, String worldName, Vector2D position) {
+        Map<BlockVector2D, Long> chunks = hashes.get(getKey(snapshot, worldName));
+        return chunks != null ? chunks.get(toBlockVector(position)) : null;
+    }
+
+    /**
+     * Get the errors that stopped the given snapshots from being indexed.
+     *
+     * <p>A snapshot that failed is not indexed again in the background
+     * until its file is modified, and is left out when looking for
+     * changes.</p>
+     *
+     * @param snapshots the snapshots
+     * @param worldName the world name
+     * @return a map of snapshots to error messages, which is empty if there were no errors
+     */
+    public Map<Snapshot, String> getFailures(Collection<Snapshot> snapshots, String worldName) {
+        Map<Snapshot, String> result = new LinkedHashMap<Snapshot, String>();
+        for (Snapshot snapshot : snapshots) {
+            String message = failures.get(getKey(snapshot, worldName));
+            if (message != null) {
+                result.put(snapshot, message);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Forget the hashes and errors of a world's snapshots that are not in
+     * the given list, such as snapshots that were deleted or modified.
+     *
+     * @param worldName the world name
+     * @param snapshots the snapshots of the world that are still available
+     */
+    public void retain(String worldName, Collection<Snapshot> snapshots) {
+        checkNotNull(worldName);
+        checkNotNull(snapshots);
+
+        Set<String> keys = new HashSet<String>();
+        for (Snapshot snapshot : snapshots) {
+            keys.add(getKey(snapshot, worldName));
+        }
+
+        String suffix = "\0" + worldName;
+        removeStale(hashes.keySet().iterator(), suffix, keys);
+        removeStale(failures.keySet().iterator(), suffix, keys);
+    }
+
+    private static void removeStale(Iterator<String> it, String suffix, Set<String> keys) {
+        while (it.hasNext()) {
+            String key = it.next();
+            if (key.endsWith(suffix) && !keys.contains(key)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns whether all of the given chunks have been indexed in all of
+     * the given snapshots, not counting snapshots that failed to be
+     * indexed.
+     *
+     * @param snapshots the snapshots
+     * @param worldName the world name
+     * @param chunks the chunk positions
+     * @return true if all of the chunks have been indexed
+     */
+    public boolean isIndexed(Collection<Snapshot> snapshots, String worldName, Collection<? extends Vector2D> chunks) {
+        for (Snapshot snapshot : snapshots) {
+            String key = getKey(snapshot, worldName);
+            if (failures.containsKey(key)) {
+                continue;
+            }
+            Map<BlockVector2D, Long> indexed = hashes.get(key);
+            if (indexed == null) {
+                return false;
+            }
+            for (Vector2D position : chunks) {
+                if (!indexed.containsKey(toBlockVector(position))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the snapshots in which any of the given chunks is different
+     * from the next newer snapshot.
+     *
+     * <p>The newest snapshot is never returned, as there is nothing to
+     * compare it to. Snapshots that failed to be indexed are left out, so
+     * a snapshot is then compared to the next newer snapshot that was
+     * indexed.</p>
+     *
+     * @param snapshots the snapshots, newest first
+     * @param worldName the world name
+     * @param chunks the chunk positions
+     * @return the snapshots that differ, newest first, or null if not all of the chunks have been indexed
+     */
+    @Nullable
+    public List<Snapshot> getChangedSnapshots(List<Snapshot> snapshots, String worldName, Collection<? extends Vector2D> chunks) {
+        checkNotNull(snapshots);
+        checkNotNull(worldName);
+        checkNotNull(chunks);
+
+        if (!isIndexed(snapshots, worldName, chunks)) {
+            return null;
+        }
+
+        List<Snapshot> changed = new ArrayList<Snapshot>();
+        Map<BlockVector2D, Long> newer = null;
+        for (Snapshot snapshot : snapshots) {
+            String key = getKey(snapshot, worldName);
+            Map<BlockVector2D, Long> older = hashes.get(key);
+            if (older == null || failures.containsKey(key)) {
+                continue;
+            }
+            if (newer != null) {
+                for (Vector2D position : chunks) {
+                    BlockVector2D chunk = toBlockVector(position);
+                    if (!newer.get(chunk).equals(older.get(chunk))) {
+                        changed.add(snapshot);
+                        break;
+                    }
+                }
+            }
+            newer = older;
+        }
+
+        return changed;
+    }
+
+    /**
+     * Index the given chunks in the given snapshots in the background.
+     *
+     * <p>Chunks that have already been indexed are skipped. If the same
+     * chunks of the same snapshots are already waiting to be indexed, the
+     * existing job is returned.</p>
+     *
+     * @param snapshots the snapshots
+     * @param world the world
+     * @param chunks the chunk positions
+     * @return a future that completes when the chunks have been indexed
+     * @throws RejectedExecutionException thrown if too many jobs are already waiting
+     */
+    public synchronized Future<?> index(Collection<Snapshot> snapshots, final World world, Collection<? extends Vector2D> chunks) {
+        checkNotNull(snapshots);
+        checkNotNull(world);
+        checkNotNull(chunks);
+
+        final List<Snapshot> snapshotList = new ArrayList<Snapshot>(snapshots);
+        final List<BlockVector2D> chunkList = new ArrayList<BlockVector2D>(chunks.size());
+        for (Vector2D position : chunks) {
+            chunkList.add(toBlockVector(position));
+        }
+
+        Set<String> snapshotKeys = new HashSet<String>();
+        for (Snapshot snapshot : snapshotList) {
+            snapshotKeys.add(getKey(snapshot, world.getName()));
+        }
+        final List<Set<?>> key = Arrays.<Set<?>>asList(snapshotKeys, new HashSet<BlockVector2D>(chunkList));
+
+        Future<?> existing = jobs.get(key);
+        if (existing != null && !existing.isDone()) {
+            return existing;
+        }
+
+        FutureTask<Void> task = new FutureTask<Void>(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                try {
+                    for (Snapshot snapshot : snapshotList) {
+                        if (Thread.currentThread().isInterrupted()) {
+                            break;
+                        }
+                        index(snapshot, world, chunkList);
+                    }
+                    return null;
+                } finally {
+                    synchronized (SnapshotChunkIndex.this) {
+                        jobs.remove(key);
+                    }
+                }
+            }
+        });
+        executor.execute(task);
+        jobs.put(key, task);
+        return task;
+    }
+
+    /**
+     * Index the given chunks of a snapshot.
+     *
+     * @param snapshot the snapshot
+     * @param world the world
+     * @param chunks the chunk positions
+     */
+    private void index(Snapshot snapshot, World world, List<BlockVector2D> chunks) {
+        if (isIndexed(Collections.singleton(snapshot), world.getName(), chunks)) {
+            return;
+        }
+
+        ChunkStore chunkStore;
+        try {
+            chunkStore = snapshot.getChunkStore();
+        } catch (DataException e) {
+            fail(snapshot, world.getName(), e);
+            return;
+        } catch (IOException e) {
+            fail(snapshot, world.getName(), e);
+            return;
+        }
+
+        try {
+            index(snapshot, chunkStore, world, chunks);
+        } finally {
+            try {
+                chunkStore.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Index the given chunks of a snapshot using its chunk store.
+     *
+     * @param snapshot the snapshot
+     * @param chunkStore the snapshot's chunk store
+     * @param world the world
+     * @param chunks the chunk positions
+     */
+    void index(Snapshot snapshot, ChunkStore chunkStore, World world, Collection<BlockVector2D> chunks) {
+        String key = getKey(snapshot, world.getName());
+        failures.remove(key);
+        ConcurrentMap<BlockVector2D, Long> indexed = hashes.get(key);
+        if (indexed == null) {
+            ConcurrentMap<BlockVector2D, Long> created = new ConcurrentHashMap<BlockVector2D, Long>();
+            indexed = hashes.putIfAbsent(key, created);
+            if (indexed == null) {
+                indexed = created;
+            }
+        }
+
+        for (BlockVector2D position : chunks) {
+            if (indexed.containsKey(position)) {
+                continue;
+            }
+
+            try {
+                indexed.put(position, hash(chunkStore.getChunkTag(position, world, HASH_FILTER)));
+            } catch (DataException e) {
+                // Missing, ungenerated and unreadable chunks can't be restored either
+                indexed.put(position, MISSING);
+            } catch (IOException e) {
+                fail(snapshot, world.getName(), e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Log and remember an error that stopped a snapshot from being indexed.
+     *
+     * @param snapshot the snapshot
+     * @param worldName the world name
+     * @param e the error
+     */
+    private void fail(Snapshot snapshot, String worldName, Exception e) {
+        logger.log(Level.WARNING, "Failed to index snapshot '" + snapshot.getName() + "'", e);
+        failures.put(getKey(snapshot, worldName), e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+    }
+
+    /**
+     * Hash the blocks of a chunk.
+     *
+     * @param level the chunk's level tag
+     * @return the hash, which is never {@link #MISSING}
+     */
+    static long hash(CompoundTag level) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        Map<String, Tag> values = level.getValue();
+        Tag sections = values.get("Sections");
+
+        if (sections instanceof ListTag) {
+            for (Tag section : ((ListTag) sections).getValue()) {
+                if (section instanceof CompoundTag) {
+                    Map<String, Tag> sectionValues = ((CompoundTag) section).getValue();
+                    putTag(hasher, sectionValues.get("Y"));
+                    putTag(hasher, sectionValues.get("Blocks"));
+                    putTag(hasher, sectionValues.get("Data"));
+                    putTag(hasher, sectionValues.get("Add"));
+                }
+            }
+        } else {
+            putTag(hasher, values.get("Blocks"));
+            putTag(hasher, values.get("Data"));
+        }
+
+        long hash = hasher.hash().asLong();
+        return hash != MISSING ? hash : 1;
+    }
+
+    private static void putTag(Hasher hasher, @Nullable Tag tag) {
+        if (tag instanceof ByteArrayTag) {
+            byte[] bytes = ((ByteArrayTag) tag).getValue();
+            hasher.putInt(bytes.length);
+            hasher.putBytes(bytes);
+        } else if (tag instanceof ByteTag) {
+            hasher.putByte(((ByteTag) tag).getValue());
+        } else {
+            hasher.putInt(-1);
+        }
+    }
+
+    private static String getKey(Snapshot snapshot, String worldName) {
+        return snapshot.getName() + "\0" + snapshot.getFile().lastModified() + "\0" + worldName;
+    }
+
+    private static BlockVector2D toBlockVector(Vector2D position) {
+        if (position instanceof BlockVector2D) {
+            return (BlockVector2D) position;
+        }
+        return new BlockVector2D(position.getBlockX(), position.getBlockZ());
+    }
+
+}
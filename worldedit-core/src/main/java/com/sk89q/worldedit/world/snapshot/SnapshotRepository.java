@@ -25,7 +25,6 @@
 
 import javax.annotation.Nullable;
 import java.io.File;
-import java.io.FilenameFilter;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
@@ -38,6 +37,8 @@ public class SnapshotRepository {
 
     protected File dir;
     protected List<SnapshotDateParser> dateParsers = new ArrayList<SnapshotDateParser>();
+    private final SnapshotCatalog catalog;
+    private final SnapshotChunkIndex chunkIndex = new SnapshotChunkIndex();
 
     /**
      * Create a new instance of a repository.
@@ -52,6 +53,8 @@ public SnapshotRepository(File dir) {
 
         dateParsers.add(new YYMMDDHHIISSParser());
         dateParsers.add(new ModificationTimerParser());
+
+        catalog = new SnapshotCatalog(this);
     }
 
     /**
@@ -71,40 +74,10 @@ public SnapshotRepository(String dir) {
      * @return a list of snapshots
      */
     public List<Snapshot> getSnapshots(boolean newestFirst, String worldName) throws MissingWorldException {
-        FilenameFilter filter = new FilenameFilter() {
-            @Override
-            public boolean accept(File dir, String name) {
-                File f = new File(dir, name);
-                return isValidSnapshot(f);
-            }
-        };
-
-        File[] snapshotFiles = dir.listFiles();
-        if (snapshotFiles == null) {
-            throw new MissingWorldException(worldName);
-        }
-        List<Snapshot> list = new ArrayList<Snapshot>(snapshotFiles.length);
-
-        for (File file : snapshotFiles) {
-            if (isValidSnapshot(file)) {
-                Snapshot snapshot = new Snapshot(this, file.getName());
-                if (snapshot.containsWorld(worldName)) {
-                    detectDate(snapshot);
-                    list.add(snapshot);
-                }
-            } else if (file.isDirectory() && file.getName().equalsIgnoreCase(worldName)) {
-                for (String name : file.list(filter)) {
-                    Snapshot snapshot = new Snapshot(this, file.getName() + "/" + name);
-                    detectDate(snapshot);
-                    list.add(snapshot);
-                }
-            }
-        }
+        List<Snapshot> list = new ArrayList<Snapshot>(catalog.getSnapshots(worldName));
 
         if (newestFirst) {
-            Collections.sort(list, Collections.reverseOrder());
-        } else {
-            Collections.sort(list);
+            Collections.reverse(list);
         }
 
         return list;
@@ -118,18 +91,7 @@ public boolean accept(File dir, String name) {
      */
     @Nullable
     public Snapshot getSnapshotAfter(Calendar date, String world) throws MissingWorldException {
-        List<Snapshot> snapshots = getSnapshots(true, world);
-        Snapshot last = null;
-
-        for (Snapshot snapshot : snapshots) {
-            if (snapshot.getDate() != null && snapshot.getDate().before(date)) {
-                return last;
-            }
-
-            last = snapshot;
-        }
-
-        return last;
+        return catalog.getSnapshotAfter(date, world);
     }
 
     /**
@@ -140,18 +102,7 @@ public Snapshot getSnapshotAfter(Calendar date, String world) throws MissingWorl
      */
     @Nullable
     public Snapshot getSnapshotBefore(Calendar date, String world) throws MissingWorldException {
-        List<Snapshot> snapshots = getSnapshots(false, world);
-        Snapshot last = null;
-
-        for (Snapshot snapshot : snapshots) {
-            if (snapshot.getDate().after(date)) {
-                return last;
-            }
-
-            last = snapshot;
-        }
-
-        return last;
+        return catalog.getSnapshotBefore(date, world);
     }
 
     /**
@@ -179,13 +130,13 @@ protected void detectDate(Snapshot snapshot) {
      */
     @Nullable
     public Snapshot getDefaultSnapshot(String world) throws MissingWorldException {
-        List<Snapshot> snapshots = getSnapshots(true, world);
+        List<Snapshot> snapshots = catalog.getSnapshots(world);
 
         if (snapshots.isEmpty()) {
             return null;
         }
 
-        return snapshots.get(0);
+        return snapshots.get(snapshots.size() - 1);
     }
 
     /**
@@ -231,6 +182,27 @@ public Snapshot getSnapshot(String name) throws InvalidSnapshotException {
         return new Snapshot(this, name);
     }
 
+    /**
+     * Get the catalog that caches the snapshots found in the repository.
+     *
+     * <p>If the date parsers are changed, {@link SnapshotCatalog#invalidate()}
+     * should be called.</p>
+     *
+     * @return the catalog
+     */
+    public SnapshotCatalog getCatalog() {
+        return catalog;
+    }
+
+    /**
+     * Get the index of the chunks in the repository's snapshots.
+     *
+     * @return the index
+     */
+    public SnapshotChunkIndex getChunkIndex() {
+        return chunkIndex;
+    }
+
     /**
      * Get the snapshot directory.
      *
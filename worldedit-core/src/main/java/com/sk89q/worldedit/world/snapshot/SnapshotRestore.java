@@ -19,37 +19,76 @@
 
 package com.sk89q.worldedit.world.snapshot;
 
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.sk89q.worldedit.BlockVector2D;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.MaxChangedBlocksException;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.Vector2D;
 import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.function.mask.Mask;
 import com.sk89q.worldedit.regions.CuboidRegion;
 import com.sk89q.worldedit.regions.Region;
 import com.sk89q.worldedit.world.DataException;
 import com.sk89q.worldedit.world.chunk.Chunk;
 import com.sk89q.worldedit.world.storage.ChunkStore;
 import com.sk89q.worldedit.world.storage.MissingChunkException;
-import com.sk89q.worldedit.world.storage.MissingWorldException;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
 
 /**
  * A snapshot restore operation.
+ *
+ * <p>By default, chunks are loaded and decoded by a small pool of worker
+ * threads ahead of the thread calling {@link #restore()}, which applies
+ * them to the edit session in order. The number of decoded chunks waiting
+ * to be applied is bounded by both {@link #setChunksInFlight(int)} and
+ * {@link #setMemoryLimit(long)}.</p>
+ *
+ * <p>In differential mode, each block of the snapshot is compared with the
+ * block currently in the edit session and only blocks that differ are
+ * written, which also keeps unchanged blocks out of the history.</p>
  */
 public class SnapshotRestore {
 
-    private final Map<BlockVector2D, ArrayList<Vector>> neededChunks = new LinkedHashMap<BlockVector2D, ArrayList<Vector>>();
+    /**
+     * A rough estimate of the memory used by a decoded chunk, which holds
+     * the block, add and data arrays of all 16 sections as well as its tag.
+     */
+    public static final long ESTIMATED_CHUNK_SIZE = 192 * 1024;
+
+    private static final long AWAIT_TERMINATION_SECONDS = 5;
+
+    private final Set<BlockVector2D> neededChunks = new LinkedHashSet<BlockVector2D>();
     private final ChunkStore chunkStore;
+    private final Region region;
     private final EditSession editSession;
     private ArrayList<Vector2D> missingChunks;
     private ArrayList<Vector2D> errorChunks;
     private String lastErrorMessage;
+    private boolean differential = false;
+    private int changedBlocks;
+    private int unchangedBlocks;
+    private int skippedBlocks;
+    private int threads = 2;
+    private int chunksInFlight = 16;
+    private long memoryLimit = 32 * 1024 * 1024;
 
     /**
      * Construct the snapshot restore operation.
@@ -61,6 +100,7 @@ public class SnapshotRestore {
     public SnapshotRestore(ChunkStore chunkStore, EditSession editSession, Region region) {
         this.chunkStore = chunkStore;
         this.editSession = editSession;
+        this.region = region.clone();
 
         if (region instanceof CuboidRegion) {
             findNeededCuboidChunks(region);
@@ -77,17 +117,47 @@ public SnapshotRestore(ChunkStore chunkStore, EditSession editSession, Region re
     private void findNeededCuboidChunks(Region region) {
         Vector min = region.getMinimumPoint();
         Vector max = region.getMaximumPoint();
+        Mask mask = editSession.getMask();
+
+        // Only the chunks are remembered; their blocks are visited again
+        // when each chunk is applied
+        for (int chunkX = min.getBlockX() >> 4; chunkX <= max.getBlockX() >> 4; ++chunkX) {
+            for (int chunkZ = min.getBlockZ() >> 4; chunkZ <= max.getBlockZ() >> 4; ++chunkZ) {
+                BlockVector2D chunkPos = new BlockVector2D(chunkX, chunkZ);
+                if (mask == null || hasMatchingBlock(chunkPos, mask)) {
+                    neededChunks.add(chunkPos);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns whether any block of the region within the given chunk
+     * matches the mask.
+     *
+     * @param chunkPos the chunk position
+     * @param mask the mask
+     * @return true if a block matches
+     */
+    private boolean hasMatchingBlock(BlockVector2D chunkPos, Mask mask) {
+        Vector min = region.getMinimumPoint();
+        Vector max = region.getMaximumPoint();
+        int minX = Math.max(min.getBlockX(), chunkPos.getBlockX() << 4);
+        int maxX = Math.min(max.getBlockX(), (chunkPos.getBlockX() << 4) + 15);
+        int minZ = Math.max(min.getBlockZ(), chunkPos.getBlockZ() << 4);
+        int maxZ = Math.min(max.getBlockZ(), (chunkPos.getBlockZ() << 4) + 15);
 
-        // First, we need to group points by chunk so that we only need
-        // to keep one chunk in memory at any given moment
-        for (int x = min.getBlockX(); x <= max.getBlockX(); ++x) {
+        for (int x = minX; x <= maxX; ++x) {
             for (int y = min.getBlockY(); y <= max.getBlockY(); ++y) {
-                for (int z = min.getBlockZ(); z <= max.getBlockZ(); ++z) {
-                    Vector pos = new Vector(x, y, z);
-                    checkAndAddBlock(pos);
+                for (int z = minZ; z <= maxZ; ++z) {
+                    if (mask.test(new Vector(x, y, z))) {
+                        return true;
+                    }
                 }
             }
         }
+
+        return false;
     }
 
     /**
@@ -96,34 +166,80 @@ private void findNeededCuboidChunks(Region region) {
      * @param region The {@link Region} to iterate
      */
     private void findNeededChunks(Region region) {
-        // First, we need to group points by chunk so that we only need
-        // to keep one chunk in memory at any given moment
+        Mask mask = editSession.getMask();
+
         for (Vector pos : region) {
-            checkAndAddBlock(pos);
+            BlockVector2D chunkPos = ChunkStore.toChunk(pos);
+            if (!neededChunks.contains(chunkPos) && (mask == null || mask.test(pos))) {
+                neededChunks.add(chunkPos);
+            }
         }
     }
 
-    private void checkAndAddBlock(Vector pos) {
-        if (editSession.getMask() != null && !editSession.getMask().test(pos))
-            return;
+    /**
+     * Get the number of chunks that are needed.
+     *
+     * @return a number of chunks
+     */
+    public int getChunksAffected() {
+        return neededChunks.size();
+    }
 
-        BlockVector2D chunkPos = ChunkStore.toChunk(pos);
+    /**
+     * Set whether only blocks that differ from the current blocks of the
+     * edit session are written.
+     *
+     * <p>Blocks of the snapshot that have NBT data are always written.</p>
+     *
+     * @param differential true to skip blocks that have not changed
+     */
+    public void setDifferential(boolean differential) {
+        this.differential = differential;
+    }
 
-        // Unidentified chunk
-        if (!neededChunks.containsKey(chunkPos)) {
-            neededChunks.put(chunkPos, new ArrayList<Vector>());
-        }
+    /**
+     * Set the number of worker threads that load and decode chunks.
+     *
+     * @param threads the number of threads, or 0 to load every chunk on the
+     *                thread calling {@link #restore()}
+     */
+    public void setThreads(int threads) {
+        checkArgument(threads >= 0, "threads >= 0");
+        this.threads = threads;
+    }
 
-        neededChunks.get(chunkPos).add(pos);
+    /**
+     * Set the maximum number of chunks that may be loading or waiting to
+     * be applied at once.
+     *
+     * @param chunksInFlight the number of chunks
+     */
+    public void setChunksInFlight(int chunksInFlight) {
+        checkArgument(chunksInFlight >= 1, "chunksInFlight >= 1");
+        this.chunksInFlight = chunksInFlight;
     }
 
     /**
-     * Get the number of chunks that are needed.
+     * Set the approximate amount of memory that chunks which are loading
+     * or waiting to be applied may use, based on
+     * {@link #ESTIMATED_CHUNK_SIZE}.
      *
-     * @return a number of chunks
+     * @param memoryLimit the limit in bytes
      */
-    public int getChunksAffected() {
-        return neededChunks.size();
+    public void setMemoryLimit(long memoryLimit) {
+        checkArgument(memoryLimit >= 0, "memoryLimit >= 0");
+        this.memoryLimit = memoryLimit;
+    }
+
+    /**
+     * Get the number of chunks that may be in flight at once, taking both
+     * the chunk and memory limits into account.
+     *
+     * @return the number of chunks, at least 1
+     */
+    public int getWindowSize() {
+        long byMemory = Math.max(1, memoryLimit / ESTIMATED_CHUNK_SIZE);
+        return (int) Math.min(chunksInFlight, byMemory);
     }
 
     /**
@@ -135,40 +251,176 @@ public void restore() throws MaxChangedBlocksException {
 
         missingChunks = new ArrayList<Vector2D>();
         errorChunks = new ArrayList<Vector2D>();
+        changedBlocks = 0;
+        unchangedBlocks = 0;
+        skippedBlocks = 0;
+
+        int window = getWindowSize();
 
         // Now let's start restoring!
-        for (Map.Entry<BlockVector2D, ArrayList<Vector>> entry : neededChunks.entrySet()) {
-            BlockVector2D chunkPos = entry.getKey();
+        if (threads == 0 || window == 1 || neededChunks.size() <= 1) {
+            restoreSerially();
+        } else {
+            restorePipelined(window);
+        }
+    }
+
+    /**
+     * Load and apply chunks one at a time on the current thread.
+     *
+     * @throws MaxChangedBlocksException thrown if too many blocks are changed
+     */
+    private void restoreSerially() throws MaxChangedBlocksException {
+        for (BlockVector2D chunkPos : neededChunks) {
             Chunk chunk;
 
             try {
                 chunk = chunkStore.getChunk(chunkPos, editSession.getWorld());
-                // Good, the chunk could be at least loaded
+            } catch (DataException e) {
+                handleFailure(chunkPos, e);
+                continue;
+            } catch (IOException e) {
+                handleFailure(chunkPos, e);
+                continue;
+            }
+
+            // Good, the chunk could be at least loaded
+            apply(chunk, chunkPos);
+        }
+    }
+
+    /**
+     * Load chunks on worker threads while applying them in order on the
+     * current thread, keeping at most {@code window} chunks in flight.
+     *
+     * @param window the maximum number of chunks in flight
+     * @throws MaxChangedBlocksException thrown if too many blocks are changed
+     */
+    private void restorePipelined(int window) throws MaxChangedBlocksException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, window),
+                new ThreadFactoryBuilder().setNameFormat("WorldEdit Snapshot Restore #%d").setDaemon(true).build());
+        Deque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>(window);
+        Iterator<BlockVector2D> toLoad = neededChunks.iterator();
+        Iterator<BlockVector2D> toApply = neededChunks.iterator();
+
+        try {
+            while (toApply.hasNext()) {
+                while (pending.size() < window && toLoad.hasNext()) {
+                    pending.add(executor.submit(new ChunkLoader(toLoad.next())));
+                }
+
+                BlockVector2D chunkPos = toApply.next();
+                Chunk chunk;
+
+                try {
+                    chunk = pending.poll().get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    errorChunks.add(chunkPos);
+                    while (toApply.hasNext()) {
+                        errorChunks.add(toApply.next());
+                    }
+                    lastErrorMessage = "The restore was interrupted";
+                    return;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof DataException || cause instanceof IOException) {
+                        handleFailure(chunkPos, (Exception) cause);
+                        continue;
+                    }
+                    throw Throwables.propagate(cause);
+                }
+
+                apply(chunk, chunkPos);
+            }
+        } finally {
+            for (Future<Chunk> future : pending) {
+                future.cancel(true);
+            }
+            executor.shutdownNow();
+            awaitTermination(executor);
+        }
+    }
+
+    /**
+     * Wait for the workers to stop so that the chunk store can be closed
+     * safely once the restore returns.
+     *
+     * @param executor the executor
+     */
+    private static void awaitTermination(ExecutorService executor) {
+        try {
+            executor.awaitTermination(AWAIT_TERMINATION_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Copy the blocks of the region and mask within a loaded chunk to the
+     * edit session.
+     *
+     * @param chunk the chunk
+     * @param chunkPos the chunk position
+     * @throws MaxChangedBlocksException thrown if too many blocks are changed
+     */
+    private void apply(Chunk chunk, BlockVector2D chunkPos) throws MaxChangedBlocksException {
+        Vector min = region.getMinimumPoint();
+        Vector max = region.getMaximumPoint();
+        int minX = Math.max(min.getBlockX(), chunkPos.getBlockX() << 4);
+        int maxX = Math.min(max.getBlockX(), (chunkPos.getBlockX() << 4) + 15);
+        int minZ = Math.max(min.getBlockZ(), chunkPos.getBlockZ() << 4);
+        int maxZ = Math.min(max.getBlockZ(), (chunkPos.getBlockZ() << 4) + 15);
+        boolean cuboid = region instanceof CuboidRegion;
+        Mask mask = editSession.getMask();
+
+        for (int x = minX; x <= maxX; ++x) {
+            for (int y = min.getBlockY(); y <= max.getBlockY(); ++y) {
+                for (int z = minZ; z <= maxZ; ++z) {
+                    Vector pos = new Vector(x, y, z);
+                    if ((!cuboid && !region.contains(pos)) || (mask != null && !mask.test(pos))) {
+                        continue;
+                    }
 
-                // Now just copy blocks!
-                for (Vector pos : entry.getValue()) {
                     try {
                         BaseBlock block = chunk.getBlock(pos);
-                        editSession.setBlock(pos, block);
+                        if (differential && !block.hasNbtData() && matches(pos, block)) {
+                            ++unchangedBlocks;
+                            continue;
+                        }
+                        if (editSession.setBlock(pos, block)) {
+                            ++changedBlocks;
+                        } else if (matches(pos, block)) {
+                            // The edit session does not report a change for
+                            // a block that is already the same
+                            ++unchangedBlocks;
+                        } else {
+                            ++skippedBlocks;
+                        }
                     } catch (DataException e) {
                         // this is a workaround: just ignore for now
+                        ++skippedBlocks;
                     }
                 }
-            } catch (MissingChunkException me) {
-                missingChunks.add(chunkPos);
-            } catch (MissingWorldException me) {
-                errorChunks.add(chunkPos);
-                lastErrorMessage = me.getMessage();
-            } catch (DataException de) {
-                errorChunks.add(chunkPos);
-                lastErrorMessage = de.getMessage();
-            } catch (IOException ioe) {
-                errorChunks.add(chunkPos);
-                lastErrorMessage = ioe.getMessage();
             }
         }
     }
 
+    /**
+     * Record a chunk that could not be loaded.
+     *
+     * @param chunkPos the chunk position
+     * @param e the error
+     */
+    private void handleFailure(BlockVector2D chunkPos, Exception e) {
+        if (e instanceof MissingChunkException) {
+            missingChunks.add(chunkPos);
+        } else {
+            errorChunks.add(chunkPos);
+            lastErrorMessage = e.getMessage();
+        }
+    }
+
     /**
      * Get a list of the missing chunks. restore() must have been called
      * already.
@@ -208,4 +460,71 @@ public String getLastErrorMessage() {
         return lastErrorMessage;
     }
 
+    /**
+     * Check whether the block in the edit session has the same type and data
+     * as the given block.
+     *
+     * @param pos the position
+     * @param block the block from the snapshot
+     * @return true if the blocks match
+     */
+    private boolean matches(Vector pos, BaseBlock block) {
+        BaseBlock current = editSession.getLazyBlock(pos);
+        return current.getId() == block.getId() && current.getData() == block.getData();
+    }
+
+    /**
+     * Get the number of blocks that were written. restore() must have been
+     * called already.
+     *
+     * @return a number of blocks
+     */
+    public int getChangedBlocks() {
+        return changedBlocks;
+    }
+
+    /**
+     * Get the number of blocks that were not changed because they already
+     * matched the snapshot. restore() must have been called already.
+     *
+     * @return a number of blocks
+     */
+    public int getUnchangedBlocks() {
+        return unchangedBlocks;
+    }
+
+    /**
+     * Get the number of blocks that could not be read from the snapshot or
+     * were rejected by the edit session, such as by its mask. Blocks that
+     * already matched the snapshot are not included. restore() must have
+     * been called already.
+     *
+     * @return a number of blocks
+     */
+    public int getSkippedBlocks() {
+        return skippedBlocks;
+    }
+
+    /**
+     * Loads a chunk on a worker thread.
+     */
+    private class ChunkLoader implements Callable<Chunk> {
+        private final BlockVector2D position;
+
+        private ChunkLoader(BlockVector2D position) {
+            this.position = position;
+        }
+
+        @Override
+        public Chunk call() throws Exception {
+            if (chunkStore.isThreadSafe()) {
+                return chunkStore.getChunk(position, editSession.getWorld());
+            } else {
+                synchronized (chunkStore) {
+                    return chunkStore.getChunk(position, editSession.getWorld());
+                }
+            }
+        }
+    }
+
 }
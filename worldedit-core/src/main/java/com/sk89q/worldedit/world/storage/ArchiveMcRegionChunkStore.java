@@ -0,0 +1,313 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.sk89q.worldedit.world.storage;
+
+import com.google.common.base.Throwables;
+import com.sk89q.worldedit.Vector2D;
+import com.sk89q.worldedit.world.DataException;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A MCRegion chunk store that reads region files out of an archive.
+ *
+ * <p>Entries in an archive can only be read as a sequential, compressed
+ * stream, so reading chunks straight from the entry would decompress the
+ * region file up to the chunk every time. Instead, each region file that
+ * is needed is decompressed once into a buffer outside of the heap and
+ * chunks are then read from it in any order. The buffers are kept in a
+ * cache that is bounded by the total size of the region files held.</p>
+ *
+ * <p>Region files are decompressed outside of the store's lock, so
+ * different region files can be decompressed at the same time while
+ * threads that need a region file that is already being decompressed
+ * wait for it.</p>
+ */
+public abstract class ArchiveMcRegionChunkStore extends McRegionChunkStore {
+
+    /**
+     * The default maximum number of bytes of region files kept in memory.
+     */
+    public static final long DEFAULT_CACHE_LIMIT = 64 * 1024 * 1024;
+
+    private final long cacheLimit;
+    private final LinkedHashMap<String, MappedMcRegionReader> regions =
+            new LinkedHashMap<String, MappedMcRegionReader>(16, 0.75f, true);
+    private final Map<String, FutureTask<MappedMcRegionReader>> loading =
+            new HashMap<String, FutureTask<MappedMcRegionReader>>();
+    private long cachedBytes;
+    private int extractedCount;
+    @Nullable
+    private Map<String, String> folderCache;
+
+    /**
+     * Create an instance with the default cache limit.
+     */
+    protected ArchiveMcRegionChunkStore() {
+        this(DEFAULT_CACHE_LIMIT);
+    }
+
+    /**
+     * Create an instance.
+     *
+     * <p>The most recently used region file is always kept, even if it is
+     * larger than the limit.</p>
+     *
+     * @param cacheLimit the maximum number of bytes of region files to keep in memory
+     */
+    protected ArchiveMcRegionChunkStore(long cacheLimit) {
+        checkArgument(cacheLimit >= 0, "cacheLimit >= 0");
+        this.cacheLimit = cacheLimit;
+    }
+
+    /**
+     * Set a map, shared between chunk stores for the same archive, that
+     * remembers the folder holding each world's region files so that the
+     * archive's entries only have to be searched once.
+     *
+     * @param folderCache a thread-safe map of world names to folders, or null
+     */
+    public void setFolderCache(@Nullable Map<String, String> folderCache) {
+        this.folderCache = folderCache;
+    }
+
+    /**
+     * Get the folder of a world's region files that was found before.
+     *
+     * @param worldName the world name
+     * @return the folder, or null if it is not known
+     */
+    @Nullable
+    protected String getCachedFolder(String worldName) {
+        Map<String, String> folderCache = this.folderCache;
+        return folderCache != null ? folderCache.get(worldName) : null;
+    }
+
+    /**
+     * Remember the folder of a world's region files.
+     *
+     * @param worldName the world name
+     * @param folder the folder
+     */
+    protected void cacheFolder(String worldName, String folder) {
+        Map<String, String> folderCache = this.folderCache;
+        if (folderCache != null) {
+            folderCache.put(worldName, folder);
+        }
+    }
+
+    /**
+     * Get the number of region files that have been decompressed so far.
+     *
+     * @return the number of region files
+     */
+    public synchronized int getExtractedCount() {
+        return extractedCount;
+    }
+
+    /**
+     * Get the number of bytes of region files currently held in memory.
+     *
+     * @return the number of bytes
+     */
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    @Override
+    protected InputStream getChunkInputStream(Vector2D position, String worldName) throws IOException, DataException {
+        return getRegion(getFilename(position), worldName).getChunkInputStream(position);
+    }
+
+    /**
+     * Get the reader for a region file, decompressing it if it is not
+     * currently cached.
+     *
+     * @param name the name of the region file
+     * @param worldName the world name
+     * @return a reader
+     * @throws IOException thrown on I/O error
+     * @throws DataException thrown if the region file could not be found or read
+     */
+    private MappedMcRegionReader getRegion(String name, String worldName) throws IOException, DataException {
+        FutureTask<MappedMcRegionReader> task;
+        boolean owner = false;
+
+        synchronized (this) {
+            MappedMcRegionReader reader = regions.get(name);
+            if (reader != null) {
+                return reader;
+            }
+
+            task = loading.get(name);
+            if (task == null) {
+                // Finding the entry may search the archive, so it is opened
+                // while holding the lock
+                task = new FutureTask<MappedMcRegionReader>(new RegionLoader(name, getInputStream(name, worldName)));
+                loading.put(name, task);
+                owner = true;
+            }
+        }
+
+        if (owner) {
+            task.run();
+        }
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + name + " to be decompressed");
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), IOException.class, DataException.class);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Add a decompressed region file to the cache, evicting the least
+     * recently used region files if the cache is over its limit.
+     *
+     * @param name the name of the region file
+     * @param reader the reader
+     */
+    private synchronized void cache(String name, MappedMcRegionReader reader) {
+        regions.put(name, reader);
+        cachedBytes += reader.getSize();
+        extractedCount++;
+
+        Iterator<MappedMcRegionReader> it = regions.values().iterator();
+        while (cachedBytes > cacheLimit && regions.size() > 1) {
+            cachedBytes -= it.next().getSize();
+            it.remove();
+        }
+    }
+
+    /**
+     * Decompress a region file straight into a buffer outside of the heap.
+     *
+     * <p>The size of the buffer is found from the sectors used by the
+     * chunks listed in the region file's header. Data after the last of
+     * those sectors is not read.</p>
+     *
+     * @param name the name of the region file, used in error messages
+     * @param stream the decompressed contents of the region file
+     * @return a buffer with the region file's contents up to its limit
+     * @throws IOException thrown on I/O error
+     * @throws DataException thrown if the region file is not valid
+     */
+    private static ByteBuffer readRegion(String name, InputStream stream) throws IOException, DataException {
+        ReadableByteChannel channel = Channels.newChannel(stream);
+
+        ByteBuffer header = ByteBuffer.allocate(McRegionReader.SECTOR_BYTES);
+        readFully(channel, header);
+        header.flip();
+        if (header.limit() < McRegionReader.SECTOR_BYTES) {
+            throw new DataException("MCRegion file " + name + " is too short to contain a header");
+        }
+
+        // The header is followed by a sector of timestamps
+        long size = 2L * McRegionReader.SECTOR_BYTES;
+        IntBuffer offsets = header.asIntBuffer();
+        while (offsets.hasRemaining()) {
+            int offset = offsets.get();
+            size = Math.max(size, ((long) (offset >>> 8) + (offset & 0xFF)) * McRegionReader.SECTOR_BYTES);
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new DataException("MCRegion file " + name + " has chunks past the maximum size");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) size);
+        buffer.put(header);
+        readFully(channel, buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Read from a channel until the buffer is full or the end of the
+     * channel is reached.
+     *
+     * @param channel the channel
+     * @param buffer the buffer
+     * @throws IOException thrown on I/O error
+     */
+    private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+            // Keep reading
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        regions.clear();
+        cachedBytes = 0;
+        super.close();
+    }
+
+    /**
+     * Decompresses a region file and adds it to the cache.
+     */
+    private class RegionLoader implements Callable<MappedMcRegionReader> {
+        private final String name;
+        private final InputStream stream;
+
+        private RegionLoader(String name, InputStream stream) {
+            this.name = name;
+            this.stream = stream;
+        }
+
+        @Override
+        public MappedMcRegionReader call() throws Exception {
+            try {
+                ByteBuffer buffer;
+                try {
+                    buffer = readRegion(name, stream);
+                } finally {
+                    stream.close();
+                }
+
+                MappedMcRegionReader reader = new MappedMcRegionReader(name, buffer);
+                cache(name, reader);
+                return reader;
+            } finally {
+                synchronized (ArchiveMcRegionChunkStore.this) {
+                    loading.remove(name);
+                }
+            }
+        }
+    }
+
+}
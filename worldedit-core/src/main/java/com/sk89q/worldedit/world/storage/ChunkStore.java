@@ -20,6 +20,7 @@
 package com.sk89q.worldedit.world.storage;
 
 import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.NBTFilter;
 import com.sk89q.jnbt.Tag;
 import com.sk89q.worldedit.BlockVector;
 import com.sk89q.worldedit.BlockVector2D;
@@ -45,6 +46,14 @@ public abstract class ChunkStore {
      */
     public static final int CHUNK_SHIFTS = 4;
 
+    /**
+     * The parts of a chunk's tag that are used by
+     * {@link #getChunk(Vector2D, World)}.
+     */
+    public static final NBTFilter CHUNK_FILTER = NBTFilter.of(
+            "Level.xPos", "Level.zPos", "Level.Blocks", "Level.Data", "Level.TileEntities",
+            "Level.Sections.Y", "Level.Sections.Blocks", "Level.Sections.Data", "Level.Sections.Add");
+
     /**
      * Convert a position to a chunk.
      *
@@ -82,6 +91,23 @@ public static BlockVector toChunk3d(Vector position) {
      */
     public abstract CompoundTag getChunkTag(Vector2D position, World world) throws DataException, IOException;
 
+    /**
+     * Get the tag for a chunk, reading only the parts selected by the given
+     * filter, which is applied to the root tag of the chunk.
+     *
+     * <p>The default implementation ignores the filter and returns the
+     * whole tag.</p>
+     *
+     * @param position the position of the chunk
+     * @param filter the filter
+     * @return tag
+     * @throws DataException thrown on data error
+     * @throws IOException thrown on I/O error
+     */
+    public CompoundTag getChunkTag(Vector2D position, World world, NBTFilter filter) throws DataException, IOException {
+        return getChunkTag(position, world);
+    }
+
     /**
      * Get a chunk at a location.
      *
@@ -92,7 +118,7 @@ public static BlockVector toChunk3d(Vector position) {
      * @throws IOException thrown on I/O error
      */
     public Chunk getChunk(Vector2D position, World world) throws DataException, IOException {
-        CompoundTag tag = getChunkTag(position, world);
+        CompoundTag tag = getChunkTag(position, world, CHUNK_FILTER);
         Map<String, Tag> tags = tag.getValue();
         if (tags.containsKey("Sections")) {
             return new AnvilChunk(world, tag);
@@ -101,6 +127,16 @@ public Chunk getChunk(Vector2D position, World world) throws DataException, IOEx
         return new OldChunk(world, tag);
     }
 
+    /**
+     * Returns whether {@link #getChunk(Vector2D, World)} may be called from
+     * several threads at once.
+     *
+     * @return true if the chunk store is thread-safe
+     */
+    public boolean isThreadSafe() {
+        return false;
+    }
+
     /**
      * Close resources.
      *
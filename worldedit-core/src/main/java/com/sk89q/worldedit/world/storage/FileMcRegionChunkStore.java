@@ -19,18 +19,43 @@
 
 package com.sk89q.worldedit.world.storage;
 
+import com.sk89q.worldedit.Vector2D;
 import com.sk89q.worldedit.world.DataException;
 
+import javax.annotation.Nullable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
 import java.util.regex.Pattern;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Reads MCRegion chunks from region files in a world folder.
+ *
+ * <p>Region files are memory mapped with a {@link MappedMcRegionReader}
+ * and the most recently used mappings are kept open, so reading the chunks
+ * of a region does not reopen the file or parse its header again.</p>
+ */
 public class FileMcRegionChunkStore extends McRegionChunkStore {
 
-    private File path;
+    /**
+     * The default number of region files that are kept mapped.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 16;
+
+    private static final Pattern REGION_PATTERN = Pattern.compile(".*\\.mc[ra]$"); // allow either file extension, both work the same
+
+    private final File path;
+    private final Map<String, MappedMcRegionReader> readers;
+    @Nullable
+    private Map<String, File> regionFiles;
 
     /**
      * Create an instance. The passed path is the folder to read the
@@ -39,27 +64,99 @@ public class FileMcRegionChunkStore extends McRegionChunkStore {
      * @param path a path
      */
     public FileMcRegionChunkStore(File path) {
+        this(path, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Create an instance. The passed path is the folder to read the
+     * chunk files from.
+     *
+     * @param path a path
+     * @param cacheSize the maximum number of region files to keep mapped
+     */
+    public FileMcRegionChunkStore(File path, final int cacheSize) {
+        checkArgument(cacheSize >= 1, "cacheSize >= 1");
         this.path = path;
+        this.readers = new LinkedHashMap<String, MappedMcRegionReader>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, MappedMcRegionReader> eldest) {
+                return size() > cacheSize;
+            }
+        };
     }
 
-    @Override
-    protected InputStream getInputStream(String name, String world) throws IOException, DataException {
-        Pattern ext = Pattern.compile(".*\\.mc[ra]$"); // allow either file extension, both work the same
-        File file = null;
-        File[] files = new File(path, "region").listFiles();
+    /**
+     * Get the number of region files that are currently mapped.
+     *
+     * @return the number of mapped region files
+     */
+    public synchronized int getMappedCount() {
+        return readers.size();
+    }
 
-        if (files == null) {
-            throw new FileNotFoundException();
+    /**
+     * Find the region file with the given name, accepting either file
+     * extension and any case.
+     *
+     * <p>The region folder is only listed once.</p>
+     *
+     * @param name the name of the region file
+     * @return the file
+     * @throws FileNotFoundException thrown if the region folder does not exist
+     */
+    @Nullable
+    private synchronized File findRegionFile(String name) throws FileNotFoundException {
+        if (regionFiles == null) {
+            File[] files = new File(path, "region").listFiles();
+
+            if (files == null) {
+                throw new FileNotFoundException();
+            }
+
+            Map<String, File> found = new HashMap<String, File>();
+            for (File f : files) {
+                if (REGION_PATTERN.matcher(f.getName()).matches()) {
+                    String tempName = f.getName().replaceFirst("mcr$", "mca").toLowerCase(Locale.ROOT);
+                    if (!found.containsKey(tempName)) {
+                        found.put(tempName, f);
+                    }
+                }
+            }
+            regionFiles = found;
         }
 
-        for (File f : files) {
-            String tempName = f.getName().replaceFirst("mcr$", "mca"); // matcher only does one at a time
-            if (ext.matcher(f.getName()).matches() && name.equalsIgnoreCase(tempName)) {
-                // get full original path now
-                file = new File(path + File.separator + "region" + File.separator + f.getName());
-                break;
+        return regionFiles.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Get the mapped reader for a region file, mapping it if necessary.
+     *
+     * @param name the name of the region file
+     * @return the reader
+     * @throws IOException thrown on I/O error
+     * @throws DataException thrown if the region file is missing or invalid
+     */
+    private synchronized MappedMcRegionReader getMappedReader(String name) throws IOException, DataException {
+        MappedMcRegionReader reader = readers.get(name);
+        if (reader == null) {
+            File file = findRegionFile(name);
+            if (file == null) {
+                throw new MissingChunkException();
             }
+            reader = new MappedMcRegionReader(file);
+            readers.put(name, reader);
         }
+        return reader;
+    }
+
+    @Override
+    protected InputStream getChunkInputStream(Vector2D position, String worldName) throws IOException, DataException {
+        return getMappedReader(getFilename(position)).getChunkInputStream(position);
+    }
+
+    @Override
+    protected InputStream getInputStream(String name, String world) throws IOException, DataException {
+        File file = findRegionFile(name);
 
         try {
             if (file == null) throw new FileNotFoundException();
@@ -75,4 +172,13 @@ public boolean isValid() {
                 new File(path, "DIM-1" + File.separator + "region").isDirectory();
     }
 
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            readers.clear();
+            regionFiles = null;
+        }
+        super.close();
+    }
+
 }
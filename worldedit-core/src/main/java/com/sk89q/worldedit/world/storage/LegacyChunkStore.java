@@ -20,9 +20,12 @@
 package com.sk89q.worldedit.world.storage;
 
 import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.NBTFilter;
 import com.sk89q.jnbt.NBTInputStream;
 import com.sk89q.jnbt.Tag;
 import com.sk89q.worldedit.*;
+import com.sk89q.worldedit.util.io.CompressionPool;
+import com.sk89q.worldedit.util.io.CompressionPool.Format;
 import com.sk89q.worldedit.world.DataException;
 import com.sk89q.worldedit.world.World;
 
@@ -30,7 +33,6 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Map;
-import java.util.zip.GZIPInputStream;
 
 /**
  * Represents chunk stores that use Alpha's file format for storing chunks.
@@ -71,6 +73,11 @@ public static String getFilename(Vector2D position) {
 
     @Override
     public CompoundTag getChunkTag(Vector2D position, World world) throws DataException, IOException {
+        return getChunkTag(position, world, NBTFilter.ALL);
+    }
+
+    @Override
+    public CompoundTag getChunkTag(Vector2D position, World world, NBTFilter filter) throws DataException, IOException {
         int x = position.getBlockX();
         int z = position.getBlockZ();
 
@@ -81,11 +88,11 @@ public CompoundTag getChunkTag(Vector2D position, World world) throws DataExcept
 
         InputStream stream = getInputStream(folder1, folder2, filename);
         NBTInputStream nbt = new NBTInputStream(
-                new GZIPInputStream(stream));
+                CompressionPool.getInstance().createInputStream(stream, Format.GZIP));
         Tag tag;
 
         try {
-            tag = nbt.readNamedTag().getTag();
+            tag = nbt.readNamedTag(filter).getTag();
             if (!(tag instanceof CompoundTag)) {
                 throw new ChunkStoreException("CompoundTag expected for chunk; got "
                         + tag.getClass().getName());
@@ -0,0 +1,229 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.world.storage;
+
+import com.sk89q.worldedit.Vector2D;
+import com.sk89q.worldedit.util.io.ByteBufferInputStream;
+import com.sk89q.worldedit.util.io.CompressionPool;
+import com.sk89q.worldedit.util.io.CompressionPool.Format;
+import com.sk89q.worldedit.world.DataException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Reader for a MCRegion file on disk that maps the whole file into memory,
+ * or for a region file that is already held in a buffer.
+ *
+ * <p>Unlike {@link McRegionReader}, which can only seek forward in a stream,
+ * chunks can be read from this reader in any order and from multiple
+ * threads. The header is parsed once and chunk payloads are returned as
+ * views of the mapping, so nothing is copied before decompression.</p>
+ */
+public class MappedMcRegionReader {
+
+    @Nullable
+    private final File file;
+    private final ByteBuffer buffer;
+    private final int[] offsets = new int[McRegionReader.SECTOR_INTS];
+
+    /**
+     * Map the given region file.
+     *
+     * @param file the region file
+     * @throws DataException thrown if the file is not a valid region file
+     * @throws IOException thrown on I/O error
+     */
+    public MappedMcRegionReader(File file) throws DataException, IOException {
+        checkNotNull(file);
+        this.file = file;
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size < McRegionReader.SECTOR_BYTES) {
+                throw new DataException("MCRegion file " + file.getName() + " is too short to contain a header");
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new DataException("MCRegion file " + file.getName() + " is too large");
+            }
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            this.buffer = mapped.asReadOnlyBuffer();
+        } finally {
+            raf.close();
+        }
+
+        buffer.asIntBuffer().get(offsets);
+    }
+
+    /**
+     * Create a reader for a region file held in the given buffer.
+     *
+     * <p>The buffer's contents from position zero to its limit should not
+     * be changed while the reader is in use.</p>
+     *
+     * @param name the name of the region file, used in error messages
+     * @param buffer the contents of the region file
+     * @throws DataException thrown if the buffer is not a valid region file
+     */
+    public MappedMcRegionReader(String name, ByteBuffer buffer) throws DataException {
+        checkNotNull(name);
+        checkNotNull(buffer);
+        this.file = null;
+
+        ByteBuffer view = buffer.duplicate();
+        view.position(0);
+        if (view.limit() < McRegionReader.SECTOR_BYTES) {
+            throw new DataException("MCRegion file " + name + " is too short to contain a header");
+        }
+        this.buffer = view.slice().asReadOnlyBuffer();
+
+        this.buffer.asIntBuffer().get(offsets);
+    }
+
+    /**
+     * Get the region file that was mapped.
+     *
+     * @return the file, or null if the reader was created from a buffer
+     */
+    @Nullable
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Get the size of the region file.
+     *
+     * @return the size in bytes
+     */
+    public int getSize() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Get the still compressed data of a chunk, excluding the chunk header.
+     *
+     * <p>The returned buffer is an independent view of the mapped file.</p>
+     *
+     * @param position chunk position
+     * @return a buffer positioned at the start of the compressed data
+     * @throws DataException thrown if the chunk does not exist or is invalid
+     */
+    public ByteBuffer getChunkData(Vector2D position) throws DataException {
+        ByteBuffer data = getChunkBuffer(position);
+        data.position(1);
+        return data.slice();
+    }
+
+    /**
+     * Gets the uncompressed data input stream for a chunk.
+     *
+     * @param position chunk position
+     * @return an input stream
+     * @throws IOException thrown on I/O error
+     * @throws DataException thrown if the chunk does not exist or is invalid
+     */
+    public InputStream getChunkInputStream(Vector2D position) throws IOException, DataException {
+        int x = position.getBlockX() & 31;
+        int z = position.getBlockZ() & 31;
+
+        ByteBuffer data = getChunkBuffer(position);
+        byte version = data.get();
+        InputStream stream = new ByteBufferInputStream(data);
+
+        if (version == McRegionReader.VERSION_GZIP) {
+            return CompressionPool.getInstance().createInputStream(stream, Format.GZIP);
+        } else if (version == McRegionReader.VERSION_DEFLATE) {
+            return CompressionPool.getInstance().createInputStream(stream, Format.ZLIB);
+        } else {
+            throw new DataException("MCRegion chunk at "
+                    + x + "," + z + " has an unsupported version of " + version);
+        }
+    }
+
+    /**
+     * Get a view of a chunk's compression version byte followed by its data.
+     *
+     * @param position chunk position
+     * @return a new buffer
+     * @throws DataException thrown if the chunk does not exist or is invalid
+     */
+    private ByteBuffer getChunkBuffer(Vector2D position) throws DataException {
+        int x = position.getBlockX() & 31;
+        int z = position.getBlockZ() & 31;
+        int offset = offsets[x + z * 32];
+
+        // The chunk hasn't been generated
+        if (offset == 0) {
+            throw new DataException("The chunk at " + x + "," + z + " is not generated");
+        }
+
+        int sectorNumber = offset >>> 8;
+        int numSectors = offset & 0xFF;
+        long start = (long) sectorNumber * McRegionReader.SECTOR_BYTES;
+
+        if (start + McRegionReader.CHUNK_HEADER_SIZE > buffer.capacity()) {
+            throw new DataException("MCRegion file does not contain "
+                    + x + "," + z + " in full");
+        }
+
+        int length = buffer.getInt((int) start);
+
+        if (length < 1 || length > McRegionReader.SECTOR_BYTES * numSectors) {
+            throw new DataException("MCRegion chunk at "
+                    + x + "," + z + " has an invalid length of " + length);
+        }
+
+        // The length includes the version byte
+        int dataStart = (int) start + 4;
+        if ((long) dataStart + length > buffer.capacity()) {
+            throw new DataException("MCRegion file does not contain "
+                    + x + "," + z + " in full");
+        }
+
+        ByteBuffer view = buffer.duplicate();
+        view.limit(dataStart + length);
+        view.position(dataStart);
+        return view.slice();
+    }
+
+    /**
+     * Returns whether the file contains a chunk.
+     *
+     * @param x the X coordinate
+     * @param z the Z coordinate
+     * @return true if the chunk exists
+     */
+    public boolean hasChunk(int x, int z) {
+        return offsets[(x & 31) + (z & 31) * 32] != 0;
+    }
+
+}
@@ -20,6 +20,7 @@
 package com.sk89q.worldedit.world.storage;
 
 import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.NBTFilter;
 import com.sk89q.jnbt.NBTInputStream;
 import com.sk89q.jnbt.Tag;
 import com.sk89q.worldedit.Vector2D;
@@ -66,16 +67,37 @@ protected McRegionReader getReader(Vector2D pos, String worldname) throws DataEx
         return cachedReader;
     }
 
+    /**
+     * Get the uncompressed data input stream for a chunk.
+     *
+     * <p>The default implementation reads the chunk from the stream returned
+     * by {@link #getInputStream(String, String)} while holding this store's
+     * lock. The returned stream reads from a copy of the chunk's data, so
+     * decompression and parsing can then happen concurrently.</p>
+     *
+     * @param position chunk position
+     * @param worldName the world name
+     * @return an input stream
+     * @throws IOException thrown on I/O error
+     * @throws DataException thrown if the chunk could not be found or read
+     */
+    protected synchronized InputStream getChunkInputStream(Vector2D position, String worldName) throws IOException, DataException {
+        return getReader(position, worldName).getChunkInputStream(position);
+    }
+
     @Override
     public CompoundTag getChunkTag(Vector2D position, World world) throws DataException, IOException {
-        McRegionReader reader = getReader(position, world.getName());
+        return getChunkTag(position, world, NBTFilter.ALL);
+    }
 
-        InputStream stream = reader.getChunkInputStream(position);
+    @Override
+    public CompoundTag getChunkTag(Vector2D position, World world, NBTFilter filter) throws DataException, IOException {
+        InputStream stream = getChunkInputStream(position, world.getName());
         NBTInputStream nbt = new NBTInputStream(stream);
         Tag tag;
 
         try {
-            tag = nbt.readNamedTag().getTag();
+            tag = nbt.readNamedTag(filter).getTag();
             if (!(tag instanceof CompoundTag)) {
                 throw new ChunkStoreException("CompoundTag expected for chunk; got " + tag.getClass().getName());
             }
@@ -105,6 +127,11 @@ public CompoundTag getChunkTag(Vector2D position, World world) throws DataExcept
         }
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     /**
      * Get the input stream for a chunk file.
      * 
@@ -116,7 +143,7 @@ public CompoundTag getChunkTag(Vector2D position, World world) throws DataExcept
     protected abstract InputStream getInputStream(String name, String worldName) throws IOException, DataException;
 
     @Override
-    public void close() throws IOException {
+    public synchronized void close() throws IOException {
         if (cachedReader != null) {
             cachedReader.close();
         }
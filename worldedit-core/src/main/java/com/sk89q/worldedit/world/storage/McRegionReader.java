@@ -56,15 +56,15 @@ counts. The chunk offset for a chunk (x, z) begins at byte 4*(x+z*32) in the
 package com.sk89q.worldedit.world.storage;
 
 import com.sk89q.worldedit.Vector2D;
+import com.sk89q.worldedit.util.io.CompressionPool;
+import com.sk89q.worldedit.util.io.CompressionPool.Format;
 import com.sk89q.worldedit.util.io.ForwardSeekableInputStream;
 import com.sk89q.worldedit.world.DataException;
 
-import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.InflaterInputStream;
 
 /**
  * Reader for a MCRegion file. This reader works on input streams, meaning
@@ -147,25 +147,27 @@ public synchronized InputStream getChunkInputStream(Vector2D position) throws IO
         }
 
         byte version = dataStream.readByte();
+        Format format;
 
         if (version == VERSION_GZIP) {
-            byte[] data = new byte[length - 1];
-            if (dataStream.read(data) < length - 1) {
-                throw new DataException("MCRegion file does not contain "
-                        + x + "," + z + " in full");
-            }
-            return new GZIPInputStream(new ByteArrayInputStream(data));
+            format = Format.GZIP;
         } else if (version == VERSION_DEFLATE) {
-            byte[] data = new byte[length - 1];
-            if (dataStream.read(data) < length - 1) {
-                throw new DataException("MCRegion file does not contain "
-                        + x + "," + z + " in full");
-            }
-            return new InflaterInputStream(new ByteArrayInputStream(data));
+            format = Format.ZLIB;
         } else {
             throw new DataException("MCRegion chunk at "
                     + x + "," + z + " has an unsupported version of " + version);
         }
+
+        CompressionPool pool = CompressionPool.getInstance();
+        byte[] data = pool.acquireBuffer(length - 1);
+        try {
+            dataStream.readFully(data, 0, length - 1);
+        } catch (EOFException e) {
+            pool.releaseBuffer(data);
+            throw new DataException("MCRegion file does not contain "
+                    + x + "," + z + " in full");
+        }
+        return pool.createInputStream(data, length - 1, format);
     }
 
     /**
@@ -36,7 +36,7 @@
  * Represents the chunk store used by Minecraft but zipped. Uses
  * the replacement classes for java.util.zip.* from TrueZip.
  */
-public class TrueZipMcRegionChunkStore extends McRegionChunkStore {
+public class TrueZipMcRegionChunkStore extends ArchiveMcRegionChunkStore {
 
     protected File zipFile;
     protected ZipFile zip;
@@ -86,6 +86,9 @@ public TrueZipMcRegionChunkStore(File zipFile) throws IOException, ZipException
     @SuppressWarnings("unchecked")
     protected InputStream getInputStream(String name, String worldName) throws IOException, DataException {
         // Detect subfolder for the world's files
+        if (folder == null) {
+            folder = getCachedFolder(worldName);
+        }
         if (folder != null) {
             if (!folder.equals("")) {
                 name = folder + "/" + name;
@@ -111,6 +114,8 @@ protected InputStream getInputStream(String name, String worldName) throws IOExc
             if (folder == null) {
                 throw new MissingWorldException("Target world is not present in ZIP.", worldName);
             }
+
+            cacheFolder(worldName, folder);
         }
 
         ZipEntry entry = getEntry(name);
@@ -140,6 +145,7 @@ private ZipEntry getEntry(String file) {
 
     @Override
     public void close() throws IOException {
+        super.close();
         zip.close();
     }
 
@@ -35,7 +35,7 @@
 /**
  * Represents the chunk store used by Minecraft alpha but zipped.
  */
-public class ZippedMcRegionChunkStore extends McRegionChunkStore {
+public class ZippedMcRegionChunkStore extends ArchiveMcRegionChunkStore {
 
     protected File zipFile;
     protected ZipFile zip;
@@ -75,6 +75,9 @@ public ZippedMcRegionChunkStore(File zipFile) throws IOException, ZipException {
     @Override
     protected InputStream getInputStream(String name, String worldName) throws IOException, DataException {
         // Detect subfolder for the world's files
+        if (folder == null) {
+            folder = getCachedFolder(worldName);
+        }
         if (folder != null) {
             if (!folder.equals("")) {
                 name = folder + "/" + name;
@@ -98,6 +101,8 @@ protected InputStream getInputStream(String name, String worldName) throws IOExc
             if (folder == null) {
                 throw new MissingWorldException("Target world is not present in ZIP.", worldName);
             }
+
+            cacheFolder(worldName, folder);
         }
 
         ZipEntry entry = getEntry(name);
@@ -127,6 +132,7 @@ private ZipEntry getEntry(String file) {
 
     @Override
     public void close() throws IOException {
+        super.close();
         zip.close();
     }
 
@@ -0,0 +1,137 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.jnbt;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link NBTInputStream}.
+ */
+public class NBTInputStreamTest {
+
+    private static byte[] writeChunk() throws IOException {
+        List<Tag> sections = new ArrayList<Tag>();
+        for (int y = 0; y < 3; y++) {
+            Map<String, Tag> section = new HashMap<String, Tag>();
+            section.put("Y", new ByteTag((byte) y));
+            section.put("Blocks", new ByteArrayTag(new byte[] { (byte) y, 1, 2 }));
+            section.put("SkyLight", new ByteArrayTag(new byte[2048]));
+            sections.add(new CompoundTag(section));
+        }
+
+        List<Tag> positions = new ArrayList<Tag>();
+        positions.add(new ListTag(DoubleTag.class, Arrays.<Tag>asList(new DoubleTag(1), new DoubleTag(2))));
+        Map<String, Tag> entity = new HashMap<String, Tag>();
+        entity.put("id", new StringTag("Pig"));
+        entity.put("Pos", new ListTag(ListTag.class, positions));
+        entity.put("Motion", new ListTag(LongTag.class, Arrays.<Tag>asList(new LongTag(5), new LongTag(6))));
+
+        Map<String, Tag> level = new HashMap<String, Tag>();
+        level.put("xPos", new IntTag(4));
+        level.put("zPos", new IntTag(-7));
+        level.put("HeightMap", new IntArrayTag(new int[256]));
+        level.put("Sections", new ListTag(CompoundTag.class, sections));
+        level.put("Entities", new ListTag(CompoundTag.class, Arrays.<Tag>asList(new CompoundTag(entity))));
+        level.put("LastUpdate", new LongTag(123));
+        level.put("LightPopulated", new ByteTag((byte) 1));
+        level.put("InhabitedTime", new ShortTag((short) 3));
+        level.put("Scale", new FloatTag(0.5f));
+        level.put("Empty", new ListTag(EndTag.class, new ArrayList<Tag>()));
+
+        Map<String, Tag> root = new HashMap<String, Tag>();
+        root.put("Level", new CompoundTag(level));
+        root.put("DataVersion", new IntTag(1343));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        NBTOutputStream out = new NBTOutputStream(bytes);
+        out.writeNamedTag("", new CompoundTag(root));
+        out.writeNamedTag("Next", new StringTag("after"));
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void testFilteredRead() throws IOException {
+        NBTInputStream in = new NBTInputStream(new ByteArrayInputStream(writeChunk()));
+        NamedTag root = in.readNamedTag(NBTFilter.of("Level.xPos", "Level.zPos", "Level.Sections.Y", "Level.Sections.Blocks"));
+
+        Map<String, Tag> rootValues = ((CompoundTag) root.getTag()).getValue();
+        assertEquals(1, rootValues.size());
+        CompoundTag level = (CompoundTag) rootValues.get("Level");
+        assertEquals(3, level.getValue().size());
+        assertEquals(4, level.getInt("xPos"));
+        assertEquals(-7, level.getInt("zPos"));
+
+        List<Tag> sections = level.getList("Sections");
+        assertEquals(3, sections.size());
+        for (int y = 0; y < 3; y++) {
+            CompoundTag section = (CompoundTag) sections.get(y);
+            assertEquals(2, section.getValue().size());
+            assertEquals(y, section.getByte("Y"));
+            assertArrayEquals(new byte[] { (byte) y, 1, 2 }, section.getByteArray("Blocks"));
+            assertFalse(section.containsKey("SkyLight"));
+        }
+
+        // The skipped tags must have been consumed exactly
+        NamedTag next = in.readNamedTag();
+        assertEquals("Next", next.getName());
+        assertEquals("after", ((StringTag) next.getTag()).getValue());
+    }
+
+    @Test
+    public void testFilterSelectsSubtree() throws IOException {
+        NBTInputStream in = new NBTInputStream(new ByteArrayInputStream(writeChunk()));
+        NamedTag root = in.readNamedTag(NBTFilter.of("Level.Entities", "Level.Entities.id", "DataVersion"));
+
+        Map<String, Tag> rootValues = ((CompoundTag) root.getTag()).getValue();
+        assertEquals(1343, ((IntTag) rootValues.get("DataVersion")).getValue().intValue());
+        CompoundTag level = (CompoundTag) rootValues.get("Level");
+        assertEquals(1, level.getValue().size());
+        CompoundTag entity = (CompoundTag) level.getList("Entities").get(0);
+        assertEquals("Pig", entity.getString("id"));
+        assertTrue(entity.containsKey("Pos"));
+        assertTrue(entity.containsKey("Motion"));
+    }
+
+    @Test
+    public void testUnfilteredRead() throws IOException {
+        NBTInputStream in = new NBTInputStream(new ByteArrayInputStream(writeChunk()));
+        CompoundTag root = (CompoundTag) in.readNamedTag().getTag();
+        CompoundTag level = (CompoundTag) root.getValue().get("Level");
+        assertEquals(10, level.getValue().size());
+        assertEquals(2048, ((CompoundTag) level.getList("Sections").get(0)).getByteArray("SkyLight").length);
+        assertEquals("Next", in.readNamedTag().getName());
+    }
+
+}
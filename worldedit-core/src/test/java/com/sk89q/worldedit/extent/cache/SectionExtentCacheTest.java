@@ -0,0 +1,99 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.extent.cache;
+
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.extent.clipboard.RecordingClipboard;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SectionExtentCacheTest {
+
+    @Test
+    public void testReadsAreCachedAndWritesInvalidate() throws Exception {
+        RecordingClipboard world = new RecordingClipboard(new Vector(31, 31, 31));
+        world.setBlock(new Vector(1, 1, 1), new BaseBlock(BlockID.STONE, 3));
+        SectionExtentCache cache = new SectionExtentCache(world);
+
+        assertEquals(BlockID.STONE, cache.getLazyBlock(new Vector(1, 1, 1)).getType());
+        assertEquals(3, cache.getLazyBlock(new Vector(1, 1, 1)).getData());
+        assertEquals(1, world.getReads());
+
+        cache.setBlock(new Vector(1, 1, 1), new BaseBlock(BlockID.GLASS));
+        assertEquals(BlockID.GLASS, cache.getLazyBlock(new Vector(1, 1, 1)).getType());
+        assertEquals(0, cache.getLazyBlock(new Vector(1, 1, 1)).getData());
+        assertEquals(2, world.getReads());
+    }
+
+    @Test
+    public void testWritesDropNeighboringSections() throws Exception {
+        RecordingClipboard world = new RecordingClipboard(new Vector(31, 31, 31));
+        SectionExtentCache cache = new SectionExtentCache(world);
+
+        cache.getLazyBlock(new Vector(14, 1, 1));
+        cache.getLazyBlock(new Vector(16, 1, 1));
+        cache.getLazyBlock(new Vector(1, 20, 1));
+        assertEquals(3, world.getReads());
+
+        // Physics may change the neighbors of the block, in this section and the next
+        world.setBlock(new Vector(14, 1, 1), new BaseBlock(BlockID.SAND));
+        world.setBlock(new Vector(16, 1, 1), new BaseBlock(BlockID.SAND));
+        cache.setBlock(new Vector(15, 1, 1), new BaseBlock(BlockID.AIR));
+        assertEquals(BlockID.SAND, cache.getLazyBlock(new Vector(14, 1, 1)).getType());
+        assertEquals(BlockID.SAND, cache.getLazyBlock(new Vector(16, 1, 1)).getType());
+        cache.getLazyBlock(new Vector(1, 20, 1));
+        assertEquals(5, world.getReads());
+    }
+
+    @Test
+    public void testWritesWithoutNeighborUpdatesKeepSection() throws Exception {
+        RecordingClipboard world = new RecordingClipboard(new Vector(31, 31, 31));
+        SectionExtentCache cache = new SectionExtentCache(world);
+        cache.setNeighborUpdates(false);
+
+        cache.getLazyBlock(new Vector(14, 1, 1));
+        cache.getLazyBlock(new Vector(16, 1, 1));
+        cache.setBlock(new Vector(15, 1, 1), new BaseBlock(BlockID.AIR));
+        cache.getLazyBlock(new Vector(14, 1, 1));
+        cache.getLazyBlock(new Vector(16, 1, 1));
+        assertEquals(2, world.getReads());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedSectionIsEvicted() throws Exception {
+        RecordingClipboard world = new RecordingClipboard(new Vector(31, 31, 31));
+        SectionExtentCache cache = new SectionExtentCache(world, 2);
+
+        cache.getLazyBlock(new Vector(0, 0, 0));
+        cache.getLazyBlock(new Vector(16, 0, 0));
+        cache.getLazyBlock(new Vector(0, 0, 0));
+        cache.getLazyBlock(new Vector(0, 16, 0));
+        assertEquals(3, world.getReads());
+
+        cache.getLazyBlock(new Vector(0, 0, 0));
+        assertEquals(3, world.getReads());
+        cache.getLazyBlock(new Vector(16, 0, 0));
+        assertEquals(4, world.getReads());
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.extent.clipboard;
+
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.StringTag;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class PaletteClipboardTest {
+
+    private static final Vector MIN = new Vector(-20, 10, 5);
+    private static final Vector MAX = new Vector(19, 45, 41);
+
+    @Test
+    public void testUnsetBlocksAreAir() throws Exception {
+        PaletteClipboard clipboard = new PaletteClipboard(new CuboidRegion(MIN, MAX));
+        assertEquals(new BaseBlock(BlockID.AIR), clipboard.getBlock(MIN));
+        assertEquals(new BaseBlock(BlockID.AIR), clipboard.getBlock(MAX));
+        assertFalse(clipboard.setBlock(MAX.add(1, 0, 0), new BaseBlock(BlockID.STONE)));
+    }
+
+    @Test
+    public void testRoundTripWithPaletteGrowth() throws Exception {
+        PaletteClipboard clipboard = new PaletteClipboard(new CuboidRegion(MIN, MAX));
+        for (int x = MIN.getBlockX(); x <= MAX.getBlockX(); x++) {
+            for (int y = MIN.getBlockY(); y <= MAX.getBlockY(); y++) {
+                for (int z = MIN.getBlockZ(); z <= MAX.getBlockZ(); z++) {
+                    clipboard.setBlock(new Vector(x, y, z), blockAt(x, y, z));
+                }
+            }
+        }
+        for (int x = MIN.getBlockX(); x <= MAX.getBlockX(); x++) {
+            for (int y = MIN.getBlockY(); y <= MAX.getBlockY(); y++) {
+                for (int z = MIN.getBlockZ(); z <= MAX.getBlockZ(); z++) {
+                    assertEquals(blockAt(x, y, z), clipboard.getBlock(new Vector(x, y, z)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testNbtData() throws Exception {
+        PaletteClipboard clipboard = new PaletteClipboard(new CuboidRegion(MIN, MAX));
+        Map<String, Tag> values = new HashMap<String, Tag>();
+        values.put("id", new StringTag("Chest"));
+        CompoundTag tag = new CompoundTag(values);
+
+        Vector position = MIN.add(3, 3, 3);
+        clipboard.setBlock(position, new BaseBlock(BlockID.CHEST, 2, tag));
+        BaseBlock block = clipboard.getBlock(position);
+        assertEquals(BlockID.CHEST, block.getId());
+        assertEquals(2, block.getData());
+        assertEquals("Chest", block.getNbtId());
+
+        clipboard.setBlock(position, new BaseBlock(BlockID.CHEST, 2));
+        assertFalse(clipboard.getBlock(position).hasNbtData());
+    }
+
+    @Test
+    public void testLazyBlocksAreShared() throws Exception {
+        PaletteClipboard clipboard = new PaletteClipboard(new CuboidRegion(MIN, MAX));
+        clipboard.setBlock(MIN, new BaseBlock(BlockID.STONE));
+        clipboard.setBlock(MAX, new BaseBlock(BlockID.STONE));
+        assertSame(clipboard.getLazyBlock(MIN), clipboard.getLazyBlock(MAX));
+
+        BaseBlock copy = clipboard.getBlock(MIN);
+        copy.setId(BlockID.DIRT);
+        assertEquals(BlockID.STONE, clipboard.getBlock(MIN).getId());
+    }
+
+    private static BaseBlock blockAt(int x, int y, int z) {
+        int hash = (x * 31 + y) * 31 + z;
+        return new BaseBlock(Math.abs(hash * 7919) % (BaseBlock.MAX_ID + 1), Math.abs(hash) % 16);
+    }
+
+}
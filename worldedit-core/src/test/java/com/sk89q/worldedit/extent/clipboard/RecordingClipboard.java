@@ -0,0 +1,79 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.extent.clipboard;
+
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.WorldEditException;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.regions.CuboidRegion;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A clipboard used by tests in place of a world, which records the order
+ * in which blocks are set and counts how often blocks are read.
+ */
+public class RecordingClipboard extends BlockArrayClipboard {
+
+    private final List<Vector> placed = new ArrayList<Vector>();
+    private int reads;
+
+    /**
+     * Create a new instance spanning from the origin to the given corner.
+     *
+     * @param max the maximum point
+     */
+    public RecordingClipboard(Vector max) {
+        super(new CuboidRegion(new Vector(0, 0, 0), max));
+    }
+
+    /**
+     * Get the positions passed to {@link #setBlock(Vector, BaseBlock)}, in
+     * the order they were set.
+     *
+     * @return the positions
+     */
+    public List<Vector> getPlaced() {
+        return placed;
+    }
+
+    /**
+     * Get the number of calls to {@link #getLazyBlock(Vector)}.
+     *
+     * @return the number of reads
+     */
+    public int getReads() {
+        return reads;
+    }
+
+    @Override
+    public BaseBlock getLazyBlock(Vector position) {
+        reads++;
+        return super.getLazyBlock(position);
+    }
+
+    @Override
+    public boolean setBlock(Vector position, BaseBlock block) throws WorldEditException {
+        placed.add(position);
+        return super.setBlock(position, block);
+    }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.extent.reorder;
+
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.extent.clipboard.RecordingClipboard;
+import com.sk89q.worldedit.function.operation.Operations;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MultiStageReorderTest {
+
+    @Test
+    public void testStagesArePlacedInOrder() throws Exception {
+        RecordingClipboard world = new RecordingClipboard(new Vector(15, 15, 15));
+        MultiStageReorder reorder = new MultiStageReorder(world);
+
+        reorder.setBlock(new Vector(0, 1, 0), new BaseBlock(BlockID.SIGN_POST));
+        reorder.setBlock(new Vector(1, 1, 0), new BaseBlock(BlockID.TORCH));
+        reorder.setBlock(new Vector(0, 0, 0), new BaseBlock(BlockID.STONE));
+        assertTrue(world.getPlaced().isEmpty());
+
+        Operations.completeBlindly(reorder.commit());
+        assertEquals(3, world.getPlaced().size());
+        assertEquals(new Vector(0, 0, 0), world.getPlaced().get(0));
+        assertEquals(new Vector(1, 1, 0), world.getPlaced().get(1));
+        assertEquals(new Vector(0, 1, 0), world.getPlaced().get(2));
+        assertEquals(BlockID.SIGN_POST, world.getBlock(new Vector(0, 1, 0)).getType());
+    }
+
+    @Test
+    public void testAttachedBlocksArePlacedAfterTheirSupport() throws Exception {
+        int height = 2000;
+        RecordingClipboard world = new RecordingClipboard(new Vector(15, height - 1, 15));
+        MultiStageReorder reorder = new MultiStageReorder(world);
+
+        for (int y = height - 1; y >= 0; y--) {
+            reorder.setBlock(new Vector(0, y, 0), new BaseBlock(BlockID.REED));
+        }
+
+        Operations.completeBlindly(reorder.commit());
+        assertEquals(height, world.getPlaced().size());
+        for (int y = 0; y < height; y++) {
+            assertEquals(y, world.getPlaced().get(y).getBlockY());
+        }
+    }
+
+    @Test
+    public void testUpperDoorHalfIsPlacedFirst() throws Exception {
+        RecordingClipboard world = new RecordingClipboard(new Vector(15, 15, 15));
+        MultiStageReorder reorder = new MultiStageReorder(world);
+
+        reorder.setBlock(new Vector(0, 1, 0), new BaseBlock(BlockID.WOODEN_DOOR, 0));
+        reorder.setBlock(new Vector(0, 2, 0), new BaseBlock(BlockID.WOODEN_DOOR, 8));
+
+        Operations.completeBlindly(reorder.commit());
+        assertEquals(2, world.getPlaced().size());
+        assertEquals(new Vector(0, 2, 0), world.getPlaced().get(0));
+        assertEquals(new Vector(0, 1, 0), world.getPlaced().get(1));
+    }
+
+    @Test
+    public void testLastChangeAtAPositionWins() throws Exception {
+        RecordingClipboard world = new RecordingClipboard(new Vector(15, 15, 15));
+        MultiStageReorder reorder = new MultiStageReorder(world);
+
+        reorder.setBlock(new Vector(0, 0, 0), new BaseBlock(BlockID.SIGN_POST, 1));
+        reorder.setBlock(new Vector(0, 0, 0), new BaseBlock(BlockID.SIGN_POST, 2));
+
+        Operations.completeBlindly(reorder.commit());
+        assertEquals(1, world.getPlaced().size());
+        assertEquals(2, world.getBlock(new Vector(0, 0, 0)).getData());
+    }
+
+}
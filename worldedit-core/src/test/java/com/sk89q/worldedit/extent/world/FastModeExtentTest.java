@@ -0,0 +1,117 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.extent.world;
+
+import com.sk89q.worldedit.BlockVector2D;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.function.operation.Operations;
+import com.sk89q.worldedit.world.World;
+import com.sk89q.worldedit.world.chunk.SectionBuffer;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class FastModeExtentTest {
+
+    private World world;
+    private List<String> applied;
+
+    @Before
+    public void setUp() throws Exception {
+        applied = new ArrayList<String>();
+        world = mock(World.class);
+        when(world.getBlock(any(Vector.class))).thenReturn(new BaseBlock(BlockID.AIR));
+        when(world.getLazyBlock(any(Vector.class))).thenReturn(new BaseBlock(BlockID.AIR));
+        when(world.setBlocks(any(BlockVector2D.class), any(SectionBuffer.class), anyBoolean())).thenAnswer(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                SectionBuffer section = (SectionBuffer) invocation.getArguments()[1];
+                for (int i = 0; i < section.size(); i++) {
+                    applied.add(section.getX(i) + "," + section.getY(i) + "," + section.getZ(i) + "=" + section.getBlock(i).getType());
+                }
+                applied.add("flush");
+                return section.size();
+            }
+        });
+    }
+
+    @Test
+    public void testChangesAreAppliedInOrder() throws Exception {
+        FastModeExtent extent = new FastModeExtent(world, false);
+        extent.setBatching(true);
+
+        // A wall before its torch, and a cleared attachment that is set again
+        assertTrue(extent.setBlock(new Vector(3, 2, 1), new BaseBlock(BlockID.STONE)));
+        assertTrue(extent.setBlock(new Vector(3, 2, 2), new BaseBlock(BlockID.TORCH)));
+        assertTrue(extent.setBlock(new Vector(0, 0, 0), new BaseBlock(BlockID.LADDER)));
+        assertTrue(extent.setBlock(new Vector(0, 0, 0), new BaseBlock(BlockID.AIR)));
+        assertTrue(extent.setBlock(new Vector(0, 0, 0), new BaseBlock(BlockID.LADDER)));
+        assertTrue(applied.isEmpty());
+
+        // A change to another section applies the collected changes
+        assertTrue(extent.setBlock(new Vector(0, 16, 0), new BaseBlock(BlockID.STONE)));
+        assertEquals(Arrays.asList("3,2,1=1", "3,2,2=50", "0,0,0=65", "0,0,0=0", "0,0,0=65", "flush"), applied);
+    }
+
+    @Test
+    public void testCollectedChangesAreRead() throws Exception {
+        FastModeExtent extent = new FastModeExtent(world);
+        extent.setBatching(true);
+
+        extent.setBlock(new Vector(1, 1, 1), new BaseBlock(BlockID.GLASS));
+        assertEquals(BlockID.GLASS, extent.getBlock(new Vector(1, 1, 1)).getType());
+        assertEquals(BlockID.GLASS, extent.getLazyBlock(new Vector(1, 1, 1)).getType());
+        assertEquals(BlockID.AIR, extent.getBlock(new Vector(2, 1, 1)).getType());
+
+        // Setting a block that is already there doesn't change it
+        assertFalse(extent.setBlock(new Vector(1, 1, 1), new BaseBlock(BlockID.GLASS)));
+        assertFalse(extent.setBlock(new Vector(2, 1, 1), new BaseBlock(BlockID.AIR)));
+    }
+
+    @Test
+    public void testCommitAppliesCollectedChanges() throws Exception {
+        FastModeExtent extent = new FastModeExtent(world);
+        extent.setBatching(true);
+
+        extent.setBlock(new Vector(1, 1, 1), new BaseBlock(BlockID.GLASS));
+        Operations.completeBlindly(extent.commit());
+        assertEquals(Arrays.asList("1,1,1=20", "flush"), applied);
+
+        extent.setBlock(new Vector(1, 1, 1), new BaseBlock(BlockID.STONE));
+        extent.setBatching(false);
+        assertEquals(Arrays.asList("1,1,1=20", "flush", "1,1,1=1", "flush"), applied);
+    }
+
+}
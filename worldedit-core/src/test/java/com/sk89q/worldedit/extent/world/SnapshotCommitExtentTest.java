@@ -0,0 +1,117 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.extent.world;
+
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.extent.clipboard.RecordingClipboard;
+import com.sk89q.worldedit.function.operation.CommitQueue;
+import com.sk89q.worldedit.function.operation.Operation;
+import com.sk89q.worldedit.function.operation.Operations;
+import com.sk89q.worldedit.function.operation.RunContext;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class SnapshotCommitExtentTest {
+
+    @Test
+    public void testChangesAreAppliedByTheDrainingThread() throws Exception {
+        final RecordingClipboard world = new RecordingClipboard(new Vector(31, 31, 31));
+        world.setBlock(new Vector(5, 5, 5), new BaseBlock(BlockID.STONE));
+
+        final CommitQueue queue = new CommitQueue();
+        final SnapshotCommitExtent extent = new SnapshotCommitExtent(world, queue);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> result = executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    int before = extent.getBlock(new Vector(5, 5, 5)).getType();
+                    extent.setBlock(new Vector(20, 20, 20), new BaseBlock(BlockID.GLASS));
+                    // Read back the queued change before it has been applied
+                    assertEquals(BlockID.GLASS, extent.getBlock(new Vector(20, 20, 20)).getType());
+                    Operations.completeBlindly(extent.commit());
+                    queue.close();
+                    return before;
+                }
+            });
+
+            Operation operation = queue;
+            while (operation != null) {
+                operation = operation.resume(new RunContext());
+            }
+
+            assertEquals(BlockID.STONE, (int) result.get());
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(BlockID.GLASS, world.getBlock(new Vector(20, 20, 20)).getType());
+        assertEquals(BlockID.GLASS, extent.getBlock(new Vector(20, 20, 20)).getType());
+    }
+
+    @Test
+    public void testQueueIsBounded() throws Exception {
+        final RecordingClipboard world = new RecordingClipboard(new Vector(63, 31, 63));
+        final CommitQueue queue = new CommitQueue(1000);
+        final SnapshotCommitExtent extent = new SnapshotCommitExtent(world, queue);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> result = executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    for (int x = 0; x < 64; x++) {
+                        for (int z = 0; z < 64; z++) {
+                            for (int y = 0; y < 32; y++) {
+                                extent.setBlock(new Vector(x, y, z), new BaseBlock(BlockID.STONE));
+                            }
+                        }
+                    }
+                    Operations.completeBlindly(extent.commit());
+                    queue.close();
+                    return null;
+                }
+            });
+
+            Operation operation = queue;
+            while (operation != null) {
+                assertTrue(queue.getWeight() <= queue.getLimit());
+                operation = operation.resume(new RunContext());
+            }
+
+            result.get();
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(BlockID.STONE, world.getBlock(new Vector(63, 31, 63)).getType());
+        assertEquals(0, queue.getWeight());
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.function.visitor;
+
+import com.sk89q.worldedit.MaxSearchMemoryException;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.WorldEditException;
+import com.sk89q.worldedit.function.RegionFunction;
+import com.sk89q.worldedit.function.mask.RegionMask;
+import com.sk89q.worldedit.function.operation.Operations;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.regions.Region;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class RecursiveVisitorTest {
+
+    @Test
+    public void testVisitsEveryConnectedBlockOnce() throws Exception {
+        Region region = new CuboidRegion(new Vector(-20, -20, -20), new Vector(19, 19, 19));
+        CollectingFunction function = new CollectingFunction();
+        RecursiveVisitor visitor = new RecursiveVisitor(new RegionMask(region), function);
+        visitor.visit(new Vector(0, 0, 0));
+        Operations.complete(visitor);
+
+        assertEquals(region.getArea(), visitor.getAffected());
+        assertEquals(region.getArea(), function.visited.size());
+        for (Vector position : function.visited) {
+            assertTrue(region.contains(position));
+        }
+    }
+
+    @Test(expected = MaxSearchMemoryException.class)
+    public void testMemoryLimitStopsTheSearch() throws Exception {
+        Region region = new CuboidRegion(new Vector(0, 0, 0), new Vector(255, 15, 255));
+        RecursiveVisitor visitor = new RecursiveVisitor(new RegionMask(region), new CollectingFunction());
+        visitor.setMemoryLimit(16 * 1024);
+        visitor.visit(new Vector(0, 0, 0));
+        Operations.complete(visitor);
+    }
+
+    @Test(expected = MaxSearchMemoryException.class)
+    public void testCompleteSearchDoesNotWrapTheMemoryLimit() throws Exception {
+        Region region = new CuboidRegion(new Vector(0, 0, 0), new Vector(255, 15, 255));
+        RecursiveVisitor visitor = new RecursiveVisitor(new RegionMask(region), new CollectingFunction());
+        visitor.setMemoryLimit(16 * 1024);
+        visitor.visit(new Vector(0, 0, 0));
+        Operations.completeSearch(visitor);
+    }
+
+    private static class CollectingFunction implements RegionFunction {
+        private final Set<Vector> visited = new HashSet<Vector>();
+
+        @Override
+        public boolean apply(Vector position) throws WorldEditException {
+            assertTrue(visited.add(position));
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,230 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.history.changeset;
+
+import com.google.common.collect.Lists;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.StringTag;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.history.change.BlockChange;
+import com.sk89q.worldedit.history.change.Change;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class PackedBlockHistoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testIterationOrder() throws Exception {
+        PackedBlockHistory history = new PackedBlockHistory();
+        List<BlockChange> changes = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            BlockVector position = new BlockVector(i * 1000 - 30000000, i * 40 - 2048, 29999999 - i);
+            changes.add(new BlockChange(position, new BaseBlock(BlockID.STONE, i % 16), new BaseBlock(i, -1)));
+        }
+        for (BlockChange change : changes) {
+            history.add(change);
+        }
+        assertEquals(changes.size(), history.size());
+
+        List<Change> forward = Lists.newArrayList(history.forwardIterator());
+        for (int i = 0; i < changes.size(); i++) {
+            BlockChange change = (BlockChange) forward.get(i);
+            assertEquals(changes.get(i).getPosition(), change.getPosition());
+            assertEquals(changes.get(i).getCurrent(), change.getCurrent());
+        }
+
+        List<Change> backward = Lists.newArrayList(history.backwardIterator());
+        for (int i = 0; i < changes.size(); i++) {
+            BlockChange change = (BlockChange) backward.get(changes.size() - 1 - i);
+            assertEquals(changes.get(i).getPosition(), change.getPosition());
+            assertEquals(changes.get(i).getPrevious(), change.getPrevious());
+        }
+    }
+
+    @Test
+    public void testNbtAndUnpackablePositions() throws Exception {
+        Map<String, Tag> values = new HashMap<String, Tag>();
+        values.put("id", new StringTag("Sign"));
+        CompoundTag tag = new CompoundTag(values);
+
+        PackedBlockHistory history = new PackedBlockHistory();
+        history.add(new BlockChange(new BlockVector(1, 2, 3), new BaseBlock(BlockID.SIGN_POST, 3, tag), new BaseBlock(BlockID.AIR)));
+        history.add(new BlockChange(new BlockVector(1, 100000, 3), new BaseBlock(BlockID.AIR), new BaseBlock(BlockID.STONE)));
+        assertEquals(2, history.size());
+
+        List<Change> backward = Lists.newArrayList(history.backwardIterator());
+        assertEquals(2, backward.size());
+        BlockChange tall = (BlockChange) backward.get(0);
+        BlockChange sign = (BlockChange) backward.get(1);
+        assertEquals(new BlockVector(1, 100000, 3), tall.getPosition());
+        assertEquals("Sign", sign.getPrevious().getNbtId());
+        assertEquals(3, sign.getPrevious().getData());
+    }
+
+    @Test
+    public void testSpill() throws Exception {
+        PackedBlockHistory history = new PackedBlockHistory();
+        for (int i = 0; i < 20000; i++) {
+            history.add(new BlockChange(new BlockVector(i, i % 256, -i), new BaseBlock(BlockID.DIRT), new BaseBlock(BlockID.STONE, i % 16)));
+        }
+        List<Change> expectedForward = Lists.newArrayList(history.forwardIterator());
+        List<Change> expectedBackward = Lists.newArrayList(history.backwardIterator());
+
+        history.spill(folder.getRoot());
+        assertTrue(history.isSpilled());
+        assertEquals(0, history.getMemoryUsage());
+        assertEquals(20000, history.size());
+        assertSameChanges(expectedForward, Lists.newArrayList(history.forwardIterator()));
+        assertSameChanges(expectedBackward, Lists.newArrayList(history.backwardIterator()));
+
+        history.discard();
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void testSpillNbt() throws Exception {
+        PackedBlockHistory history = new PackedBlockHistory();
+        history.add(new BlockChange(new BlockVector(1, 2, 3), new BaseBlock(BlockID.SIGN_POST, 3, createSign()), new BaseBlock(BlockID.AIR)));
+        history.add(new BlockChange(new BlockVector(4, 5, 6), new BaseBlock(BlockID.AIR), new BaseBlock(BlockID.SIGN_POST, 5, createSign())));
+        history.add(new BlockChange(new BlockVector(1, 100000, 3), new BaseBlock(BlockID.AIR), new BaseBlock(BlockID.STONE)));
+        long usage = history.getMemoryUsage();
+
+        history.spill(folder.getRoot());
+        assertTrue(history.isSpilled());
+        assertTrue(history.getMemoryUsage() > 0);
+        assertTrue(history.getMemoryUsage() < usage);
+
+        List<Change> backward = Lists.newArrayList(history.backwardIterator());
+        assertEquals("Sign", ((BlockChange) backward.get(2)).getPrevious().getNbtId());
+        assertNull(((BlockChange) backward.get(1)).getPrevious().getNbtData());
+        List<Change> forward = Lists.newArrayList(history.forwardIterator());
+        assertEquals("Sign", ((BlockChange) forward.get(2)).getCurrent().getNbtId());
+        assertEquals(5, ((BlockChange) forward.get(2)).getCurrent().getData());
+        history.discard();
+    }
+
+    @Test
+    public void testMemoryUsage() throws Exception {
+        PackedBlockHistory plain = new PackedBlockHistory();
+        PackedBlockHistory withNbt = new PackedBlockHistory();
+        plain.add(new BlockChange(new BlockVector(1, 2, 3), new BaseBlock(BlockID.AIR), new BaseBlock(BlockID.STONE)));
+        withNbt.add(new BlockChange(new BlockVector(1, 2, 3), new BaseBlock(BlockID.AIR), new BaseBlock(BlockID.SIGN_POST, 0, createSign())));
+        assertTrue(withNbt.getMemoryUsage() > plain.getMemoryUsage());
+
+        long usage = plain.getMemoryUsage();
+        plain.add(new BlockChange(new BlockVector(1, 100000, 3), new BaseBlock(BlockID.AIR), new BaseBlock(BlockID.STONE)));
+        assertTrue(plain.getMemoryUsage() > usage);
+    }
+
+    @Test
+    public void testSpillLater() throws Exception {
+        final List<Runnable> tasks = Lists.newArrayList();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        };
+
+        PackedBlockHistory history = new PackedBlockHistory();
+        history.add(new BlockChange(new BlockVector(1, 2, 3), new BaseBlock(BlockID.DIRT), new BaseBlock(BlockID.STONE)));
+        assertTrue(history.spillLater(folder.getRoot(), executor));
+        assertFalse(history.spillLater(folder.getRoot(), executor));
+        assertEquals(1, tasks.size());
+        assertEquals(0, history.getMemoryUsage());
+        assertFalse(history.isSpilled());
+
+        tasks.get(0).run();
+        assertTrue(history.isSpilled());
+        assertEquals(1, folder.getRoot().list().length);
+        assertEquals(new BaseBlock(BlockID.STONE), ((BlockChange) history.forwardIterator().next()).getCurrent());
+        history.discard();
+    }
+
+    @Test
+    public void testDiscardBeforeQueuedSpill() throws Exception {
+        final List<Runnable> tasks = Lists.newArrayList();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        };
+
+        PackedBlockHistory history = new PackedBlockHistory();
+        history.add(new BlockChange(new BlockVector(1, 2, 3), new BaseBlock(BlockID.DIRT), new BaseBlock(BlockID.STONE)));
+        assertTrue(history.spillLater(folder.getRoot(), executor));
+        history.discard();
+        tasks.get(0).run();
+        assertFalse(history.isSpilled());
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAddAfterSpill() throws Exception {
+        PackedBlockHistory history = new PackedBlockHistory();
+        history.add(new BlockChange(new BlockVector(1, 2, 3), new BaseBlock(BlockID.DIRT), new BaseBlock(BlockID.STONE)));
+        history.spill(folder.getRoot());
+        history.add(new BlockChange(new BlockVector(4, 5, 6), new BaseBlock(BlockID.DIRT), new BaseBlock(BlockID.STONE)));
+    }
+
+    @Test
+    public void testDeleteSpillFiles() throws Exception {
+        PackedBlockHistory history = new PackedBlockHistory();
+        history.add(new BlockChange(new BlockVector(1, 2, 3), new BaseBlock(BlockID.DIRT), new BaseBlock(BlockID.STONE)));
+        history.spill(folder.getRoot());
+        folder.newFile("other.dat");
+
+        PackedBlockHistory.deleteSpillFiles(folder.getRoot());
+        assertArrayEquals(new String[] { "other.dat" }, folder.getRoot().list());
+    }
+
+    private static CompoundTag createSign() {
+        Map<String, Tag> values = new HashMap<String, Tag>();
+        values.put("id", new StringTag("Sign"));
+        values.put("Text1", new StringTag("Hello"));
+        return new CompoundTag(values);
+    }
+
+    private static void assertSameChanges(List<Change> expected, List<Change> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            BlockChange a = (BlockChange) expected.get(i);
+            BlockChange b = (BlockChange) actual.get(i);
+            assertEquals(a.getPosition(), b.getPosition());
+            assertEquals(a.getPrevious(), b.getPrevious());
+        }
+    }
+
+}
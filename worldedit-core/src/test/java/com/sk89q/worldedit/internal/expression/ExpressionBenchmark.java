@@ -0,0 +1,100 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.internal.expression;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.logging.Logger;
+
+/**
+ * Measures typical {@code //generate} expressions, evaluated once per
+ * block of a 64x64x64 region the way {@code EditSession#makeShape} does,
+ * both interpreted and compiled to bytecode.
+ *
+ * <p>Run manually; the timings are logged.</p>
+ */
+@Ignore("Benchmark")
+public class ExpressionBenchmark {
+
+    private static final Logger log = Logger.getLogger(ExpressionBenchmark.class.getCanonicalName());
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+    private static final int SIZE = 64;
+
+    private static final String[] EXPRESSIONS = {
+            "x*x + y*y + z*z < 1",
+            "(sqrt(x^2 + z^2) - 0.5)^2 + y^2 < 0.1",
+            "sin(x * 10) + cos(z * 10) > y * 2",
+            "perlin(1, x, y, z, 2, 4, 0.5) > 0.2",
+            "a = 0; for (i = 0, 3) { a += abs(x * i - y); } a < z + 1",
+            "gmegabuf(x * 1000 + z * 10) == 0 && type != 0",
+            "if (y > 0) { type = 1; data = 2; } else { type = 3; } y > -0.5",
+    };
+
+    @Test
+    public void benchmarkExpressions() throws Exception {
+        for (String expressionString : EXPRESSIONS) {
+            Expression interpreted = Expression.compile(expressionString, "x", "y", "z", "type", "data");
+            interpreted.optimize();
+            Expression compiled = Expression.compile(expressionString, "x", "y", "z", "type", "data");
+            compiled.optimize();
+            compiled.compileToBytecode();
+
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                run(interpreted);
+                run(compiled);
+            }
+
+            long interpretedTime = 0;
+            long compiledTime = 0;
+            for (int i = 0; i < ROUNDS; i++) {
+                long start = System.nanoTime();
+                run(interpreted);
+                interpretedTime += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                run(compiled);
+                compiledTime += System.nanoTime() - start;
+            }
+
+            int volume = SIZE * SIZE * SIZE;
+            log.info(String.format("%s: %.2f ns/block interpreted, %.2f ns/block compiled", expressionString,
+                    interpretedTime / (double) ROUNDS / volume, compiledTime / (double) ROUNDS / volume));
+        }
+    }
+
+    private static int run(Expression expression) throws Exception {
+        int count = 0;
+        double scale = 2.0 / SIZE;
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                for (int z = 0; z < SIZE; z++) {
+                    if (expression.evaluate(x * scale - 1, y * scale - 1, z * scale - 1, 1, 0) > 0) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.internal.expression;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.fail;
+
+public class ExpressionCacheTest {
+
+    @Test
+    public void testHitsAndMisses() throws ExpressionException {
+        ExpressionCache cache = new ExpressionCache(8);
+        Expression first = cache.get("a = a + x; a", "x", "a");
+        Expression second = cache.get("a = a + x; a", "x", "a");
+        cache.get("a = a + x; a", "x", "b", "a");
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.size());
+
+        // Every caller gets its own variables
+        assertNotSame(first, second);
+        assertEquals(3, first.evaluate(3), 0);
+        assertEquals(6, first.evaluate(3), 0);
+        assertEquals(1, second.evaluate(1), 0);
+    }
+
+    @Test
+    public void testEviction() throws ExpressionException {
+        ExpressionCache cache = new ExpressionCache(2);
+        cache.get("1");
+        cache.get("2");
+        cache.get("1");
+        cache.get("3");
+        assertEquals(2, cache.size());
+
+        cache.get("1");
+        cache.get("2");
+        assertEquals(2, cache.getHitCount());
+        assertEquals(4, cache.getMissCount());
+
+        cache.setMaximumSize(0);
+        assertEquals(0, cache.size());
+        assertEquals(8, cache.get("4 * 2").evaluate(), 0);
+    }
+
+    @Test
+    public void testInvalid() {
+        ExpressionCache cache = new ExpressionCache(2);
+        try {
+            cache.get("x(");
+            fail("Error expected");
+        } catch (ExpressionException expected) {
+        }
+        assertEquals(0, cache.size());
+    }
+
+}
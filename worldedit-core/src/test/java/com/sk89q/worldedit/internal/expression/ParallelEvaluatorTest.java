@@ -0,0 +1,144 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.internal.expression;
+
+import com.sk89q.worldedit.internal.expression.runtime.EvaluationException;
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParallelEvaluatorTest {
+
+    @Test
+    public void testCopy() throws ExpressionException {
+        Expression expression = compile("a = a + x; a * 10", "x", "a");
+        expression.evaluate(1, 5);
+
+        Expression copy = expression.copy();
+        assertEquals(6, copy.getVariable("a", false).getValue(), 0);
+        assertEquals(70, copy.evaluate(1), 0);
+        assertEquals(6, expression.getVariable("a", false).getValue(), 0);
+        assertEquals(80, expression.evaluate(2), 0);
+        assertEquals(7, copy.getVariable("a", false).getValue(), 0);
+    }
+
+    @Test
+    public void testCopyOfFunctionCalls() throws ExpressionException {
+        Expression expression = compile("if (x > 1) { y = perlin(1, x * 0.3, y, 0, 0.5, 2, 0.5); } else { y = rotate(x, y, 0.5); } y * 10", "x", "y");
+        Expression copy = expression.copy();
+        for (int i = 0; i < 5; i++) {
+            assertEquals(expression.evaluate(i, i * 0.5), copy.evaluate(i, i * 0.5), 0);
+        }
+    }
+
+    @Test
+    public void testThreadSafe() throws ExpressionException {
+        assertTrue(compile("sin(x) * perlin(1, x, 0, 0, 1, 1, 1)", "x").isThreadSafe());
+        assertTrue(compile("y = x * 2; y += 1; y", "x", "y").isThreadSafe());
+        assertFalse(compile("gmegabuf(x) + 1", "x").isThreadSafe());
+        assertFalse(compile("if (x > 0) { query(x, 0, 0, 1, 0) }", "x").isThreadSafe());
+        assertFalse(compile("megabuf(x)", "x").isThreadSafe());
+        assertFalse(compile("closest(x, 0, 0, 0, 1, 3)", "x").isThreadSafe());
+        assertFalse(compile("n++; n < x", "x").isThreadSafe());
+        assertFalse(compile("a += x; a", "x").isThreadSafe());
+        assertFalse(compile("for (i = 0, 3) { x += i; } x", "x").isThreadSafe());
+    }
+
+    @Test
+    public void testStatefulExpressionIsEvaluatedSerially() throws ExpressionException {
+        Expression expression = compile("n += 1; n < 100", "x");
+        final double[] results = new double[10000];
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ParallelEvaluator evaluator = new ParallelEvaluator(expression, pool);
+            assertFalse(evaluator.isParallel());
+            evaluator.evaluate(results.length, new ParallelEvaluator.Task() {
+                @Override
+                public void evaluate(Expression expression, int index) throws EvaluationException {
+                    results[index] = expression.evaluate(index);
+                }
+            });
+        } finally {
+            pool.shutdown();
+        }
+
+        for (int i = 0; i < results.length; i++) {
+            assertEquals(i < 99 ? 1 : 0, results[i], 0);
+        }
+    }
+
+    @Test
+    public void testEvaluate() throws ExpressionException {
+        Expression expression = compile("while (z < 10) { z += 1; y += x * z; } y", "x", "y", "z");
+        final double[] results = new double[100000];
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ParallelEvaluator evaluator = new ParallelEvaluator(expression, pool);
+            assertTrue(evaluator.isParallel());
+            evaluator.evaluate(results.length, new ParallelEvaluator.Task() {
+                @Override
+                public void evaluate(Expression expression, int index) throws EvaluationException {
+                    results[index] = expression.evaluate(index, 1, 0);
+                }
+            });
+        } finally {
+            pool.shutdown();
+        }
+
+        for (int i = 0; i < results.length; i++) {
+            assertEquals(i * 55 + 1, results[i], 0);
+        }
+    }
+
+    @Test
+    public void testException() throws ExpressionException {
+        Expression expression = compile("while (x) { }", "x");
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            new ParallelEvaluator(expression, pool).evaluate(10000, new ParallelEvaluator.Task() {
+                @Override
+                public void evaluate(Expression expression, int index) throws EvaluationException {
+                    expression.evaluate(index == 5000 ? 1 : 0);
+                }
+            });
+            fail("Error expected");
+        } catch (EvaluationException e) {
+            assertTrue(e.getMessage().endsWith("Loop exceeded 256 iterations."));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private Expression compile(String expressionString, String... variableNames) throws ExpressionException {
+        Expression expression = Expression.compile(expressionString, variableNames);
+        expression.optimize();
+        expression.compileToBytecode();
+        return expression;
+    }
+
+}
@@ -0,0 +1,147 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.internal.expression.runtime;
+
+import com.sk89q.worldedit.internal.expression.Expression;
+import com.sk89q.worldedit.internal.expression.ExpressionException;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ExpressionCompilerTest {
+
+    @Test
+    public void testArithmetic() throws ExpressionException {
+        assertSame("1 - 2 + 3 * 4 / 5 % 3 ^ 2", 0, 0, 0);
+        assertSame("-x + ~y + !z + (x << 2) + (y >> 1)", 7, -3, 0);
+        assertSame("(x < y) * 1 + (x > y) * 2 + (x <= y) * 4 + (x >= y) * 8 + (x == y) * 16 + (x != y) * 32 + (x ~= y) * 64", 2, 2, 0);
+        assertSame("x < z || y > z && z == 0", 0, 0, 0 / 0.0);
+        assertSame("sin(x) + atan2(x, y) + min(x, y, z) + max(x, y) + round(z) + ln(y) + abs(-x)", 1.5, 2.5, 3.5);
+        assertSame("a = x; a += y; a *= z; a ^= 2; a %= 7; b = a++; c = --a; a + b * 10 + c * 100", 2, 3, 4);
+    }
+
+    @Test
+    public void testControlFlow() throws ExpressionException {
+        assertSame("if (x > 0) y = 1; else y = 2; y * 10 + z", 3, 0, 1);
+        assertSame("a = 0; for (i = 0; i < x; ++i) { if (i == 2) continue; if (i == 5) break; a += i; } a", 10, 0, 0);
+        assertSame("a = 0; for (i = x, y) { a = a * 10 + i; } a", 1, 4, 0);
+        assertSame("a = 0; while (a < x) { ++a; if (a > y) break; } a", 10, 6, 0);
+        assertSame("a = 0; do { ++a; } while (a < x); a", 0, 0, 0);
+        assertSame("a = 1; switch (x) { case 1: a = 5; case 2: a = a * 3; break; case 3: a = 7; default: a += 100; } a", 1, 0, 0);
+        assertSame("a = 1; switch (x) { case 1: a = 5; case 2: a = a * 3; break; case 3: a = 7; default: a += 100; } a", 3, 0, 0);
+        assertSame("a = 0; for (i = 0, 5) { switch (i) { case 2: continue; case 4: break; default: } a += i; } a", 0, 0, 0);
+        assertSame("if (x > 1) return y; z", 2, 7, 9);
+        assertSame("a = y; while (1) { if (a > x) return a * 2; ++a; } 0", 5, 1, 0);
+    }
+
+    @Test
+    public void testMegabuf() throws Exception {
+        Method getter = Functions.class.getMethod("megabuf", RValue.class);
+        Method setter = Functions.class.getMethod("megabuf", RValue.class, double.class);
+        Method assign = Operators.class.getMethod("aadd", LValue.class, RValue.class);
+        Variable x = new Variable(0);
+        Variable y = new Variable(0);
+        LValueFunction buffer = new LValueFunction(-1, getter, setter, new Function(-1, Operators.class.getMethod("add", RValue.class, RValue.class), x, new Constant(-1, 1024)));
+        Functions functions = new Functions();
+
+        CompiledExpression compiled = new ExpressionCompiler(new Function(-1, assign, buffer, y), new Variable[] { x, y }, functions).compile();
+        assertEquals(3, compiled.eval(5, 3, 0), 0);
+        assertEquals(7, compiled.eval(5, 4, 0), 0);
+        assertEquals(7, functions.getMegaBuffer().get(1029), 0);
+        assertSame("megabuf(x) + gmegabuf(y + 7)", 3, 4, 0);
+    }
+
+    @Test
+    public void testFunctionCalls() throws ExpressionException {
+        assertSame("perlin(1, x * 0.3, y, z, 0.5, 2, 0.5) + rotate(y, z, x) * 10 + y", 5, 1, 2);
+        assertSame("closest(x, y, z, 0, 1, 2)", 0, 0, 0);
+    }
+
+    @Test
+    public void testVariables() throws ExpressionException {
+        Expression expression = compile("a = x * y + z", "x", "y", "z", "a");
+        assertTrue(expression.compileToBytecode());
+        assertEquals(11, expression.evaluate(2, 3, 5), 0);
+        assertEquals(11, expression.getVariable("a", false).getValue(), 0);
+        assertEquals(7, expression.evaluate(1, 2, 5, 0), 0);
+    }
+
+    @Test
+    public void testNewInstance() throws Exception {
+        Variable x = new Variable(0);
+        Variable y = new Variable(0);
+        RValue root = Operators.getOperator(-1, "aadd", y, Functions.getFunction(-1, "abs", x));
+        ExpressionCompiler compiler = new ExpressionCompiler(root, new Variable[] { x, y }, new Functions());
+        CompiledExpression compiled = compiler.compile();
+
+        Variable copyX = new Variable(0);
+        Variable copyY = new Variable(0);
+        NodeCopier copier = new NodeCopier();
+        copier.map(x, copyX);
+        copier.map(y, copyY);
+        copier.copy(root);
+        CompiledExpression copy = ExpressionCompiler.newInstance(compiled, copier.copyReferences(compiler.getReferences()));
+
+        assertTrue(copy.getClass() == compiled.getClass());
+        assertEquals(3, compiled.eval(-3, 0, 0), 0);
+        assertEquals(5, copy.eval(-5, 0, 0), 0);
+        assertEquals(3, y.value, 0);
+        assertEquals(5, copyY.value, 0);
+    }
+
+    @Test
+    public void testLoopLimit() throws ExpressionException {
+        Expression interpreted = compile("while (1) { x += 1; }", "x");
+        Expression compiled = compile("while (1) { x += 1; }", "x");
+        assertTrue(compiled.compileToBytecode());
+        try {
+            interpreted.evaluate(0);
+            fail("Error expected");
+        } catch (EvaluationException expected) {
+            try {
+                compiled.evaluate(0);
+                fail("Error expected");
+            } catch (EvaluationException e) {
+                assertEquals(expected.getMessage(), e.getMessage());
+            }
+        }
+    }
+
+    private void assertSame(String expressionString, double x, double y, double z) throws ExpressionException {
+        Expression interpreted = compile(expressionString, "x", "y", "z");
+        Expression compiled = compile(expressionString, "x", "y", "z");
+        assertTrue("Failed to compile " + expressionString, compiled.compileToBytecode());
+
+        double expected = interpreted.evaluate(x, y, z);
+        assertEquals(expressionString, expected, compiled.evaluate(x, y, z), 0);
+        assertEquals(expressionString, expected, compiled.evaluate(new double[] { x, y, z }), 0);
+    }
+
+    private Expression compile(String expressionString, String... variableNames) throws ExpressionException {
+        Expression expression = Expression.compile(expressionString, variableNames);
+        expression.optimize();
+        return expression;
+    }
+
+}
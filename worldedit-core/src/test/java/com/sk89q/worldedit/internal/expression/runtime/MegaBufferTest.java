@@ -0,0 +1,74 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.internal.expression.runtime;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MegaBufferTest {
+
+    @Test
+    public void testReadUnset() {
+        MegaBuffer buffer = new MegaBuffer();
+        assertEquals(0, buffer.get(123), 0);
+        assertEquals(0, buffer.getPageCount());
+    }
+
+    @Test
+    public void testPages() {
+        MegaBuffer buffer = new MegaBuffer();
+        for (int i = -100; i < 100; i++) {
+            buffer.set(i * 1000, i);
+        }
+        buffer.set(Integer.MIN_VALUE, 1);
+        buffer.set(Integer.MAX_VALUE, 2);
+
+        for (int i = -100; i < 100; i++) {
+            assertEquals(i, buffer.get(i * 1000), 0);
+            assertEquals(0, buffer.get(i * 1000 + 1), 0);
+        }
+        assertEquals(1, buffer.get(Integer.MIN_VALUE), 0);
+        assertEquals(2, buffer.get(Integer.MAX_VALUE), 0);
+        assertEquals(0, buffer.get(-1), 0);
+
+        buffer.clear();
+        assertEquals(0, buffer.get(5000), 0);
+        assertEquals(0, buffer.getPageCount());
+    }
+
+    @Test
+    public void testMapView() {
+        MegaBuffer buffer = new MegaBuffer();
+        buffer.set(1029, 7);
+        buffer.set(-1, 3);
+
+        Map<Integer, double[]> map = buffer.asMap();
+        assertEquals(2, map.size());
+        assertEquals(7, map.get(1024)[5], 0);
+        assertEquals(3, map.get(-1024)[1023], 0);
+        assertNull(map.get(1029));
+        assertNull(map.get(2048));
+    }
+
+}
@@ -0,0 +1,200 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.regions.iterator;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.Vector2D;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.entity.BaseEntity;
+import com.sk89q.worldedit.entity.Entity;
+import com.sk89q.worldedit.extent.Extent;
+import com.sk89q.worldedit.extent.cache.LastAccessExtentCache;
+import com.sk89q.worldedit.function.operation.Operation;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.regions.Region;
+import com.sk89q.worldedit.util.Location;
+import com.sk89q.worldedit.world.biome.BaseBiome;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Compares reading a wide region in the region's own order and in chunk
+ * order from an extent that looks blocks up by chunk the way platform
+ * worlds do.
+ *
+ * <p>Run manually; the timings are logged.</p>
+ */
+@Ignore("Benchmark")
+public class ChunkOrderedIteratorBenchmark {
+
+    private static final Logger log = Logger.getLogger(ChunkOrderedIteratorBenchmark.class.getCanonicalName());
+
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 10;
+
+    @Test
+    public void benchmarkChunkedReads() throws Exception {
+        Region region = new CuboidRegion(new Vector(0, 0, 0), new Vector(255, 63, 255));
+        ChunkedExtent world = new ChunkedExtent();
+        Extent extent = new LastAccessExtentCache(world);
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            read(extent, region.iterator());
+            read(extent, new ChunkOrderedIterator(region));
+        }
+
+        long regionOrder = 0;
+        long chunkOrder = 0;
+        int regionLookups = 0;
+        int chunkLookups = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            world.lookups = 0;
+            long start = System.nanoTime();
+            read(extent, region.iterator());
+            regionOrder += System.nanoTime() - start;
+            regionLookups = world.lookups;
+
+            world.lookups = 0;
+            start = System.nanoTime();
+            read(extent, new ChunkOrderedIterator(region));
+            chunkOrder += System.nanoTime() - start;
+            chunkLookups = world.lookups;
+        }
+
+        int area = region.getArea();
+        log.info(String.format("Region order: %.2f ns/block, %d chunk lookups",
+                regionOrder / (double) ROUNDS / area, regionLookups));
+        log.info(String.format("Chunk order:  %.2f ns/block, %d chunk lookups",
+                chunkOrder / (double) ROUNDS / area, chunkLookups));
+    }
+
+    private static int read(Extent extent, Iterator<BlockVector> iterator) {
+        int sum = 0;
+        while (iterator.hasNext()) {
+            sum += extent.getLazyBlock(iterator.next()).getType();
+        }
+        return sum;
+    }
+
+    /**
+     * Stores blocks in chunk columns found through a map, remembering only
+     * the last chunk used, like the chunk providers of the platforms.
+     */
+    private static class ChunkedExtent implements Extent {
+        private final Map<Long, char[]> chunks = new HashMap<Long, char[]>();
+        private long lastKey = Long.MIN_VALUE;
+        private char[] lastChunk;
+        private int lookups;
+
+        private char[] getChunk(int x, int z) {
+            long key = ((long) (x >> 4) << 32) | ((z >> 4) & 0xFFFFFFFFL);
+            if (key == lastKey) {
+                return lastChunk;
+            }
+            lookups++;
+            char[] chunk = chunks.get(key);
+            if (chunk == null) {
+                chunk = new char[16 * 16 * 256];
+                for (int i = 0; i < chunk.length; i++) {
+                    chunk[i] = (char) ((i * 31) & 0xFF);
+                }
+                chunks.put(key, chunk);
+            }
+            lastKey = key;
+            lastChunk = chunk;
+            return chunk;
+        }
+
+        @Override
+        public BaseBlock getBlock(Vector position) {
+            return getLazyBlock(position);
+        }
+
+        @Override
+        public BaseBlock getLazyBlock(Vector position) {
+            int x = position.getBlockX();
+            int y = position.getBlockY();
+            int z = position.getBlockZ();
+            char value = getChunk(x, z)[(y << 8) | ((z & 15) << 4) | (x & 15)];
+            return new BaseBlock(value >> 4, value & 15);
+        }
+
+        @Override
+        public boolean setBlock(Vector position, BaseBlock block) {
+            int x = position.getBlockX();
+            int y = position.getBlockY();
+            int z = position.getBlockZ();
+            getChunk(x, z)[(y << 8) | ((z & 15) << 4) | (x & 15)] = (char) (block.getId() << 4 | block.getData());
+            return true;
+        }
+
+        @Override
+        public Vector getMinimumPoint() {
+            return new Vector(-30000000, 0, -30000000);
+        }
+
+        @Override
+        public Vector getMaximumPoint() {
+            return new Vector(30000000, 255, 30000000);
+        }
+
+        @Override
+        public List<? extends Entity> getEntities(Region region) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public List<? extends Entity> getEntities() {
+            return Collections.emptyList();
+        }
+
+        @Nullable
+        @Override
+        public Entity createEntity(Location location, BaseEntity entity) {
+            return null;
+        }
+
+        @Override
+        public BaseBiome getBiome(Vector2D position) {
+            return new BaseBiome(0);
+        }
+
+        @Override
+        public boolean setBiome(Vector2D position, BaseBiome biome) {
+            return false;
+        }
+
+        @Nullable
+        @Override
+        public Operation commit() {
+            return null;
+        }
+    }
+
+}
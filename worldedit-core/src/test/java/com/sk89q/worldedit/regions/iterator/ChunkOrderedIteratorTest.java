@@ -0,0 +1,67 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.regions.iterator;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.Vector2D;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.regions.CylinderRegion;
+import com.sk89q.worldedit.regions.Region;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class ChunkOrderedIteratorTest {
+
+    @Test
+    public void testVisitsSameBlocksAsRegion() throws Exception {
+        Region cuboid = new CuboidRegion(new Vector(-20, 3, -7), new Vector(40, 9, 33));
+        assertEquals(Sets.newHashSet(cuboid), Sets.newHashSet(new ChunkOrderedIterator(cuboid)));
+        assertEquals(cuboid.getArea(), Lists.newArrayList(new ChunkOrderedIterator(cuboid)).size());
+
+        Region cylinder = new CylinderRegion(new Vector(5, 0, 5), new Vector2D(21, 13), 10, 14);
+        assertEquals(Sets.newHashSet(cylinder), Sets.newHashSet(new ChunkOrderedIterator(cylinder)));
+    }
+
+    @Test
+    public void testVisitsOneChunkAtATime() throws Exception {
+        Region region = new CuboidRegion(new Vector(-20, 0, -20), new Vector(40, 4, 40));
+        List<BlockVector> positions = Lists.newArrayList(new ChunkOrderedIterator(region));
+
+        Set<Vector2D> finished = new HashSet<Vector2D>();
+        Vector2D current = null;
+        for (BlockVector position : positions) {
+            Vector2D chunk = new Vector2D(position.getBlockX() >> 4, position.getBlockZ() >> 4);
+            if (!chunk.equals(current)) {
+                assertTrue("Chunk " + chunk + " was visited twice", finished.add(chunk));
+                current = chunk;
+            }
+        }
+        assertEquals(25, finished.size());
+    }
+
+}
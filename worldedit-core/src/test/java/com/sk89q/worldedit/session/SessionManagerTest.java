@@ -0,0 +1,127 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.sk89q.worldedit.session;
+
+import com.sk89q.worldedit.LocalConfiguration;
+import com.sk89q.worldedit.LocalSession;
+import com.sk89q.worldedit.WorldEdit;
+import com.sk89q.worldedit.util.eventbus.EventBus;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests {@link SessionManager}.
+ */
+public class SessionManagerTest {
+
+    private SessionManager manager;
+
+    @Before
+    public void setUp() throws Exception {
+        WorldEdit worldEdit = mock(WorldEdit.class);
+        when(worldEdit.getEventBus()).thenReturn(new EventBus());
+        when(worldEdit.getConfiguration()).thenReturn(mock(LocalConfiguration.class));
+        manager = new SessionManager(worldEdit);
+    }
+
+    @Test
+    public void testGet() throws Exception {
+        SessionOwner owner = createOwner("first", true);
+        SessionOwner other = createOwner("second", true);
+
+        assertFalse(manager.contains(owner));
+        assertNull(manager.getIfPresent(owner));
+
+        LocalSession session = manager.get(owner);
+        assertTrue(manager.contains(owner));
+        assertSame(session, manager.get(owner));
+        assertSame(session, manager.getIfPresent(owner));
+        assertSame(session, manager.findByName("first"));
+        assertNull(manager.findByName("second"));
+        assertFalse(session == manager.get(other));
+
+        manager.remove(owner);
+        assertFalse(manager.contains(owner));
+        assertNull(manager.findByName("first"));
+        assertSame(manager.get(other), manager.findByName("second"));
+
+        manager.clear();
+        assertNull(manager.findByName("second"));
+    }
+
+    @Test
+    public void testInactiveSessionsAreNotKept() throws Exception {
+        SessionOwner owner = createOwner("first", false);
+        manager.get(owner);
+        assertFalse(manager.contains(owner));
+        assertNull(manager.findByName("first"));
+    }
+
+    @Test
+    public void testConcurrentGet() throws Exception {
+        final SessionOwner owner = createOwner("first", true);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<LocalSession>> futures = new ArrayList<Future<LocalSession>>();
+            for (int i = 0; i < 16; i++) {
+                futures.add(executor.submit(new Callable<LocalSession>() {
+                    @Override
+                    public LocalSession call() throws Exception {
+                        return manager.get(owner);
+                    }
+                }));
+            }
+
+            // Every thread gets the one session that was created
+            for (Future<LocalSession> future : futures) {
+                assertSame(manager.getIfPresent(owner), future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static SessionOwner createOwner(String name, boolean active) {
+        SessionKey key = mock(SessionKey.class);
+        when(key.getUniqueId()).thenReturn(UUID.randomUUID());
+        when(key.getName()).thenReturn(name);
+        when(key.isActive()).thenReturn(active);
+        when(key.isPersistent()).thenReturn(true);
+
+        SessionOwner owner = mock(SessionOwner.class);
+        when(owner.getSessionKey()).thenReturn(key);
+        return owner;
+    }
+
+}
@@ -0,0 +1,201 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.sk89q.worldedit.session.storage;
+
+import com.sk89q.worldedit.LocalSession;
+import com.sk89q.worldedit.regions.selector.RegionSelectorType;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link BinaryFileSessionStore}.
+ */
+public class BinaryFileSessionStoreTest {
+
+    private static final UUID FIRST = UUID.fromString("a0a0a0a0-0000-0000-0000-000000000001");
+    private static final UUID SECOND = UUID.fromString("a0a0a0a0-0000-0000-0000-000000000002");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        File dir = folder.getRoot();
+        BinaryFileSessionStore store = new BinaryFileSessionStore(dir);
+        try {
+            assertNull(store.load(FIRST).getLastScript());
+
+            store.save(FIRST, createSession("first", RegionSelectorType.CUBOID));
+            store.save(SECOND, createSession("second", null));
+            store.save(FIRST, createSession("first again", RegionSelectorType.POLYGON));
+            assertEquals("first again", store.load(FIRST).getLastScript());
+
+            // Saving an unchanged session doesn't grow the file
+            long length = store.getLength();
+            store.save(SECOND, createSession("second", null));
+            assertEquals(length, store.getLength());
+        } finally {
+            store.close();
+        }
+
+        store = new BinaryFileSessionStore(dir);
+        try {
+            LocalSession session = store.load(FIRST);
+            assertEquals("first again", session.getLastScript());
+            assertEquals(RegionSelectorType.POLYGON, session.getDefaultRegionSelector());
+            assertEquals("second", store.load(SECOND).getLastScript());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testIncompleteRecordIsDiscarded() throws Exception {
+        File dir = folder.getRoot();
+        BinaryFileSessionStore store = new BinaryFileSessionStore(dir);
+        store.save(FIRST, createSession("first", null));
+        long length = store.getLength();
+        store.save(SECOND, createSession("second", null));
+        store.close();
+
+        // Cut the last record short as if the server crashed while writing it
+        File file = new File(dir, BinaryFileSessionStore.FILE_NAME);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 3);
+        raf.close();
+
+        store = new BinaryFileSessionStore(dir);
+        try {
+            assertEquals(length, store.getLength());
+            assertEquals(length, file.length());
+            assertEquals("first", store.load(FIRST).getLastScript());
+            assertNull(store.load(SECOND).getLastScript());
+
+            store.save(SECOND, createSession("second", null));
+        } finally {
+            store.close();
+        }
+
+        store = new BinaryFileSessionStore(dir);
+        try {
+            assertEquals("second", store.load(SECOND).getLastScript());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testOversizedSessionIsRejected() throws Exception {
+        File dir = folder.getRoot();
+        char[] script = new char[2 * 1024 * 1024];
+        Arrays.fill(script, 'a');
+
+        BinaryFileSessionStore store = new BinaryFileSessionStore(dir);
+        try {
+            store.save(FIRST, createSession("first", null));
+            long length = store.getLength();
+            try {
+                store.save(FIRST, createSession(new String(script), null));
+                fail("Expected the session to be too large");
+            } catch (IOException ignored) {
+            }
+            assertEquals(length, store.getLength());
+            store.save(SECOND, createSession("second", null));
+        } finally {
+            store.close();
+        }
+
+        // The records after the rejected one are still read
+        store = new BinaryFileSessionStore(dir);
+        try {
+            assertEquals("first", store.load(FIRST).getLastScript());
+            assertEquals("second", store.load(SECOND).getLastScript());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        File dir = folder.getRoot();
+        BinaryFileSessionStore store = new BinaryFileSessionStore(dir);
+        try {
+            for (int i = 0; i < 5000; i++) {
+                store.save(FIRST, createSession("script " + i, null));
+            }
+            assertTrue(store.getLength() < 128 * 1024);
+            assertEquals(store.getLength(), new File(dir, BinaryFileSessionStore.FILE_NAME).length());
+        } finally {
+            store.close();
+        }
+
+        store = new BinaryFileSessionStore(dir);
+        try {
+            assertEquals("script 4999", store.load(FIRST).getLastScript());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testJsonFilesAreImported() throws Exception {
+        File dir = folder.getRoot();
+        new JsonFileSessionStore(dir).save(FIRST, createSession("from json", RegionSelectorType.CUBOID));
+
+        BinaryFileSessionStore store = new BinaryFileSessionStore(dir);
+        try {
+            LocalSession session = store.load(FIRST);
+            assertEquals("from json", session.getLastScript());
+            assertEquals(RegionSelectorType.CUBOID, session.getDefaultRegionSelector());
+        } finally {
+            store.close();
+        }
+
+        // The JSON files are only imported when the file is created
+        new JsonFileSessionStore(dir).save(FIRST, createSession("changed", null));
+        store = new BinaryFileSessionStore(dir);
+        try {
+            assertEquals("from json", store.load(FIRST).getLastScript());
+        } finally {
+            store.close();
+        }
+    }
+
+    private static LocalSession createSession(String lastScript, RegionSelectorType selectorType) {
+        LocalSession session = new LocalSession();
+        session.setLastScript(lastScript);
+        if (selectorType != null) {
+            session.setDefaultRegionSelector(selectorType);
+        }
+        return session;
+    }
+
+}
@@ -0,0 +1,152 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.util.io;
+
+import com.google.common.io.ByteStreams;
+import com.sk89q.worldedit.util.io.CompressionPool.Format;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link CompressionPool}.
+ */
+public class CompressionPoolTest {
+
+    private static byte[] createData(int length) {
+        byte[] data = new byte[length];
+        Random random = new Random(length);
+        for (int i = 0; i < length; i++) {
+            // Compressible but not trivially so
+            data[i] = (byte) (random.nextInt(16) + (i / 1024));
+        }
+        return data;
+    }
+
+    @Test
+    public void testReadsStandardStreams() throws IOException {
+        CompressionPool pool = new CompressionPool(4);
+        byte[] data = createData(100000);
+
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        OutputStream out = new GZIPOutputStream(gzip);
+        out.write(data);
+        out.close();
+        InputStream in = pool.createInputStream(new ByteArrayInputStream(gzip.toByteArray()), Format.GZIP);
+        assertArrayEquals(data, ByteStreams.toByteArray(in));
+        in.close();
+
+        ByteArrayOutputStream zlib = new ByteArrayOutputStream();
+        out = new DeflaterOutputStream(zlib);
+        out.write(data);
+        out.close();
+        in = pool.createInputStream(new ByteArrayInputStream(zlib.toByteArray()), Format.ZLIB);
+        assertArrayEquals(data, ByteStreams.toByteArray(in));
+        in.close();
+
+        assertEquals(2 * data.length, pool.getBytesInflated());
+    }
+
+    @Test
+    public void testWritesStandardStreams() throws IOException {
+        CompressionPool pool = new CompressionPool(4);
+        byte[] data = createData(50000);
+
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        OutputStream out = pool.createOutputStream(gzip, Format.GZIP);
+        out.write(data, 0, 1000);
+        out.write(data[1000]);
+        out.write(data, 1001, data.length - 1001);
+        out.close();
+        assertArrayEquals(data, ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(gzip.toByteArray()))));
+
+        ByteArrayOutputStream zlib = new ByteArrayOutputStream();
+        out = pool.createOutputStream(zlib, Format.ZLIB);
+        out.write(data);
+        out.close();
+        assertArrayEquals(data, ByteStreams.toByteArray(new InflaterInputStream(new ByteArrayInputStream(zlib.toByteArray()))));
+
+        assertEquals(2 * data.length, pool.getBytesDeflated());
+    }
+
+    @Test
+    public void testReuse() throws IOException {
+        CompressionPool pool = new CompressionPool(4);
+        for (int i = 0; i < 10; i++) {
+            byte[] data = createData(1000 * (i + 1));
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            OutputStream out = pool.createOutputStream(bytes, Format.GZIP);
+            out.write(data);
+            out.close();
+
+            byte[] compressed = pool.acquireBuffer(bytes.size());
+            System.arraycopy(bytes.toByteArray(), 0, compressed, 0, bytes.size());
+            InputStream in = pool.createInputStream(compressed, bytes.size(), Format.GZIP);
+            assertArrayEquals(data, ByteStreams.toByteArray(in));
+            in.close();
+        }
+
+        assertEquals(10, pool.getInflaterRequests());
+        assertEquals(9, pool.getInflaterHits());
+        assertEquals(10, pool.getDeflaterRequests());
+        assertEquals(9, pool.getDeflaterHits());
+        assertEquals(30, pool.getBufferRequests());
+    }
+
+    @Test
+    public void testCorruptTrailer() throws IOException {
+        CompressionPool pool = new CompressionPool(4);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = new GZIPOutputStream(bytes);
+        out.write(createData(5000));
+        out.close();
+
+        byte[] compressed = bytes.toByteArray();
+        compressed[compressed.length - 1] ^= 1;
+        InputStream in = pool.createInputStream(new ByteArrayInputStream(compressed), Format.GZIP);
+        try {
+            ByteStreams.toByteArray(in);
+            fail("Expected the size mismatch to be detected");
+        } catch (ZipException ignored) {
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test(expected = ZipException.class)
+    public void testNotGzip() throws IOException {
+        new CompressionPool(4).createInputStream(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4 }), Format.GZIP);
+    }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.sk89q.worldedit.world.snapshot;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link SnapshotCatalog}.
+ */
+public class SnapshotCatalogTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final long BASE_TIME = 1400000000000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+    private File worldDir;
+    private SnapshotRepository repository;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = folder.newFolder("snapshots");
+        worldDir = new File(dir, "world");
+        assertTrue(worldDir.mkdir());
+
+        createDirectorySnapshot("a", 1);
+        createDirectorySnapshot("b", 3);
+        createZipSnapshot("c.zip", "world", 2);
+        createZipSnapshot("d.zip", "other", 4);
+
+        repository = new SnapshotRepository(dir);
+    }
+
+    @Test
+    public void testSnapshots() throws Exception {
+        List<Snapshot> snapshots = repository.getSnapshots(false, "world");
+        assertEquals(3, snapshots.size());
+        assertEquals("world/a", snapshots.get(0).getName());
+        assertEquals("c.zip", snapshots.get(1).getName());
+        assertEquals("world/b", snapshots.get(2).getName());
+
+        assertEquals("world/b", repository.getSnapshots(true, "world").get(0).getName());
+        assertEquals("world/b", repository.getDefaultSnapshot("world").getName());
+        assertEquals("d.zip", repository.getDefaultSnapshot("other").getName());
+        assertNull(repository.getDefaultSnapshot("missing"));
+
+        // Nothing changed, so the same snapshots are returned
+        assertSame(snapshots.get(1), repository.getSnapshots(false, "world").get(1));
+    }
+
+    @Test
+    public void testBeforeAndAfter() throws Exception {
+        assertNull(repository.getSnapshotBefore(getDate(0), "world"));
+        assertEquals("world/a", repository.getSnapshotBefore(getDate(1), "world").getName());
+        assertEquals("c.zip", repository.getSnapshotBefore(getDate(2.5), "world").getName());
+        assertEquals("world/b", repository.getSnapshotBefore(getDate(10), "world").getName());
+
+        assertEquals("world/a", repository.getSnapshotAfter(getDate(0), "world").getName());
+        assertEquals("c.zip", repository.getSnapshotAfter(getDate(1.5), "world").getName());
+        assertEquals("world/b", repository.getSnapshotAfter(getDate(3), "world").getName());
+        assertNull(repository.getSnapshotAfter(getDate(3.5), "world"));
+    }
+
+    @Test
+    public void testRefresh() throws Exception {
+        Snapshot zipped = repository.getSnapshots(false, "world").get(1);
+        assertEquals(3, repository.getSnapshots(false, "world").size());
+
+        createDirectorySnapshot("e", 5);
+        worldDir.setLastModified(BASE_TIME);
+        assertEquals("world/e", repository.getDefaultSnapshot("world").getName());
+
+        // Changes are detected from the modification time
+        createZipSnapshot("c.zip", "other", 2.5);
+        List<Snapshot> snapshots = repository.getSnapshots(false, "world");
+        assertEquals(3, snapshots.size());
+        assertEquals(2, repository.getSnapshots(false, "other").size());
+
+        assertTrue(new File(dir, "c.zip").delete());
+        dir.setLastModified(BASE_TIME);
+        assertEquals(1, repository.getSnapshots(false, "other").size());
+
+        createZipSnapshot("c.zip", "world", 2);
+        dir.setLastModified(BASE_TIME + 1);
+        snapshots = repository.getSnapshots(false, "world");
+        assertEquals(4, snapshots.size());
+        assertTrue(zipped != snapshots.get(1));
+    }
+
+    private void createDirectorySnapshot(String name, double hours) throws IOException {
+        File snapshot = new File(worldDir, name);
+        assertTrue(snapshot.mkdir());
+        assertTrue(new File(snapshot, "level.dat").createNewFile());
+        assertTrue(snapshot.setLastModified(getTime(hours)));
+    }
+
+    private void createZipSnapshot(String name, String worldName, double hours) throws IOException {
+        File file = new File(dir, name);
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            out.putNextEntry(new ZipEntry(worldName + "/level.dat"));
+            out.write(worldName.getBytes("UTF-8"));
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+        assertTrue(file.setLastModified(getTime(hours)));
+    }
+
+    private static long getTime(double hours) {
+        return BASE_TIME + (long) (hours * HOUR);
+    }
+
+    private static Calendar getDate(double hours) {
+        Calendar date = new GregorianCalendar();
+        date.setTimeInMillis(getTime(hours));
+        return date;
+    }
+
+}
@@ -0,0 +1,215 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.sk89q.worldedit.world.snapshot;
+
+import com.sk89q.jnbt.ByteArrayTag;
+import com.sk89q.jnbt.ByteTag;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.ListTag;
+import com.sk89q.jnbt.NBTFilter;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.BlockVector2D;
+import com.sk89q.worldedit.Vector2D;
+import com.sk89q.worldedit.world.DataException;
+import com.sk89q.worldedit.world.World;
+import com.sk89q.worldedit.world.storage.ChunkStore;
+import com.sk89q.worldedit.world.storage.MissingChunkException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests {@link SnapshotChunkIndex}.
+ */
+public class SnapshotChunkIndexTest {
+
+    private static final BlockVector2D FIRST = new BlockVector2D(0, 0);
+    private static final BlockVector2D SECOND = new BlockVector2D(1, 0);
+    private static final List<BlockVector2D> CHUNKS = Arrays.asList(FIRST, SECOND);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SnapshotRepository repository;
+    private World world;
+
+    @Before
+    public void setUp() throws Exception {
+        repository = new SnapshotRepository(folder.getRoot());
+        world = mock(World.class);
+        when(world.getName()).thenReturn("world");
+    }
+
+    @Test
+    public void testChangedSnapshots() throws Exception {
+        SnapshotChunkIndex index = new SnapshotChunkIndex();
+        Snapshot newest = new Snapshot(repository, "4");
+        Snapshot newer = new Snapshot(repository, "3");
+        Snapshot older = new Snapshot(repository, "2");
+        Snapshot oldest = new Snapshot(repository, "1");
+        List<Snapshot> snapshots = Arrays.asList(newest, newer, older, oldest);
+
+        assertNull(index.getChangedSnapshots(snapshots, "world", CHUNKS));
+
+        index.index(newest, new TestChunkStore(2, 2), world, CHUNKS);
+        index.index(newer, new TestChunkStore(2, 2), world, CHUNKS);
+        index.index(older, new TestChunkStore(1, 2), world, CHUNKS);
+        assertNull(index.getChangedSnapshots(snapshots, "world", CHUNKS));
+
+        index.index(oldest, new TestChunkStore(1, -1), world, CHUNKS);
+        assertEquals(Arrays.asList(older, oldest), index.getChangedSnapshots(snapshots, "world", CHUNKS));
+
+        // Only the first chunk changed between the newer and older snapshots
+        assertEquals(Arrays.asList(older), index.getChangedSnapshots(snapshots, "world", Collections.singleton(FIRST)));
+        assertEquals(Arrays.asList(oldest), index.getChangedSnapshots(snapshots, "world", Collections.singleton(SECOND)));
+
+        assertEquals(Long.valueOf(SnapshotChunkIndex.MISSING), index.getHash(oldest, "world", SECOND));
+        assertNull(index.getChangedSnapshots(snapshots, "other", CHUNKS));
+    }
+
+    @Test
+    public void testIndexedChunksAreSkipped() throws Exception {
+        SnapshotChunkIndex index = new SnapshotChunkIndex();
+        Snapshot snapshot = new Snapshot(repository, "1");
+
+        index.index(snapshot, new TestChunkStore(1, 1), world, Collections.singleton(FIRST));
+        Long hash = index.getHash(snapshot, "world", new Vector2D(0, 0));
+        assertFalse(index.isIndexed(Collections.singleton(snapshot), "world", CHUNKS));
+
+        index.index(snapshot, new TestChunkStore(2, 2), world, CHUNKS);
+        assertSame(hash, index.getHash(snapshot, "world", FIRST));
+        assertTrue(index.isIndexed(Collections.singleton(snapshot), "world", CHUNKS));
+    }
+
+    @Test
+    public void testStaleSnapshotsAreForgotten() throws Exception {
+        SnapshotChunkIndex index = new SnapshotChunkIndex();
+        Snapshot kept = new Snapshot(repository, "2");
+        Snapshot removed = new Snapshot(repository, "1");
+
+        index.index(kept, new TestChunkStore(1, 1), world, CHUNKS);
+        index.index(removed, new TestChunkStore(1, 1), world, CHUNKS);
+        index.retain("other", Collections.<Snapshot>emptyList());
+        assertTrue(index.isIndexed(Arrays.asList(kept, removed), "world", CHUNKS));
+
+        index.retain("world", Collections.singleton(kept));
+        assertTrue(index.isIndexed(Collections.singleton(kept), "world", CHUNKS));
+        assertNull(index.getHash(removed, "world", FIRST));
+    }
+
+    @Test
+    public void testFailuresAreReported() throws Exception {
+        SnapshotChunkIndex index = new SnapshotChunkIndex();
+        Snapshot newest = new Snapshot(repository, "3");
+        Snapshot snapshot = new Snapshot(repository, "2");
+        Snapshot oldest = new Snapshot(repository, "1");
+        List<Snapshot> snapshots = Arrays.asList(newest, snapshot, oldest);
+
+        index.index(newest, new TestChunkStore(1, 1), world, CHUNKS);
+        index.index(snapshot, new TestChunkStore(1, 1) {
+            @Override
+            public CompoundTag getChunkTag(Vector2D position, World world) throws DataException, IOException {
+                throw new IOException("Unreadable");
+            }
+        }, world, CHUNKS);
+        index.index(oldest, new TestChunkStore(2, 1), world, CHUNKS);
+        assertEquals(Collections.singletonMap(snapshot, "Unreadable"), index.getFailures(snapshots, "world"));
+
+        // The snapshot that failed is left out
+        assertTrue(index.isIndexed(snapshots, "world", CHUNKS));
+        assertEquals(Arrays.asList(oldest), index.getChangedSnapshots(snapshots, "world", CHUNKS));
+
+        // Indexing again forgets the error
+        index.index(snapshot, new TestChunkStore(1, 1), world, CHUNKS);
+        assertTrue(index.getFailures(Collections.singleton(snapshot), "world").isEmpty());
+    }
+
+    @Test
+    public void testHashIgnoresOtherTags() throws Exception {
+        CompoundTag level = createLevel(1);
+        Map<String, Tag> values = new HashMap<String, Tag>(level.getValue());
+        values.put("LastUpdate", new ByteTag((byte) 5));
+        assertEquals(SnapshotChunkIndex.hash(level), SnapshotChunkIndex.hash(new CompoundTag(values)));
+        assertFalse(SnapshotChunkIndex.hash(level) == SnapshotChunkIndex.hash(createLevel(2)));
+    }
+
+    private static CompoundTag createLevel(int block) {
+        Map<String, Tag> section = new HashMap<String, Tag>();
+        section.put("Y", new ByteTag((byte) 0));
+        section.put("Blocks", new ByteArrayTag(new byte[] { (byte) block, 0, 0, 0 }));
+        section.put("Data", new ByteArrayTag(new byte[2]));
+
+        Map<String, Tag> level = new HashMap<String, Tag>();
+        level.put("Sections", new ListTag(CompoundTag.class, Collections.singletonList(new CompoundTag(section))));
+        return new CompoundTag(level);
+    }
+
+    /**
+     * A chunk store with two chunks, where a block of -1 means the chunk is missing.
+     */
+    private static class TestChunkStore extends ChunkStore {
+        private final int firstBlock;
+        private final int secondBlock;
+
+        private TestChunkStore(int firstBlock, int secondBlock) {
+            this.firstBlock = firstBlock;
+            this.secondBlock = secondBlock;
+        }
+
+        @Override
+        public CompoundTag getChunkTag(Vector2D position, World world) throws DataException, IOException {
+            int block = position.equals(FIRST) ? firstBlock : secondBlock;
+            if (block == -1) {
+                throw new MissingChunkException();
+            }
+            return createLevel(block);
+        }
+
+        @Override
+        public CompoundTag getChunkTag(Vector2D position, World world, NBTFilter filter) throws DataException, IOException {
+            return getChunkTag(position, world);
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+
+        @Override
+        public boolean isValid() {
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,317 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.world.snapshot;
+
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.Vector2D;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.function.mask.AbstractMask;
+import com.sk89q.worldedit.function.mask.Mask2D;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.regions.EllipsoidRegion;
+import com.sk89q.worldedit.world.DataException;
+import com.sk89q.worldedit.world.World;
+import com.sk89q.worldedit.world.chunk.Chunk;
+import com.sk89q.worldedit.world.storage.ChunkStore;
+import com.sk89q.worldedit.world.storage.MissingChunkException;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests {@link SnapshotRestore}.
+ */
+public class SnapshotRestoreTest {
+
+    // Spans chunks -2..2 on both axes
+    private static final CuboidRegion REGION = new CuboidRegion(new Vector(-20, 0, -20), new Vector(20, 1, 20));
+
+    private EditSession editSession;
+    private List<Vector> applied;
+    private List<Thread> applyingThreads;
+
+    @Before
+    public void setUp() throws Exception {
+        applied = Collections.synchronizedList(new ArrayList<Vector>());
+        applyingThreads = Collections.synchronizedList(new ArrayList<Thread>());
+        editSession = mock(EditSession.class);
+        doAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                Vector position = (Vector) invocation.getArguments()[0];
+                BaseBlock block = (BaseBlock) invocation.getArguments()[1];
+                assertEquals(position.getBlockX() & 0xFF, block.getId());
+                applied.add(position);
+                applyingThreads.add(Thread.currentThread());
+                return true;
+            }
+        }).when(editSession).setBlock(any(Vector.class), any(BaseBlock.class));
+    }
+
+    @Test
+    public void testPipelinedMatchesSerial() throws Exception {
+        SnapshotRestore serial = new SnapshotRestore(new TestChunkStore(true), editSession, REGION);
+        serial.setThreads(0);
+        serial.restore();
+        List<Vector> expected = new ArrayList<Vector>(applied);
+        applied.clear();
+        applyingThreads.clear();
+
+        TestChunkStore store = new TestChunkStore(true);
+        SnapshotRestore pipelined = new SnapshotRestore(store, editSession, REGION);
+        pipelined.setThreads(4);
+        pipelined.setChunksInFlight(3);
+        pipelined.restore();
+
+        assertEquals(expected, applied);
+        for (Thread thread : applyingThreads) {
+            assertSame(Thread.currentThread(), thread);
+        }
+        assertTrue(store.maxConcurrent.get() <= 3);
+        assertEquals(serial.getMissingChunks(), pipelined.getMissingChunks());
+        assertEquals(serial.getErrorChunks(), pipelined.getErrorChunks());
+        assertEquals(1, pipelined.getMissingChunks().size());
+        assertEquals(1, pipelined.getErrorChunks().size());
+        assertEquals("Corrupt chunk", pipelined.getLastErrorMessage());
+        assertFalse(pipelined.hadTotalFailure());
+    }
+
+    @Test
+    public void testUnsafeStoreIsSerialized() throws Exception {
+        TestChunkStore store = new TestChunkStore(false);
+        SnapshotRestore restore = new SnapshotRestore(store, editSession, REGION);
+        restore.setThreads(4);
+        restore.restore();
+        assertEquals(1, store.maxConcurrent.get());
+        // All blocks except those in the missing (5 x 2 x 5) and corrupt (16 x 2 x 16) chunks
+        assertEquals(41 * 2 * 41 - 5 * 2 * 5 - 16 * 2 * 16, applied.size());
+    }
+
+    @Test
+    public void testMaskedRegion() throws Exception {
+        EllipsoidRegion region = new EllipsoidRegion(new Vector(0, 10, 0), new Vector(20, 3, 20));
+        when(editSession.getMask()).thenReturn(new AbstractMask() {
+            @Override
+            public boolean test(Vector vector) {
+                return vector.getBlockX() >= 8;
+            }
+
+            @Nullable
+            @Override
+            public Mask2D toMask2D() {
+                return null;
+            }
+        });
+
+        Set<Vector> expected = new HashSet<Vector>();
+        Set<Vector2D> expectedChunks = new HashSet<Vector2D>();
+        for (Vector pos : region) {
+            if (pos.getBlockX() >= 8 && !ChunkStore.toChunk(pos).equals(new Vector2D(1, 1))
+                    && !ChunkStore.toChunk(pos).equals(new Vector2D(-1, 0))) {
+                expected.add(pos);
+            }
+            if (pos.getBlockX() >= 8) {
+                expectedChunks.add(ChunkStore.toChunk(pos));
+            }
+        }
+
+        SnapshotRestore restore = new SnapshotRestore(new TestChunkStore(true), editSession, region);
+        restore.restore();
+
+        assertEquals(expectedChunks.size(), restore.getChunksAffected());
+        assertEquals(expected.size(), applied.size());
+        assertEquals(expected, new HashSet<Vector>(applied));
+    }
+
+    @Test
+    public void testDifferential() throws Exception {
+        // Blocks with an even Z coordinate already match the snapshot
+        when(editSession.getLazyBlock(any(Vector.class))).thenAnswer(new Answer<BaseBlock>() {
+            @Override
+            public BaseBlock answer(InvocationOnMock invocation) throws Throwable {
+                Vector position = (Vector) invocation.getArguments()[0];
+                return new BaseBlock(position.getBlockZ() % 2 == 0 ? position.getBlockX() & 0xFF : 1);
+            }
+        });
+
+        SnapshotRestore restore = new SnapshotRestore(new TestChunkStore(true), editSession, REGION);
+        restore.setDifferential(true);
+        restore.restore();
+
+        int expectedChanged = 0;
+        for (Vector pos : applied) {
+            assertTrue(pos.getBlockZ() % 2 != 0);
+            if ((pos.getBlockX() & 0xFF) != 1) {
+                expectedChanged++;
+            }
+        }
+        assertEquals(expectedChanged, applied.size());
+        assertEquals(applied.size(), restore.getChangedBlocks());
+        assertEquals(41 * 2 * 41 - 5 * 2 * 5 - 16 * 2 * 16, restore.getChangedBlocks() + restore.getUnchangedBlocks());
+        assertEquals(0, restore.getSkippedBlocks());
+    }
+
+    @Test
+    public void testRejectedBlocks() throws Exception {
+        // Blocks with an even Z coordinate already match the snapshot and
+        // the edit session reports no change for them, like MultiStageReorder
+        // does; blocks with a Z coordinate of 1 are rejected
+        when(editSession.getLazyBlock(any(Vector.class))).thenAnswer(new Answer<BaseBlock>() {
+            @Override
+            public BaseBlock answer(InvocationOnMock invocation) throws Throwable {
+                Vector position = (Vector) invocation.getArguments()[0];
+                return new BaseBlock(position.getBlockZ() % 2 == 0 ? position.getBlockX() & 0xFF : 300);
+            }
+        });
+        doAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                Vector position = (Vector) invocation.getArguments()[0];
+                return position.getBlockZ() % 2 != 0 && position.getBlockZ() != 1;
+            }
+        }).when(editSession).setBlock(any(Vector.class), any(BaseBlock.class));
+
+        SnapshotRestore restore = new SnapshotRestore(new TestChunkStore(true), editSession, REGION);
+        restore.restore();
+
+        int expectedUnchanged = 0;
+        int expectedSkipped = 0;
+        int expectedChanged = 0;
+        for (Vector pos : REGION) {
+            Vector2D chunk = ChunkStore.toChunk(pos);
+            if (chunk.equals(new Vector2D(1, 1)) || chunk.equals(new Vector2D(-1, 0))) {
+                continue;
+            }
+            if (pos.getBlockZ() % 2 == 0) {
+                expectedUnchanged++;
+            } else if (pos.getBlockZ() == 1) {
+                expectedSkipped++;
+            } else {
+                expectedChanged++;
+            }
+        }
+        assertEquals(expectedChanged, restore.getChangedBlocks());
+        assertEquals(expectedUnchanged, restore.getUnchangedBlocks());
+        assertEquals(expectedSkipped, restore.getSkippedBlocks());
+    }
+
+    @Test
+    public void testWindowSize() throws Exception {
+        SnapshotRestore restore = new SnapshotRestore(new TestChunkStore(true), editSession, REGION);
+        restore.setChunksInFlight(8);
+        restore.setMemoryLimit(SnapshotRestore.ESTIMATED_CHUNK_SIZE * 3);
+        assertEquals(3, restore.getWindowSize());
+        restore.setMemoryLimit(0);
+        assertEquals(1, restore.getWindowSize());
+        restore.setMemoryLimit(Long.MAX_VALUE);
+        assertEquals(8, restore.getWindowSize());
+    }
+
+    /**
+     * A chunk store that returns chunks whose block IDs are derived from the
+     * X coordinate, with one missing and one corrupt chunk.
+     */
+    private static class TestChunkStore extends ChunkStore {
+        private final boolean threadSafe;
+        private final AtomicInteger concurrent = new AtomicInteger();
+        private final AtomicInteger maxConcurrent = new AtomicInteger();
+
+        private TestChunkStore(boolean threadSafe) {
+            this.threadSafe = threadSafe;
+        }
+
+        @Override
+        public Chunk getChunk(Vector2D position, World world) throws DataException, IOException {
+            int count = concurrent.incrementAndGet();
+            try {
+                int max;
+                do {
+                    max = maxConcurrent.get();
+                } while (count > max && !maxConcurrent.compareAndSet(max, count));
+                Thread.sleep(2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                concurrent.decrementAndGet();
+            }
+
+            if (position.getBlockX() == 1 && position.getBlockZ() == 1) {
+                throw new MissingChunkException();
+            } else if (position.getBlockX() == -1 && position.getBlockZ() == 0) {
+                throw new DataException("Corrupt chunk");
+            }
+            return new TestChunk();
+        }
+
+        @Override
+        public CompoundTag getChunkTag(Vector2D position, World world) throws DataException, IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isThreadSafe() {
+            return threadSafe;
+        }
+
+        @Override
+        public boolean isValid() {
+            return true;
+        }
+    }
+
+    private static class TestChunk implements Chunk {
+        @Override
+        public int getBlockID(Vector position) throws DataException {
+            return position.getBlockX() & 0xFF;
+        }
+
+        @Override
+        public int getBlockData(Vector position) throws DataException {
+            return 0;
+        }
+
+        @Override
+        public BaseBlock getBlock(Vector position) throws DataException {
+            return new BaseBlock(getBlockID(position));
+        }
+    }
+
+}
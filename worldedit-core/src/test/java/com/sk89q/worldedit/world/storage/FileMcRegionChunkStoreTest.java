@@ -0,0 +1,182 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.world.storage;
+
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.IntTag;
+import com.sk89q.jnbt.NBTOutputStream;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.Vector2D;
+import com.sk89q.worldedit.world.DataException;
+import com.sk89q.worldedit.world.World;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests {@link FileMcRegionChunkStore}.
+ */
+public class FileMcRegionChunkStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File worldFolder;
+    private World world;
+
+    @Before
+    public void setUp() throws Exception {
+        worldFolder = folder.newFolder("world");
+        File regionFolder = new File(worldFolder, "region");
+        assertTrue(regionFolder.mkdir());
+
+        writeRegion(new File(regionFolder, "r.0.0.mca"), 0);
+        writeRegion(new File(regionFolder, "r.1.0.mcr"), 32);
+
+        world = mock(World.class);
+        when(world.getName()).thenReturn("world");
+    }
+
+    @Test
+    public void testReadChunks() throws Exception {
+        FileMcRegionChunkStore store = new FileMcRegionChunkStore(worldFolder);
+        try {
+            // Read out of file order to ensure that seeking backwards works
+            assertEquals(3, getMarker(store, new Vector2D(3, 1)));
+            assertEquals(0, getMarker(store, new Vector2D(0, 0)));
+            assertEquals(35, getMarker(store, new Vector2D(35, 1)));
+            assertEquals(32, getMarker(store, new Vector2D(32, 0)));
+            assertEquals(2, store.getMappedCount());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testMappingCacheIsBounded() throws Exception {
+        FileMcRegionChunkStore store = new FileMcRegionChunkStore(worldFolder, 1);
+        try {
+            assertEquals(0, getMarker(store, new Vector2D(0, 0)));
+            assertEquals(32, getMarker(store, new Vector2D(32, 0)));
+            assertEquals(3, getMarker(store, new Vector2D(3, 1)));
+            assertEquals(1, store.getMappedCount());
+        } finally {
+            store.close();
+        }
+        assertEquals(0, store.getMappedCount());
+    }
+
+    @Test
+    public void testMissingChunks() throws Exception {
+        FileMcRegionChunkStore store = new FileMcRegionChunkStore(worldFolder);
+        try {
+            try {
+                store.getChunkTag(new Vector2D(5, 5), world);
+                fail("Expected an ungenerated chunk to fail");
+            } catch (DataException e) {
+                assertEquals("The chunk at 5,5 is not generated", e.getMessage());
+            }
+            try {
+                store.getChunkTag(new Vector2D(-1, 0), world);
+                fail("Expected a chunk in a missing region file to fail");
+            } catch (MissingChunkException ignored) {
+            }
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testChunkData() throws Exception {
+        MappedMcRegionReader reader = new MappedMcRegionReader(new File(worldFolder, "region/r.0.0.mca"));
+        assertTrue(reader.hasChunk(0, 0));
+        assertTrue(reader.hasChunk(3, 1));
+        assertFalse(reader.hasChunk(5, 5));
+        assertEquals(compress(0, McRegionReader.VERSION_DEFLATE).length, reader.getChunkData(new Vector2D(0, 0)).remaining());
+    }
+
+    private int getMarker(ChunkStore store, Vector2D position) throws DataException, IOException {
+        CompoundTag level = store.getChunkTag(position, world);
+        return level.getInt("Marker");
+    }
+
+    /**
+     * Write a region file with chunks at (0, 0) and (3, 1) of the region.
+     *
+     * @param file the file
+     * @param markerOffset added to the chunk's X coordinate to get its marker
+     * @throws IOException thrown on I/O error
+     */
+    static void writeRegion(File file, int markerOffset) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(2 * McRegionReader.SECTOR_BYTES);
+            // Store the second chunk first so that the header order differs from the file order
+            writeChunk(raf, 3, 1, 2, compress(3 + markerOffset, McRegionReader.VERSION_GZIP), McRegionReader.VERSION_GZIP);
+            writeChunk(raf, 0, 0, 3, compress(markerOffset, McRegionReader.VERSION_DEFLATE), McRegionReader.VERSION_DEFLATE);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void writeChunk(RandomAccessFile raf, int x, int z, int sector, byte[] data, int version) throws IOException {
+        int numSectors = (data.length + McRegionReader.CHUNK_HEADER_SIZE) / McRegionReader.SECTOR_BYTES + 1;
+        raf.seek(4 * (x + z * 32));
+        raf.writeInt(sector << 8 | numSectors);
+        raf.seek((long) sector * McRegionReader.SECTOR_BYTES);
+        raf.writeInt(data.length + 1);
+        raf.writeByte(version);
+        raf.write(data);
+        raf.setLength((long) (sector + numSectors) * McRegionReader.SECTOR_BYTES);
+    }
+
+    private static byte[] compress(int marker, int version) throws IOException {
+        Map<String, Tag> levelValues = new HashMap<String, Tag>();
+        levelValues.put("Marker", new IntTag(marker));
+        Map<String, Tag> rootValues = new HashMap<String, Tag>();
+        rootValues.put("Level", new CompoundTag(levelValues));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = version == McRegionReader.VERSION_GZIP ? new GZIPOutputStream(bytes) : new DeflaterOutputStream(bytes);
+        NBTOutputStream nbt = new NBTOutputStream(out);
+        nbt.writeNamedTag("", new CompoundTag(rootValues));
+        nbt.close();
+        return bytes.toByteArray();
+    }
+
+}
@@ -0,0 +1,197 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.sk89q.worldedit.world.storage;
+
+import com.google.common.io.Files;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.worldedit.Vector2D;
+import com.sk89q.worldedit.world.DataException;
+import com.sk89q.worldedit.world.World;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests {@link ZippedMcRegionChunkStore}.
+ */
+public class ZippedMcRegionChunkStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File firstRegion;
+    private File zipFile;
+    private World world;
+
+    @Before
+    public void setUp() throws Exception {
+        File regionFolder = folder.newFolder("region");
+        firstRegion = new File(regionFolder, "r.0.0.mca");
+        File second = new File(regionFolder, "r.1.0.mca");
+        FileMcRegionChunkStoreTest.writeRegion(firstRegion, 0);
+        FileMcRegionChunkStoreTest.writeRegion(second, 32);
+
+        zipFile = folder.newFile("snapshot.zip");
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zipFile));
+        try {
+            out.putNextEntry(new ZipEntry("world/level.dat"));
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("world/region/r.0.0.mca"));
+            Files.copy(firstRegion, out);
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("world/region/r.1.0.mca"));
+            Files.copy(second, out);
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+
+        world = mock(World.class);
+        when(world.getName()).thenReturn("world");
+    }
+
+    @Test
+    public void testRegionsAreExtractedOnce() throws Exception {
+        ZippedMcRegionChunkStore store = new ZippedMcRegionChunkStore(zipFile);
+        try {
+            // Read out of file order to ensure that seeking backwards works
+            assertEquals(3, getMarker(store, new Vector2D(3, 1)));
+            assertEquals(0, getMarker(store, new Vector2D(0, 0)));
+            assertEquals(35, getMarker(store, new Vector2D(35, 1)));
+            assertEquals(32, getMarker(store, new Vector2D(32, 0)));
+            assertEquals(3, getMarker(store, new Vector2D(3, 1)));
+            assertEquals(2, store.getExtractedCount());
+        } finally {
+            store.close();
+        }
+        assertEquals(0, store.getCachedBytes());
+    }
+
+    @Test
+    public void testCacheIsBounded() throws Exception {
+        final ZipFile zip = new ZipFile(zipFile);
+        ArchiveMcRegionChunkStore store = new ArchiveMcRegionChunkStore(0) {
+            @Override
+            protected InputStream getInputStream(String name, String worldName) throws IOException, DataException {
+                ZipEntry entry = zip.getEntry(worldName + "/region/" + name);
+                if (entry == null) {
+                    throw new MissingChunkException();
+                }
+                return zip.getInputStream(entry);
+            }
+
+            @Override
+            public boolean isValid() {
+                return true;
+            }
+        };
+        try {
+            assertEquals(0, getMarker(store, new Vector2D(0, 0)));
+            assertEquals(3, getMarker(store, new Vector2D(3, 1)));
+            assertEquals(1, store.getExtractedCount());
+            assertEquals(32, getMarker(store, new Vector2D(32, 0)));
+            assertEquals(0, getMarker(store, new Vector2D(0, 0)));
+            assertEquals(3, store.getExtractedCount());
+            // Only the most recently used region is kept
+            assertEquals(firstRegion.length(), store.getCachedBytes());
+        } finally {
+            store.close();
+            zip.close();
+        }
+    }
+
+    @Test
+    public void testConcurrentReadsExtractOnce() throws Exception {
+        final ZippedMcRegionChunkStore store = new ZippedMcRegionChunkStore(zipFile);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < 64; i++) {
+                final Vector2D position = new Vector2D(i % 2 == 0 ? 3 : 35, 1);
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        return getMarker(store, position);
+                    }
+                }));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals(i % 2 == 0 ? 3 : 35, (int) results.get(i).get());
+            }
+            assertEquals(2, store.getExtractedCount());
+        } finally {
+            executor.shutdown();
+            store.close();
+        }
+    }
+
+    @Test
+    public void testFolderCache() throws Exception {
+        Map<String, String> folders = new HashMap<String, String>();
+
+        ZippedMcRegionChunkStore store = new ZippedMcRegionChunkStore(zipFile);
+        store.setFolderCache(folders);
+        try {
+            assertEquals(0, getMarker(store, new Vector2D(0, 0)));
+        } finally {
+            store.close();
+        }
+        assertEquals("world/region", folders.get("world"));
+
+        // A folder that was found before is used without searching again
+        folders.put("world", "missing");
+        store = new ZippedMcRegionChunkStore(zipFile);
+        store.setFolderCache(folders);
+        try {
+            getMarker(store, new Vector2D(0, 0));
+            fail("Expected the cached folder to be used");
+        } catch (MissingChunkException ignored) {
+        } finally {
+            store.close();
+        }
+    }
+
+    private int getMarker(ChunkStore store, Vector2D position) throws DataException, IOException {
+        CompoundTag level = store.getChunkTag(position, world);
+        return level.getInt("Marker");
+    }
+
+}
@@ -24,6 +24,7 @@
 import com.google.common.io.Files;
 import com.sk89q.jnbt.CompoundTag;
 import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.BlockVector2D;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.MaxChangedBlocksException;
 import com.sk89q.worldedit.Vector;
@@ -44,6 +45,7 @@
 import com.sk89q.worldedit.util.TreeGenerator.TreeType;
 import com.sk89q.worldedit.world.AbstractWorld;
 import com.sk89q.worldedit.world.biome.BaseBiome;
+import com.sk89q.worldedit.world.chunk.SectionBuffer;
 import com.sk89q.worldedit.world.registry.WorldData;
 import net.minecraft.block.Block;
 import net.minecraft.block.BlockLeaves;
@@ -208,6 +210,65 @@ public boolean setBlock(Vector position, BaseBlock block, boolean notifyAndLight
         return successful;
     }
 
+    @Override
+    public int setBlocks(BlockVector2D chunkPosition, SectionBuffer section, boolean notifyAndLight) throws WorldEditException {
+        checkNotNull(chunkPosition);
+        checkNotNull(section);
+
+        World world = getWorldChecked();
+        int baseX = chunkPosition.getBlockX() << 4;
+        int baseY = section.getSectionY() << 4;
+        int baseZ = chunkPosition.getBlockZ() << 4;
+
+        // Look the chunk up once for the whole section
+        Chunk chunk = world.getChunk(chunkPosition.getBlockX(), chunkPosition.getBlockZ());
+        BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+        List<BlockPos> changedPositions = new ArrayList<BlockPos>();
+        List<IBlockState> oldStates = new ArrayList<IBlockState>();
+        List<IBlockState> newStates = new ArrayList<IBlockState>();
+
+        for (int i = 0; i < section.size(); i++) {
+            BaseBlock block = section.getBlock(i);
+            pos.setPos(baseX + section.getX(i), baseY + section.getY(i), baseZ + section.getZ(i));
+            IBlockState old = chunk.getBlockState(pos);
+            @SuppressWarnings("deprecation")
+            IBlockState newState = Block.getBlockById(block.getId()).getStateFromMeta(block.getData());
+            IBlockState successState = chunk.setBlockState(pos, newState);
+            if (successState == null && old != newState) {
+                continue;
+            }
+
+            BlockPos changed = pos.toImmutable();
+            if (block.hasNbtData()) {
+                // Kill the old TileEntity
+                world.removeTileEntity(changed);
+                NBTTagCompound nativeTag = NBTConverter.toNative(block.getNbtData());
+                nativeTag.setString("id", block.getNbtId());
+                TileEntityUtils.setTileEntity(world, new Vector(changed.getX(), changed.getY(), changed.getZ()), nativeTag);
+            }
+
+            changedPositions.add(changed);
+            oldStates.add(old);
+            newStates.add(newState);
+        }
+
+        if (notifyAndLight) {
+            // Notify once every block of the section is in place, and only
+            // relight blocks whose light properties changed
+            for (int i = 0; i < changedPositions.size(); i++) {
+                BlockPos changed = changedPositions.get(i);
+                IBlockState old = oldStates.get(i);
+                IBlockState newState = newStates.get(i);
+                if (old.getLightOpacity() != newState.getLightOpacity() || old.getLightValue() != newState.getLightValue()) {
+                    world.checkLight(changed);
+                }
+                world.markAndNotifyBlock(changed, chunk, old, newState, UPDATE | NOTIFY);
+            }
+        }
+
+        return changedPositions.size();
+    }
+
     @Override
     public int getBlockLightLevel(Vector position) {
         checkNotNull(position);
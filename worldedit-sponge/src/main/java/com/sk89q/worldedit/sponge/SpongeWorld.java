@@ -22,6 +22,7 @@
 import com.flowpowered.math.vector.Vector3d;
 import com.flowpowered.math.vector.Vector3i;
 import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.BlockVector2D;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.MaxChangedBlocksException;
 import com.sk89q.worldedit.Vector;
@@ -36,6 +37,7 @@
 import com.sk89q.worldedit.util.Location;
 import com.sk89q.worldedit.world.AbstractWorld;
 import com.sk89q.worldedit.world.biome.BaseBiome;
+import com.sk89q.worldedit.world.chunk.SectionBuffer;
 import com.sk89q.worldedit.world.registry.WorldData;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,7 +51,9 @@
 import org.spongepowered.api.data.property.block.SkyLuminanceProperty;
 import org.spongepowered.api.entity.EntityType;
 import org.spongepowered.api.entity.EntityTypes;
+import org.spongepowered.api.world.BlockChangeFlag;
 import org.spongepowered.api.world.BlockChangeFlags;
+import org.spongepowered.api.world.Chunk;
 import org.spongepowered.api.world.SerializationBehaviors;
 import org.spongepowered.api.world.World;
 import org.spongepowered.api.world.WorldArchetype;
@@ -151,6 +155,39 @@ public boolean setBlock(Vector position, BaseBlock block, boolean notifyAndLight
         return true;
     }
 
+    @Override
+    public int setBlocks(BlockVector2D chunkPosition, SectionBuffer section, boolean notifyAndLight) throws WorldEditException {
+        checkNotNull(chunkPosition);
+        checkNotNull(section);
+
+        World world = getWorldChecked();
+
+        // Look the chunk up once for the whole section
+        Optional<Chunk> chunk = world.loadChunk(chunkPosition.getBlockX(), 0, chunkPosition.getBlockZ(), true);
+        if (!chunk.isPresent()) {
+            return super.setBlocks(chunkPosition, section, notifyAndLight);
+        }
+
+        BlockChangeFlag flag = notifyAndLight ? BlockChangeFlags.ALL : BlockChangeFlags.NONE;
+        int baseX = chunkPosition.getBlockX() << 4;
+        int baseY = section.getSectionY() << 4;
+        int baseZ = chunkPosition.getBlockZ() << 4;
+        int changed = 0;
+        for (int i = 0; i < section.size(); i++) {
+            BaseBlock block = section.getBlock(i);
+            Vector3i pos = new Vector3i(baseX + section.getX(i), baseY + section.getY(i), baseZ + section.getZ(i));
+            if (chunk.get().setBlock(pos, getBlockState(block), flag)) {
+                changed++;
+            }
+
+            // Create the TileEntity
+            if (block.hasNbtData()) {
+                chunk.get().getTileEntity(pos).ifPresent(tileEntity -> applyTileEntityData(tileEntity, block));
+            }
+        }
+        return changed;
+    }
+
     @Override
     public boolean regenerate(Region region, EditSession editSession) {
         Server server = Sponge.getServer();
@@ -31,6 +31,7 @@
 import org.slf4j.Logger;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
 
 public class ConfigurateConfiguration extends LocalConfiguration {
@@ -61,6 +62,7 @@ public void load() {
 
         defaultChangeLimit = Math.max(-1, node.getNode("limits", "max-blocks-changed", "default").getInt(defaultChangeLimit));
         maxChangeLimit = Math.max(-1, node.getNode("limits", "max-blocks-changed", "maximum").getInt(maxChangeLimit));
+        searchMemoryLimit = Math.max(-1, node.getNode("limits", "max-search-memory").getInt(searchMemoryLimit));
 
         defaultMaxPolygonalPoints = Math.max(-1, node.getNode("limits", "max-polygonal-points", "default").getInt(defaultMaxPolygonalPoints));
         maxPolygonalPoints = Math.max(-1, node.getNode("limits", "max-polygonal-points", "maximum").getInt(maxPolygonalPoints));
@@ -109,6 +111,22 @@ public void load() {
         allowSymlinks = node.getNode("files", "allow-symbolic-links").getBoolean(false);
         LocalSession.MAX_HISTORY_SIZE = Math.max(0, node.getNode("history", "size").getInt(15));
         SessionManager.EXPIRATION_GRACE = node.getNode("history", "expiration").getInt(10) * 60 * 1000;
+        defaultHistoryMemoryLimit = Math.max(-1, node.getNode("history", "memory-limit", "default").getInt(defaultHistoryMemoryLimit));
+        maxHistoryMemoryLimit = Math.max(-1, node.getNode("history", "memory-limit", "maximum").getInt(maxHistoryMemoryLimit));
+
+        sessionStore = node.getNode("sessions", "store").getString(sessionStore);
+
+        operationTickLimit = Math.max(1, node.getNode("operations", "time-per-tick").getInt(operationTickLimit));
+        asyncCommands = node.getNode("operations", "async", "enabled").getBoolean(asyncCommands);
+        asyncCommandThreads = Math.max(1, node.getNode("operations", "async", "threads").getInt(asyncCommandThreads));
+        asyncQueueLimit = Math.max(1, node.getNode("operations", "async", "queue-limit").getInt(asyncQueueLimit));
+        try {
+            asyncCommandNames = new HashSet<>(node.getNode("operations", "async", "commands").getList(TypeToken.of(String.class), new ArrayList<>(asyncCommandNames)));
+        } catch (ObjectMappingException e) {
+            logger.warn("Error loading WorldEdit configuration", e);
+        }
+
+        expressionCacheSize = Math.max(0, node.getNode("expressions", "cache-size").getInt(expressionCacheSize));
 
         showHelpInfo = node.getNode("show-help-on-first-use").getBoolean(true);
 
@@ -116,6 +134,10 @@ public void load() {
         if (!snapshotsDir.isEmpty()) {
             snapshotRepo = new SnapshotRepository(snapshotsDir);
         }
+        snapshotRestoreDifferential = node.getNode("snapshots", "restore", "differential").getBoolean(snapshotRestoreDifferential);
+        snapshotRestoreThreads = Math.max(0, node.getNode("snapshots", "restore", "threads").getInt(snapshotRestoreThreads));
+        snapshotRestoreChunksInFlight = Math.max(1, node.getNode("snapshots", "restore", "chunks-in-flight").getInt(snapshotRestoreChunksInFlight));
+        snapshotRestoreMemoryLimit = Math.max(0, node.getNode("snapshots", "restore", "memory-limit").getInt(snapshotRestoreMemoryLimit));
 
         String type = node.getNode("shell-save-type").getString("").trim();
         shellSaveType = type.equals("") ? null : type;